@@ -0,0 +1,190 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.models.IllDefinedDataPointsException;
+import mpicbg.models.Model;
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.PointMatch;
+
+/**
+ * RANSAC with an adaptive number of iterations, otherwise equivalent to {@link Model#filterRansac}. The
+ * number of iterations is the number of random minimal samples that is required to draw at least one
+ * sample of inliers only with the requested confidence, given the best inlier ratio observed so far.
+ * Before any acceptable model is found, the minimal acceptable inlier ratio, i.e. the larger of
+ * minInlierRatio and minNumInliers / candidates, bounds the number of iterations, so pairs that do not
+ * match stop early.
+ */
+public class AdaptiveRansac {
+
+	public static final long DEFAULT_SEED = 69997;
+
+	/**
+	 * @param inlierRatio ratio of inliers among candidates
+	 * @param sampleSize size of minimal sample
+	 * @param confidence probability of drawing at least one minimal sample of inliers only
+	 * @param maxIterations upper bound for result
+	 * @return number of iterations required to reach confidence, at most maxIterations
+	 */
+	public static int requiredIterations( final double inlierRatio, final int sampleSize, final double confidence, final int maxIterations ) {
+		if ( inlierRatio >= 1.0 )
+			return 1;
+		final double allInliers = Math.pow( inlierRatio, sampleSize );
+		if ( allInliers <= 0.0 )
+			return maxIterations;
+		final double iterations = Math.ceil( Math.log( 1.0 - confidence ) / Math.log( 1.0 - allInliers ) );
+		return iterations < maxIterations ? Math.max( 1, (int)iterations ) : maxIterations;
+	}
+
+	/**
+	 * Adaptive RANSAC followed by {@link Model#filter}.
+	 * @param model model that will be fit to inliers
+	 * @param candidates candidate matches
+	 * @param inliers output parameter for inliers
+	 * @param maxIterations maximum number of iterations
+	 * @param confidence confidence for adaptive number of iterations
+	 * @param maxEpsilon maximal allowed transfer error
+	 * @param minInlierRatio minimal ratio of inliers to candidates
+	 * @param minNumInliers minimally required absolute number of inliers
+	 * @param maxTrust reject candidates with a cost larger than maxTrust * median cost
+	 * @param rng random number generator for drawing minimal samples
+	 * @return true if a model was found
+	 * @throws NotEnoughDataPointsException if there are less candidates than required for a minimal sample
+	 */
+	public static < M extends Model< M > > boolean filterRansac(
+			final M model,
+			final List< PointMatch > candidates,
+			final Collection< PointMatch > inliers,
+			final int maxIterations,
+			final double confidence,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final double maxTrust,
+			final Random rng ) throws NotEnoughDataPointsException {
+		final ArrayList< PointMatch > temp = new ArrayList< PointMatch >();
+		if ( ransac( model, candidates, temp, maxIterations, confidence, maxEpsilon, minInlierRatio, minNumInliers, rng ) &&
+				model.filter( temp, inliers, maxTrust, minNumInliers ) )
+			return true;
+		inliers.clear();
+		return false;
+	}
+
+	/**
+	 * Adaptive RANSAC, see {@link AdaptiveRansac}.
+	 * @return true if a model was found, model is set to the best model
+	 * @throws NotEnoughDataPointsException if there are less candidates than required for a minimal sample
+	 */
+	public static < M extends Model< M > > boolean ransac(
+			final M model,
+			final List< PointMatch > candidates,
+			final Collection< PointMatch > inliers,
+			final int maxIterations,
+			final double confidence,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final Random rng ) throws NotEnoughDataPointsException {
+		return ransac( model, candidates, inliers, maxIterations, confidence, maxEpsilon, minInlierRatio, minNumInliers, rng, null );
+	}
+
+	/**
+	 * Adaptive RANSAC, see {@link AdaptiveRansac}. As in {@link Model#ransac}, a model replaces the best model
+	 * so far if it is {@link Model#betterThan better}, i.e. if it has more inliers.
+	 * @param numberOfIterations output parameter for the number of iterations that were run, may be null
+	 * @return true if a model was found, model is set to the best model
+	 * @throws NotEnoughDataPointsException if there are less candidates than required for a minimal sample
+	 */
+	public static < M extends Model< M > > boolean ransac(
+			final M model,
+			final List< PointMatch > candidates,
+			final Collection< PointMatch > inliers,
+			final int maxIterations,
+			final double confidence,
+			final double maxEpsilon,
+			final double minInlierRatio,
+			final int minNumInliers,
+			final Random rng,
+			final int[] numberOfIterations ) throws NotEnoughDataPointsException {
+		final int sampleSize = model.getMinNumMatches();
+		final int n = candidates.size();
+		if ( n < sampleSize )
+			throw new NotEnoughDataPointsException( n + " data points are not enough to solve the Model, at least " + sampleSize + " data points required." );
+
+		inliers.clear();
+		if ( numberOfIterations != null )
+			numberOfIterations[ 0 ] = 0;
+		// not a single acceptable model is possible
+		if ( n < minNumInliers )
+			return false;
+
+		final M best = model.copy();
+		final M m    = model.copy();
+		// cost of model may be left over from a previous fit
+		best.setCost( Double.MAX_VALUE );
+		final ArrayList< PointMatch > sample       = new ArrayList< PointMatch >( sampleSize );
+		final ArrayList< PointMatch > tempInliers  = new ArrayList< PointMatch >();
+		final int[] sampleIndices = new int[ sampleSize ];
+		final double minAcceptableRatio = Math.max( minInlierRatio, (double)minNumInliers / n );
+		int iterations = requiredIterations( minAcceptableRatio, sampleSize, confidence, maxIterations );
+
+		int i = 0;
+		A: for ( ; i < iterations; ++i ) {
+			// draw minimal sample without replacement
+			sample.clear();
+			for ( int j = 0; j < sampleSize; ++j ) {
+				int index;
+				boolean isDrawn;
+				do {
+					index = rng.nextInt( n );
+					isDrawn = false;
+					for ( int k = 0; k < j; ++k )
+						isDrawn |= sampleIndices[ k ] == index;
+				} while ( isDrawn );
+				sampleIndices[ j ] = index;
+				sample.add( candidates.get( index ) );
+			}
+
+			try {
+				m.fit( sample );
+			} catch ( final IllDefinedDataPointsException e ) {
+				continue;
+			}
+
+			// refit to inliers as long as their number increases
+			int numInliers = 0;
+			boolean isGood = m.test( candidates, tempInliers, maxEpsilon, minInlierRatio );
+			while ( isGood && numInliers < tempInliers.size() ) {
+				numInliers = tempInliers.size();
+				try {
+					m.fit( tempInliers );
+				} catch ( final IllDefinedDataPointsException e ) {
+					continue A;
+				}
+				isGood = m.test( candidates, tempInliers, maxEpsilon, minInlierRatio, minNumInliers );
+			}
+
+			// test sets the cost to 1 - inlier ratio
+			if ( isGood && m.betterThan( best ) && tempInliers.size() >= minNumInliers ) {
+				best.set( m );
+				inliers.clear();
+				inliers.addAll( tempInliers );
+				iterations = Math.min( iterations, requiredIterations( (double)inliers.size() / n, sampleSize, confidence, maxIterations ) );
+			}
+		}
+
+		if ( numberOfIterations != null )
+			numberOfIterations[ 0 ] = i;
+		if ( inliers.size() == 0 )
+			return false;
+		model.set( best );
+		return true;
+	}
+
+}
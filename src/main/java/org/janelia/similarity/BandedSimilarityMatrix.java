@@ -0,0 +1,201 @@
+/**
+ * 
+ */
+package org.janelia.similarity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * {@link SimilarityMatrixInterface} that stores only entries within range of the diagonal, i.e. similarities
+ * between sections i and j with |i - j| &lt; range, in a single primitive array. Memory scales with
+ * n*range instead of n*n. All other entries are NaN and cannot be set.
+ */
+public class BandedSimilarityMatrix implements SimilarityMatrixInterface {
+	
+	private static final int MAGIC = 0x42534d58; // "BSMX"
+	
+	private static final int VERSION = 1;
+	
+	private final int n;
+	
+	private final int range;
+	
+	// values[ i * range + ( j - i ) ] holds similarity between i and j for i <= j < i + range
+	private final float[] values;
+	
+	/**
+	 * Create {@link BandedSimilarityMatrix} filled with NaN.
+	 * @param n number of sections
+	 * @param range store similarities for sections i, j with |i - j| &lt; range
+	 */
+	public BandedSimilarityMatrix( final int n, final int range ) {
+		super();
+		if ( (long)n * range > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( String.format( "Cannot store band of %d x %d similarities in one array.", n, range ) );
+		this.n = n;
+		this.range = range;
+		this.values = new float[ n * range ];
+		Arrays.fill( this.values, Float.NaN );
+	}
+	
+	/**
+	 * @return number of stored diagonals (including main diagonal)
+	 */
+	public int getRange() {
+		return range;
+	}
+	
+	/**
+	 * @param index1 section1
+	 * @param index2 section2
+	 * @return true if similarity between section1 and section2 is stored
+	 */
+	public boolean isInBand( final int index1, final int index2 ) {
+		return Math.abs( index1 - index2 ) < range;
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return n;
+	}
+
+	@Override
+	public float get( final int index1, final int index2 ) {
+		if ( !isInBand( index1, index2 ) )
+			return Float.NaN;
+		return index1 <= index2 ? values[ index1 * range + index2 - index1 ] : values[ index2 * range + index1 - index2 ];
+	}
+
+	@Override
+	public void set( final int index1, final int index2, final float similarity ) {
+		if ( !isInBand( index1, index2 ) )
+			throw new IndexOutOfBoundsException( String.format( "( %d, %d ) is not within band of range %d.", index1, index2, range ) );
+		if ( index1 <= index2 )
+			values[ index1 * range + index2 - index1 ] = similarity;
+		else
+			values[ index2 * range + index1 - index2 ] = similarity;
+	}
+
+	@Override
+	public int getMaxRowLength() {
+		return 2 * range - 1;
+	}
+
+	@Override
+	public int getRow( final int index, final int[] columns, final float[] similarities ) {
+		final int min = Math.max( 0, index - range + 1 );
+		final int max = Math.min( n, index + range );
+		int count = 0;
+		// below and on diagonal
+		for ( int j = min; j < index; ++j, ++count ) {
+			columns[ count ]      = j;
+			similarities[ count ] = values[ j * range + index - j ];
+		}
+		// above diagonal, contiguous in memory
+		for ( int j = index, offset = index * range; j < max; ++j, ++offset, ++count ) {
+			columns[ count ]      = j;
+			similarities[ count ] = values[ offset ];
+		}
+		return count;
+	}
+
+	/**
+	 * @param n number of sections of result
+	 * @return new {@link BandedSimilarityMatrix} of same range with n sections: similarities between the first
+	 *         min(n, {@link #getNumberOfSections()}) sections are copied, all other entries are NaN
+	 */
+	public BandedSimilarityMatrix resize( final int n ) {
+		final BandedSimilarityMatrix result = new BandedSimilarityMatrix( n, range );
+		// layout is row major, so rows of the smaller matrix are a prefix of the rows of the larger matrix
+		System.arraycopy( values, 0, result.values, 0, Math.min( n, this.n ) * range );
+		if ( n < this.n ) {
+			// remove entries that point beyond the last section
+			for ( int i = Math.max( 0, n - range + 1 ); i < n; ++i )
+				for ( int j = n; j < i + range; ++j )
+					result.values[ i * range + j - i ] = Float.NaN;
+		}
+		return result;
+	}
+	
+	/**
+	 * Copy rows first &lt;= i &lt; stop from source, i.e. the similarities between sections i and j with
+	 * i &lt;= j &lt; i + range.
+	 * @param source {@link BandedSimilarityMatrix} of same size and range
+	 * @param first first row
+	 * @param stop rows first &lt;= i &lt; stop are copied
+	 */
+	public void setRows( final BandedSimilarityMatrix source, final int first, final int stop ) {
+		if ( source.n != n || source.range != range )
+			throw new IllegalArgumentException( String.format(
+					"Cannot copy rows from matrix of size %d and range %d into matrix of size %d and range %d.",
+					source.n, source.range, n, range ) );
+		System.arraycopy( source.values, first * range, values, first * range, ( stop - first ) * range );
+	}
+
+	/**
+	 * Write into binary file.
+	 * @param file output file, will be overwritten
+	 * @throws IOException
+	 */
+	public void write( final File file ) throws IOException {
+		final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( file ) ) );
+		try {
+			write( out );
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Read from binary file written by {@link #write(File)}.
+	 * @param file input file
+	 * @return {@link BandedSimilarityMatrix} stored in file
+	 * @throws IOException
+	 */
+	public static BandedSimilarityMatrix read( final File file ) throws IOException {
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		try {
+			return read( in );
+		} finally {
+			in.close();
+		}
+	}
+	
+	void write( final DataOutputStream out ) throws IOException {
+		out.writeInt( MAGIC );
+		out.writeInt( VERSION );
+		out.writeInt( n );
+		out.writeInt( range );
+		for ( final float value : values )
+			out.writeFloat( value );
+	}
+	
+	static BandedSimilarityMatrix read( final DataInputStream in ) throws IOException {
+		if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+			throw new IOException( "Not a banded similarity matrix of version " + VERSION );
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( in.readInt(), in.readInt() );
+		for ( int i = 0; i < matrix.values.length; ++i )
+			matrix.values[ i ] = in.readFloat();
+		return matrix;
+	}
+
+	@Override
+	public BandedSimilarityMatrix select( final int[] indices ) {
+		final BandedSimilarityMatrix result = new BandedSimilarityMatrix( indices.length, range );
+		for ( int i = 0; i < indices.length; ++i ) {
+			// indices are ascending, so indices[j] - indices[i] >= j - i and no stored entry can move out of the band
+			for ( int j = i; j < indices.length && indices[ j ] - indices[ i ] < range; ++j )
+				result.values[ i * range + j - i ] = get( indices[ i ], indices[ j ] );
+		}
+		return result;
+	}
+
+}
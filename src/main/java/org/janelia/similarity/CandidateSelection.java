@@ -0,0 +1,113 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.util.Arrays;
+import java.util.List;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Cheap content-based selection of candidate pairs for full feature matching. Each section is described by
+ * a global signature, a small block-averaged thumbnail normalized to zero mean and unit norm. The
+ * similarity of two signatures is their dot product, i.e. the normalized cross correlation of the
+ * thumbnails. For each section, the k sections with the most similar signatures anywhere in the stack
+ * become its candidates, independent of their index in the stack.
+ *
+ * Selection is exhaustive: each section is compared with all other sections, i.e. selecting candidates
+ * for all n sections costs n * n * size * size multiplications for thumbnails of width size. This is cheap
+ * compared to feature matching for stacks of a few thousand sections, but grows quadratically. For larger
+ * series, split the stack or match a fixed index window instead.
+ */
+public class CandidateSelection {
+
+	/**
+	 * @param ip section
+	 * @param size width and height of the thumbnail
+	 * @return size*size thumbnail of ip, averaged over blocks and normalized to zero mean and unit norm;
+	 *         all zero for constant sections
+	 */
+	public static float[] thumbnailSignature( final ImageProcessor ip, final int size ) {
+		final int width  = ip.getWidth();
+		final int height = ip.getHeight();
+		final float[] signature = new float[ size * size ];
+		double sum = 0.0;
+		for ( int y = 0, index = 0; y < size; ++y ) {
+			final int yMin = (int)( (long)y * height / size );
+			final int yMax = Math.max( yMin + 1, (int)( (long)( y + 1 ) * height / size ) );
+			for ( int x = 0; x < size; ++x, ++index ) {
+				final int xMin = (int)( (long)x * width / size );
+				final int xMax = Math.max( xMin + 1, (int)( (long)( x + 1 ) * width / size ) );
+				double blockSum = 0.0;
+				for ( int yy = yMin; yy < yMax && yy < height; ++yy )
+					for ( int xx = xMin; xx < xMax && xx < width; ++xx )
+						blockSum += ip.getf( xx, yy );
+				signature[ index ] = (float)( blockSum / ( ( xMax - xMin ) * ( yMax - yMin ) ) );
+				sum += signature[ index ];
+			}
+		}
+		final float mean = (float)( sum / signature.length );
+		double squaredNorm = 0.0;
+		for ( int i = 0; i < signature.length; ++i ) {
+			signature[ i ] -= mean;
+			squaredNorm += signature[ i ] * signature[ i ];
+		}
+		if ( squaredNorm > 0.0 ) {
+			final float scale = (float)( 1.0 / Math.sqrt( squaredNorm ) );
+			for ( int i = 0; i < signature.length; ++i )
+				signature[ i ] *= scale;
+		} else
+			Arrays.fill( signature, 0.0f );
+		return signature;
+	}
+
+
+	/**
+	 * @param signature1 signature of section1
+	 * @param signature2 signature of section2
+	 * @return normalized cross correlation of the signatures in [-1, 1]
+	 */
+	public static float correlation( final float[] signature1, final float[] signature2 ) {
+		float sum = 0.0f;
+		for ( int i = 0; i < signature1.length; ++i )
+			sum += signature1[ i ] * signature2[ i ];
+		return sum;
+	}
+
+
+	/**
+	 * @param signatures signatures of all sections
+	 * @param index section
+	 * @param k number of candidates
+	 * @return up to k sections other than index in descending order of signature correlation
+	 * @throws IllegalArgumentException if k &lt; 1
+	 */
+	public static int[] selectCandidates( final List< float[] > signatures, final int index, final int k ) {
+		if ( k < 1 )
+			throw new IllegalArgumentException( "Need at least one candidate per section but got " + k + "." );
+		final int n = signatures.size();
+		final int numberOfCandidates = Math.min( k, n - 1 );
+		final int[] candidates = new int[ numberOfCandidates ];
+		final float[] correlations = new float[ numberOfCandidates ];
+		final float[] signature = signatures.get( index );
+		int size = 0;
+		for ( int j = 0; j < n; ++j ) {
+			if ( j == index )
+				continue;
+			final float c = correlation( signature, signatures.get( j ) );
+			if ( size == numberOfCandidates && c <= correlations[ size - 1 ] )
+				continue;
+			// insertion into sorted list of current candidates
+			int position = size < numberOfCandidates ? size++ : numberOfCandidates - 1;
+			for ( ; position > 0 && correlations[ position - 1 ] < c; --position ) {
+				correlations[ position ] = correlations[ position - 1 ];
+				candidates[ position ]   = candidates[ position - 1 ];
+			}
+			correlations[ position ] = c;
+			candidates[ position ]   = j;
+		}
+		return candidates;
+	}
+
+}
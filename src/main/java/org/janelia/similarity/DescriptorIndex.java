@@ -0,0 +1,519 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+
+/**
+ * Nearest neighbor index over the SIFT descriptors of one section. The index is built once after feature
+ * extraction and re-used for all pairs the section takes part in. Descriptors and locations are copied into
+ * contiguous primitive arrays such that matching does not need to touch the {@link Feature} objects.
+ *
+ * Without trees, queries compare against all descriptors (exact) in blocks of queries and descriptors that
+ * stay in cache, with a distance kernel written for the JIT to unroll and vectorize. With trees, a randomized kd-forest is
+ * searched best-bin-first and at most maxChecks descriptors are compared per query (approximate): higher
+ * maxChecks trades speed for recall.
+ */
+public class DescriptorIndex {
+
+	public static final long DEFAULT_SEED = 100;
+
+	// maximum number of descriptors per leaf
+	private static final int LEAF_SIZE = 8;
+
+	// number of descriptors used for estimating variance per dimension when splitting
+	private static final int SAMPLE_SIZE = 100;
+
+	// split dimension is drawn from this many dimensions with highest variance
+	private static final int RANDOM_DIMENSIONS = 5;
+
+	// number of queries and descriptors per block of exact search, 128 SIFT descriptors take 64KB
+	private static final int QUERY_BLOCK      = 16;
+	private static final int DESCRIPTOR_BLOCK = 128;
+
+	private final int size;
+
+	private final int dimension;
+
+	private final float[] descriptors;
+
+	private final int locationDimension;
+
+	private final double[] locations;
+
+	// features at equal locations share the same id
+	private final int[] locationIds;
+
+	private final Tree[] trees;
+
+	/**
+	 * Create exact index.
+	 * @param features features of a section, all descriptors need to have the same length
+	 */
+	public DescriptorIndex( final List< Feature > features ) {
+		this( features, 0, DEFAULT_SEED );
+	}
+
+	/**
+	 * @param features features of a section, all descriptors need to have the same length
+	 * @param numberOfTrees number of randomized kd-trees, 0 for exact search
+	 * @param seed seed for choosing split dimensions
+	 */
+	public DescriptorIndex( final List< Feature > features, final int numberOfTrees, final long seed ) {
+		super();
+		this.size        = features.size();
+		this.dimension   = size > 0 ? features.get( 0 ).descriptor.length : 0;
+		this.descriptors = new float[ size * dimension ];
+		for ( int i = 0; i < size; ++i )
+			System.arraycopy( features.get( i ).descriptor, 0, descriptors, i * dimension, dimension );
+		this.locationDimension = size > 0 ? features.get( 0 ).location.length : 0;
+		this.locations         = new double[ size * locationDimension ];
+		for ( int i = 0; i < size; ++i )
+			System.arraycopy( features.get( i ).location, 0, locations, i * locationDimension, locationDimension );
+		this.locationIds = createLocationIds( size, locationDimension, locations );
+		this.trees       = new Tree[ size > 0 ? numberOfTrees : 0 ];
+		final Random rng = new Random( seed );
+		for ( int t = 0; t < trees.length; ++t )
+			trees[ t ] = new Tree( rng );
+	}
+
+	private static int[] createLocationIds( final int n, final int locationDimension, final double[] locations ) {
+		final Integer[] order = new Integer[ n ];
+		for ( int i = 0; i < n; ++i )
+			order[ i ] = i;
+		final Comparator< Integer > byLocation = new Comparator< Integer >() {
+			@Override
+			public int compare( final Integer i1, final Integer i2 ) {
+				return compareLocations( locations, i1 * locationDimension, i2 * locationDimension, locationDimension );
+			}
+		};
+		Arrays.sort( order, byLocation );
+		final int[] ids = new int[ n ];
+		int id = -1;
+		for ( int k = 0; k < n; ++k ) {
+			if ( k == 0 || byLocation.compare( order[ k - 1 ], order[ k ] ) != 0 )
+				++id;
+			ids[ order[ k ] ] = id;
+		}
+		return ids;
+	}
+
+	private static int compareLocations( final double[] locations, final int offset1, final int offset2, final int length ) {
+		for ( int d = 0; d < length; ++d ) {
+			final int c = Double.compare( locations[ offset1 + d ], locations[ offset2 + d ] );
+			if ( c != 0 )
+				return c;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return number of features in this index
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find candidate matches for all features of index1 in index2, equivalent to
+	 * {@link mpicbg.ij.FeatureTransform#matchFeatures(List, List, List, double)}: the nearest neighbor
+	 * is accepted if the ratio of the distances to nearest and second nearest neighbor is below rod, and
+	 * matches that share their target location with another match are removed as ambiguous.
+	 * @param index1 source features
+	 * @param index2 target features
+	 * @param matches output parameter for matches
+	 * @param rod ratio of distances (closest/next closest match)
+	 * @param maxChecks maximum number of descriptor comparisons per query if index2 has trees
+	 */
+	public static void matchFeatures(
+			final DescriptorIndex index1,
+			final DescriptorIndex index2,
+			final List< PointMatch > matches,
+			final double rod,
+			final int maxChecks ) {
+		if ( index1.size == 0 || index2.size < 2 )
+			return;
+		final float squaredRod = (float)( rod * rod );
+		final int[] sources = new int[ index1.size ];
+		final int[] targets = new int[ index1.size ];
+		int count = 0;
+		if ( index2.trees.length == 0 )
+			count = matchExact( index1, index2, squaredRod, sources, targets );
+		else {
+			final Query query = index2.new Query( maxChecks );
+			for ( int i = 0; i < index1.size; ++i ) {
+				query.search( index1.descriptors, i * index1.dimension );
+				if ( query.secondIndex >= 0 && query.bestDistance < squaredRod * query.secondDistance ) {
+					sources[ count ] = i;
+					targets[ count ] = query.bestIndex;
+					++count;
+				}
+			}
+		}
+		// remove matches whose target location is hit more than once
+		final int[] hits = new int[ index2.size ];
+		for ( int k = 0; k < count; ++k )
+			++hits[ index2.locationIds[ targets[ k ] ] ];
+		for ( int k = 0; k < count; ++k ) {
+			if ( hits[ index2.locationIds[ targets[ k ] ] ] > 1 )
+				continue;
+			matches.add( new PointMatch(
+					new Point( index1.getLocation( sources[ k ] ) ),
+					new Point( index2.getLocation( targets[ k ] ) ) ) );
+		}
+	}
+
+	/**
+	 * Brute force two nearest neighbor search for all descriptors of index1 in index2. Queries and
+	 * descriptors are visited in blocks such that a block of descriptors is compared against a block of
+	 * queries while both are in cache. Descriptors are visited in increasing order for each query, i.e.
+	 * ties are resolved as in the tree search.
+	 * @return number of matches that pass the ratio test, written to sources and targets
+	 */
+	private static int matchExact(
+			final DescriptorIndex index1,
+			final DescriptorIndex index2,
+			final float squaredRod,
+			final int[] sources,
+			final int[] targets ) {
+		final int dimension           = index1.dimension;
+		final float[] queries         = index1.descriptors;
+		final float[] descriptors     = index2.descriptors;
+		final int[] bestIndex         = new int[ QUERY_BLOCK ];
+		final int[] secondIndex       = new int[ QUERY_BLOCK ];
+		final float[] bestDistance    = new float[ QUERY_BLOCK ];
+		final float[] secondDistance  = new float[ QUERY_BLOCK ];
+		int count = 0;
+		for ( int queryStart = 0; queryStart < index1.size; queryStart += QUERY_BLOCK ) {
+			final int queryStop = Math.min( index1.size, queryStart + QUERY_BLOCK );
+			Arrays.fill( bestIndex, -1 );
+			Arrays.fill( secondIndex, -1 );
+			Arrays.fill( bestDistance, Float.MAX_VALUE );
+			Arrays.fill( secondDistance, Float.MAX_VALUE );
+			for ( int start = 0; start < index2.size; start += DESCRIPTOR_BLOCK ) {
+				final int stop = Math.min( index2.size, start + DESCRIPTOR_BLOCK );
+				for ( int q = queryStart; q < queryStop; ++q ) {
+					final int b           = q - queryStart;
+					final int queryOffset = q * dimension;
+					for ( int i = start; i < stop; ++i ) {
+						final float distance = squaredDistance( queries, queryOffset, descriptors, i * dimension, dimension );
+						if ( distance < bestDistance[ b ] ) {
+							secondDistance[ b ] = bestDistance[ b ];
+							secondIndex[ b ]    = bestIndex[ b ];
+							bestDistance[ b ]   = distance;
+							bestIndex[ b ]      = i;
+						} else if ( distance < secondDistance[ b ] ) {
+							secondDistance[ b ] = distance;
+							secondIndex[ b ]    = i;
+						}
+					}
+				}
+			}
+			for ( int q = queryStart; q < queryStop; ++q ) {
+				final int b = q - queryStart;
+				if ( secondIndex[ b ] >= 0 && bestDistance[ b ] < squaredRod * secondDistance[ b ] ) {
+					sources[ count ] = q;
+					targets[ count ] = bestIndex[ b ];
+					++count;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Squared Euclidean distance without early termination. The sum is split into four independent
+	 * accumulators, which removes the dependency between consecutive additions and leaves a branch free
+	 * loop that the JIT can unroll and vectorize.
+	 */
+	static float squaredDistance( final float[] a, final int offsetA, final float[] b, final int offsetB, final int length ) {
+		float sum0 = 0.0f;
+		float sum1 = 0.0f;
+		float sum2 = 0.0f;
+		float sum3 = 0.0f;
+		final int blockStop = length & ~3;
+		int d = 0;
+		for ( ; d < blockStop; d += 4 ) {
+			final float diff0 = a[ offsetA + d ]     - b[ offsetB + d ];
+			final float diff1 = a[ offsetA + d + 1 ] - b[ offsetB + d + 1 ];
+			final float diff2 = a[ offsetA + d + 2 ] - b[ offsetB + d + 2 ];
+			final float diff3 = a[ offsetA + d + 3 ] - b[ offsetB + d + 3 ];
+			sum0 += diff0 * diff0;
+			sum1 += diff1 * diff1;
+			sum2 += diff2 * diff2;
+			sum3 += diff3 * diff3;
+		}
+		for ( ; d < length; ++d ) {
+			final float diff = a[ offsetA + d ] - b[ offsetB + d ];
+			sum0 += diff * diff;
+		}
+		return ( sum0 + sum1 ) + ( sum2 + sum3 );
+	}
+
+	/**
+	 * @param i index of a feature
+	 * @return copy of the location of feature i
+	 */
+	public double[] getLocation( final int i ) {
+		return Arrays.copyOfRange( locations, i * locationDimension, ( i + 1 ) * locationDimension );
+	}
+
+	private float squaredDistance( final float[] query, final int queryOffset, final int index, final float bound ) {
+		float sum = 0.0f;
+		final int offset = index * dimension;
+		for ( int d = 0; d < dimension; ++d ) {
+			final float diff = query[ queryOffset + d ] - descriptors[ offset + d ];
+			sum += diff * diff;
+			// cannot become a nearest neighbor anymore
+			if ( sum >= bound )
+				return sum;
+		}
+		return sum;
+	}
+
+	/**
+	 * Randomized kd-tree: nodes split at the mean of a dimension randomly chosen from the dimensions
+	 * with highest variance. Inner nodes have dimension &gt;= 0, leaves hold a range of {@link #points}.
+	 */
+	private class Tree {
+
+		private final int[] points;
+		private int[] splitDimension;
+		private float[] splitValue;
+		private int[] child1;
+		private int[] child2;
+		private int numberOfNodes = 0;
+
+		public Tree( final Random rng ) {
+			points = new int[ size ];
+			for ( int i = 0; i < size; ++i )
+				points[ i ] = i;
+			// shuffle to draw random samples for variance estimation
+			for ( int i = size - 1; i > 0; --i ) {
+				final int j   = rng.nextInt( i + 1 );
+				final int tmp = points[ i ];
+				points[ i ] = points[ j ];
+				points[ j ] = tmp;
+			}
+			final int capacity = 2 * ( size / LEAF_SIZE + 1 ) + 1;
+			splitDimension = new int[ capacity ];
+			splitValue     = new float[ capacity ];
+			child1         = new int[ capacity ];
+			child2         = new int[ capacity ];
+			build( 0, size, rng, new double[ dimension ], new double[ dimension ] );
+		}
+
+		private int addNode() {
+			if ( numberOfNodes == splitDimension.length ) {
+				final int capacity = 2 * numberOfNodes;
+				splitDimension = Arrays.copyOf( splitDimension, capacity );
+				splitValue     = Arrays.copyOf( splitValue, capacity );
+				child1         = Arrays.copyOf( child1, capacity );
+				child2         = Arrays.copyOf( child2, capacity );
+			}
+			return numberOfNodes++;
+		}
+
+		private int build( final int start, final int stop, final Random rng, final double[] mean, final double[] variance ) {
+			final int node = addNode();
+			if ( stop - start <= LEAF_SIZE || !split( node, start, stop, rng, mean, variance ) ) {
+				splitDimension[ node ] = -1;
+				child1[ node ]         = start;
+				child2[ node ]         = stop;
+			}
+			return node;
+		}
+
+		private boolean split( final int node, final int start, final int stop, final Random rng, final double[] mean, final double[] variance ) {
+			// estimate mean and variance from (already shuffled) sample
+			Arrays.fill( mean, 0.0 );
+			Arrays.fill( variance, 0.0 );
+			final int sampleStop = Math.min( stop, start + SAMPLE_SIZE );
+			for ( int k = start; k < sampleStop; ++k )
+				for ( int d = 0, offset = points[ k ] * dimension; d < dimension; ++d )
+					mean[ d ] += descriptors[ offset + d ];
+			for ( int d = 0; d < dimension; ++d )
+				mean[ d ] /= sampleStop - start;
+			for ( int k = start; k < sampleStop; ++k ) {
+				for ( int d = 0, offset = points[ k ] * dimension; d < dimension; ++d ) {
+					final double diff = descriptors[ offset + d ] - mean[ d ];
+					variance[ d ] += diff * diff;
+				}
+			}
+
+			// pick randomly among dimensions with highest variance
+			final int[] top = new int[ Math.min( RANDOM_DIMENSIONS, dimension ) ];
+			int topSize = 0;
+			for ( int d = 0; d < dimension; ++d ) {
+				if ( topSize == top.length && variance[ d ] <= variance[ top[ topSize - 1 ] ] )
+					continue;
+				int position = topSize < top.length ? topSize++ : top.length - 1;
+				for ( ; position > 0 && variance[ top[ position - 1 ] ] < variance[ d ]; --position )
+					top[ position ] = top[ position - 1 ];
+				top[ position ] = d;
+			}
+			final int d = top[ rng.nextInt( topSize ) ];
+			if ( variance[ d ] == 0.0 )
+				return false;
+			final float value = (float)mean[ d ];
+
+			// partition points[ start, stop ) into < value and >= value
+			int left  = start;
+			int right = stop - 1;
+			while ( left <= right ) {
+				if ( descriptors[ points[ left ] * dimension + d ] < value )
+					++left;
+				else {
+					final int tmp = points[ left ];
+					points[ left ]  = points[ right ];
+					points[ right ] = tmp;
+					--right;
+				}
+			}
+			if ( left == start || left == stop )
+				return false;
+
+			splitDimension[ node ] = d;
+			splitValue[ node ]     = value;
+			final int c1 = build( start, left, rng, mean, variance );
+			final int c2 = build( left, stop, rng, mean, variance );
+			child1[ node ] = c1;
+			child2[ node ] = c2;
+			return true;
+		}
+
+	}
+
+	/**
+	 * Search state for two nearest neighbor queries against the trees of this index, re-used across queries and not
+	 * thread safe.
+	 */
+	private class Query {
+
+		private final int maxChecks;
+
+		// min heap of branches that were not taken, ordered by lower bound
+		private float[] heapBounds = new float[ 64 ];
+		private int[] heapTrees    = new int[ 64 ];
+		private int[] heapNodes    = new int[ 64 ];
+		private int heapSize       = 0;
+
+		private int checks;
+
+		int bestIndex;
+		int secondIndex;
+		float bestDistance;
+		float secondDistance;
+
+		public Query( final int maxChecks ) {
+			super();
+			this.maxChecks = maxChecks;
+		}
+
+		public void search( final float[] query, final int offset ) {
+			bestIndex      = -1;
+			secondIndex    = -1;
+			bestDistance   = Float.MAX_VALUE;
+			secondDistance = Float.MAX_VALUE;
+			heapSize = 0;
+			checks   = 0;
+			for ( int t = 0; t < trees.length; ++t )
+				descend( query, offset, t, 0, 0.0f );
+			while ( heapSize > 0 && checks < maxChecks ) {
+				final float bound = heapBounds[ 0 ];
+				final int tree    = heapTrees[ 0 ];
+				final int node    = heapNodes[ 0 ];
+				pop();
+				if ( bound >= secondDistance )
+					break;
+				descend( query, offset, tree, node, bound );
+			}
+		}
+
+		private void check( final float[] query, final int offset, final int i ) {
+			// same descriptor may be reached through multiple trees
+			if ( i == bestIndex || i == secondIndex )
+				return;
+			final float distance = squaredDistance( query, offset, i, secondDistance );
+			if ( distance < bestDistance ) {
+				secondDistance = bestDistance;
+				secondIndex    = bestIndex;
+				bestDistance   = distance;
+				bestIndex      = i;
+			} else if ( distance < secondDistance ) {
+				secondDistance = distance;
+				secondIndex    = i;
+			}
+		}
+
+		private void descend( final float[] query, final int offset, final int t, int node, final float bound ) {
+			final Tree tree = trees[ t ];
+			while ( tree.splitDimension[ node ] >= 0 ) {
+				final float diff = query[ offset + tree.splitDimension[ node ] ] - tree.splitValue[ node ];
+				final int near   = diff < 0 ? tree.child1[ node ] : tree.child2[ node ];
+				final int far    = diff < 0 ? tree.child2[ node ] : tree.child1[ node ];
+				final float farBound = bound + diff * diff;
+				if ( farBound < secondDistance )
+					push( farBound, t, far );
+				node = near;
+			}
+			for ( int k = tree.child1[ node ]; k < tree.child2[ node ]; ++k, ++checks )
+				check( query, offset, tree.points[ k ] );
+		}
+
+		private void push( final float bound, final int tree, final int node ) {
+			if ( heapSize == heapBounds.length ) {
+				heapBounds = Arrays.copyOf( heapBounds, 2 * heapSize );
+				heapTrees  = Arrays.copyOf( heapTrees, 2 * heapSize );
+				heapNodes  = Arrays.copyOf( heapNodes, 2 * heapSize );
+			}
+			int i = heapSize++;
+			while ( i > 0 ) {
+				final int parent = ( i - 1 ) / 2;
+				if ( heapBounds[ parent ] <= bound )
+					break;
+				heapBounds[ i ] = heapBounds[ parent ];
+				heapTrees[ i ]  = heapTrees[ parent ];
+				heapNodes[ i ]  = heapNodes[ parent ];
+				i = parent;
+			}
+			heapBounds[ i ] = bound;
+			heapTrees[ i ]  = tree;
+			heapNodes[ i ]  = node;
+		}
+
+		private void pop() {
+			--heapSize;
+			final float bound = heapBounds[ heapSize ];
+			final int tree    = heapTrees[ heapSize ];
+			final int node    = heapNodes[ heapSize ];
+			int i = 0;
+			while ( true ) {
+				int child = 2 * i + 1;
+				if ( child >= heapSize )
+					break;
+				if ( child + 1 < heapSize && heapBounds[ child + 1 ] < heapBounds[ child ] )
+					++child;
+				if ( heapBounds[ child ] >= bound )
+					break;
+				heapBounds[ i ] = heapBounds[ child ];
+				heapTrees[ i ]  = heapTrees[ child ];
+				heapNodes[ i ]  = heapNodes[ child ];
+				i = child;
+			}
+			heapBounds[ i ] = bound;
+			heapTrees[ i ]  = tree;
+			heapNodes[ i ]  = node;
+		}
+
+	}
+
+}
@@ -0,0 +1,82 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+
+/**
+ * {@link SectionSourceInterface} that reads each section from its own image file when it is requested, i.e.
+ * only sections that are currently in use are held in memory. Any format that ImageJ can open is supported,
+ * multi-slice files contribute their first slice only.
+ */
+public class DirectorySectionSource implements SectionSourceInterface {
+
+	private final File[] files;
+
+	/**
+	 * @param files one image file per section, in section order
+	 */
+	public DirectorySectionSource( final List< File > files ) {
+		super();
+		this.files = files.toArray( new File[ files.size() ] );
+	}
+
+	/**
+	 * @param directory directory that holds one image file per section, sections are ordered by file name,
+	 *        i.e. numbers in file names need to be zero-padded. Hidden files and sub-directories are ignored.
+	 * @throws IOException if directory cannot be listed
+	 */
+	public DirectorySectionSource( final File directory ) throws IOException {
+		this( listSectionFiles( directory ) );
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return files.length;
+	}
+
+	@Override
+	public ImageProcessor getSection( final int k ) throws IOException {
+		final ImagePlus imp = IJ.openImage( files[ k ].getAbsolutePath() );
+		if ( imp == null || imp.getWidth() == 0 || imp.getHeight() == 0 )
+			throw new IOException( "Cannot open section " + k + " from " + files[ k ] );
+		return imp.getProcessor();
+	}
+
+	/**
+	 * @param k section index
+	 * @return file of section k
+	 */
+	public File getFile( final int k ) {
+		return files[ k ];
+	}
+
+	/**
+	 * @param directory directory that holds one image file per section
+	 * @return visible files in directory, sorted by name
+	 * @throws IOException if directory cannot be listed
+	 */
+	public static ArrayList< File > listSectionFiles( final File directory ) throws IOException {
+		final File[] files = directory.listFiles( new FileFilter() {
+			@Override
+			public boolean accept( final File file ) {
+				return file.isFile() && !file.isHidden() && !file.getName().startsWith( "." );
+			}
+		} );
+		if ( files == null )
+			throw new IOException( "Cannot list section files in " + directory );
+		Arrays.sort( files );
+		return new ArrayList< File >( Arrays.asList( files ) );
+	}
+
+}
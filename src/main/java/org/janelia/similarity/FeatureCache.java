@@ -0,0 +1,243 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import ij.IJ;
+import ij.process.ImageProcessor;
+import mpicbg.ij.SIFT;
+import mpicbg.imagefeatures.Feature;
+import mpicbg.imagefeatures.FloatArray2DSIFT;
+
+/**
+ * Persistent on-disk store for SIFT features. Features of a section are stored in a compact binary file
+ * whose name is a hash of the section's pixels and the {@link FloatArray2DSIFT.Param} used for extraction,
+ * i.e. features are re-used as long as neither the section nor the SIFT parameters change. Files are
+ * memory-mapped for loading.
+ */
+public class FeatureCache {
+
+	private static final int MAGIC = 0x53494654; // "SIFT"
+
+	private static final int VERSION = 1;
+
+	private static final String SUFFIX = ".features";
+
+	// number of pixels that are hashed at once
+	private static final int HASH_CHUNK_SIZE = 1 << 16;
+
+	private final File directory;
+
+	private final FloatArray2DSIFT.Param p;
+
+	/**
+	 * @param directory directory that holds feature files, will be created if it does not exist
+	 * @param p SIFT parameters for feature extraction
+	 */
+	public FeatureCache( final File directory, final FloatArray2DSIFT.Param p ) {
+		super();
+		this.directory = directory;
+		this.p = p;
+		directory.mkdirs();
+	}
+
+
+	/**
+	 * @param ijSIFT {@link SIFT} object for extracting SIFT features, needs to be set up with the same parameters as this cache.
+	 * @param ip ImageJ ImageProcessor from which SIFT features will be extracted.
+	 * @return List of features, loaded from cache if present, otherwise extracted and stored in cache.
+	 */
+	public ArrayList< Feature > extract( final SIFT ijSIFT, final ImageProcessor ip ) {
+		final File file = getFile( ip );
+		if ( file.exists() ) {
+			try {
+				return read( file );
+			} catch ( final IOException e ) {
+				IJ.log( "Could not read cached features from " + file + ", extracting again: " + e.getMessage() );
+			}
+		}
+		final ArrayList< Feature > features = SiftPairwiseSimilarity.extract( ijSIFT, ip );
+		try {
+			write( features, file );
+		} catch ( final IOException e ) {
+			IJ.log( "Could not write features to " + file + ": " + e.getMessage() );
+		}
+		return features;
+	}
+
+
+	/**
+	 * @param ip section
+	 * @return file that holds (or will hold) features for ip
+	 */
+	public File getFile( final ImageProcessor ip ) {
+		return new File( directory, key( ip ) + SUFFIX );
+	}
+
+
+	/**
+	 * @param ip section
+	 * @return hex encoded SHA-1 hash of the pixels and dimensions of ip, and the SIFT parameters
+	 */
+	public String key( final ImageProcessor ip ) {
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance( "SHA-1" );
+		} catch ( final NoSuchAlgorithmException e ) {
+			throw new RuntimeException( e );
+		}
+
+		final ByteBuffer header = ByteBuffer.allocate( 64 );
+		header
+			.putInt( VERSION )
+			.putInt( p.fdSize )
+			.putInt( p.fdBins )
+			.putInt( p.maxOctaveSize )
+			.putInt( p.minOctaveSize )
+			.putInt( p.steps )
+			.putFloat( p.initialSigma )
+			.putInt( ip.getWidth() )
+			.putInt( ip.getHeight() );
+
+		final Object pixels = ip.getPixels();
+		if ( pixels instanceof byte[] ) {
+			header.putInt( 1 );
+			header.flip();
+			digest.update( header );
+			digest.update( ( byte[] ) pixels );
+		} else if ( pixels instanceof short[] ) {
+			header.putInt( 2 );
+			header.flip();
+			digest.update( header );
+			final short[] s = ( short[] ) pixels;
+			final ByteBuffer buffer = ByteBuffer.allocate( HASH_CHUNK_SIZE * 2 );
+			for ( int start = 0; start < s.length; start += HASH_CHUNK_SIZE ) {
+				buffer.clear();
+				buffer.asShortBuffer().put( s, start, Math.min( HASH_CHUNK_SIZE, s.length - start ) );
+				buffer.limit( 2 * Math.min( HASH_CHUNK_SIZE, s.length - start ) );
+				digest.update( buffer );
+			}
+		} else if ( pixels instanceof float[] ) {
+			header.putInt( 3 );
+			header.flip();
+			digest.update( header );
+			final float[] f = ( float[] ) pixels;
+			final ByteBuffer buffer = ByteBuffer.allocate( HASH_CHUNK_SIZE * 4 );
+			for ( int start = 0; start < f.length; start += HASH_CHUNK_SIZE ) {
+				buffer.clear();
+				buffer.asFloatBuffer().put( f, start, Math.min( HASH_CHUNK_SIZE, f.length - start ) );
+				buffer.limit( 4 * Math.min( HASH_CHUNK_SIZE, f.length - start ) );
+				digest.update( buffer );
+			}
+		} else if ( pixels instanceof int[] ) {
+			header.putInt( 4 );
+			header.flip();
+			digest.update( header );
+			final int[] i = ( int[] ) pixels;
+			final ByteBuffer buffer = ByteBuffer.allocate( HASH_CHUNK_SIZE * 4 );
+			for ( int start = 0; start < i.length; start += HASH_CHUNK_SIZE ) {
+				buffer.clear();
+				buffer.asIntBuffer().put( i, start, Math.min( HASH_CHUNK_SIZE, i.length - start ) );
+				buffer.limit( 4 * Math.min( HASH_CHUNK_SIZE, i.length - start ) );
+				digest.update( buffer );
+			}
+		} else
+			throw new IllegalArgumentException( "Unsupported pixel type: " + pixels.getClass() );
+
+		final StringBuilder sb = new StringBuilder();
+		for ( final byte b : digest.digest() )
+			sb.append( String.format( "%02x", b ) );
+		return sb.toString();
+	}
+
+
+	/**
+	 * Write features into binary file. The file is written to a temporary file first and then moved to
+	 * its final location, so concurrent readers never see incomplete files.
+	 * @param features list of features, all descriptors and locations need to have the same lengths
+	 * @param file output file, will be overwritten
+	 * @throws IOException
+	 */
+	public static void write( final List< Feature > features, final File file ) throws IOException {
+		final int locationLength   = features.size() > 0 ? features.get( 0 ).location.length : 0;
+		final int descriptorLength = features.size() > 0 ? features.get( 0 ).descriptor.length : 0;
+		final File tmp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+		try {
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+			try {
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeInt( features.size() );
+				out.writeInt( locationLength );
+				out.writeInt( descriptorLength );
+				for ( final Feature f : features ) {
+					out.writeDouble( f.scale );
+					out.writeDouble( f.orientation );
+					for ( int d = 0; d < locationLength; ++d )
+						out.writeDouble( f.location[ d ] );
+					for ( int d = 0; d < descriptorLength; ++d )
+						out.writeFloat( f.descriptor[ d ] );
+				}
+			} finally {
+				out.close();
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		} finally {
+			tmp.delete();
+		}
+	}
+
+
+	/**
+	 * Read features from memory-mapped binary file written by {@link #write(List, File)}.
+	 * @param file input file
+	 * @return list of features
+	 * @throws IOException if file cannot be read or is not a feature file
+	 */
+	public static ArrayList< Feature > read( final File file ) throws IOException {
+		final FileChannel channel = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+		try {
+			final MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+			if ( buffer.getInt() != MAGIC || buffer.getInt() != VERSION )
+				throw new IOException( file + " is not a feature file of version " + VERSION );
+			final int n                = buffer.getInt();
+			final int locationLength   = buffer.getInt();
+			final int descriptorLength = buffer.getInt();
+			final long expectedSize    = 5 * 4 + (long) n * ( 8 * ( 2 + locationLength ) + 4 * descriptorLength );
+			if ( channel.size() != expectedSize )
+				throw new IOException( String.format( "%s has size %d but expected %d.", file, channel.size(), expectedSize ) );
+			final ArrayList< Feature > features = new ArrayList< Feature >( n );
+			for ( int i = 0; i < n; ++i ) {
+				final double scale       = buffer.getDouble();
+				final double orientation = buffer.getDouble();
+				final double[] location  = new double[ locationLength ];
+				for ( int d = 0; d < locationLength; ++d )
+					location[ d ] = buffer.getDouble();
+				final float[] descriptor = new float[ descriptorLength ];
+				buffer.asFloatBuffer().get( descriptor );
+				buffer.position( buffer.position() + 4 * descriptorLength );
+				features.add( new Feature( scale, orientation, location, descriptor ) );
+			}
+			return features;
+		} finally {
+			channel.close();
+		}
+	}
+
+}
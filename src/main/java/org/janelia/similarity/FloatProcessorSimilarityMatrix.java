@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package org.janelia.similarity;
+
+import ij.process.FloatProcessor;
+
+/**
+ * {@link SimilarityMatrixInterface} that stores all entries in a dense n x n {@link FloatProcessor}, e.g. for
+ * display.
+ */
+public class FloatProcessorSimilarityMatrix implements SimilarityMatrixInterface {
+	
+	private final FloatProcessor matrix;
+	
+	/**
+	 * @param matrix n x n matrix, modifications are reflected in this {@link FloatProcessorSimilarityMatrix} 
+	 */
+	public FloatProcessorSimilarityMatrix( final FloatProcessor matrix ) {
+		super();
+		this.matrix = matrix;
+	}
+	
+	/**
+	 * @return underlying {@link FloatProcessor}
+	 */
+	public FloatProcessor getFloatProcessor() {
+		return matrix;
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return matrix.getWidth();
+	}
+
+	@Override
+	public float get( final int index1, final int index2 ) {
+		return matrix.getf( index1, index2 );
+	}
+
+	@Override
+	public void set( final int index1, final int index2, final float similarity ) {
+		matrix.setf( index1, index2, similarity );
+		matrix.setf( index2, index1, similarity );
+	}
+
+	@Override
+	public int getMaxRowLength() {
+		return matrix.getWidth();
+	}
+
+	@Override
+	public int getRow( final int index, final int[] columns, final float[] similarities ) {
+		final int n = matrix.getWidth();
+		for ( int j = 0; j < n; ++j ) {
+			columns[ j ]      = j;
+			similarities[ j ] = matrix.getf( index, j );
+		}
+		return n;
+	}
+
+	@Override
+	public FloatProcessorSimilarityMatrix select( final int[] indices ) {
+		final FloatProcessor result = new FloatProcessor( indices.length, indices.length );
+		for ( int i = 0; i < indices.length; ++i )
+			for ( int j = 0; j < indices.length; ++j )
+				result.setf( i, j, matrix.getf( indices[ i ], indices[ j ] ) );
+		result.setMinAndMax( 0.0, 1.0 );
+		return new FloatProcessorSimilarityMatrix( result );
+	}
+
+}
@@ -0,0 +1,33 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * {@link ProgressListenerInterface} that redraws the similarity matrix while it is being filled and shows
+ * progress and throughput in the ImageJ status bar.
+ */
+public class ImagePlusProgressListener implements ProgressListenerInterface {
+
+	private final ImagePlus impMatrix;
+
+	/**
+	 * @param impMatrix {@link ImagePlus} of the similarity matrix, may be null for status only
+	 */
+	public ImagePlusProgressListener( final ImagePlus impMatrix ) {
+		super();
+		this.impMatrix = impMatrix;
+	}
+
+	@Override
+	public void progressChanged( final SimilarityProgress progress ) {
+		if ( impMatrix != null )
+			impMatrix.updateAndDraw();
+		IJ.showStatus( progress.toString() );
+		IJ.showProgress( progress.isDone() ? 1.0 : progress.getFractionDone() );
+	}
+
+}
@@ -0,0 +1,179 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import mpicbg.imagefeatures.FloatArray2DSIFT;
+
+/**
+ * Convert {@link SiftPairwiseSimilarity.Param} from and to command line arguments of the form name=value, e.g.
+ * range=50 or sift.maxOctaveSize=1024, for passing parameters to other processes. Names are the names of the
+ * members of {@link SiftPairwiseSimilarity.Param}, SIFT parameters are prefixed with sift.
+ */
+public class ParamArguments {
+
+	public static final String SIFT_PREFIX = "sift.";
+
+	/**
+	 * @param p parameters
+	 * @return one name=value argument for each member of p that is not null
+	 */
+	public static ArrayList< String > toArguments( final SiftPairwiseSimilarity.Param p ) {
+		final ArrayList< String > arguments = new ArrayList< String >();
+		add( arguments, "maxSteps", p.maxSteps );
+		add( arguments, "rod", p.rod );
+		add( arguments, "maxEpsilon", p.maxEpsilon );
+		add( arguments, "minInlierRatio", p.minInlierRatio );
+		add( arguments, "minNumInliers", p.minNumInliers );
+		add( arguments, "nThreads", p.nThreads );
+		add( arguments, "showProgress", p.showProgress );
+		add( arguments, "range", p.range );
+		add( arguments, "featureCacheDirectory", p.featureCacheDirectory );
+		add( arguments, "numberOfCandidates", p.numberOfCandidates );
+		add( arguments, "signatureSize", p.signatureSize );
+		add( arguments, "numberOfTrees", p.numberOfTrees );
+		add( arguments, "maxChecks", p.maxChecks );
+		add( arguments, "maxIterations", p.maxIterations );
+		add( arguments, "adaptiveRansac", p.adaptiveRansac );
+		add( arguments, "ransacConfidence", p.ransacConfidence );
+		add( arguments, "translationGate", p.translationGate );
+		add( arguments, "pipelined", p.pipelined );
+		add( arguments, "maxSectionsInMemory", p.maxSectionsInMemory );
+		add( arguments, "prefetch", p.prefetch );
+		add( arguments, "progressInterval", p.progressInterval );
+		add( arguments, "coarseScale", p.coarseScale );
+		add( arguments, "refineThreshold", p.refineThreshold );
+		add( arguments, "refineNeighbors", p.refineNeighbors );
+		if ( p.p != null ) {
+			add( arguments, SIFT_PREFIX + "fdSize", p.p.fdSize );
+			add( arguments, SIFT_PREFIX + "fdBins", p.p.fdBins );
+			add( arguments, SIFT_PREFIX + "maxOctaveSize", p.p.maxOctaveSize );
+			add( arguments, SIFT_PREFIX + "minOctaveSize", p.p.minOctaveSize );
+			add( arguments, SIFT_PREFIX + "steps", p.p.steps );
+			add( arguments, SIFT_PREFIX + "initialSigma", p.p.initialSigma );
+		}
+		return arguments;
+	}
+
+	/**
+	 * @param argument name=value argument
+	 * @return true if argument is of the form name=value
+	 */
+	public static boolean isArgument( final String argument ) {
+		return argument.indexOf( '=' ) > 0;
+	}
+
+	/**
+	 * @param p parameters, will be modified
+	 * @param arguments name=value arguments
+	 * @return p
+	 * @throws IllegalArgumentException if an argument is malformed or its name is not a parameter
+	 */
+	public static SiftPairwiseSimilarity.Param parse( final SiftPairwiseSimilarity.Param p, final List< String > arguments ) {
+		for ( final String argument : arguments )
+			set( p, argument );
+		return p;
+	}
+
+	/**
+	 * @param p parameters, will be modified
+	 * @param argument name=value argument
+	 * @throws IllegalArgumentException if argument is malformed or its name is not a parameter
+	 */
+	public static void set( final SiftPairwiseSimilarity.Param p, final String argument ) {
+		if ( !isArgument( argument ) )
+			throw new IllegalArgumentException( "Expected name=value but got " + argument );
+		final int separator = argument.indexOf( '=' );
+		final String name   = argument.substring( 0, separator );
+		final String value  = argument.substring( separator + 1 );
+		try {
+			if ( name.startsWith( SIFT_PREFIX ) ) {
+				if ( p.p == null )
+					p.p = new FloatArray2DSIFT.Param();
+				setSift( p.p, name.substring( SIFT_PREFIX.length() ), value );
+			} else
+				set( p, name, value );
+		} catch ( final NumberFormatException e ) {
+			throw new IllegalArgumentException( "Cannot parse value of " + argument, e );
+		}
+	}
+
+	private static void set( final SiftPairwiseSimilarity.Param p, final String name, final String value ) {
+		if ( name.equals( "maxSteps" ) )
+			p.maxSteps = Integer.valueOf( value );
+		else if ( name.equals( "rod" ) )
+			p.rod = Float.valueOf( value );
+		else if ( name.equals( "maxEpsilon" ) )
+			p.maxEpsilon = Float.valueOf( value );
+		else if ( name.equals( "minInlierRatio" ) )
+			p.minInlierRatio = Float.valueOf( value );
+		else if ( name.equals( "minNumInliers" ) )
+			p.minNumInliers = Integer.valueOf( value );
+		else if ( name.equals( "nThreads" ) )
+			p.nThreads = Integer.valueOf( value );
+		else if ( name.equals( "showProgress" ) )
+			p.showProgress = Boolean.valueOf( value );
+		else if ( name.equals( "range" ) )
+			p.range = Integer.valueOf( value );
+		else if ( name.equals( "featureCacheDirectory" ) )
+			p.featureCacheDirectory = value;
+		else if ( name.equals( "numberOfCandidates" ) )
+			p.numberOfCandidates = Integer.valueOf( value );
+		else if ( name.equals( "signatureSize" ) )
+			p.signatureSize = Integer.valueOf( value );
+		else if ( name.equals( "numberOfTrees" ) )
+			p.numberOfTrees = Integer.valueOf( value );
+		else if ( name.equals( "maxChecks" ) )
+			p.maxChecks = Integer.valueOf( value );
+		else if ( name.equals( "maxIterations" ) )
+			p.maxIterations = Integer.valueOf( value );
+		else if ( name.equals( "adaptiveRansac" ) )
+			p.adaptiveRansac = Boolean.valueOf( value );
+		else if ( name.equals( "ransacConfidence" ) )
+			p.ransacConfidence = Float.valueOf( value );
+		else if ( name.equals( "translationGate" ) )
+			p.translationGate = Boolean.valueOf( value );
+		else if ( name.equals( "pipelined" ) )
+			p.pipelined = Boolean.valueOf( value );
+		else if ( name.equals( "maxSectionsInMemory" ) )
+			p.maxSectionsInMemory = Integer.valueOf( value );
+		else if ( name.equals( "prefetch" ) )
+			p.prefetch = Integer.valueOf( value );
+		else if ( name.equals( "progressInterval" ) )
+			p.progressInterval = Integer.valueOf( value );
+		else if ( name.equals( "coarseScale" ) )
+			p.coarseScale = Float.valueOf( value );
+		else if ( name.equals( "refineThreshold" ) )
+			p.refineThreshold = Float.valueOf( value );
+		else if ( name.equals( "refineNeighbors" ) )
+			p.refineNeighbors = Integer.valueOf( value );
+		else
+			throw new IllegalArgumentException( "Unknown parameter " + name );
+	}
+
+	private static void setSift( final FloatArray2DSIFT.Param p, final String name, final String value ) {
+		if ( name.equals( "fdSize" ) )
+			p.fdSize = Integer.parseInt( value );
+		else if ( name.equals( "fdBins" ) )
+			p.fdBins = Integer.parseInt( value );
+		else if ( name.equals( "maxOctaveSize" ) )
+			p.maxOctaveSize = Integer.parseInt( value );
+		else if ( name.equals( "minOctaveSize" ) )
+			p.minOctaveSize = Integer.parseInt( value );
+		else if ( name.equals( "steps" ) )
+			p.steps = Integer.parseInt( value );
+		else if ( name.equals( "initialSigma" ) )
+			p.initialSigma = Float.parseFloat( value );
+		else
+			throw new IllegalArgumentException( "Unknown parameter " + SIFT_PREFIX + name );
+	}
+
+	private static void add( final List< String > arguments, final String name, final Object value ) {
+		if ( value != null )
+			arguments.add( name + "=" + value );
+	}
+
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import ij.process.ImageProcessor;
+
+/**
+ * {@link SectionSourceInterface} that reads up to depth sections ahead of the highest requested section on a
+ * separate reader thread, i.e. reading from disk overlaps with feature extraction of the sections that were
+ * read already. Memory is bounded by the prefetch queue: at most depth sections that have not been requested
+ * yet are held. Sections are expected to be requested about in increasing order and once each, e.g. by the
+ * workers of {@link SiftPairwiseSimilarity} that request sections concurrently. Sections that were not read
+ * ahead are read by the reader thread as well, before any further section, i.e. the wrapped source is never
+ * accessed concurrently and does not need to be thread-safe. With several workers, depth should exceed the
+ * number of workers, otherwise workers wait for sections that nobody read ahead.
+ * If only some sections will be requested, e.g. the sections of selected pairs, pass them as isRequested so
+ * that no other section is read ahead. Queued sections are kept until they are requested, i.e. requests that
+ * arrive slightly out of order from several workers still take the sections that were read for them. A
+ * section that is queued but never requested takes up room in the queue until {@link #close()}.
+ */
+public class PrefetchingSectionSource implements SectionSourceInterface, Closeable {
+
+	private final SectionSourceInterface source;
+
+	private final int depth;
+
+	// null if all sections will be requested
+	private final boolean[] isRequested;
+
+	private final ExecutorService reader;
+
+	// sections that are being read or have been read but were not requested yet
+	private final TreeMap< Integer, Future< ImageProcessor > > queue = new TreeMap< Integer, Future< ImageProcessor > >();
+
+	private int nextPrefetch = 0;
+
+	/**
+	 * @param source wrapped source, accessed from the reader thread only
+	 * @param depth number of sections that are read ahead of the highest requested section
+	 */
+	public PrefetchingSectionSource( final SectionSourceInterface source, final int depth ) {
+		this( source, depth, null );
+	}
+
+	/**
+	 * @param source wrapped source, accessed from the reader thread only
+	 * @param depth number of sections that are read ahead of the highest requested section
+	 * @param isRequested isRequested[ k ] if section k will be requested, only those sections are read ahead;
+	 *        all sections if null
+	 */
+	public PrefetchingSectionSource( final SectionSourceInterface source, final int depth, final boolean[] isRequested ) {
+		super();
+		this.source      = source;
+		this.depth       = depth;
+		this.isRequested = isRequested;
+		this.reader = Executors.newSingleThreadExecutor( new ThreadFactory() {
+			@Override
+			public Thread newThread( final Runnable r ) {
+				final Thread thread = new Thread( r, "section-prefetch" );
+				// do not keep the JVM alive for sections that nobody will request
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+	}
+
+	/**
+	 * @param n number of sections
+	 * @param first first section that will be requested
+	 * @param stop sections first &lt;= k &lt; stop will be requested
+	 * @return isRequested for {@link #PrefetchingSectionSource(SectionSourceInterface, int, boolean[])}
+	 */
+	public static boolean[] createRange( final int n, final int first, final int stop ) {
+		final boolean[] isRequested = new boolean[ n ];
+		for ( int k = Math.max( 0, first ); k < Math.min( n, stop ); ++k )
+			isRequested[ k ] = true;
+		return isRequested;
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return source.getNumberOfSections();
+	}
+
+	@Override
+	public ImageProcessor getSection( final int k ) throws IOException {
+		final Future< ImageProcessor > future;
+		synchronized ( queue ) {
+			final Future< ImageProcessor > queued = queue.remove( k );
+			// k was not read ahead, read it before the next sections
+			future = queued == null ? submit( k ) : queued;
+			// fill queue up with the next sections that will be requested, sections below k may still be
+			// requested by other workers and stay in the queue
+			final int n = source.getNumberOfSections();
+			nextPrefetch = Math.max( nextPrefetch, k + 1 );
+			for ( ; nextPrefetch < n && queue.size() < depth; ++nextPrefetch )
+				if ( isRequested == null || isRequested[ nextPrefetch ] )
+					queue.put( nextPrefetch, submit( nextPrefetch ) );
+		}
+		try {
+			return future.get();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while reading section " + k );
+		} catch ( final ExecutionException e ) {
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			throw new IOException( "Cannot read section " + k, e.getCause() );
+		}
+	}
+
+	/**
+	 * Stop the reader thread and drop all sections that were not requested.
+	 */
+	@Override
+	public void close() {
+		synchronized ( queue ) {
+			for ( final Future< ImageProcessor > future : queue.values() )
+				future.cancel( true );
+			queue.clear();
+		}
+		reader.shutdownNow();
+	}
+
+	private Future< ImageProcessor > submit( final int k ) {
+		return reader.submit( new Callable< ImageProcessor >() {
+			@Override
+			public ImageProcessor call() throws IOException {
+				return source.getSection( k );
+			}
+		} );
+	}
+
+}
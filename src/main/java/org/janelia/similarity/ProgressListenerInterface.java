@@ -0,0 +1,19 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+/**
+ * Receives progress of feature extraction and matching in {@link SiftPairwiseSimilarity}. Listeners are
+ * called at a fixed rate ({@link SiftPairwiseSimilarity.Param#progressInterval}) from a single thread and
+ * once more when a calculation is done, never from the worker threads, i.e. slow listeners do not slow
+ * down the calculation.
+ */
+public interface ProgressListenerInterface {
+
+	/**
+	 * @param progress snapshot of the current calculation
+	 */
+	public void progressChanged( SimilarityProgress progress );
+
+}
@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.Closeable;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ij.IJ;
+
+/**
+ * Counts extracted sections and matched pairs from worker threads and reports a {@link SimilarityProgress}
+ * to listeners at a fixed rate from a single scheduler thread. Workers only update atomic counters.
+ */
+class ProgressTracker implements Closeable {
+
+	private final int numberOfSections;
+
+	private final long numberOfPairs;
+
+	private final List< ProgressListenerInterface > listeners;
+
+	private final long start = System.nanoTime();
+
+	private final AtomicInteger sectionsExtracted = new AtomicInteger();
+
+	private final AtomicLong featuresExtracted = new AtomicLong();
+
+	private final AtomicLong pairsMatched = new AtomicLong();
+
+	private final AtomicInteger peakSectionsInMemory = new AtomicInteger();
+
+	private final Set< ProgressListenerInterface > failedListeners =
+			Collections.synchronizedSet( Collections.newSetFromMap( new IdentityHashMap< ProgressListenerInterface, Boolean >() ) );
+
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * @param numberOfSections number of sections to be extracted
+	 * @param numberOfPairs number of pairs to be matched
+	 * @param listeners listeners that are called every intervalMillis milliseconds
+	 * @param intervalMillis reporting interval
+	 */
+	public ProgressTracker(
+			final int numberOfSections,
+			final long numberOfPairs,
+			final List< ProgressListenerInterface > listeners,
+			final long intervalMillis ) {
+		super();
+		this.numberOfSections = numberOfSections;
+		this.numberOfPairs    = numberOfPairs;
+		this.listeners        = listeners;
+		this.scheduler        = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+			@Override
+			public Thread newThread( final Runnable r ) {
+				final Thread thread = new Thread( r, "similarity-progress" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		scheduler.scheduleAtFixedRate( new Runnable() {
+			@Override
+			public void run() {
+				report( false );
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS );
+	}
+
+	public void sectionExtracted( final int numberOfFeatures ) {
+		sectionsExtracted.incrementAndGet();
+		featuresExtracted.addAndGet( numberOfFeatures );
+	}
+
+	public void pairsMatched( final int numberOfPairs ) {
+		pairsMatched.addAndGet( numberOfPairs );
+	}
+
+	public void sectionsInMemory( final int numberOfSections ) {
+		int peak;
+		do {
+			peak = peakSectionsInMemory.get();
+			if ( numberOfSections <= peak )
+				return;
+		} while ( !peakSectionsInMemory.compareAndSet( peak, numberOfSections ) );
+	}
+
+	public SimilarityProgress getProgress( final boolean done ) {
+		return new SimilarityProgress(
+				numberOfSections,
+				sectionsExtracted.get(),
+				featuresExtracted.get(),
+				numberOfPairs,
+				pairsMatched.get(),
+				System.nanoTime() - start,
+				peakSectionsInMemory.get(),
+				done );
+	}
+
+	/**
+	 * Stop periodic reports and report the final progress from the calling thread.
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdown();
+		try {
+			// wait for a running report, listeners must not be called concurrently
+			scheduler.awaitTermination( 1, TimeUnit.MINUTES );
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		report( true );
+	}
+
+	private void report( final boolean done ) {
+		final SimilarityProgress progress = getProgress( done );
+		for ( final ProgressListenerInterface listener : listeners ) {
+			try {
+				listener.progressChanged( progress );
+			} catch ( final RuntimeException e ) {
+				// a failing listener must neither stop reports nor the calculation, log only its first failure
+				if ( failedListeners.add( listener ) )
+					IJ.log( "Progress listener " + listener + " failed, further failures are not reported: " + e );
+			}
+		}
+	}
+
+}
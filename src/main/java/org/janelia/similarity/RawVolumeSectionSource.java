@@ -0,0 +1,231 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+/**
+ * {@link SectionSourceInterface} for a volume that is stored as one raw file, section after section with
+ * width * height pixels each, optionally preceded by a header. Each section is read with a positional read
+ * when it is requested, so volumes of arbitrary size can be processed. Pixels are unsigned 8 bit, unsigned
+ * 16 bit, or 32 bit float, sections are returned as {@link FloatProcessor}. Use {@link #openMetaImage(File)}
+ * to open a volume that is described by a MetaImage header (.mhd).
+ */
+public class RawVolumeSectionSource implements SectionSourceInterface, Closeable {
+
+	private final FileChannel channel;
+
+	private final int width;
+
+	private final int height;
+
+	private final int bytesPerPixel;
+
+	private final ByteOrder byteOrder;
+
+	private final long headerSize;
+
+	private final int numberOfSections;
+
+	/**
+	 * @param file raw volume
+	 * @param width width of each section
+	 * @param height height of each section
+	 * @param bytesPerPixel 1 for unsigned 8 bit, 2 for unsigned 16 bit, 4 for 32 bit float
+	 * @param littleEndian byte order of 16 bit and 32 bit pixels
+	 * @param headerSize number of bytes before the first section
+	 * @throws IOException if file cannot be opened
+	 */
+	public RawVolumeSectionSource(
+			final File file,
+			final int width,
+			final int height,
+			final int bytesPerPixel,
+			final boolean littleEndian,
+			final long headerSize ) throws IOException {
+		this( file, width, height, bytesPerPixel, littleEndian, headerSize, -1 );
+	}
+
+	/**
+	 * @param file raw volume
+	 * @param width width of each section
+	 * @param height height of each section
+	 * @param bytesPerPixel 1 for unsigned 8 bit, 2 for unsigned 16 bit, 4 for 32 bit float
+	 * @param littleEndian byte order of 16 bit and 32 bit pixels
+	 * @param headerSize number of bytes before the first section
+	 * @param numberOfSections number of sections in file, all complete sections after the header if negative
+	 * @throws IOException if file cannot be opened or holds less than numberOfSections sections
+	 */
+	public RawVolumeSectionSource(
+			final File file,
+			final int width,
+			final int height,
+			final int bytesPerPixel,
+			final boolean littleEndian,
+			final long headerSize,
+			final int numberOfSections ) throws IOException {
+		super();
+		if ( bytesPerPixel != 1 && bytesPerPixel != 2 && bytesPerPixel != 4 )
+			throw new IllegalArgumentException( "Expected 1, 2, or 4 bytes per pixel but got " + bytesPerPixel );
+		if ( ( long ) width * height * bytesPerPixel > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( String.format( "Sections of %dx%d pixels are too large.", width, height ) );
+		this.channel       = FileChannel.open( file.toPath(), StandardOpenOption.READ );
+		this.width         = width;
+		this.height        = height;
+		this.bytesPerPixel = bytesPerPixel;
+		this.byteOrder     = littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+		this.headerSize    = headerSize;
+		final int available = ( int ) ( ( channel.size() - headerSize ) / getSectionSize() );
+		if ( available < numberOfSections ) {
+			channel.close();
+			throw new EOFException( String.format( "Expected %d sections in %s but found %d.", numberOfSections, file, available ) );
+		}
+		this.numberOfSections = numberOfSections < 0 ? available : numberOfSections;
+	}
+
+	/**
+	 * Open the volume that is described by a MetaImage header with detached data, e.g.
+	 *
+	 * <pre>
+	 * NDims = 3
+	 * DimSize = 1024 1024 500
+	 * ElementType = MET_USHORT
+	 * BinaryDataByteOrderMSB = False
+	 * ElementDataFile = volume.raw
+	 * </pre>
+	 *
+	 * ElementType is one of MET_UCHAR, MET_USHORT, or MET_FLOAT. ElementDataFile is relative to the directory
+	 * of the header. HeaderSize is optional, -1 means that the data is at the end of ElementDataFile.
+	 *
+	 * @param header MetaImage header
+	 * @return source for the data file of header
+	 * @throws IOException if header cannot be read, is not supported, or data file cannot be opened
+	 */
+	public static RawVolumeSectionSource openMetaImage( final File header ) throws IOException {
+		final HashMap< String, String > fields = readMetaImageHeader( header );
+
+		final String[] dimensions = getField( fields, "DimSize", header ).split( "\\s+" );
+		if ( dimensions.length != 3 )
+			throw new IOException( "Expected three dimensions in " + header + " but got " + dimensions.length );
+		final int width  = Integer.parseInt( dimensions[ 0 ] );
+		final int height = Integer.parseInt( dimensions[ 1 ] );
+		final int depth  = Integer.parseInt( dimensions[ 2 ] );
+
+		final String elementType = getField( fields, "ElementType", header );
+		final int bytesPerPixel;
+		if ( elementType.equals( "MET_UCHAR" ) )
+			bytesPerPixel = 1;
+		else if ( elementType.equals( "MET_USHORT" ) )
+			bytesPerPixel = 2;
+		else if ( elementType.equals( "MET_FLOAT" ) )
+			bytesPerPixel = 4;
+		else
+			throw new IOException( "Unsupported ElementType " + elementType + " in " + header );
+
+		final File dataFile = getDataFile( fields, header );
+
+		String msb = fields.get( "BinaryDataByteOrderMSB" );
+		if ( msb == null )
+			msb = fields.get( "ElementByteOrderMSB" );
+		final boolean littleEndian = msb == null || !msb.equalsIgnoreCase( "True" );
+
+		final long dataSize   = ( long ) width * height * depth * bytesPerPixel;
+		final long headerSize = fields.containsKey( "HeaderSize" ) ? Long.parseLong( fields.get( "HeaderSize" ) ) : 0;
+		return new RawVolumeSectionSource(
+				dataFile,
+				width,
+				height,
+				bytesPerPixel,
+				littleEndian,
+				headerSize < 0 ? dataFile.length() - dataSize : headerSize,
+				depth );
+	}
+
+	/**
+	 * @param header MetaImage header
+	 * @return detached data file of header
+	 * @throws IOException if header cannot be read or does not describe a single detached data file
+	 */
+	public static File getMetaImageDataFile( final File header ) throws IOException {
+		return getDataFile( readMetaImageHeader( header ), header );
+	}
+
+	private static HashMap< String, String > readMetaImageHeader( final File header ) throws IOException {
+		final HashMap< String, String > fields = new HashMap< String, String >();
+		final BufferedReader reader = new BufferedReader( new FileReader( header ) );
+		try {
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+				final int separator = line.indexOf( '=' );
+				if ( separator >= 0 )
+					fields.put( line.substring( 0, separator ).trim(), line.substring( separator + 1 ).trim() );
+			}
+		} finally {
+			reader.close();
+		}
+		return fields;
+	}
+
+	private static File getDataFile( final HashMap< String, String > fields, final File header ) throws IOException {
+		final String dataFileName = getField( fields, "ElementDataFile", header );
+		if ( dataFileName.equals( "LOCAL" ) || dataFileName.startsWith( "LIST" ) || dataFileName.contains( "%" ) )
+			throw new IOException( "Expected a single detached data file in " + header + " but got " + dataFileName );
+		return new File( header.getAbsoluteFile().getParentFile(), dataFileName );
+	}
+
+	private static String getField( final HashMap< String, String > fields, final String key, final File header ) throws IOException {
+		final String value = fields.get( key );
+		if ( value == null )
+			throw new IOException( "Missing " + key + " in " + header );
+		return value;
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return numberOfSections;
+	}
+
+	@Override
+	public ImageProcessor getSection( final int k ) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate( getSectionSize() ).order( byteOrder );
+		final long offset = headerSize + ( long ) k * getSectionSize();
+		// positional reads do not modify the channel position, i.e. multiple threads can read concurrently
+		while ( buffer.hasRemaining() )
+			if ( channel.read( buffer, offset + buffer.position() ) < 0 )
+				throw new EOFException( "Section " + k + " is truncated." );
+		buffer.flip();
+		final float[] pixels = new float[ width * height ];
+		if ( bytesPerPixel == 1 )
+			for ( int i = 0; i < pixels.length; ++i )
+				pixels[ i ] = buffer.get( i ) & 0xff;
+		else if ( bytesPerPixel == 2 )
+			for ( int i = 0; i < pixels.length; ++i )
+				pixels[ i ] = buffer.getShort( 2 * i ) & 0xffff;
+		else
+			buffer.asFloatBuffer().get( pixels );
+		return new FloatProcessor( width, height, pixels );
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private int getSectionSize() {
+		return width * height * bytesPerPixel;
+	}
+
+}
@@ -0,0 +1,29 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.IOException;
+
+import ij.process.ImageProcessor;
+
+/**
+ * Source of the sections of a series that are read one at a time, e.g. from an {@link ij.ImageStack} in memory
+ * or lazily from disk for series that do not fit into memory. Implementations need to be thread-safe,
+ * sections are requested by multiple extraction workers concurrently.
+ */
+public interface SectionSourceInterface {
+
+	/**
+	 * @return number of sections
+	 */
+	public int getNumberOfSections();
+
+	/**
+	 * @param k section index, 0 &lt;= k &lt; {@link #getNumberOfSections()}
+	 * @return section k, callers must not modify it
+	 * @throws IOException if section k cannot be read
+	 */
+	public ImageProcessor getSection( int k ) throws IOException;
+
+}
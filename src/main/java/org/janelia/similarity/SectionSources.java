@@ -0,0 +1,67 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Static helpers for opening a {@link SectionSourceInterface} from a path.
+ */
+public class SectionSources {
+
+	/**
+	 * @param path directory with one image file per section, MetaImage header (.mhd) of a raw volume, or image stack
+	 * @return {@link DirectorySectionSource} that reads sections lazily if path is a directory,
+	 *         {@link RawVolumeSectionSource} if path is a MetaImage header, otherwise {@link StackSectionSource}
+	 *         of the stack in path. TIFF stacks are opened as virtual stacks, i.e. slices are read when they are
+	 *         requested.
+	 * @throws IOException if path cannot be opened
+	 */
+	public static SectionSourceInterface open( final File path ) throws IOException {
+		if ( path.isDirectory() )
+			return new DirectorySectionSource( path );
+		final String name = path.getName().toLowerCase();
+		if ( name.endsWith( ".mhd" ) )
+			return RawVolumeSectionSource.openMetaImage( path );
+		final ImagePlus imp = name.endsWith( ".tif" ) || name.endsWith( ".tiff" ) ?
+				IJ.openVirtual( path.getAbsolutePath() ) :
+				new ImagePlus( path.getAbsolutePath() );
+		if ( imp == null || imp.getWidth() == 0 || imp.getHeight() == 0 )
+			throw new IOException( "Cannot open image stack " + path );
+		return new StackSectionSource( imp.getStack() );
+	}
+
+	/**
+	 * @param path input as for {@link #open(File)}
+	 * @return files that hold the sections of path: the section files of a directory, header and data file of
+	 *         a MetaImage header, or path itself
+	 * @throws IOException if a directory cannot be listed or a MetaImage header cannot be read
+	 */
+	public static ArrayList< File > listFiles( final File path ) throws IOException {
+		if ( path.isDirectory() )
+			return DirectorySectionSource.listSectionFiles( path );
+		final ArrayList< File > files = new ArrayList< File >();
+		files.add( path );
+		if ( path.getName().toLowerCase().endsWith( ".mhd" ) )
+			files.add( RawVolumeSectionSource.getMetaImageDataFile( path ) );
+		return files;
+	}
+
+	/**
+	 * Close source if it holds resources, i.e. if it is {@link Closeable}.
+	 * @param source section source, may be null
+	 * @throws IOException if source cannot be closed
+	 */
+	public static void close( final SectionSourceInterface source ) throws IOException {
+		if ( source instanceof Closeable )
+			( ( Closeable ) source ).close();
+	}
+
+}
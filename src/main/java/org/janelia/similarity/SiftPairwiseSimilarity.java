@@ -3,9 +3,20 @@
  */
 package org.janelia.similarity;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 
 import ij.IJ;
 import ij.ImageJ;
@@ -13,7 +24,6 @@ import ij.ImagePlus;
 import ij.ImageStack;
 import ij.process.FloatProcessor;
 import ij.process.ImageProcessor;
-import mpicbg.ij.FeatureTransform;
 import mpicbg.ij.SIFT;
 import mpicbg.imagefeatures.Feature;
 import mpicbg.imagefeatures.FloatArray2DSIFT;
@@ -21,6 +31,7 @@ import mpicbg.models.AffineModel2D;
 import mpicbg.models.Model;
 import mpicbg.models.NotEnoughDataPointsException;
 import mpicbg.models.PointMatch;
+import mpicbg.models.TranslationModel2D;
 
 /**
  * Calculate pairwise similarity matrix for image stack. To that end, extract SIFT  features for pairwise sections and 
@@ -46,6 +57,80 @@ public class SiftPairwiseSimilarity {
 		public Integer nThreads;
 		public Boolean showProgress;
 		public Integer range;
+		/** Directory for persistent feature cache, features will not be cached if null. See {@link FeatureCache}. */
+		public String featureCacheDirectory;
+		/** Number of candidates per section selected by {@link CandidateSelection}, at least 1, see {@link SiftPairwiseSimilarity#calculateCandidateSimilarityMatrix(SectionSourceInterface, Model)}. */
+		public Integer numberOfCandidates;
+		/** Width and height of thumbnail signatures used by {@link CandidateSelection}. */
+		public Integer signatureSize;
+		/** Number of randomized kd-trees per {@link DescriptorIndex}, 0 for exact descriptor matching. */
+		public Integer numberOfTrees;
+		/** Maximum number of descriptor comparisons per feature for approximate matching ({@link #numberOfTrees} &gt; 0), higher values increase recall. */
+		public Integer maxChecks;
+		/** Maximum number of RANSAC iterations. */
+		public Integer maxIterations;
+		/** Stop RANSAC as soon as a model was found with {@link #ransacConfidence}, see {@link AdaptiveRansac}. */
+		public Boolean adaptiveRansac;
+		/** Confidence for adaptive RANSAC. */
+		public Float ransacConfidence;
+		/**
+		 * Rejection gate: reject pairs for which no {@link TranslationModel2D} can be found before fitting the
+		 * actual model. Pairs that pass the gate are always fit with the actual model, i.e. the gate saves time
+		 * on pairs that do not match only and does not change the similarity of pairs that do.
+		 */
+		public Boolean translationGate;
+		/** Match pairs as soon as features of both sections exist instead of after extraction for the whole stack. */
+		public Boolean pipelined;
+		/**
+		 * Maximum number of sections whose features are held in memory during pipelined calculation. Pairs are
+		 * matched in tiles of rowsPerTile = max( 1, 32 / ( {@link #range} - 1 ) ) rows, so at least rowsPerTile +
+		 * {@link #range} - 1 sections are required and smaller values are raised to that. 0 for rowsPerTile +
+		 * {@link #range} - 1 + 2 * {@link #nThreads}.
+		 */
+		public Integer maxSectionsInMemory;
+		/** Number of sections that are read on a separate thread ahead of the {@link #nThreads} sections being extracted, 0 for no read-ahead. */
+		public Integer prefetch;
+		/** Interval in milliseconds at which progress is reported and the matrix is redrawn if {@link #showProgress}. */
+		public Integer progressInterval;
+		/** Screen all pairs with features extracted at octave sizes scaled by this factor first and match only selected pairs at full resolution, 0 for a single pass. See {@link SiftPairwiseSimilarity#selectPairsForRefinement(SimilarityMatrixInterface, int, int)}. */
+		public Float coarseScale;
+		/** Pairs whose coarse similarity is at least this value are matched again at full resolution, all other pairs that are not among {@link #refineNeighbors} are set to NaN. */
+		public Float refineThreshold;
+		/** Number of pairs with the highest coarse similarity per row that are matched again at full resolution, independent of {@link #refineThreshold}. */
+		public Integer refineNeighbors;
+		
+		/**
+		 * @return copy of all parameters, modifying the copy (including {@link #p}) does not modify this
+		 */
+		public Param copy() {
+			final Param copy = new Param();
+			copy.p                     = p == null ? null : p.clone();
+			copy.maxSteps              = maxSteps;
+			copy.rod                   = rod;
+			copy.maxEpsilon            = maxEpsilon;
+			copy.minInlierRatio        = minInlierRatio;
+			copy.minNumInliers         = minNumInliers;
+			copy.nThreads              = nThreads;
+			copy.showProgress          = showProgress;
+			copy.range                 = range;
+			copy.featureCacheDirectory = featureCacheDirectory;
+			copy.numberOfCandidates    = numberOfCandidates;
+			copy.signatureSize         = signatureSize;
+			copy.numberOfTrees         = numberOfTrees;
+			copy.maxChecks             = maxChecks;
+			copy.maxIterations         = maxIterations;
+			copy.adaptiveRansac        = adaptiveRansac;
+			copy.ransacConfidence      = ransacConfidence;
+			copy.translationGate       = translationGate;
+			copy.pipelined             = pipelined;
+			copy.maxSectionsInMemory   = maxSectionsInMemory;
+			copy.prefetch              = prefetch;
+			copy.progressInterval      = progressInterval;
+			copy.coarseScale           = coarseScale;
+			copy.refineThreshold       = refineThreshold;
+			copy.refineNeighbors       = refineNeighbors;
+			return copy;
+		}
 	}
 	
 	/**
@@ -67,12 +152,38 @@ public class SiftPairwiseSimilarity {
 		p.nThreads       = Runtime.getRuntime().availableProcessors();
 		p.showProgress   = true;
 		p.range          = 50;
+		p.featureCacheDirectory = null;
+		p.numberOfCandidates    = 20;
+		p.signatureSize         = 32;
+		p.numberOfTrees         = 0;
+		p.maxChecks             = 128;
+		p.maxIterations         = 1000;
+		p.adaptiveRansac        = true;
+		p.ransacConfidence      = 0.99f;
+		p.translationGate       = false;
+		p.pipelined             = true;
+		p.maxSectionsInMemory   = 0;
+		p.prefetch              = 2;
+		p.progressInterval      = 500;
+		p.coarseScale           = 0.0f;
+		p.refineThreshold       = 0.05f;
+		p.refineNeighbors       = 2;
 		
 		return p;
 	}
 	
 	
+	/**
+	 * Number of pairs that are matched within one task, i.e. rows are grouped into tiles of
+	 * ~PAIRS_PER_TILE / ( range - 1 ) rows.
+	 */
+	private static final int PAIRS_PER_TILE = 32;
+	
 	private final Param p;
+	
+	private final ExecutorService executorService;
+	
+	private final ProgressListenerInterface listener;
 
 	/**
 	 * Construct SiftPairwiseSimilarity with default parameters.
@@ -84,11 +195,85 @@ public class SiftPairwiseSimilarity {
 	
 	/**
 	 * @param p Parameters for feature extraction and matching.
-	 * Construct SiftPairwiseSimilarity with parameters p.
+	 * Construct SiftPairwiseSimilarity with parameters p. A pool of {@link Param#nThreads} threads
+	 * is created for each call and shut down afterwards.
 	 */
 	public SiftPairwiseSimilarity(final Param p) {
+		this( p, null );
+	}
+	
+	
+	/**
+	 * @param p Parameters for feature extraction and matching.
+	 * @param executorService {@link ExecutorService} that runs feature extraction and matching tasks, will
+	 *        not be shut down. If null, a pool of {@link Param#nThreads} threads is created for each call.
+	 * Construct SiftPairwiseSimilarity with parameters p that shares executorService.
+	 */
+	public SiftPairwiseSimilarity( final Param p, final ExecutorService executorService ) {
+		this( p, executorService, null );
+	}
+	
+	
+	/**
+	 * @param p Parameters for feature extraction and matching.
+	 * @param executorService {@link ExecutorService} that runs feature extraction and matching tasks, will
+	 *        not be shut down. If null, a pool of {@link Param#nThreads} threads is created for each call.
+	 * @param listener {@link ProgressListenerInterface} that receives progress every {@link Param#progressInterval}
+	 *        milliseconds, may be null.
+	 * Construct SiftPairwiseSimilarity with parameters p that shares executorService and reports progress to listener.
+	 * Without listener and without {@link Param#showProgress}, progress is not tracked at all.
+	 */
+	public SiftPairwiseSimilarity( final Param p, final ExecutorService executorService, final ProgressListenerInterface listener ) {
 		super();
 		this.p = p;
+		this.executorService = executorService;
+		this.listener = listener;
+	}
+	
+	
+	/**
+	 * @return {@link ProgressTracker} that reports to {@link #listener} and, if {@link Param#showProgress}, redraws
+	 *         impMatrix; null if there is nobody to report to.
+	 */
+	private ProgressTracker startProgress( final int numberOfSections, final long numberOfPairs, final ImagePlus impMatrix ) {
+		final ArrayList< ProgressListenerInterface > listeners = new ArrayList< ProgressListenerInterface >();
+		if ( listener != null )
+			listeners.add( listener );
+		if ( p.showProgress )
+			listeners.add( new ImagePlusProgressListener( impMatrix ) );
+		return listeners.isEmpty() ? null : new ProgressTracker( numberOfSections, numberOfPairs, listeners, p.progressInterval );
+	}
+	
+	
+	/**
+	 * @return number of pairs i &lt; k &lt; i + {@link Param#range}, firstRow &lt;= i &lt; stopRow, firstSection &lt;= k &lt; n
+	 */
+	private long countPairs( final int n, final int firstRow, final int stopRow, final int firstSection ) {
+		long numberOfPairs = 0;
+		for ( int i = firstRow; i < stopRow; ++i )
+			numberOfPairs += Math.max( 0, Math.min( n, i + p.range ) - Math.max( i + 1, firstSection ) );
+		return numberOfPairs;
+	}
+	
+	
+	/**
+	 * Run all tasks on {@link #executorService} (or a temporary pool) and wait for them to finish.
+	 * @param tasks independent tasks
+	 */
+	private void invokeAll( final List< Callable< Void > > tasks ) {
+		final ExecutorService es = executorService == null ? Executors.newFixedThreadPool( p.nThreads ) : executorService;
+		try {
+			for ( final Future< Void > future : es.invokeAll( tasks ) )
+				future.get();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( e );
+		} catch ( final ExecutionException e ) {
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			if ( executorService == null )
+				es.shutdown();
+		}
 	}
 
 
@@ -139,28 +324,44 @@ public class SiftPairwiseSimilarity {
 	 *         calculating the ratio of inliers to outliers + inliers.
 	 */
 	public < M extends Model< M > > double match( final M model, final List< Feature > features1, final List< Feature > features2 ) {
+		return match( model, new DescriptorIndex( features1 ), createDescriptorIndex( features2 ) );
+	}
+	
+	
+	/**
+	 * @param model
+	 *            {@link Model} under which SIFT features should match, e.g.
+	 *            {@link AffineModel2D}
+	 * @param index1
+	 *            {@link DescriptorIndex} of first set of features for matching.
+	 * @param index2
+	 *            {@link DescriptorIndex} of second set of features for matching.
+	 * @return Similarity based on ratio of inliers to outliers + inliers.
+	 *         Same as {@link #match(Model, List, List)} but re-uses indexes that were built once per section.
+	 */
+	public < M extends Model< M > > double match( final M model, final DescriptorIndex index1, final DescriptorIndex index2 ) {
 		
 		final ArrayList<PointMatch> candidates = new ArrayList< PointMatch >();
 		final ArrayList<PointMatch> inliers = new ArrayList< PointMatch >();
 		double inlierRatio = 0.0;
 	
 		// can only fit model if features exist for both sections, return 0.0 otherwise
-		if ( features1.size() > 0 && features2.size() > 0 ) {
-			FeatureTransform.matchFeatures( features1, features2, candidates, p.rod );
+		if ( index1.size() > 0 && index2.size() > 0 ) {
+			DescriptorIndex.matchFeatures( index1, index2, candidates, p.rod, p.maxChecks );
 			
 			boolean modelFound = false;
-			try {
-				modelFound = model.filterRansac(
-					candidates,
-					inliers,
-					1000,
-					p.maxEpsilon,
-					p.minInlierRatio,
-					p.minNumInliers,
-					3);
-			}
-			catch (final NotEnoughDataPointsException e) {
-				modelFound = false;
+			// no model can have enough inliers
+			if ( candidates.size() >= p.minNumInliers ) {
+				try {
+					// cheap rejection of pairs that do not match, the minimal sample of a translation is a single match;
+					// pairs that pass are fit with the actual model
+					if ( p.translationGate && !fitModel( new TranslationModel2D(), candidates, inliers ) )
+						return inlierRatio;
+					modelFound = fitModel( model, candidates, inliers );
+				}
+				catch (final NotEnoughDataPointsException e) {
+					modelFound = false;
+				}
 			}
 		
 			// return 0.0, if model could not be fit to data 
@@ -172,56 +373,246 @@ public class SiftPairwiseSimilarity {
 	}
 	
 	
+	/**
+	 * Fit model to candidates with {@link AdaptiveRansac} or {@link Model#filterRansac}, depending on {@link Param#adaptiveRansac}.
+	 */
+	private < M extends Model< M > > boolean fitModel( final M model, final ArrayList< PointMatch > candidates, final ArrayList< PointMatch > inliers ) throws NotEnoughDataPointsException {
+		if ( p.adaptiveRansac )
+			return AdaptiveRansac.filterRansac(
+				model,
+				candidates,
+				inliers,
+				p.maxIterations,
+				p.ransacConfidence,
+				p.maxEpsilon,
+				p.minInlierRatio,
+				p.minNumInliers,
+				3,
+				new Random( AdaptiveRansac.DEFAULT_SEED ) );
+		else
+			return model.filterRansac(
+				candidates,
+				inliers,
+				p.maxIterations,
+				p.maxEpsilon,
+				p.minInlierRatio,
+				p.minNumInliers,
+				3);
+	}
+	
+	
+	/**
+	 * @param features
+	 *            Features of a section.
+	 * @return {@link DescriptorIndex} with {@link Param#numberOfTrees} trees.
+	 */
+	public DescriptorIndex createDescriptorIndex( final List< Feature > features ) {
+		return new DescriptorIndex( features, p.numberOfTrees, DescriptorIndex.DEFAULT_SEED );
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param first
+	 *            First section for which an index is built, entries for sections before first are null.
+	 * @return List of {@link DescriptorIndex} for each section, built in parallel.
+	 */
+	public ArrayList< DescriptorIndex > createDescriptorIndexes( final List< List< Feature > > featuresList, final int first ) {
+		return createDescriptorIndexes( featuresList, first, featuresList.size() );
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param first
+	 *            First section for which an index is built.
+	 * @param stop
+	 *            Indexes are built for sections first &lt;= k &lt; stop, all other entries are null.
+	 * @return List of {@link DescriptorIndex} for each section, built in parallel.
+	 */
+	public ArrayList< DescriptorIndex > createDescriptorIndexes( final List< List< Feature > > featuresList, final int first, final int stop ) {
+		final int n = featuresList.size();
+		final ArrayList< DescriptorIndex > indexes = new ArrayList< DescriptorIndex >( n );
+		for ( int k = 0; k < n; ++k )
+			indexes.add( null );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int k = first; k < stop; ++k ) {
+			final int fk = k;
+			tasks.add(
+				new Callable< Void >(){
+					@Override
+					public Void call(){
+						indexes.set( fk, createDescriptorIndex( featuresList.get( fk ) ) );
+						return null;
+					}
+				}
+			);
+		}
+		invokeAll( tasks );
+		return indexes;
+	}
+	
+	
 	/**
 	 * @param imp
 	 *            {@link ImagePlus} containing the stack for which SIFT features
 	 *            are to be extracted.
 	 * @return List of features for each section of imp. Extract in parallel for
 	 *         each section of imp SIFT features, using SIFT parameters as
-	 *         specified in {@link Param#p}.
+	 *         specified in {@link Param#p}. If {@link Param#featureCacheDirectory}
+	 *         is set, features are loaded from and stored in a {@link FeatureCache}.
 	 */
 	public ArrayList< List< Feature > > extractFeatures( final ImagePlus imp ) {
-		final ImageStack stack = imp.getStack();
-		final int n = stack.getSize();
+		return extractFeatures( imp, 0, imp.getStack().getSize() );
+	}
+	
+	
+	/**
+	 * @param imp
+	 *            {@link ImagePlus} containing the stack for which SIFT features
+	 *            are to be extracted.
+	 * @param first
+	 *            First section for which features are extracted.
+	 * @param stop
+	 *            Features are extracted for sections first &lt;= k &lt; stop.
+	 * @return List of features for each section of imp, null for sections outside of [first, stop). Same as
+	 *         {@link #extractFeatures(ImagePlus)} for a range of sections.
+	 */
+	public ArrayList< List< Feature > > extractFeatures( final ImagePlus imp, final int first, final int stop ) {
+		return extractFeatures( new StackSectionSource( imp.getStack() ), first, stop );
+	}
+	
+	
+	/**
+	 * @param source
+	 *            {@link SectionSourceInterface} from which sections are read when their features are extracted.
+	 * @param first
+	 *            First section for which features are extracted.
+	 * @param stop
+	 *            Features are extracted for sections first &lt;= k &lt; stop.
+	 * @return List of features for each section of source, null for sections outside of [first, stop). Same as
+	 *         {@link #extractFeatures(ImagePlus, int, int)} for series that are not loaded into memory. Sections are
+	 *         read {@link Param#prefetch} ahead of extraction.
+	 */
+	public ArrayList< List< Feature > > extractFeatures( final SectionSourceInterface source, final int first, final int stop ) {
+		final int n = source.getNumberOfSections();
 		final ArrayList< List< Feature > > featuresList = new ArrayList< List < Feature > >( n );
 		// add null for each section, so featuresList will have an entry for each section before loop starts
 		for ( int k = 0; k < n; ++k )
 			featuresList.add( null );
-		// Use atomic integer, so for no section features will be extracted twice.
-		final AtomicInteger i = new AtomicInteger(0);
-		final ArrayList<Thread> threads = new ArrayList< Thread >();
-		for (int t = 0; t < p.nThreads; ++t) {
-			final Thread thread = new Thread(
-				new Runnable(){
+		final FeatureCache cache = p.featureCacheDirectory == null ? null : new FeatureCache( new File( p.featureCacheDirectory ), p.p );
+		final PrefetchingSectionSource prefetching = createPrefetchingSource( source, PrefetchingSectionSource.createRange( n, first, stop ) );
+		final SectionSourceInterface sections = prefetching == null ? source : prefetching;
+		final ProgressTracker progress = startProgress( stop - first, 0, null );
+		// one task per section, tasks are started in order of sections
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int k = first; k < stop; ++k ) {
+			final int fk = k;
+			tasks.add(
+				new Callable< Void >(){
 					@Override
-					public void run(){
-						final FloatArray2DSIFT sift = new FloatArray2DSIFT( p.p );
-						final SIFT ijSIFT = new SIFT(sift);
-						// While there still are sections, ( k < n ), extract SIFT features.
-						// After each iteration, go to next unprocessed section (k = i.getAndIncrement()).
-						for (int k = i.getAndIncrement(); k < n; k = i.getAndIncrement()) {
-							final ArrayList< Feature > features = extract( ijSIFT, stack.getProcessor(k + 1) );
-							IJ.log( k + ": " + features.size() + " features extracted" );
-							featuresList.set( k, features );
-						}
+					public Void call() throws IOException {
+						featuresList.set( fk, extractSection( sections, fk, cache, progress ) );
+						return null;
 					}
 				}
 			);
-			threads.add(thread);
-			thread.start();
 		}
-		// Wait until all threads are finished.
-		for (final Thread t : threads)
-			try {
-				t.join();
-			} catch (final InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
+		try {
+			invokeAll( tasks );
+		} finally {
+			if ( prefetching != null )
+				prefetching.close();
+			if ( progress != null )
+				progress.close();
+		}
 		return featuresList;
 	}
 	
 	
+	/**
+	 * @param source sections
+	 * @param isRequested sections that will be requested, see {@link PrefetchingSectionSource}
+	 * @return {@link PrefetchingSectionSource} that reads {@link Param#prefetch} sections ahead of the
+	 *         {@link Param#nThreads} sections that are being extracted; null if {@link Param#prefetch} is 0
+	 */
+	private PrefetchingSectionSource createPrefetchingSource( final SectionSourceInterface source, final boolean[] isRequested ) {
+		return p.prefetch > 0 ? new PrefetchingSectionSource( source, p.nThreads + p.prefetch, isRequested ) : null;
+	}
+	
+	
+	/**
+	 * @return features of section k of source, loaded from cache if cache is not null, counted in progress if
+	 *         progress is not null
+	 */
+	private ArrayList< Feature > extractSection(
+			final SectionSourceInterface source,
+			final int k,
+			final FeatureCache cache,
+			final ProgressTracker progress ) throws IOException {
+		return extractSection( source.getSection( k ), k, cache, progress );
+	}
+	
+	
+	/**
+	 * @return features of ip, section k, loaded from cache if cache is not null, counted in progress if
+	 *         progress is not null
+	 */
+	private ArrayList< Feature > extractSection(
+			final ImageProcessor ip,
+			final int k,
+			final FeatureCache cache,
+			final ProgressTracker progress ) {
+		final FloatArray2DSIFT sift = new FloatArray2DSIFT( p.p );
+		final SIFT ijSIFT = new SIFT(sift);
+		final ArrayList< Feature > features = cache == null ? extract( ijSIFT, ip ) : cache.extract( ijSIFT, ip );
+		IJ.log( k + ": " + features.size() + " features extracted" );
+		if ( progress != null )
+			progress.sectionExtracted( features.size() );
+		return features;
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param range
+	 *            Store similarities for sections i, j with |i - j| &lt; range.
+	 * @return {@link BandedSimilarityMatrix} with 1.0 or 0.0 on diagonal, NaN elsewhere
+	 *         Convenience function for creating a banded matrix filled with NaNs, except for the diagonal where
+	 *         values are 1.0 if there are SIFT features for that section, and 0.0 otherwise.
+	 */
+	public static BandedSimilarityMatrix generateBandedMatrix( final ArrayList< List< Feature > > featuresList, final int range ) {
+		final int n = featuresList.size();
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, range );
+		for ( int i = 0; i < n; ++i )
+			matrix.set( i, i, featuresList.get( i ).size() > 0 ? 1.0f : 0.0f );
+		return matrix;
+	}
+	
+	
+	/**
+	 * @param matrix {@link SimilarityMatrixInterface} to be copied
+	 * @return dense n x n {@link FloatProcessor} holding all entries of matrix, NaN where nothing is stored 
+	 */
+	public static FloatProcessor toFloatProcessor( final SimilarityMatrixInterface matrix ) {
+		final int n = matrix.getNumberOfSections();
+		final FloatProcessor result = new FloatProcessor( n, n );
+		result.add( Double.NaN );
+		final int[] columns = new int[ matrix.getMaxRowLength() ];
+		final float[] similarities = new float[ matrix.getMaxRowLength() ];
+		for ( int i = 0; i < n; ++i ) {
+			final int count = matrix.getRow( i, columns, similarities );
+			for ( int k = 0; k < count; ++k )
+				result.setf( i, columns[ k ], similarities[ k ] );
+		}
+		result.setMinAndMax( 0.0, 1.0 );
+		return result;
+	}
+	
+	
 	/**
 	 * @param featuresList
 	 *            List of features for each section.
@@ -235,47 +626,621 @@ public class SiftPairwiseSimilarity {
 	public < M extends Model< M > > ImagePlus matchFeaturesAndCalculateSimilarities( 
 			final ArrayList< List< Feature > > featuresList,
 			final M model) {
-		final ArrayList<Thread> threads = new ArrayList< Thread >();
 		final int n = featuresList.size(); // dimension of matrix = number of sections in stack
 		final FloatProcessor matrix = generateMatrix( n, featuresList );
 		final ImagePlus impMatrix = new ImagePlus("inlier ratio matrix", matrix);
 		// show result while matrix is being filled with values
 		if ( p.showProgress )
 			impMatrix.show();
-		// loop through all sections and compare each section to p.range next sections
-		// k >= fi + 1 > i at all times
-		for (int i = 0; i < n; ++i) {
-			final int fi = i; // need to create final variable for use in Runnable.run()
-			final List<Feature> f1 = featuresList.get( fi );
-			final AtomicInteger j = new AtomicInteger(fi + 1);
-			for (int t = 0; t < p.nThreads; ++t) {
-				final Thread thread = new Thread(
-					new Runnable(){
-						@Override
-						public void run(){
-							for (int k = j.getAndIncrement(); k < n && k < fi + p.range; k = j.getAndIncrement()) {
-								final List<Feature> f2 = featuresList.get( k );
-								// get inlier ratio
-								final float inlierRatio = (float)match( model, f1, f2 );
-								matrix.setf(fi, k, inlierRatio);
-								matrix.setf(k, fi, inlierRatio);
-								impMatrix.updateAndDraw();
-							}
-						}
+		matchFeaturesAndCalculateSimilarities( featuresList, model, new FloatProcessorSimilarityMatrix( matrix ), impMatrix );
+		return impMatrix;
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param model
+	 *            {@link Model} for transforming feature matches.
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range} containing the pairwise similarities. 
+	 *         Same as {@link #matchFeaturesAndCalculateSimilarities(ArrayList, Model)} but without allocating
+	 *         a dense matrix.
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix matchFeaturesAndCalculateBandedSimilarities( 
+			final ArrayList< List< Feature > > featuresList,
+			final M model) {
+		final BandedSimilarityMatrix matrix = generateBandedMatrix( featuresList, p.range );
+		matchFeaturesAndCalculateSimilarities( featuresList, model, matrix, null );
+		return matrix;
+	}
+	
+	
+	/**
+	 * @param existing
+	 *            {@link BandedSimilarityMatrix} of range {@link Param#range} holding the similarities of the
+	 *            first existing.getNumberOfSections() sections of featuresList.
+	 * @param featuresList
+	 *            List of features for each section, including the sections in existing. Use a
+	 *            {@link FeatureCache} to avoid extracting features of existing sections again.
+	 * @param model
+	 *            {@link Model} for transforming feature matches.
+	 * @param checkpoint
+	 *            {@link SimilarityMatrixCheckpoint} for storing and resuming progress; may be null.
+	 * @return {@link BandedSimilarityMatrix} for all sections of featuresList. Only pairs that involve
+	 *         sections appended to existing are matched. If checkpoint holds a previous, interrupted run
+	 *         with the same parameters and input, the calculation continues from there and rows that were
+	 *         finished are not matched again. The checkpoint is deleted when the calculation is finished.
+	 * @throws IOException if checkpoint cannot be read or written
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix appendBandedSimilarities(
+			final BandedSimilarityMatrix existing,
+			final ArrayList< List< Feature > > featuresList,
+			final M model,
+			final SimilarityMatrixCheckpoint checkpoint ) throws IOException {
+		if ( existing.getRange() != p.range )
+			throw new IllegalArgumentException( String.format(
+					"Range of existing matrix (%d) does not match range parameter (%d).", existing.getRange(), p.range ) );
+		final int n            = featuresList.size();
+		final int firstSection = existing.getNumberOfSections();
+		if ( firstSection > n )
+			throw new IllegalArgumentException( String.format(
+					"Existing matrix has more sections (%d) than features list (%d).", firstSection, n ) );
+		BandedSimilarityMatrix matrix = checkpoint == null ? null : checkpoint.restore(
+				n, p.range, SimilarityMatrixCheckpoint.createKey( p, model, firstSection, featuresList ) );
+		if ( matrix == null ) {
+			matrix = existing.resize( n );
+			for ( int i = firstSection; i < n; ++i )
+				matrix.set( i, i, featuresList.get( i ).size() > 0 ? 1.0f : 0.0f );
+		}
+		// rows i < firstSection - p.range + 1 do not have any pair that involves a section k >= firstSection
+		final int firstRow = Math.max( 0, firstSection - p.range + 1 );
+		matchFeaturesAndCalculateSimilarities( featuresList, model, matrix, null, firstRow, n, firstSection, checkpoint );
+		if ( checkpoint != null )
+			checkpoint.delete();
+		return matrix;
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param model
+	 *            {@link Model} for transforming feature matches.
+	 * @param checkpoint
+	 *            {@link SimilarityMatrixCheckpoint} for storing and resuming progress.
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range} containing the pairwise similarities.
+	 *         Same as {@link #matchFeaturesAndCalculateBandedSimilarities(ArrayList, Model)} but resumes from
+	 *         checkpoint if a previous run was interrupted.
+	 * @throws IOException if checkpoint cannot be read or written
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix matchFeaturesAndCalculateBandedSimilarities(
+			final ArrayList< List< Feature > > featuresList,
+			final M model,
+			final SimilarityMatrixCheckpoint checkpoint ) throws IOException {
+		return appendBandedSimilarities( new BandedSimilarityMatrix( 0, p.range ), featuresList, model, checkpoint );
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section, only sections {@link SimilarityShard#getFirstSection()}
+	 *            &lt;= k &lt; {@link SimilarityShard#getStopSection(int, int)} are accessed.
+	 * @param model
+	 *            {@link Model} for transforming feature matches.
+	 * @param shard
+	 *            {@link SimilarityShard} that determines the rows to be calculated.
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range} for all sections of featuresList
+	 *         that holds similarities in the rows of shard only, NaN elsewhere. Merge the matrices of all
+	 *         shards with {@link SimilarityShard#merge(List, List)}.
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix matchFeaturesAndCalculateBandedSimilarities(
+			final ArrayList< List< Feature > > featuresList,
+			final M model,
+			final SimilarityShard shard ) {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( featuresList.size(), p.range );
+		for ( int i = shard.getFirstRow(); i < shard.getStopRow(); ++i )
+			matrix.set( i, i, featuresList.get( i ).size() > 0 ? 1.0f : 0.0f );
+		try {
+			matchFeaturesAndCalculateSimilarities( featuresList, model, matrix, null, shard.getFirstRow(), shard.getStopRow(), 0, null );
+		} catch ( final IOException e ) {
+			// cannot happen without checkpoint
+			throw new RuntimeException( e );
+		}
+		return matrix;
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param model
+	 *            {@link Model} for transforming feature matches.
+	 * @param matrix
+	 *            {@link SimilarityMatrixInterface} that will be filled with similarities for sections i, j with
+	 *            |i - j| &lt; {@link Param#range}.
+	 * @param impMatrix
+	 *            {@link ImagePlus} that displays matrix and is redrawn every {@link Param#progressInterval}
+	 *            milliseconds if {@link Param#showProgress}; may be null.
+	 */
+	public < M extends Model< M > > void matchFeaturesAndCalculateSimilarities( 
+			final ArrayList< List< Feature > > featuresList,
+			final M model,
+			final SimilarityMatrixInterface matrix,
+			final ImagePlus impMatrix ) {
+		try {
+			matchFeaturesAndCalculateSimilarities( featuresList, model, matrix, impMatrix, 0, featuresList.size(), 0, null );
+		} catch ( final IOException e ) {
+			// cannot happen without checkpoint
+			throw new RuntimeException( e );
+		}
+	}
+	
+	
+	/**
+	 * Fill matrix with similarities for sections i &lt; k &lt; i + {@link Param#range}, firstRow &lt;= i &lt; stopRow
+	 * and k &gt;= firstSection. Rows marked as done in checkpoint are skipped, rows are marked as done in
+	 * checkpoint when finished.
+	 */
+	private < M extends Model< M > > void matchFeaturesAndCalculateSimilarities( 
+			final ArrayList< List< Feature > > featuresList,
+			final M model,
+			final SimilarityMatrixInterface matrix,
+			final ImagePlus impMatrix,
+			final int firstRow,
+			final int stopRow,
+			final int firstSection,
+			final SimilarityMatrixCheckpoint checkpoint ) throws IOException {
+		if ( checkpoint != null && !( matrix instanceof BandedSimilarityMatrix ) )
+			throw new IllegalArgumentException( "Checkpoints are supported for " + BandedSimilarityMatrix.class.getSimpleName() + " only." );
+		final int n = featuresList.size(); // dimension of matrix = number of sections in stack
+		// compare each section i to p.range - 1 next sections k, i.e. i < k < i + p.range
+		// all pairs are scheduled at once as tiles of consecutive rows, no barrier between rows
+		final int rowsPerTile = Math.max( 1, PAIRS_PER_TILE / Math.max( 1, p.range - 1 ) );
+		// descriptor indexes are built once and re-used for all pairs of a section
+		final ArrayList< DescriptorIndex > indexes = createDescriptorIndexes( featuresList, firstRow, Math.min( n, stopRow + p.range - 1 ) );
+		final ProgressTracker progress = startProgress( 0, countPairs( n, firstRow, stopRow, firstSection ), impMatrix );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int start = firstRow; start < stopRow; start += rowsPerTile ) {
+			final int tileStart = start;
+			final int tileStop  = Math.min( stopRow, start + rowsPerTile );
+			tasks.add(
+				new Callable< Void >(){
+					@Override
+					public Void call() throws IOException {
+						matchTile( indexes, model, matrix, tileStart, tileStop, firstSection, null, checkpoint, progress );
+						return null;
 					}
-				);
-				threads.add(thread);
-				thread.start();
+				}
+			);
+		}
+		try {
+			invokeAll( tasks );
+		} catch ( final RuntimeException e ) {
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			throw e;
+		} finally {
+			if ( progress != null )
+				progress.close();
+		}
+	}
+	
+	
+	/**
+	 * Fill matrix with similarities for sections i &lt; k &lt; i + {@link Param#range}, tileStart &lt;= i &lt; tileStop
+	 * and k &gt;= firstSection. If selection is not null, only sections k in selection[i] are matched with i. Matched
+	 * pairs are counted in progress once per row if progress is not null.
+	 */
+	private < M extends Model< M > > void matchTile(
+			final List< DescriptorIndex > indexes,
+			final M model,
+			final SimilarityMatrixInterface matrix,
+			final int tileStart,
+			final int tileStop,
+			final int firstSection,
+			final int[][] selection,
+			final SimilarityMatrixCheckpoint checkpoint,
+			final ProgressTracker progress ) throws IOException {
+		final int n = indexes.size();
+		// model is modified when fitting, each task needs its own copy
+		final M tileModel = model.copy();
+		for ( int i = tileStart; i < tileStop; ++i ) {
+			if ( checkpoint != null && checkpoint.isRowDone( i ) )
+				continue;
+			final DescriptorIndex index1 = indexes.get( i );
+			final int firstColumn = Math.max( i + 1, firstSection );
+			final int stopColumn  = Math.min( n, i + p.range );
+			final int[] columns   = selection == null ? null : selection[ i ];
+			final int count       = columns == null ? Math.max( 0, stopColumn - firstColumn ) : columns.length;
+			int matched = 0;
+			for ( int c = 0; c < count; ++c ) {
+				final int k = columns == null ? firstColumn + c : columns[ c ];
+				if ( k < firstColumn || k >= stopColumn )
+					continue;
+				final DescriptorIndex index2 = indexes.get( k );
+				// get inlier ratio
+				final float inlierRatio = (float)match( tileModel, index1, index2 );
+				matrix.set( i, k, inlierRatio );
+				++matched;
 			}
-			for (final Thread t : threads)
-				try {
-					t.join();
-				} catch (final InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
+			if ( progress != null )
+				progress.pairsMatched( matched );
+		}
+		if ( checkpoint != null )
+			checkpoint.setRowsDone( tileStart, tileStop, ( BandedSimilarityMatrix ) matrix );
+	}
+	
+	
+	/**
+	 * @param imp
+	 *            {@link ImagePlus} containing the stack for which signatures are to be calculated.
+	 * @return List of {@link CandidateSelection#thumbnailSignature(ImageProcessor, int)} of size
+	 *         {@link Param#signatureSize} for each section of imp, calculated in parallel.
+	 */
+	public ArrayList< float[] > calculateSignatures( final ImagePlus imp ) {
+		final ImageStack stack = imp.getStack();
+		final int n = stack.getSize();
+		final ArrayList< float[] > signatures = new ArrayList< float[] >( n );
+		for ( int k = 0; k < n; ++k )
+			signatures.add( null );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int k = 0; k < n; ++k ) {
+			final int fk = k;
+			tasks.add(
+				new Callable< Void >(){
+					@Override
+					public Void call(){
+						signatures.set( fk, CandidateSelection.thumbnailSignature( stack.getProcessor( fk + 1 ), p.signatureSize ) );
+						return null;
+					}
 				}
+			);
 		}
-		return impMatrix;
+		invokeAll( tasks );
+		return signatures;
+	}
+	
+	
+	/**
+	 * @param signatures
+	 *            Signature for each section.
+	 * @return For each section, the {@link Param#numberOfCandidates} sections with the most similar
+	 *         signatures, see {@link CandidateSelection#selectCandidates(List, int, int)}. Rows are
+	 *         processed in parallel, the cost grows quadratically with the number of sections.
+	 * @throws IllegalArgumentException if {@link Param#numberOfCandidates} &lt; 1
+	 */
+	public int[][] selectCandidates( final List< float[] > signatures ) {
+		if ( p.numberOfCandidates < 1 )
+			throw new IllegalArgumentException( "Need at least one candidate per section but got " + p.numberOfCandidates + "." );
+		final int n = signatures.size();
+		final int[][] candidates = new int[ n ][];
+		final int rowsPerTile = Math.max( 1, PAIRS_PER_TILE / Math.max( 1, p.numberOfCandidates ) );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int start = 0; start < n; start += rowsPerTile ) {
+			final int tileStart = start;
+			final int tileStop  = Math.min( n, start + rowsPerTile );
+			tasks.add(
+				new Callable< Void >(){
+					@Override
+					public Void call(){
+						for ( int i = tileStart; i < tileStop; ++i )
+							candidates[ i ] = CandidateSelection.selectCandidates( signatures, i, p.numberOfCandidates );
+						return null;
+					}
+				}
+			);
+		}
+		invokeAll( tasks );
+		return candidates;
+	}
+	
+	
+	/**
+	 * @param featuresList
+	 *            List of features for each section.
+	 * @param model
+	 *            {@link Model} for transforming feature matches.
+	 * @param candidates
+	 *            candidates[i] holds the sections that will be matched with section i.
+	 * @return {@link SparseSimilarityMatrix} containing the similarities of all candidate pairs and the
+	 *         diagonal. Each candidate pair is matched once, independent of the distance of the pair in
+	 *         the stack.
+	 */
+	public < M extends Model< M > > SparseSimilarityMatrix matchFeaturesAndCalculateCandidateSimilarities(
+			final ArrayList< List< Feature > > featuresList,
+			final M model,
+			final int[][] candidates ) {
+		final int n = featuresList.size();
+		final SparseSimilarityMatrix matrix = new SparseSimilarityMatrix( candidates );
+		for ( int i = 0; i < n; ++i )
+			matrix.set( i, i, featuresList.get( i ).size() > 0 ? 1.0f : 0.0f );
+		final ArrayList< DescriptorIndex > indexes = createDescriptorIndexes( featuresList, 0 );
+		long numberOfPairs = 0;
+		for ( int i = 0; i < n; ++i )
+			numberOfPairs += matrix.getUpperNeighbors( i ).length;
+		final ProgressTracker progress = startProgress( 0, numberOfPairs, null );
+		// collect pairs i < k in tiles of PAIRS_PER_TILE pairs
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		final int[] tileRows    = new int[ PAIRS_PER_TILE ];
+		final int[] tileColumns = new int[ PAIRS_PER_TILE ];
+		int size = 0;
+		for ( int i = 0; i < n; ++i ) {
+			for ( final int k : matrix.getUpperNeighbors( i ) ) {
+				tileRows[ size ]    = i;
+				tileColumns[ size ] = k;
+				++size;
+				if ( size == PAIRS_PER_TILE ) {
+					tasks.add( createPairsTask( indexes, model, matrix, tileRows.clone(), tileColumns.clone(), size, progress ) );
+					size = 0;
+				}
+			}
+		}
+		if ( size > 0 )
+			tasks.add( createPairsTask( indexes, model, matrix, tileRows, tileColumns, size, progress ) );
+		try {
+			invokeAll( tasks );
+		} finally {
+			if ( progress != null )
+				progress.close();
+		}
+		return matrix;
+	}
+	
+	
+	private < M extends Model< M > > Callable< Void > createPairsTask(
+			final ArrayList< DescriptorIndex > indexes,
+			final M model,
+			final SimilarityMatrixInterface matrix,
+			final int[] rows,
+			final int[] columns,
+			final int size,
+			final ProgressTracker progress ) {
+		return new Callable< Void >(){
+			@Override
+			public Void call(){
+				// model is modified when fitting, each task needs its own copy
+				final M tileModel = model.copy();
+				for ( int t = 0; t < size; ++t )
+					matrix.set( rows[ t ], columns[ t ], (float)match( tileModel, indexes.get( rows[ t ] ), indexes.get( columns[ t ] ) ) );
+				if ( progress != null )
+					progress.pairsMatched( size );
+				return null;
+			}
+		};
+	}
+	
+	
+	/**
+	 * Feature extraction and matching for rows firstRow &lt;= i &lt; stopRow without a barrier in between: a tile
+	 * of rows is matched as soon as features of all sections that it involves have been extracted, on the same
+	 * worker pool. Extraction tasks are submitted {@link Param#nThreads} at a time and each finished extraction
+	 * submits the tiles that became ready before the next extraction, so matching is interleaved with
+	 * extraction instead of waiting for the end of the queue.
+	 * 
+	 * Features of a section are evicted as soon as all tiles that involve the section are done, and no
+	 * section is extracted while {@link Param#maxSectionsInMemory} sections are held in memory, i.e. memory
+	 * for features scales with {@link Param#range} instead of the number of sections. Sections are extracted
+	 * in order, so evicted features are never needed again, and sections are read {@link Param#prefetch} ahead
+	 * of extraction.
+	 * 
+	 * If a selection of pairs is given, only those pairs are matched, and sections that are not part of any
+	 * selected pair are neither read nor extracted.
+	 */
+	private class Pipeline< M extends Model< M > > {
+		
+		private final SectionSourceInterface sections;
+		private final PrefetchingSectionSource prefetching;
+		private final M model;
+		private final SimilarityMatrixInterface matrix;
+		private final ImagePlus impMatrix;
+		private final int firstRow;
+		private final int stopRow;
+		private final int stopSection;
+		private final int rowsPerTile;
+		private final int numberOfTiles;
+		private final int maxSectionsInMemory;
+		private final FeatureCache cache;
+		// null if all pairs are matched
+		private final int[][] selection;
+		private final boolean[] isSelected;
+		// null for sections that are not extracted yet or evicted
+		private final ArrayList< DescriptorIndex > indexes;
+		// number of sections that each tile is still waiting for
+		private final AtomicIntegerArray missingSections;
+		// number of tiles that each section is still needed for
+		private final AtomicIntegerArray pendingTiles;
+		private final AtomicInteger nextSection;
+		private final AtomicInteger sectionsInMemory = new AtomicInteger();
+		private final AtomicReference< Throwable > failure = new AtomicReference< Throwable >();
+		private final CountDownLatch done;
+		private ExecutorService es;
+		private ProgressTracker progress;
+		
+		public Pipeline(
+				final SectionSourceInterface source,
+				final M model,
+				final SimilarityMatrixInterface matrix,
+				final ImagePlus impMatrix,
+				final int firstRow,
+				final int stopRow ) {
+			this( source, model, matrix, impMatrix, firstRow, stopRow, null );
+		}
+		
+		/**
+		 * @param selection selection[i] holds the sections k &gt; i that are matched with section i, in ascending order
+		 */
+		public Pipeline(
+				final SectionSourceInterface source,
+				final M model,
+				final SimilarityMatrixInterface matrix,
+				final ImagePlus impMatrix,
+				final int firstRow,
+				final int stopRow,
+				final int[][] selection ) {
+			this.model         = model;
+			this.matrix        = matrix;
+			this.impMatrix     = impMatrix;
+			this.firstRow      = firstRow;
+			this.stopRow       = stopRow;
+			final int n        = source.getNumberOfSections();
+			this.rowsPerTile   = Math.max( 1, PAIRS_PER_TILE / Math.max( 1, p.range - 1 ) );
+			this.numberOfTiles = Math.max( 0, ( stopRow - firstRow + rowsPerTile - 1 ) / rowsPerTile );
+			this.stopSection   = numberOfTiles == 0 ? firstRow : Math.min( n, stopRow + p.range - 1 );
+			// the first tile that is not done needs rowsPerTile + range - 1 sections at the same time
+			final int minSectionsInMemory = rowsPerTile + p.range - 1;
+			this.maxSectionsInMemory = p.maxSectionsInMemory > 0 ?
+					Math.max( minSectionsInMemory, p.maxSectionsInMemory ) :
+					minSectionsInMemory + 2 * p.nThreads;
+			this.cache         = p.featureCacheDirectory == null ? null : new FeatureCache( new File( p.featureCacheDirectory ), p.p );
+			this.selection     = selection;
+			this.isSelected    = selection == null ? null : new boolean[ n ];
+			if ( selection != null )
+				for ( int i = firstRow; i < stopRow; ++i )
+					for ( final int k : selection[ i ] ) {
+						isSelected[ i ] = true;
+						isSelected[ k ] = true;
+					}
+			// read ahead only sections that will be extracted
+			this.prefetching   = createPrefetchingSource( source, selection == null ? PrefetchingSectionSource.createRange( n, firstRow, stopSection ) : isSelected );
+			this.sections      = prefetching == null ? source : prefetching;
+			this.indexes       = new ArrayList< DescriptorIndex >( n );
+			for ( int k = 0; k < n; ++k )
+				indexes.add( null );
+			this.missingSections = new AtomicIntegerArray( numberOfTiles );
+			this.pendingTiles    = new AtomicIntegerArray( n );
+			for ( int t = 0; t < numberOfTiles; ++t ) {
+				missingSections.set( t, getTileStopSection( t ) - getTileStart( t ) );
+				for ( int k = getTileStart( t ); k < getTileStopSection( t ); ++k )
+					pendingTiles.incrementAndGet( k );
+			}
+			this.nextSection = new AtomicInteger( firstRow );
+			this.done        = new CountDownLatch( stopSection - firstRow + numberOfTiles );
+		}
+		
+		private int getTileStart( final int t ) {
+			return firstRow + t * rowsPerTile;
+		}
+		
+		private int getTileStop( final int t ) {
+			return Math.min( stopRow, getTileStart( t ) + rowsPerTile );
+		}
+		
+		// tile t involves sections getTileStart( t ) <= k < getTileStopSection( t )
+		private int getTileStopSection( final int t ) {
+			return Math.min( stopSection, getTileStop( t ) + p.range - 1 );
+		}
+		
+		public void run() {
+			es = executorService == null ? Executors.newFixedThreadPool( p.nThreads ) : executorService;
+			progress = selection == null ?
+					startProgress( stopSection - firstRow, countPairs( stopSection, firstRow, stopRow, 0 ), impMatrix ) :
+					startProgress( countSelectedSections(), countSelectedPairs(), impMatrix );
+			try {
+				for ( int i = 0; i < p.nThreads; ++i )
+					submitNextExtraction();
+				done.await();
+			} catch ( final InterruptedException e ) {
+				failure.compareAndSet( null, e );
+				Thread.currentThread().interrupt();
+			} finally {
+				if ( executorService == null )
+					es.shutdown();
+				if ( prefetching != null )
+					prefetching.close();
+				if ( progress != null )
+					progress.close();
+			}
+			if ( failure.get() != null )
+				throw new RuntimeException( failure.get() );
+		}
+		
+		private void submitNextExtraction() {
+			// reserve memory before claiming the next section, eviction resumes extraction if none is left
+			int inMemory;
+			do {
+				inMemory = sectionsInMemory.get();
+				if ( inMemory >= maxSectionsInMemory )
+					return;
+			} while ( !sectionsInMemory.compareAndSet( inMemory, inMemory + 1 ) );
+			final int k = nextSection.getAndIncrement();
+			if ( k >= stopSection ) {
+				sectionsInMemory.decrementAndGet();
+				return;
+			}
+			if ( progress != null )
+				progress.sectionsInMemory( inMemory + 1 );
+			es.submit( new Runnable() {
+				@Override
+				public void run() {
+					try {
+						// sections that are not part of any selected pair are never read
+						if ( failure.get() == null && ( isSelected == null || isSelected[ k ] ) ) {
+							final ArrayList< Feature > features = extractSection( sections, k, cache, progress );
+							indexes.set( k, createDescriptorIndex( features ) );
+							if ( k < stopRow )
+								matrix.set( k, k, features.size() > 0 ? 1.0f : 0.0f );
+						}
+					} catch ( final Throwable e ) {
+						failure.compareAndSet( null, e );
+					} finally {
+						// tiles are submitted even after failure, so that all tasks count down
+						submitReadyTiles( k );
+						submitNextExtraction();
+						done.countDown();
+					}
+				}
+			} );
+		}
+		
+		private void submitReadyTiles( final int k ) {
+			// tiles that involve section k are the last tile that starts at or before k and its predecessors
+			// up to the first tile whose sections end at or before k
+			for ( int t = Math.min( numberOfTiles - 1, ( k - firstRow ) / rowsPerTile ); t >= 0 && getTileStopSection( t ) > k; --t ) {
+				if ( missingSections.decrementAndGet( t ) > 0 )
+					continue;
+				final int tileStart = getTileStart( t );
+				final int tileStop  = getTileStop( t );
+				final int tileStopSection = getTileStopSection( t );
+				es.submit( new Runnable() {
+					@Override
+					public void run() {
+						try {
+							if ( failure.get() == null )
+								matchTile( indexes, model, matrix, tileStart, tileStop, 0, selection, null, progress );
+						} catch ( final Throwable e ) {
+							failure.compareAndSet( null, e );
+						} finally {
+							for ( int section = tileStart; section < tileStopSection; ++section )
+								if ( pendingTiles.decrementAndGet( section ) == 0 )
+									evict( section );
+							done.countDown();
+						}
+					}
+				} );
+			}
+		}
+		
+		private void evict( final int k ) {
+			indexes.set( k, null );
+			sectionsInMemory.decrementAndGet();
+			submitNextExtraction();
+		}
+		
+		private int countSelectedSections() {
+			int count = 0;
+			for ( int k = firstRow; k < stopSection; ++k )
+				if ( isSelected[ k ] )
+					++count;
+			return count;
+		}
+		
+		private long countSelectedPairs() {
+			long count = 0;
+			for ( int i = firstRow; i < stopRow; ++i )
+				count += selection[ i ].length;
+			return count;
+		}
+		
 	}
 	
 	
@@ -283,15 +1248,289 @@ public class SiftPairwiseSimilarity {
 	 * @param imp {@link ImagePlus} containing the stack for which pairwise similarity matrix will be calculated.
 	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
 	 * @return {@link ImagePlus} of the similarity matrix.
-	 * Glue function that puts together feature extraction and simliarity calculation. 
+	 * Glue function that puts together feature extraction and simliarity calculation. If {@link Param#pipelined},
+	 * pairs are matched while features of other sections are still being extracted.
 	 */
 	public < M extends Model< M > > ImagePlus calculateSimilarityMatrix( final ImagePlus imp, final M model ) {
+		requireSinglePass();
+		if ( p.pipelined ) {
+			final int n = imp.getStack().getSize();
+			final FloatProcessor matrix = new FloatProcessor( n, n );
+			matrix.add( Double.NaN );
+			matrix.setMinAndMax( 0.0, 1.0 );
+			final ImagePlus impMatrix = new ImagePlus( "inlier ratio matrix", matrix );
+			if ( p.showProgress )
+				impMatrix.show();
+			new Pipeline< M >( new StackSectionSource( imp.getStack() ), model, new FloatProcessorSimilarityMatrix( matrix ), impMatrix, 0, n ).run();
+			return impMatrix;
+		}
 		final ArrayList<List<Feature>> featuresList = extractFeatures( imp );
 		final ImagePlus impMatrix = matchFeaturesAndCalculateSimilarities( featuresList, model );
 		return impMatrix;
 	}
 	
 	
+	/**
+	 * @param imp {@link ImagePlus} containing the stack for which pairwise similarity matrix will be calculated.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range}.
+	 * Glue function that puts together feature extraction and simliarity calculation without allocating a dense matrix. 
+	 * If {@link Param#pipelined}, pairs are matched while features of other sections are still being extracted.
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix calculateBandedSimilarityMatrix( final ImagePlus imp, final M model ) {
+		return calculateBandedSimilarityMatrix( new StackSectionSource( imp.getStack() ), model );
+	}
+	
+	
+	/**
+	 * @param source {@link SectionSourceInterface} from which sections are read lazily.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range}.
+	 * Same as {@link #calculateBandedSimilarityMatrix(ImagePlus, Model)} for series that do not fit into memory, 
+	 * e.g. a {@link DirectorySectionSource}.
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix calculateBandedSimilarityMatrix( final SectionSourceInterface source, final M model ) {
+		if ( p.coarseScale > 0 )
+			return calculateCoarseToFine( source, model, null );
+		if ( p.pipelined ) {
+			final int n = source.getNumberOfSections();
+			final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, p.range );
+			new Pipeline< M >( source, model, matrix, null, 0, n ).run();
+			return matrix;
+		}
+		final ArrayList<List<Feature>> featuresList = extractFeatures( source, 0, source.getNumberOfSections() );
+		return matchFeaturesAndCalculateBandedSimilarities( featuresList, model );
+	}
+	
+	
+	/**
+	 * @param imp {@link ImagePlus} containing the stack for which pairwise similarity matrix will be calculated.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @param checkpoint {@link SimilarityMatrixCheckpoint} for storing and resuming progress.
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range}.
+	 * @throws IOException if checkpoint cannot be read or written
+	 * Same as {@link #calculateBandedSimilarityMatrix(ImagePlus, Model)} but resumes from checkpoint if a previous run was interrupted. 
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix calculateBandedSimilarityMatrix(
+			final ImagePlus imp,
+			final M model,
+			final SimilarityMatrixCheckpoint checkpoint ) throws IOException {
+		requireSinglePass();
+		final ArrayList<List<Feature>> featuresList = extractFeatures( imp );
+		return matchFeaturesAndCalculateBandedSimilarities( featuresList, model, checkpoint );
+	}
+	
+	
+	/**
+	 * @param imp {@link ImagePlus} containing the stack for which pairwise similarity matrix will be calculated.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @param shard {@link SimilarityShard} that determines the rows to be calculated.
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range} that holds similarities in the rows of shard only.
+	 * Same as {@link #calculateBandedSimilarityMatrix(ImagePlus, Model)} for one shard, features are extracted
+	 * only for the sections that are required by shard. 
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix calculateBandedSimilarityShard(
+			final ImagePlus imp,
+			final M model,
+			final SimilarityShard shard ) {
+		return calculateBandedSimilarityShard( new StackSectionSource( imp.getStack() ), model, shard );
+	}
+	
+	
+	/**
+	 * @param source {@link SectionSourceInterface} from which sections are read lazily.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @param shard {@link SimilarityShard} that determines the rows to be calculated.
+	 * @return {@link BandedSimilarityMatrix} of range {@link Param#range} that holds similarities in the rows of shard only.
+	 * Same as {@link #calculateBandedSimilarityShard(ImagePlus, Model, SimilarityShard)}, only sections that are
+	 * required by shard are read from source. 
+	 */
+	public < M extends Model< M > > BandedSimilarityMatrix calculateBandedSimilarityShard(
+			final SectionSourceInterface source,
+			final M model,
+			final SimilarityShard shard ) {
+		final int n = source.getNumberOfSections();
+		if ( p.coarseScale > 0 )
+			return calculateCoarseToFine( source, model, shard );
+		if ( p.pipelined ) {
+			final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, p.range );
+			new Pipeline< M >( source, model, matrix, null, shard.getFirstRow(), shard.getStopRow() ).run();
+			return matrix;
+		}
+		final ArrayList<List<Feature>> featuresList = extractFeatures( source, shard.getFirstSection(), shard.getStopSection( n, p.range ) );
+		return matchFeaturesAndCalculateBandedSimilarities( featuresList, model, shard );
+	}
+	
+	
+	/**
+	 * @param coarse similarities from features at reduced resolution
+	 * @param firstRow first row for which pairs are selected
+	 * @param stopRow pairs are selected in rows firstRow &lt;= i &lt; stopRow
+	 * @return for each row i, the sections i &lt; k &lt; i + {@link Param#range} in ascending order whose coarse
+	 *         similarity with i is at least {@link Param#refineThreshold} or among the {@link Param#refineNeighbors}
+	 *         highest of the row, i.e. rows in which no pair passes the threshold still keep their most likely
+	 *         neighbors. Empty for rows outside of [firstRow, stopRow).
+	 */
+	public int[][] selectPairsForRefinement( final SimilarityMatrixInterface coarse, final int firstRow, final int stopRow ) {
+		final int n = coarse.getNumberOfSections();
+		final int[][] selection = new int[ n ][];
+		final float[] similarities = new float[ p.range ];
+		final boolean[] isSelected = new boolean[ p.range ];
+		for ( int i = 0; i < n; ++i ) {
+			final int count = i < firstRow || i >= stopRow ? 0 : Math.max( 0, Math.min( n, i + p.range ) - i - 1 );
+			for ( int c = 0; c < count; ++c ) {
+				similarities[ c ] = coarse.get( i, i + 1 + c );
+				isSelected[ c ]   = similarities[ c ] >= p.refineThreshold;
+			}
+			// refineNeighbors highest similarities, NaN is never selected
+			for ( int r = 0; r < p.refineNeighbors; ++r ) {
+				int best = -1;
+				for ( int c = 0; c < count; ++c )
+					if ( !Float.isNaN( similarities[ c ] ) && ( best < 0 || similarities[ c ] > similarities[ best ] ) )
+						best = c;
+				if ( best < 0 )
+					break;
+				isSelected[ best ]   = true;
+				similarities[ best ] = Float.NaN;
+			}
+			int numberOfSelected = 0;
+			for ( int c = 0; c < count; ++c )
+				if ( isSelected[ c ] )
+					++numberOfSelected;
+			selection[ i ] = new int[ numberOfSelected ];
+			for ( int c = 0, s = 0; c < count; ++c )
+				if ( isSelected[ c ] )
+					selection[ i ][ s++ ] = i + 1 + c;
+		}
+		return selection;
+	}
+	
+	
+	/**
+	 * @throws IllegalArgumentException for {@link Param#coarseScale} &gt; 0 in entry points that calculate a single pass only
+	 */
+	private void requireSinglePass() {
+		if ( p.coarseScale > 0 )
+			throw new IllegalArgumentException( String.format(
+					"coarseScale=%f is supported by calculateBandedSimilarityMatrix( SectionSourceInterface, Model ) and calculateBandedSimilarityShard only.",
+					p.coarseScale ) );
+	}
+	
+	
+	/**
+	 * @return copy of {@link #p} for screening: octave sizes are scaled by {@link Param#coarseScale} and the
+	 *         coarse pass itself is a single pass
+	 */
+	private Param createCoarseParameters() {
+		final Param coarse = p.copy();
+		coarse.coarseScale     = 0.0f;
+		coarse.p.maxOctaveSize = Math.max( 1, Math.round( p.p.maxOctaveSize * p.coarseScale ) );
+		coarse.p.minOctaveSize = Math.max( 1, Math.round( p.p.minOctaveSize * p.coarseScale ) );
+		return coarse;
+	}
+	
+	
+	/**
+	 * Score all pairs of shard (all rows if shard is null) with features extracted at octave sizes scaled by
+	 * {@link Param#coarseScale}, then match the pairs of {@link #selectPairsForRefinement(SimilarityMatrixInterface, int, int)}
+	 * again with full resolution features. Full resolution features are extracted only for sections that are
+	 * part of a selected pair. Pairs that are not selected are set to NaN, i.e. treated like pairs outside of
+	 * the band: coarse similarities are on a different scale than full resolution similarities and must not
+	 * compete with them.
+	 */
+	private < M extends Model< M > > BandedSimilarityMatrix calculateCoarseToFine(
+			final SectionSourceInterface source,
+			final M model,
+			final SimilarityShard shard ) {
+		final int n = source.getNumberOfSections();
+		final SiftPairwiseSimilarity coarse = new SiftPairwiseSimilarity( createCoarseParameters(), executorService, listener );
+		final BandedSimilarityMatrix matrix = shard == null ?
+				coarse.calculateBandedSimilarityMatrix( source, model ) :
+				coarse.calculateBandedSimilarityShard( source, model, shard );
+		final int firstRow = shard == null ? 0 : shard.getFirstRow();
+		final int stopRow  = shard == null ? n : shard.getStopRow();
+		final int[][] selection = selectPairsForRefinement( matrix, firstRow, stopRow );
+		long numberOfSelected = 0;
+		for ( int i = firstRow; i < stopRow; ++i ) {
+			numberOfSelected += selection[ i ].length;
+			// selection is sorted, clear all other pairs of the row
+			for ( int k = i + 1, s = 0; k < Math.min( n, i + p.range ); ++k ) {
+				if ( s < selection[ i ].length && selection[ i ][ s ] == k )
+					++s;
+				else
+					matrix.set( i, k, Float.NaN );
+			}
+		}
+		IJ.log( String.format( "Refining %d of %d pairs at full resolution.", numberOfSelected, countPairs( n, firstRow, stopRow, 0 ) ) );
+		new Pipeline< M >( source, model, matrix, null, firstRow, stopRow, selection ).run();
+		return matrix;
+	}
+	
+	
+	/**
+	 * @param imp {@link ImagePlus} containing the stack for which pairwise similarity matrix will be calculated.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @return {@link SparseSimilarityMatrix} holding similarities of the {@link Param#numberOfCandidates}
+	 *         most similar sections of each section according to {@link CandidateSelection}.
+	 * Glue function that puts together feature extraction, candidate selection and similarity calculation.
+	 * Unlike {@link #calculateBandedSimilarityMatrix(ImagePlus, Model)}, neighbors are found even if they
+	 * are far apart in the input stack, at the same cost of O(n * {@link Param#numberOfCandidates}) matches.
+	 */
+	public < M extends Model< M > > SparseSimilarityMatrix calculateCandidateSimilarityMatrix( final ImagePlus imp, final M model ) {
+		return calculateCandidateSimilarityMatrix( new StackSectionSource( imp.getStack() ), model );
+	}
+	
+	
+	/**
+	 * @param source {@link SectionSourceInterface} from which sections are read lazily.
+	 * @param model {@link Model} for fitting {@link PointMatch}es and determining inliers and outliers. 
+	 * @return {@link SparseSimilarityMatrix} holding similarities of the {@link Param#numberOfCandidates}
+	 *         most similar sections of each section according to {@link CandidateSelection}.
+	 * Same as {@link #calculateCandidateSimilarityMatrix(ImagePlus, Model)} for series that do not fit into memory.
+	 * Each section is read once, {@link Param#prefetch} ahead, and its signature and features are calculated
+	 * from the same image, i.e. only features and signatures are held in memory while candidates are matched.
+	 */
+	public < M extends Model< M > > SparseSimilarityMatrix calculateCandidateSimilarityMatrix( final SectionSourceInterface source, final M model ) {
+		requireSinglePass();
+		final int n = source.getNumberOfSections();
+		final ArrayList< List< Feature > > featuresList = new ArrayList< List < Feature > >( n );
+		final ArrayList< float[] > signatures = new ArrayList< float[] >( n );
+		for ( int k = 0; k < n; ++k ) {
+			featuresList.add( null );
+			signatures.add( null );
+		}
+		final FeatureCache cache = p.featureCacheDirectory == null ? null : new FeatureCache( new File( p.featureCacheDirectory ), p.p );
+		final PrefetchingSectionSource prefetching = createPrefetchingSource( source, PrefetchingSectionSource.createRange( n, 0, n ) );
+		final SectionSourceInterface sections = prefetching == null ? source : prefetching;
+		final ProgressTracker progress = startProgress( n, 0, null );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int k = 0; k < n; ++k ) {
+			final int fk = k;
+			tasks.add(
+				new Callable< Void >(){
+					@Override
+					public Void call() throws IOException {
+						final ImageProcessor ip = sections.getSection( fk );
+						signatures.set( fk, CandidateSelection.thumbnailSignature( ip, p.signatureSize ) );
+						featuresList.set( fk, extractSection( ip, fk, cache, progress ) );
+						return null;
+					}
+				}
+			);
+		}
+		try {
+			invokeAll( tasks );
+		} finally {
+			if ( prefetching != null )
+				prefetching.close();
+			if ( progress != null )
+				progress.close();
+		}
+		final int[][] candidates = selectCandidates( signatures );
+		return matchFeaturesAndCalculateCandidateSimilarities( featuresList, model, candidates );
+	}
+	
+	
 	public static void main(final String[] args) {
 		
 		final String filename = System.getProperty( "user.dir" ) + "/test_data_features.tif";
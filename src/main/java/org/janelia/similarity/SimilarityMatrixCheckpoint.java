@@ -0,0 +1,213 @@
+/**
+ * 
+ */
+package org.janelia.similarity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.Model;
+
+/**
+ * Periodically store a {@link BandedSimilarityMatrix} that is being calculated, together with the rows
+ * that are finished, so an interrupted calculation can be resumed. A row i is finished when all
+ * similarities between i and sections k &gt; i are calculated.
+ *
+ * Each checkpoint carries a key, see {@link #createKey(SiftPairwiseSimilarity.Param, Model, int, List)}, and is
+ * only restored by a calculation with the same key, i.e. with the same parameters and input. The checkpoint
+ * file is deleted once the calculation is finished, see {@link #delete()}.
+ */
+public class SimilarityMatrixCheckpoint {
+	
+	// parameters that do not change the calculated similarities
+	private static final HashSet< String > IGNORED_PARAMETERS = new HashSet< String >( Arrays.asList(
+			"nThreads", "showProgress", "featureCacheDirectory", "pipelined", "maxSectionsInMemory", "prefetch", "progressInterval" ) );
+	
+	private final File file;
+	
+	private final long intervalMillis;
+	
+	private boolean[] isRowDone;
+	
+	private long key;
+	
+	private long lastSave;
+	
+	/**
+	 * @param file checkpoint file; if it exists, calculation will be resumed from it 
+	 * @param intervalMillis minimum time between two consecutive writes of the checkpoint file
+	 */
+	public SimilarityMatrixCheckpoint( final File file, final long intervalMillis ) {
+		super();
+		this.file = file;
+		this.intervalMillis = intervalMillis;
+	}
+	
+	/**
+	 * @param p parameters of the calculation, parameters that do not change the result are ignored
+	 * @param model model for transforming feature matches
+	 * @param firstSection number of sections of the existing matrix that the calculation appends to
+	 * @param featuresList features of all sections
+	 * @return key that identifies a calculation by its parameters and input
+	 */
+	public static < M extends Model< M > > long createKey(
+			final SiftPairwiseSimilarity.Param p,
+			final M model,
+			final int firstSection,
+			final List< ? extends List< Feature > > featuresList ) {
+		long hash = createKey( p, model );
+		hash = combine( hash, firstSection );
+		hash = combine( hash, featuresList.size() );
+		for ( final List< Feature > features : featuresList ) {
+			hash = combine( hash, features.size() );
+			for ( final Feature f : features ) {
+				for ( final double l : f.location )
+					hash = combine( hash, Double.doubleToLongBits( l ) );
+				for ( final float d : f.descriptor )
+					hash = combine( hash, Float.floatToIntBits( d ) );
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * @param p parameters of the calculation, parameters that do not change the result are ignored
+	 * @param model model for transforming feature matches
+	 * @return key that identifies a calculation by its parameters only, to be combined with a key of the input
+	 *         with {@link #combine(long, long)}
+	 */
+	public static long createKey( final SiftPairwiseSimilarity.Param p, final Model< ? > model ) {
+		long hash = 1125899906842597L;
+		for ( final String argument : ParamArguments.toArguments( p ) )
+			if ( !IGNORED_PARAMETERS.contains( argument.substring( 0, argument.indexOf( '=' ) ) ) )
+				hash = combine( hash, argument.hashCode() );
+		return combine( hash, model.getClass().getName().hashCode() );
+	}
+	
+	/**
+	 * @param hash key
+	 * @param value value that is added to key
+	 * @return key that depends on hash and value
+	 */
+	public static long combine( final long hash, final long value ) {
+		return 31 * hash + ( value ^ ( value >>> 32 ) );
+	}
+	
+	/**
+	 * Restore state from checkpoint file, if present. A checkpoint file written with a different key belongs
+	 * to a different calculation, it is deleted and the calculation starts from scratch.
+	 * @param n expected number of sections
+	 * @param range expected range
+	 * @param key key of the calculation, see {@link #createKey(SiftPairwiseSimilarity.Param, Model, int, List)}
+	 * @return {@link BandedSimilarityMatrix} stored in checkpoint file, null if there is no checkpoint file for key
+	 * @throws IOException if checkpoint file cannot be read or does not match n and range
+	 */
+	public synchronized BandedSimilarityMatrix restore( final int n, final int range, final long key ) throws IOException {
+		this.lastSave  = System.currentTimeMillis();
+		this.key       = key;
+		this.isRowDone = new boolean[ n ];
+		if ( !file.exists() )
+			return null;
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		final boolean isStale;
+		try {
+			isStale = in.readLong() != key;
+			if ( !isStale ) {
+				final BandedSimilarityMatrix matrix = BandedSimilarityMatrix.read( in );
+				if ( matrix.getNumberOfSections() != n || matrix.getRange() != range )
+					throw new IOException( String.format(
+							"Checkpoint %s holds %d sections with range %d but expected %d sections with range %d.",
+							file, matrix.getNumberOfSections(), matrix.getRange(), n, range ) );
+				for ( int i = 0; i < n; ++i )
+					isRowDone[ i ] = in.readBoolean();
+				return matrix;
+			}
+		} finally {
+			in.close();
+		}
+		// written by a different calculation
+		delete();
+		return null;
+	}
+	
+	/**
+	 * @param row row
+	 * @return true if row is finished according to checkpoint
+	 */
+	public synchronized boolean isRowDone( final int row ) {
+		return isRowDone[ row ];
+	}
+	
+	/**
+	 * @return number of finished rows
+	 */
+	public synchronized int getNumberOfRowsDone() {
+		int count = 0;
+		for ( final boolean isDone : isRowDone )
+			if ( isDone )
+				++count;
+		return count;
+	}
+	
+	/**
+	 * Mark rows as finished and write checkpoint file if the last write is older than the interval.
+	 * @param start first row
+	 * @param stop last row + 1
+	 * @param matrix matrix that is being calculated
+	 * @throws IOException
+	 */
+	public synchronized void setRowsDone( final int start, final int stop, final BandedSimilarityMatrix matrix ) throws IOException {
+		for ( int i = start; i < stop; ++i )
+			isRowDone[ i ] = true;
+		if ( System.currentTimeMillis() - lastSave >= intervalMillis )
+			save( matrix );
+	}
+	
+	/**
+	 * Write checkpoint file. The file is written to a temporary file first and then moved to its final
+	 * location, so a crash while writing does not corrupt the previous checkpoint.
+	 * @param matrix matrix that is being calculated
+	 * @throws IOException
+	 */
+	public synchronized void save( final BandedSimilarityMatrix matrix ) throws IOException {
+		final File tmp = new File( file.getAbsolutePath() + ".tmp" );
+		try {
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+			try {
+				out.writeLong( key );
+				matrix.write( out );
+				for ( final boolean isDone : isRowDone )
+					out.writeBoolean( isDone );
+			} finally {
+				out.close();
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		} finally {
+			// left over only if writing or moving failed
+			Files.deleteIfExists( tmp.toPath() );
+		}
+		lastSave = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Delete checkpoint file, e.g. after the calculation is finished, such that a later calculation does
+	 * not restore the finished matrix.
+	 * @throws IOException
+	 */
+	public synchronized void delete() throws IOException {
+		Files.deleteIfExists( file.toPath() );
+	}
+
+}
@@ -0,0 +1,53 @@
+/**
+ * 
+ */
+package org.janelia.similarity;
+
+/**
+ * Symmetric pairwise similarity matrix for a series of sections. Entries that have not been calculated
+ * are NaN. Implementations decide which entries are stored, e.g. all of them or only a band around the
+ * diagonal.
+ */
+public interface SimilarityMatrixInterface {
+	
+	/**
+	 * @return number of sections, i.e. number of rows and columns
+	 */
+	public int getNumberOfSections();
+	
+	/**
+	 * @param index1 section1
+	 * @param index2 section2
+	 * @return similarity between section1 and section2, NaN if not stored
+	 */
+	public float get( int index1, int index2 );
+	
+	/**
+	 * Set similarity between section1 and section2, and between section2 and section1.
+	 * @param index1 section1
+	 * @param index2 section2
+	 * @param similarity similarity
+	 */
+	public void set( int index1, int index2, float similarity );
+	
+	/**
+	 * @return upper bound for the number of stored entries per row
+	 */
+	public int getMaxRowLength();
+	
+	/**
+	 * Get all stored entries of a row in ascending order of columns.
+	 * @param index row
+	 * @param columns output parameter for column indices, at least {@link #getMaxRowLength()} long
+	 * @param similarities output parameter for similarities, at least {@link #getMaxRowLength()} long
+	 * @return number of stored entries in row
+	 */
+	public int getRow( int index, int[] columns, float[] similarities );
+	
+	/**
+	 * @param indices sections that are kept in ascending order
+	 * @return new similarity matrix restricted to indices; section indices[i] becomes section i
+	 */
+	public SimilarityMatrixInterface select( int[] indices );
+	
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+/**
+ * Immutable snapshot of the progress of a calculation in {@link SiftPairwiseSimilarity}, as reported to
+ * {@link ProgressListenerInterface}.
+ */
+public class SimilarityProgress {
+
+	private final int numberOfSections;
+
+	private final int sectionsExtracted;
+
+	private final long featuresExtracted;
+
+	private final long numberOfPairs;
+
+	private final long pairsMatched;
+
+	private final long elapsedNanos;
+
+	private final int peakSectionsInMemory;
+
+	private final boolean done;
+
+	/**
+	 * Snapshot without information about the number of sections in memory.
+	 * @param numberOfSections number of sections to be extracted, 0 if the calculation does not extract features
+	 * @param sectionsExtracted number of sections extracted so far
+	 * @param featuresExtracted total number of features of the extracted sections
+	 * @param numberOfPairs number of pairs to be matched, 0 if the calculation does not match pairs
+	 * @param pairsMatched number of pairs matched so far
+	 * @param elapsedNanos time since the calculation started
+	 * @param done true for the last snapshot of a calculation
+	 */
+	public SimilarityProgress(
+			final int numberOfSections,
+			final int sectionsExtracted,
+			final long featuresExtracted,
+			final long numberOfPairs,
+			final long pairsMatched,
+			final long elapsedNanos,
+			final boolean done ) {
+		this( numberOfSections, sectionsExtracted, featuresExtracted, numberOfPairs, pairsMatched, elapsedNanos, 0, done );
+	}
+
+	/**
+	 * @param numberOfSections number of sections to be extracted, 0 if the calculation does not extract features
+	 * @param sectionsExtracted number of sections extracted so far
+	 * @param featuresExtracted total number of features of the extracted sections
+	 * @param numberOfPairs number of pairs to be matched, 0 if the calculation does not match pairs
+	 * @param pairsMatched number of pairs matched so far
+	 * @param elapsedNanos time since the calculation started
+	 * @param peakSectionsInMemory largest number of sections whose features were held in memory at the same
+	 *        time so far, 0 if the calculation does not limit the number of sections in memory
+	 * @param done true for the last snapshot of a calculation
+	 */
+	public SimilarityProgress(
+			final int numberOfSections,
+			final int sectionsExtracted,
+			final long featuresExtracted,
+			final long numberOfPairs,
+			final long pairsMatched,
+			final long elapsedNanos,
+			final int peakSectionsInMemory,
+			final boolean done ) {
+		super();
+		this.numberOfSections     = numberOfSections;
+		this.sectionsExtracted    = sectionsExtracted;
+		this.featuresExtracted    = featuresExtracted;
+		this.numberOfPairs        = numberOfPairs;
+		this.pairsMatched         = pairsMatched;
+		this.elapsedNanos         = elapsedNanos;
+		this.peakSectionsInMemory = peakSectionsInMemory;
+		this.done                 = done;
+	}
+
+	public int getNumberOfSections() {
+		return numberOfSections;
+	}
+
+	public int getSectionsExtracted() {
+		return sectionsExtracted;
+	}
+
+	public long getFeaturesExtracted() {
+		return featuresExtracted;
+	}
+
+	public long getNumberOfPairs() {
+		return numberOfPairs;
+	}
+
+	public long getPairsMatched() {
+		return pairsMatched;
+	}
+
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	public int getPeakSectionsInMemory() {
+		return peakSectionsInMemory;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/**
+	 * @return sections extracted per second since the calculation started
+	 */
+	public double getSectionsPerSecond() {
+		return perSecond( sectionsExtracted );
+	}
+
+	/**
+	 * @return pairs matched per second since the calculation started
+	 */
+	public double getPairsPerSecond() {
+		return perSecond( pairsMatched );
+	}
+
+	/**
+	 * @return fraction of work done in [0, 1], sections and pairs are weighted equally
+	 */
+	public double getFractionDone() {
+		final long total = numberOfSections + numberOfPairs;
+		return total == 0 ? 1.0 : ( sectionsExtracted + pairsMatched ) / ( double ) total;
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"%d/%d sections (%.1f/s, %d features), %d/%d pairs (%.1f/s)",
+				sectionsExtracted, numberOfSections, getSectionsPerSecond(), featuresExtracted,
+				pairsMatched, numberOfPairs, getPairsPerSecond() );
+	}
+
+	private double perSecond( final long count ) {
+		return elapsedNanos == 0 ? 0.0 : count * 1e9 / elapsedNanos;
+	}
+
+}
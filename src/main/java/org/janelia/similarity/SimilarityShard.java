@@ -0,0 +1,110 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Contiguous range of rows of a {@link BandedSimilarityMatrix}, i.e. all pairs of sections i, k with
+ * firstRow &lt;= i &lt; stopRow and i &lt; k &lt; i + range. Shards of a series are independent and can be
+ * calculated in separate processes. Each shard needs the features of its rows and of the range - 1
+ * sections after its last row (overlap), see {@link SiftPairwiseSimilarity#calculateBandedSimilarityShard}.
+ */
+public class SimilarityShard {
+
+	private final int firstRow;
+
+	private final int stopRow;
+
+	/**
+	 * @param firstRow first row
+	 * @param stopRow shard holds rows firstRow &lt;= i &lt; stopRow
+	 */
+	public SimilarityShard( final int firstRow, final int stopRow ) {
+		super();
+		this.firstRow = firstRow;
+		this.stopRow  = stopRow;
+	}
+
+	public int getFirstRow() {
+		return firstRow;
+	}
+
+	public int getStopRow() {
+		return stopRow;
+	}
+
+	/**
+	 * @return first section for which features are required
+	 */
+	public int getFirstSection() {
+		return firstRow;
+	}
+
+	/**
+	 * @param n number of sections
+	 * @param range range of {@link BandedSimilarityMatrix}
+	 * @return features are required for sections {@link #getFirstSection()} &lt;= k &lt; getStopSection( n, range )
+	 */
+	public int getStopSection( final int n, final int range ) {
+		return Math.min( n, stopRow + range - 1 );
+	}
+
+	@Override
+	public String toString() {
+		return String.format( "[%d, %d)", firstRow, stopRow );
+	}
+
+	/**
+	 * @param n number of sections
+	 * @param range range of {@link BandedSimilarityMatrix}
+	 * @param numberOfShards requested number of shards
+	 * @return min( n, numberOfShards ) contiguous shards that cover all n rows, balanced by the number of
+	 *         pairs per shard. Shards at the end of the series hold more rows because their rows hold fewer
+	 *         pairs. The result depends on the parameters only, i.e. every process creates the same shards.
+	 */
+	public static ArrayList< SimilarityShard > createShards( final int n, final int range, final int numberOfShards ) {
+		final int k = Math.max( 1, Math.min( n, numberOfShards ) );
+		// weight of row i is its number of pairs plus one for the diagonal
+		final long[] cumulativeWeights = new long[ n + 1 ];
+		for ( int i = 0; i < n; ++i )
+			cumulativeWeights[ i + 1 ] = cumulativeWeights[ i ] + Math.min( range, n - i );
+		final long totalWeight = cumulativeWeights[ n ];
+		final ArrayList< SimilarityShard > shards = new ArrayList< SimilarityShard >( k );
+		for ( int s = 0, start = 0; s < k; ++s ) {
+			int stop = start + 1;
+			if ( s == k - 1 )
+				stop = n;
+			else {
+				final long target = totalWeight * ( s + 1 ) / k;
+				// leave at least one row for each remaining shard
+				while ( stop < n - ( k - s - 1 ) && cumulativeWeights[ stop ] < target )
+					++stop;
+			}
+			shards.add( new SimilarityShard( start, stop ) );
+			start = stop;
+		}
+		return shards;
+	}
+
+	/**
+	 * @param shards shards that cover all rows
+	 * @param matrices {@link BandedSimilarityMatrix} for each shard as calculated by
+	 *        {@link SiftPairwiseSimilarity#calculateBandedSimilarityShard}, all of the same size and range
+	 * @return {@link BandedSimilarityMatrix} that holds the rows of each shard copied from its matrix
+	 */
+	public static BandedSimilarityMatrix merge( final List< SimilarityShard > shards, final List< BandedSimilarityMatrix > matrices ) {
+		if ( shards.size() != matrices.size() )
+			throw new IllegalArgumentException( String.format( "Got %d matrices for %d shards.", matrices.size(), shards.size() ) );
+		final BandedSimilarityMatrix first  = matrices.get( 0 );
+		final BandedSimilarityMatrix result = new BandedSimilarityMatrix( first.getNumberOfSections(), first.getRange() );
+		for ( int s = 0; s < shards.size(); ++s ) {
+			final SimilarityShard shard = shards.get( s );
+			result.setRows( matrices.get( s ), shard.getFirstRow(), shard.getStopRow() );
+		}
+		return result;
+	}
+
+}
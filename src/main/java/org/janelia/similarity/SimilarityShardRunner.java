@@ -0,0 +1,478 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.IJ;
+import ij.ImagePlus;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.Model;
+import mpicbg.models.RigidModel2D;
+import mpicbg.models.SimilarityModel2D;
+import mpicbg.models.TranslationModel2D;
+
+/**
+ * Calculate a {@link BandedSimilarityMatrix} in several headless JVM processes, one per {@link SimilarityShard}.
+ * Each process extracts the features required by its shard, writes its rows into a shard file and exits.
+ * Shard files are merged into the final matrix once all shards are done. Each shard file carries a key of
+ * the parameters, model and input, see {@link #createKey(File)}. Shards whose file exists already with the
+ * same key are not calculated again, i.e. an interrupted run can be resumed. Shard files with a different key
+ * were written by a different calculation, they are calculated again and rejected by {@link #merge(File, int, long)}.
+ *
+ * Processes can be started on the local machine with {@link #runLocal(File, File, int, int)}, or on
+ * cluster nodes by submitting the commands from {@link #createCommand(File, File, int, int)} and merging
+ * with {@link #merge(File, File, int)} afterwards. The same steps are available from the command line:
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.janelia.similarity.SimilarityShardRunner shard &lt;stack&gt; &lt;directory&gt; &lt;index&gt; &lt;numberOfShards&gt; [model=affine] [name=value ...]
+ * java -cp &lt;classpath&gt; org.janelia.similarity.SimilarityShardRunner merge &lt;stack&gt; &lt;directory&gt; &lt;numberOfShards&gt; &lt;output&gt; [model=affine] [name=value ...]
+ * java -cp &lt;classpath&gt; org.janelia.similarity.SimilarityShardRunner local &lt;stack&gt; &lt;directory&gt; &lt;numberOfShards&gt; &lt;numberOfProcesses&gt; &lt;output&gt; [model=affine] [name=value ...]
+ * </pre>
+ *
+ * The stack is an image stack or a directory with one image file per section, see {@link SectionSources}.
+ * Parameters are passed as name=value, see {@link ParamArguments}. The model is one of translation, rigid,
+ * similarity, affine.
+ */
+public class SimilarityShardRunner {
+
+	public static final String DEFAULT_MODEL = "affine";
+
+	private static final String MODEL_ARGUMENT = "model=";
+
+	private final SiftPairwiseSimilarity.Param p;
+
+	private final String model;
+
+	private final String javaExecutable;
+
+	private final String classPath;
+
+	private final List< String > jvmArguments;
+
+	/**
+	 * Start shard processes with the java executable and class path of this JVM.
+	 * @param p parameters for feature extraction and matching, {@link SiftPairwiseSimilarity.Param#nThreads}
+	 *        threads are used by each process
+	 * @param model name of model, see {@link #createModel(String)}
+	 */
+	public SimilarityShardRunner( final SiftPairwiseSimilarity.Param p, final String model ) {
+		this(
+				p,
+				model,
+				System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java",
+				System.getProperty( "java.class.path" ),
+				new ArrayList< String >() );
+	}
+
+	/**
+	 * @param p parameters for feature extraction and matching, {@link SiftPairwiseSimilarity.Param#nThreads}
+	 *        threads are used by each process
+	 * @param model name of model, see {@link #createModel(String)}
+	 * @param javaExecutable java executable for shard processes
+	 * @param classPath class path for shard processes, needs to include section-sort and its dependencies
+	 * @param jvmArguments additional arguments for shard processes, e.g. -Xmx16g
+	 */
+	public SimilarityShardRunner(
+			final SiftPairwiseSimilarity.Param p,
+			final String model,
+			final String javaExecutable,
+			final String classPath,
+			final List< String > jvmArguments ) {
+		super();
+		createModel( model ); // fail early for unknown models
+		this.p = p;
+		this.model = model;
+		this.javaExecutable = javaExecutable;
+		this.classPath = classPath;
+		this.jvmArguments = jvmArguments;
+	}
+
+	/**
+	 * @param directory directory for shard files
+	 * @param index index of shard
+	 * @param numberOfShards number of shards
+	 * @return file that holds (or will hold) the {@link BandedSimilarityMatrix} of shard index
+	 */
+	public static File getShardFile( final File directory, final int index, final int numberOfShards ) {
+		return new File( directory, String.format( "shard-%d-of-%d.bsm", index, numberOfShards ) );
+	}
+
+	/**
+	 * @param stack image stack, directory or MetaImage header, see {@link SectionSources#open(File)}
+	 * @return key that identifies the calculation by parameters, model, and path, size and modification time
+	 *         of the files of stack, i.e. the input is not read
+	 * @throws IOException if the files of stack cannot be listed
+	 */
+	public long createKey( final File stack ) throws IOException {
+		long key = SimilarityMatrixCheckpoint.createKey( p, createModel( model ) );
+		for ( final File file : SectionSources.listFiles( stack ) ) {
+			key = SimilarityMatrixCheckpoint.combine( key, file.getAbsolutePath().hashCode() );
+			key = SimilarityMatrixCheckpoint.combine( key, file.length() );
+			key = SimilarityMatrixCheckpoint.combine( key, file.lastModified() );
+		}
+		return key;
+	}
+
+	/**
+	 * @param stack image stack
+	 * @param directory directory for shard files
+	 * @param index index of shard
+	 * @param numberOfShards number of shards
+	 * @return command that calculates shard index in a headless JVM
+	 */
+	public List< String > createCommand( final File stack, final File directory, final int index, final int numberOfShards ) {
+		final ArrayList< String > command = new ArrayList< String >();
+		command.add( javaExecutable );
+		command.add( "-Djava.awt.headless=true" );
+		command.addAll( jvmArguments );
+		command.add( "-cp" );
+		command.add( classPath );
+		command.add( SimilarityShardRunner.class.getName() );
+		command.add( "shard" );
+		command.add( stack.getAbsolutePath() );
+		command.add( directory.getAbsolutePath() );
+		command.add( Integer.toString( index ) );
+		command.add( Integer.toString( numberOfShards ) );
+		command.add( MODEL_ARGUMENT + model );
+		command.addAll( ParamArguments.toArguments( p ) );
+		return command;
+	}
+
+	/**
+	 * Calculate all shards that are not done yet in local processes and merge them.
+	 * @param stack image stack
+	 * @param directory directory for shard files, will be created if it does not exist
+	 * @param numberOfShards number of shards
+	 * @param numberOfProcesses number of processes that run at the same time
+	 * @return merged {@link BandedSimilarityMatrix}
+	 * @throws IOException if a process fails or shard files cannot be read
+	 */
+	public BandedSimilarityMatrix runLocal(
+			final File stack,
+			final File directory,
+			final int numberOfShards,
+			final int numberOfProcesses ) throws IOException {
+		directory.mkdirs();
+		final long key = createKey( stack );
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int s = 0; s < numberOfShards; ++s ) {
+			final File file = getShardFile( directory, s, numberOfShards );
+			if ( file.exists() ) {
+				if ( readKey( file ) == key )
+					continue;
+				// written by a different calculation
+				IJ.log( String.format( "Recalculating shard %d of %d, %s was written with different parameters or input.", s, numberOfShards, file ) );
+				Files.delete( file.toPath() );
+			}
+			final List< String > command = createCommand( stack, directory, s, numberOfShards );
+			final int index = s;
+			tasks.add(
+				new Callable< Void >(){
+					@Override
+					public Void call() throws IOException, InterruptedException {
+						final Process process = new ProcessBuilder( command ).inheritIO().start();
+						final int exitValue = process.waitFor();
+						if ( exitValue != 0 )
+							throw new IOException( String.format( "Shard %d of %d failed with exit value %d.", index, numberOfShards, exitValue ) );
+						return null;
+					}
+				}
+			);
+		}
+		final ExecutorService es = Executors.newFixedThreadPool( Math.max( 1, numberOfProcesses ) );
+		try {
+			for ( final Future< Void > future : es.invokeAll( tasks ) )
+				future.get();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		} catch ( final ExecutionException e ) {
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			throw new RuntimeException( e.getCause() );
+		} finally {
+			es.shutdownNow();
+		}
+		return merge( directory, numberOfShards, key );
+	}
+
+	/**
+	 * Calculate one shard of stack and write it into its shard file with the key of stack, see
+	 * {@link #createKey(File)}. Only the sections of the shard are read.
+	 * @param stack image stack, directory or MetaImage header, see {@link SectionSources#open(File)}
+	 * @param directory directory for shard files
+	 * @param index index of shard
+	 * @param numberOfShards number of shards
+	 * @throws IOException if stack cannot be read or shard file cannot be written
+	 */
+	public void runShard( final File stack, final File directory, final int index, final int numberOfShards ) throws IOException {
+		final SectionSourceInterface source = SectionSources.open( stack );
+		try {
+			runShard( source, createKey( stack ), directory, index, numberOfShards );
+		} finally {
+			SectionSources.close( source );
+		}
+	}
+
+	/**
+	 * Calculate one shard and write it into its shard file. The file is written to a temporary file first
+	 * and then moved, i.e. an existing shard file is always complete.
+	 * @param imp image stack
+	 * @param key key of the calculation, see {@link #createKey(File)}
+	 * @param directory directory for shard files
+	 * @param index index of shard
+	 * @param numberOfShards number of shards
+	 * @throws IOException if shard file cannot be written
+	 */
+	public void runShard( final ImagePlus imp, final long key, final File directory, final int index, final int numberOfShards ) throws IOException {
+		runShard( new StackSectionSource( imp.getStack() ), key, directory, index, numberOfShards );
+	}
+
+	/**
+	 * Same as {@link #runShard(ImagePlus, long, File, int, int)} but reads only the sections of the shard from source.
+	 * @param source sections
+	 * @param key key of the calculation, see {@link #createKey(File)}
+	 * @param directory directory for shard files
+	 * @param index index of shard
+	 * @param numberOfShards number of shards
+	 * @throws IOException if shard file cannot be written
+	 */
+	public void runShard(
+			final SectionSourceInterface source,
+			final long key,
+			final File directory,
+			final int index,
+			final int numberOfShards ) throws IOException {
+		final int n = source.getNumberOfSections();
+		final ArrayList< SimilarityShard > shards = SimilarityShard.createShards( n, p.range, numberOfShards );
+		if ( index >= shards.size() ) {
+			IJ.log( String.format( "Nothing to do for shard %d: %d sections are split into %d shards only.", index, n, shards.size() ) );
+			return;
+		}
+		final SimilarityShard shard = shards.get( index );
+		IJ.log( String.format( "Calculating shard %d of %d: rows %s of %d.", index, shards.size(), shard, n ) );
+		final BandedSimilarityMatrix matrix = calculateShard( new SiftPairwiseSimilarity( p ), source, model, shard );
+		writeShard( matrix, key, getShardFile( directory, index, numberOfShards ) );
+	}
+
+	/**
+	 * Write matrix with key into file. The file is written to a temporary file first and then moved, i.e. an
+	 * existing shard file is always complete.
+	 * @param matrix rows of a shard
+	 * @param key key of the calculation, see {@link #createKey(File)}
+	 * @param file shard file
+	 * @throws IOException if file cannot be written
+	 */
+	public static void writeShard( final BandedSimilarityMatrix matrix, final long key, final File file ) throws IOException {
+		final File tmp = new File( file.getAbsolutePath() + ".tmp" );
+		try {
+			final DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( tmp ) ) );
+			try {
+				out.writeLong( key );
+				matrix.write( out );
+			} finally {
+				out.close();
+			}
+			Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		} finally {
+			// left over only if writing or moving failed
+			Files.deleteIfExists( tmp.toPath() );
+		}
+	}
+
+	/**
+	 * @param file shard file
+	 * @return key of the calculation that wrote file
+	 * @throws IOException if file cannot be read
+	 */
+	public static long readKey( final File file ) throws IOException {
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		try {
+			return in.readLong();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * @param file shard file
+	 * @param key expected key
+	 * @return rows stored in file
+	 * @throws IOException if file cannot be read or was written with a different key
+	 */
+	private static BandedSimilarityMatrix readShard( final File file, final long key ) throws IOException {
+		final DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) );
+		try {
+			if ( in.readLong() != key )
+				throw new IOException( file + " was written with different parameters or input." );
+			return BandedSimilarityMatrix.read( in );
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Merge the shard files of stack, see {@link #merge(File, int, long)}.
+	 * @param stack image stack, directory or MetaImage header, see {@link SectionSources#open(File)}
+	 * @param directory directory that holds shard files
+	 * @param numberOfShards number of shards
+	 * @return {@link BandedSimilarityMatrix} with the rows of all shards
+	 * @throws IOException if a shard file is missing, cannot be read, or was not written for stack
+	 */
+	public BandedSimilarityMatrix merge( final File stack, final File directory, final int numberOfShards ) throws IOException {
+		return merge( directory, numberOfShards, createKey( stack ) );
+	}
+
+	/**
+	 * Merge shard files one at a time.
+	 * @param directory directory that holds shard files
+	 * @param numberOfShards number of shards
+	 * @param key key of the calculation, see {@link #createKey(File)}
+	 * @return {@link BandedSimilarityMatrix} with the rows of all shards
+	 * @throws IOException if a shard file is missing, cannot be read, was written with a different key, or
+	 *         does not match the others
+	 */
+	public static BandedSimilarityMatrix merge( final File directory, final int numberOfShards, final long key ) throws IOException {
+		final BandedSimilarityMatrix first = readShard( getShardFile( directory, 0, numberOfShards ), key );
+		final int n     = first.getNumberOfSections();
+		final int range = first.getRange();
+		final ArrayList< SimilarityShard > shards = SimilarityShard.createShards( n, range, numberOfShards );
+		final BandedSimilarityMatrix result = new BandedSimilarityMatrix( n, range );
+		for ( int s = 0; s < shards.size(); ++s ) {
+			final File file = getShardFile( directory, s, numberOfShards );
+			final BandedSimilarityMatrix matrix = s == 0 ? first : readShard( file, key );
+			if ( matrix.getNumberOfSections() != n || matrix.getRange() != range )
+				throw new IOException( String.format(
+						"%s holds %d sections of range %d but expected %d sections of range %d.",
+						file, matrix.getNumberOfSections(), matrix.getRange(), n, range ) );
+			result.setRows( matrix, shards.get( s ).getFirstRow(), shards.get( s ).getStopRow() );
+		}
+		return result;
+	}
+
+	/**
+	 * Delete all shard files and directory, if it is empty then, e.g. after the shards were merged.
+	 * @param directory directory that holds shard files
+	 * @param numberOfShards number of shards
+	 * @throws IOException if a shard file cannot be deleted
+	 */
+	public static void delete( final File directory, final int numberOfShards ) throws IOException {
+		for ( int s = 0; s < numberOfShards; ++s )
+			Files.deleteIfExists( getShardFile( directory, s, numberOfShards ).toPath() );
+		final String[] remaining = directory.list();
+		if ( remaining != null && remaining.length == 0 )
+			Files.deleteIfExists( directory.toPath() );
+	}
+
+	/**
+	 * @param name one of translation, rigid, similarity, affine
+	 * @return two-dimensional {@link Model}
+	 */
+	public static Model< ? > createModel( final String name ) {
+		if ( name.equals( "translation" ) )
+			return new TranslationModel2D();
+		else if ( name.equals( "rigid" ) )
+			return new RigidModel2D();
+		else if ( name.equals( "similarity" ) )
+			return new SimilarityModel2D();
+		else if ( name.equals( "affine" ) )
+			return new AffineModel2D();
+		else
+			throw new IllegalArgumentException( "Unknown model " + name );
+	}
+
+	/**
+	 * All models of {@link #createModel(String)} are models of their own type, i.e. the cast is safe. Assign
+	 * the result to a variable of type M in a generic method to call methods that require M extends Model&lt; M &gt;:
+	 *
+	 * <pre>
+	 * final M model = SimilarityShardRunner.createTypedModel( name );
+	 * </pre>
+	 *
+	 * @param name one of translation, rigid, similarity, affine
+	 * @return {@link #createModel(String)} as M extends Model&lt; M &gt;
+	 */
+	@SuppressWarnings( "unchecked" )
+	public static < M extends Model< M > > M createTypedModel( final String name ) {
+		return ( M ) createModel( name );
+	}
+
+	private static < M extends Model< M > > BandedSimilarityMatrix calculateShard(
+			final SiftPairwiseSimilarity sps,
+			final SectionSourceInterface source,
+			final String modelName,
+			final SimilarityShard shard ) {
+		final M model = createTypedModel( modelName );
+		return sps.calculateBandedSimilarityShard( source, model, shard );
+	}
+
+	private static SimilarityShardRunner fromArguments( final List< String > arguments ) {
+		final SiftPairwiseSimilarity.Param p = SiftPairwiseSimilarity.generateDefaultParameters();
+		p.showProgress = false;
+		String model = DEFAULT_MODEL;
+		final ArrayList< String > paramArguments = new ArrayList< String >();
+		for ( final String argument : arguments ) {
+			if ( argument.startsWith( MODEL_ARGUMENT ) )
+				model = argument.substring( MODEL_ARGUMENT.length() );
+			else
+				paramArguments.add( argument );
+		}
+		ParamArguments.parse( p, paramArguments );
+		return new SimilarityShardRunner( p, model );
+	}
+
+	public static void main( final String[] args ) throws IOException {
+		final String usage =
+				"Usage:\n" +
+				"  shard <stack> <directory> <index> <numberOfShards> [model=affine] [name=value ...]\n" +
+				"  merge <stack> <directory> <numberOfShards> <output> [model=affine] [name=value ...]\n" +
+				"  local <stack> <directory> <numberOfShards> <numberOfProcesses> <output> [model=affine] [name=value ...]";
+		if ( args.length == 0 ) {
+			System.err.println( usage );
+			System.exit( 1 );
+		}
+		final List< String > arguments = Arrays.asList( args );
+		final String mode = args[ 0 ];
+		if ( mode.equals( "shard" ) && args.length >= 5 ) {
+			fromArguments( arguments.subList( 5, args.length ) ).runShard(
+					new File( args[ 1 ] ),
+					new File( args[ 2 ] ),
+					Integer.parseInt( args[ 3 ] ),
+					Integer.parseInt( args[ 4 ] ) );
+		} else if ( mode.equals( "merge" ) && args.length >= 5 ) {
+			fromArguments( arguments.subList( 5, args.length ) ).merge(
+					new File( args[ 1 ] ),
+					new File( args[ 2 ] ),
+					Integer.parseInt( args[ 3 ] ) ).write( new File( args[ 4 ] ) );
+		} else if ( mode.equals( "local" ) && args.length >= 6 ) {
+			fromArguments( arguments.subList( 6, args.length ) ).runLocal(
+					new File( args[ 1 ] ),
+					new File( args[ 2 ] ),
+					Integer.parseInt( args[ 3 ] ),
+					Integer.parseInt( args[ 4 ] ) ).write( new File( args[ 5 ] ) );
+		} else {
+			System.err.println( usage );
+			System.exit( 1 );
+		}
+	}
+
+}
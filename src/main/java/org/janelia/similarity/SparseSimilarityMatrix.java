@@ -0,0 +1,165 @@
+/**
+ * 
+ */
+package org.janelia.similarity;
+
+import java.util.Arrays;
+
+/**
+ * {@link SimilarityMatrixInterface} that stores entries for an arbitrary symmetric set of section pairs,
+ * e.g. candidate pairs selected by content rather than by index distance. Each row holds its column
+ * indices in ascending order in a primitive array, memory scales with the number of stored pairs. All other
+ * entries are NaN and cannot be set.
+ */
+public class SparseSimilarityMatrix implements SimilarityMatrixInterface {
+	
+	private final int[][] columns;
+	
+	private final float[][] values;
+	
+	private final int maxRowLength;
+	
+	/**
+	 * Create {@link SparseSimilarityMatrix} filled with NaN. The diagonal is always stored.
+	 * @param neighbors neighbors[i] holds the sections j for which similarities between i and j will be
+	 *        stored; pairs are symmetrized, i.e. it is sufficient to list j in neighbors[i] or i in neighbors[j]
+	 */
+	public SparseSimilarityMatrix( final int[][] neighbors ) {
+		super();
+		final int n = neighbors.length;
+		final int[] counts = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			++counts[ i ];
+			for ( final int j : neighbors[ i ] ) {
+				if ( j < 0 || j >= n )
+					throw new IndexOutOfBoundsException( String.format( "Neighbor %d of section %d is out of range [0, %d).", j, i, n ) );
+				++counts[ i ];
+				++counts[ j ];
+			}
+		}
+		final int[][] buffers = new int[ n ][];
+		for ( int i = 0; i < n; ++i ) {
+			buffers[ i ] = new int[ counts[ i ] ];
+			buffers[ i ][ 0 ] = i;
+			counts[ i ] = 1;
+		}
+		for ( int i = 0; i < n; ++i ) {
+			for ( final int j : neighbors[ i ] ) {
+				buffers[ i ][ counts[ i ]++ ] = j;
+				buffers[ j ][ counts[ j ]++ ] = i;
+			}
+		}
+		this.columns = new int[ n ][];
+		this.values  = new float[ n ][];
+		int max = 0;
+		for ( int i = 0; i < n; ++i ) {
+			columns[ i ] = unique( buffers[ i ] );
+			values[ i ]  = new float[ columns[ i ].length ];
+			Arrays.fill( values[ i ], Float.NaN );
+			max = Math.max( max, columns[ i ].length );
+		}
+		this.maxRowLength = max;
+	}
+	
+	private SparseSimilarityMatrix( final int[][] columns, final float[][] values ) {
+		super();
+		this.columns = columns;
+		this.values  = values;
+		int max = 0;
+		for ( final int[] c : columns )
+			max = Math.max( max, c.length );
+		this.maxRowLength = max;
+	}
+	
+	private static int[] unique( final int[] array ) {
+		Arrays.sort( array );
+		int size = 0;
+		for ( int k = 0; k < array.length; ++k )
+			if ( size == 0 || array[ k ] != array[ size - 1 ] )
+				array[ size++ ] = array[ k ];
+		return Arrays.copyOf( array, size );
+	}
+	
+	/**
+	 * @param index1 section1
+	 * @param index2 section2
+	 * @return true if similarity between section1 and section2 is stored
+	 */
+	public boolean isStored( final int index1, final int index2 ) {
+		return Arrays.binarySearch( columns[ index1 ], index2 ) >= 0;
+	}
+	
+	/**
+	 * @param index section
+	 * @return sections j &gt; index for which similarities with index are stored, in ascending order
+	 */
+	public int[] getUpperNeighbors( final int index ) {
+		final int[] c = columns[ index ];
+		final int start = Arrays.binarySearch( c, index ) + 1;
+		return Arrays.copyOfRange( c, start, c.length );
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return columns.length;
+	}
+
+	@Override
+	public float get( final int index1, final int index2 ) {
+		final int k = Arrays.binarySearch( columns[ index1 ], index2 );
+		return k < 0 ? Float.NaN : values[ index1 ][ k ];
+	}
+
+	@Override
+	public void set( final int index1, final int index2, final float similarity ) {
+		final int k1 = Arrays.binarySearch( columns[ index1 ], index2 );
+		if ( k1 < 0 )
+			throw new IndexOutOfBoundsException( String.format( "( %d, %d ) is not stored.", index1, index2 ) );
+		values[ index1 ][ k1 ] = similarity;
+		values[ index2 ][ Arrays.binarySearch( columns[ index2 ], index1 ) ] = similarity;
+	}
+
+	@Override
+	public int getMaxRowLength() {
+		return maxRowLength;
+	}
+
+	@Override
+	public int getRow( final int index, final int[] columns, final float[] similarities ) {
+		final int count = this.columns[ index ].length;
+		System.arraycopy( this.columns[ index ], 0, columns, 0, count );
+		System.arraycopy( this.values[ index ], 0, similarities, 0, count );
+		return count;
+	}
+
+	@Override
+	public SparseSimilarityMatrix select( final int[] indices ) {
+		final int[] map = new int[ columns.length ];
+		Arrays.fill( map, -1 );
+		for ( int i = 0; i < indices.length; ++i )
+			map[ indices[ i ] ] = i;
+		final int[][] resultColumns  = new int[ indices.length ][];
+		final float[][] resultValues = new float[ indices.length ][];
+		for ( int i = 0; i < indices.length; ++i ) {
+			final int[] c   = columns[ indices[ i ] ];
+			final float[] v = values[ indices[ i ] ];
+			int count = 0;
+			for ( final int j : c )
+				if ( map[ j ] >= 0 )
+					++count;
+			resultColumns[ i ] = new int[ count ];
+			resultValues[ i ]  = new float[ count ];
+			count = 0;
+			// indices are ascending, so mapped columns stay ascending
+			for ( int k = 0; k < c.length; ++k ) {
+				if ( map[ c[ k ] ] >= 0 ) {
+					resultColumns[ i ][ count ] = map[ c[ k ] ];
+					resultValues[ i ][ count ]  = v[ k ];
+					++count;
+				}
+			}
+		}
+		return new SparseSimilarityMatrix( resultColumns, resultValues );
+	}
+
+}
@@ -0,0 +1,36 @@
+/**
+ *
+ */
+package org.janelia.similarity;
+
+import ij.ImageStack;
+import ij.process.ImageProcessor;
+
+/**
+ * {@link SectionSourceInterface} that returns the slices of an {@link ImageStack}. Virtual stacks are read
+ * lazily by ImageJ.
+ */
+public class StackSectionSource implements SectionSourceInterface {
+
+	private final ImageStack stack;
+
+	/**
+	 * @param stack stack with one slice per section
+	 */
+	public StackSectionSource( final ImageStack stack ) {
+		super();
+		this.stack = stack;
+	}
+
+	@Override
+	public int getNumberOfSections() {
+		return stack.getSize();
+	}
+
+	@Override
+	public ImageProcessor getSection( final int k ) {
+		// stack slices are 1-based, section indices 0-based
+		return stack.getProcessor( k + 1 );
+	}
+
+}
@@ -0,0 +1,320 @@
+/**
+ *
+ */
+package org.janelia.sort.tsp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.janelia.similarity.SimilarityMatrixInterface;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceInterface;
+import org.janelia.sort.tsp.solver.TSPSolverInterface;
+
+/**
+ * Sort series that are too large for a single full matrix TSP. The sections are partitioned into chunks
+ * of consecutive indices, each chunk overlaps its neighbors by {@link #getOverlap()} sections and no other
+ * chunk. Each chunk is sorted
+ * independently, in parallel, by {@link TSP#solve(SimilarityMatrixInterface, SimilarityToDistanceInterface, TSPSolverInterface)},
+ * i.e. the dummy node turns each chunk tour into a path with two open ends. Neighboring chunk paths are
+ * oriented such that they run from their overlap with the previous chunk to their overlap with the next
+ * chunk, and are then stitched at the common section that leaves the fewest sections out of place. Those
+ * sections are inserted where they increase the path length the least.
+ *
+ * Like the banded similarity matrix, chunking assumes that sections are displaced by much less than the
+ * chunk size from their true position. The overlap should be at least the range of the similarity matrix.
+ */
+public class ChunkedSectionSorter {
+
+	private final int chunkSize;
+	private final int overlap;
+	private final TSPSolverInterface solver;
+	private final int nThreads;
+
+	/**
+	 * @param chunkSize maximum number of sections per chunk
+	 * @param overlap minimum number of sections that neighboring chunks share, less than chunkSize / 2
+	 * @param solver solver for each chunk, needs to be thread-safe if nThreads &gt; 1
+	 * @param nThreads number of chunks that are sorted at the same time
+	 */
+	public ChunkedSectionSorter( final int chunkSize, final int overlap, final TSPSolverInterface solver, final int nThreads ) {
+		super();
+		if ( overlap < 1 || 2 * overlap >= chunkSize )
+			throw new IllegalArgumentException( String.format(
+					"Need 0 < overlap < chunkSize / 2 but got overlap=%d, chunkSize=%d: use a chunk size of at least %d or an overlap of at most %d.",
+					overlap, chunkSize, 2 * overlap + 1, ( chunkSize - 1 ) / 2 ) );
+		this.chunkSize = chunkSize;
+		this.overlap   = overlap;
+		this.solver    = solver;
+		this.nThreads  = Math.max( 1, nThreads );
+	}
+
+	/**
+	 * @return maximum number of sections per chunk
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * @return number of sections that neighboring chunks share
+	 */
+	public int getOverlap() {
+		return overlap;
+	}
+
+	/**
+	 * @param n number of sections
+	 * @return first section of each chunk followed by n; chunk k holds sections starts[k] until
+	 *         min( n, starts[k] + chunkSize ), exclusive, i.e. all chunks but the last have chunkSize sections
+	 */
+	public int[] createChunkStarts( final int n ) {
+		if ( n <= chunkSize )
+			return new int[] { 0, n };
+		final int stride = chunkSize - overlap;
+		final int numberOfChunks = ( n - overlap + stride - 1 ) / stride;
+		final int[] starts = new int[ numberOfChunks + 1 ];
+		// neighbors share exactly overlap sections, chunks k and k + 2 are disjoint because 2 * overlap < chunkSize
+		for ( int k = 0; k < numberOfChunks; ++k )
+			starts[ k ] = k * stride;
+		starts[ numberOfChunks ] = n;
+		return starts;
+	}
+
+	/**
+	 * @param matrix similarity matrix
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @return section order, same as {@link TSP#solve(SimilarityMatrixInterface, SimilarityToDistanceInterface, TSPSolverInterface)}
+	 *         if matrix has no more than {@link #getChunkSize()} sections
+	 */
+	public int[] sort( final SimilarityMatrixInterface matrix, final SimilarityToDistanceInterface similarityToDistance ) {
+		final int n = matrix.getNumberOfSections();
+		if ( n <= chunkSize )
+			return TSP.solve( matrix, similarityToDistance, solver );
+
+		final int[] starts = createChunkStarts( n );
+		final int numberOfChunks = starts.length - 1;
+		final ExecutorService es = Executors.newFixedThreadPool( Math.min( nThreads, numberOfChunks ), new ThreadFactory() {
+			@Override
+			public Thread newThread( final Runnable r ) {
+				final Thread thread = new Thread( r, "chunk-sort" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		try {
+			final ArrayList< Future< int[] > > paths = new ArrayList< Future< int[] > >();
+			for ( int k = 0; k < numberOfChunks; ++k )
+				paths.add( es.submit( createChunkTask( matrix, similarityToDistance, starts[ k ], chunkStop( starts, k, n ) ) ) );
+
+			// stitch in order while later chunks are still being sorted
+			final Stitcher stitcher = new Stitcher( matrix, similarityToDistance );
+			for ( int k = 0; k < numberOfChunks; ++k ) {
+				final int[] path = paths.get( k ).get();
+				// sections below low are shared with the previous chunk, sections at or above high with the next,
+				// low <= high because only neighbors overlap
+				final int low    = k > 0 ? chunkStop( starts, k - 1, n ) : starts[ k + 1 ];
+				final int high   = k < numberOfChunks - 1 ? starts[ k + 1 ] : chunkStop( starts, k - 1, n );
+				orient( path, low, high );
+				if ( k == 0 )
+					stitcher.start( path );
+				else
+					stitcher.append( path, starts[ k ], chunkStop( starts, k - 1, n ) );
+			}
+			return stitcher.getOrder();
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException( "Interrupted while sorting chunks.", e );
+		} catch ( final ExecutionException e ) {
+			throw new RuntimeException( "Failed to sort chunk.", e.getCause() );
+		} finally {
+			es.shutdownNow();
+		}
+	}
+
+	private int chunkStop( final int[] starts, final int k, final int n ) {
+		return Math.min( n, starts[ k ] + chunkSize );
+	}
+
+	private Callable< int[] > createChunkTask(
+			final SimilarityMatrixInterface matrix,
+			final SimilarityToDistanceInterface similarityToDistance,
+			final int start,
+			final int stop ) {
+		return new Callable< int[] >() {
+			@Override
+			public int[] call() {
+				final int[] indices = new int[ stop - start ];
+				for ( int i = 0; i < indices.length; ++i )
+					indices[ i ] = start + i;
+				final int[] path = TSP.solve( matrix.select( indices ), similarityToDistance, solver );
+				for ( int i = 0; i < path.length; ++i )
+					path[ i ] += start;
+				return path;
+			}
+		};
+	}
+
+	/**
+	 * Reverse path if sections below low are visited later than sections at or above high, on average.
+	 */
+	private static void orient( final int[] path, final int low, final int high ) {
+		long lowSum   = 0;
+		long lowCount = 0;
+		long highSum  = 0;
+		long highCount = 0;
+		for ( int i = 0; i < path.length; ++i ) {
+			if ( path[ i ] < low ) {
+				lowSum += i;
+				++lowCount;
+			}
+			if ( path[ i ] >= high ) {
+				highSum += i;
+				++highCount;
+			}
+		}
+		// compare lowSum / lowCount > highSum / highCount without division
+		if ( lowCount > 0 && highCount > 0 && lowSum * highCount > highSum * lowCount ) {
+			for ( int i = 0, j = path.length - 1; i < j; ++i, --j ) {
+				final int tmp = path[ i ];
+				path[ i ] = path[ j ];
+				path[ j ] = tmp;
+			}
+		}
+	}
+
+	/**
+	 * Global section order that grows by one chunk path at a time.
+	 */
+	private class Stitcher {
+
+		private final SimilarityMatrixInterface matrix;
+		private final SimilarityToDistanceInterface similarityToDistance;
+		// position of each section in order, -1 if not in order yet
+		private final int[] position;
+		// order[ 0 ] until order[ size ], exclusive; each section is in order at most once
+		private final int[] order;
+		private int size = 0;
+
+		public Stitcher( final SimilarityMatrixInterface matrix, final SimilarityToDistanceInterface similarityToDistance ) {
+			super();
+			this.matrix               = matrix;
+			this.similarityToDistance = similarityToDistance;
+			this.position             = new int[ matrix.getNumberOfSections() ];
+			this.order                = new int[ matrix.getNumberOfSections() ];
+			Arrays.fill( position, -1 );
+		}
+
+		public void start( final int[] path ) {
+			System.arraycopy( path, 0, order, 0, path.length );
+			size = path.length;
+			updatePositions( 0 );
+		}
+
+		/**
+		 * @param path path over sections start until start + path.length, exclusive
+		 * @param start first section of path
+		 * @param overlapStop sections start until overlapStop, exclusive, are shared with the current order
+		 */
+		public void append( final int[] path, final int start, final int overlapStop ) {
+			final int[] pathPosition = new int[ path.length ];
+			for ( int j = 0; j < path.length; ++j )
+				pathPosition[ path[ j ] - start ] = j;
+
+			// junction section that leaves the fewest sections out of place
+			int junction          = -1;
+			int junctionMisplaced = Integer.MAX_VALUE;
+			for ( int s = start; s < overlapStop; ++s ) {
+				final int p = position[ s ];
+				final int b = pathPosition[ s - start ];
+				int misplaced = 0;
+				// path sections before junction that are not part of order up to junction
+				for ( int j = 0; j < b; ++j ) {
+					final int q = position[ path[ j ] ];
+					if ( q < 0 || q > p )
+						++misplaced;
+				}
+				// order sections after junction that are not part of path after junction
+				for ( int i = p + 1; i < size; ++i ) {
+					final int section = order[ i ];
+					if ( section < start || section >= start + path.length || pathPosition[ section - start ] < b )
+						++misplaced;
+				}
+				if ( misplaced < junctionMisplaced ) {
+					junction          = s;
+					junctionMisplaced = misplaced;
+				}
+			}
+
+			final int p = position[ junction ];
+			final int b = pathPosition[ junction - start ];
+			// misplaced sections: order after junction and path before junction
+			final int tailLength = size - p - 1;
+			final int[] misplaced = new int[ tailLength + b ];
+			System.arraycopy( order, p + 1, misplaced, 0, tailLength );
+			System.arraycopy( path, 0, misplaced, tailLength, b );
+			size = p + 1;
+			for ( int t = 0; t < tailLength; ++t )
+				position[ misplaced[ t ] ] = -1;
+			for ( int j = b + 1; j < path.length; ++j ) {
+				if ( position[ path[ j ] ] < 0 ) {
+					position[ path[ j ] ] = size;
+					order[ size++ ] = path[ j ];
+				}
+			}
+
+			// insert misplaced sections where they add the least distance, close to the junction
+			final int windowStart = Math.max( 0, p - chunkSize );
+			for ( final int section : misplaced )
+				if ( position[ section ] < 0 )
+					insert( section, windowStart );
+			updatePositions( windowStart );
+		}
+
+		private void insert( final int section, final int windowStart ) {
+			int bestIndex = size;
+			double bestCost = distance( order[ size - 1 ], section );
+			if ( windowStart == 0 ) {
+				final double cost = distance( section, order[ 0 ] );
+				if ( cost < bestCost ) {
+					bestCost  = cost;
+					bestIndex = 0;
+				}
+			}
+			for ( int i = Math.max( 1, windowStart ); i < size; ++i ) {
+				final int previous = order[ i - 1 ];
+				final int next     = order[ i ];
+				final double cost  = distance( previous, section ) + distance( section, next ) - distance( previous, next );
+				if ( cost < bestCost ) {
+					bestCost  = cost;
+					bestIndex = i;
+				}
+			}
+			System.arraycopy( order, bestIndex, order, bestIndex + 1, size - bestIndex );
+			order[ bestIndex ] = section;
+			++size;
+			// mark as placed, exact positions are updated after all insertions
+			position[ section ] = Integer.MAX_VALUE;
+		}
+
+		private double distance( final int section1, final int section2 ) {
+			return similarityToDistance.convert( matrix.get( section1, section2 ) );
+		}
+
+		private void updatePositions( final int from ) {
+			for ( int i = from; i < size; ++i )
+				position[ order[ i ] ] = i;
+		}
+
+		public int[] getOrder() {
+			return Arrays.copyOf( order, size );
+		}
+
+	}
+
+}
@@ -0,0 +1,115 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp;
+
+import net.imglib2.AbstractInterval;
+import net.imglib2.Interval;
+import net.imglib2.Point;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+
+/**
+ * Lazy view of a square matrix with rows and columns re-indexed: entry (x, y) of the view is entry
+ * (indices[x], indices[y]) of the source. Nothing is copied, the mapping is applied on access. Use it for
+ * reordering (indices is a permutation) or for removing rows and columns (indices holds the remaining
+ * rows in ascending order) and materialize with {@link TSP#materialize} only if needed.
+ *
+ * @param <T> pixel type
+ */
+public class IndexMappedMatrixView< T > extends AbstractInterval implements RandomAccessibleInterval< T > {
+	
+	private final RandomAccessibleInterval< T > source;
+	
+	private final int[] indices;
+	
+	/**
+	 * @param source square matrix
+	 * @param indices row/column of source for each row/column of this view
+	 */
+	public IndexMappedMatrixView( final RandomAccessibleInterval< T > source, final int[] indices ) {
+		super( new long[] { indices.length, indices.length } );
+		assert source.numDimensions() == 2: "Need two-dimensional matrix";
+		this.source  = source;
+		this.indices = indices;
+	}
+	
+	/**
+	 * @return underlying matrix
+	 */
+	public RandomAccessibleInterval< T > getSource() {
+		return source;
+	}
+	
+	/**
+	 * @return row/column of source for each row/column of this view
+	 */
+	public int[] getIndices() {
+		return indices.clone();
+	}
+	
+	/**
+	 * @param associations row/column of this view for each row/column of the result
+	 * @return view of the source that is equivalent to re-indexing this view by associations, without
+	 *         an additional level of indirection
+	 */
+	public IndexMappedMatrixView< T > remap( final int[] associations ) {
+		final int[] composed = new int[ associations.length ];
+		for ( int i = 0; i < associations.length; ++i )
+			composed[ i ] = indices[ associations[ i ] ];
+		return new IndexMappedMatrixView< T >( source, composed );
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess() {
+		return new IndexMappedRandomAccess();
+	}
+
+	@Override
+	public RandomAccess< T > randomAccess( final Interval interval ) {
+		return randomAccess();
+	}
+	
+	
+	private class IndexMappedRandomAccess extends Point implements RandomAccess< T > {
+		
+		private final RandomAccess< T > sourceAccess;
+		
+		private final long min0;
+		
+		private final long min1;
+		
+		public IndexMappedRandomAccess() {
+			super( 2 );
+			this.sourceAccess = source.randomAccess();
+			this.min0         = source.min( 0 );
+			this.min1         = source.min( 1 );
+		}
+		
+		private IndexMappedRandomAccess( final IndexMappedRandomAccess other ) {
+			super( other );
+			this.sourceAccess = other.sourceAccess.copyRandomAccess();
+			this.min0         = other.min0;
+			this.min1         = other.min1;
+		}
+
+		@Override
+		public T get() {
+			sourceAccess.setPosition( min0 + indices[ (int) position[ 0 ] ], 0 );
+			sourceAccess.setPosition( min1 + indices[ (int) position[ 1 ] ], 1 );
+			return sourceAccess.get();
+		}
+
+		@Override
+		public IndexMappedRandomAccess copy() {
+			return new IndexMappedRandomAccess( this );
+		}
+
+		@Override
+		public IndexMappedRandomAccess copyRandomAccess() {
+			return copy();
+		}
+		
+	}
+
+}
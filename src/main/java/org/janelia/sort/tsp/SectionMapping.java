@@ -0,0 +1,159 @@
+/**
+ *
+ */
+package org.janelia.sort.tsp;
+
+/**
+ * Immutable mapping between the sections of a full series and the sections that remain after removing
+ * bad (empty) sections, backed by primitive arrays. Bad sections are attached to the closest good section
+ * before them (bad successors), i.e. the bad successors of a good section are all bad sections up to
+ * the next good section. Bad sections before the first good section are leading bad sections.
+ */
+public class SectionMapping {
+
+	private final int[] cleanToFull;
+
+	private final int[] fullToClean;
+
+	private final int[] removed;
+
+	/**
+	 * @param sectionStatus true for good sections, false for bad sections
+	 */
+	public SectionMapping( final boolean[] sectionStatus ) {
+		super();
+		final int n = sectionStatus.length;
+		int numberOfGoodSections = 0;
+		for ( final boolean isGood : sectionStatus )
+			if ( isGood )
+				++numberOfGoodSections;
+		this.cleanToFull = new int[ numberOfGoodSections ];
+		this.fullToClean = new int[ n ];
+		this.removed     = new int[ n - numberOfGoodSections ];
+		for ( int fullIndex = 0, cleanIndex = 0, removedIndex = 0; fullIndex < n; ++fullIndex ) {
+			if ( sectionStatus[ fullIndex ] ) {
+				cleanToFull[ cleanIndex ] = fullIndex;
+				fullToClean[ fullIndex ]  = cleanIndex;
+				++cleanIndex;
+			} else {
+				fullToClean[ fullIndex ] = -1;
+				removed[ removedIndex ]  = fullIndex;
+				++removedIndex;
+			}
+		}
+	}
+
+	/**
+	 * @return number of sections in full series
+	 */
+	public int getNumberOfSections() {
+		return fullToClean.length;
+	}
+
+	/**
+	 * @return number of good sections
+	 */
+	public int getNumberOfCleanSections() {
+		return cleanToFull.length;
+	}
+
+	/**
+	 * @return true if no section was removed
+	 */
+	public boolean isIdentity() {
+		return removed.length == 0;
+	}
+
+	/**
+	 * @param fullIndex section in full series
+	 * @return true if section is good
+	 */
+	public boolean isValid( final int fullIndex ) {
+		return fullToClean[ fullIndex ] >= 0;
+	}
+
+	/**
+	 * @param fullIndex section in full series
+	 * @return index of section in clean series, -1 if section was removed
+	 */
+	public int toClean( final int fullIndex ) {
+		return fullToClean[ fullIndex ];
+	}
+
+	/**
+	 * @param cleanIndex section in clean series
+	 * @return index of section in full series
+	 */
+	public int toFull( final int cleanIndex ) {
+		return cleanToFull[ cleanIndex ];
+	}
+
+	/**
+	 * @return full indices of good sections in ascending order
+	 */
+	public int[] getKeptIndices() {
+		return cleanToFull.clone();
+	}
+
+	/**
+	 * @return full indices of bad sections in ascending order
+	 */
+	public int[] getRemovedIndices() {
+		return removed.clone();
+	}
+
+	/**
+	 * @return true for good sections, false for bad sections
+	 */
+	public boolean[] getSectionStatus() {
+		final boolean[] sectionStatus = new boolean[ fullToClean.length ];
+		for ( int i = 0; i < sectionStatus.length; ++i )
+			sectionStatus[ i ] = fullToClean[ i ] >= 0;
+		return sectionStatus;
+	}
+
+	/**
+	 * @return number of bad sections before the first good section
+	 */
+	public int getNumberOfLeadingBadSections() {
+		return cleanToFull.length > 0 ? cleanToFull[ 0 ] : fullToClean.length;
+	}
+
+	/**
+	 * @param cleanIndex section in clean series
+	 * @return number of bad sections between section and next good section, bad successors have full
+	 *         indices {@link #toFull(int)} + 1, ..., {@link #toFull(int)} + {@link #getNumberOfBadSuccessors(int)}
+	 */
+	public int getNumberOfBadSuccessors( final int cleanIndex ) {
+		final int next = cleanIndex + 1 < cleanToFull.length ? cleanToFull[ cleanIndex + 1 ] : fullToClean.length;
+		return next - cleanToFull[ cleanIndex ] - 1;
+	}
+
+	/**
+	 * @param solution order of clean sections
+	 * @return order of all sections: each good section is followed by its bad successors, leading bad
+	 *         sections are placed at the beginning
+	 */
+	public int[] addInvalidSections( final int[] solution ) {
+		final int[] result = new int[ fullToClean.length ];
+		addInvalidSections( solution, result );
+		return result;
+	}
+
+	/**
+	 * @param solution order of clean sections
+	 * @param result output parameter for order of all sections, see {@link #addInvalidSections(int[])}
+	 */
+	public void addInvalidSections( final int[] solution, final int[] result ) {
+		int resultIndex = 0;
+		for ( int k = getNumberOfLeadingBadSections(); resultIndex < k; ++resultIndex )
+			result[ resultIndex ] = resultIndex;
+		for ( final int cleanIndex : solution ) {
+			final int fullIndex = cleanToFull[ cleanIndex ];
+			final int count     = getNumberOfBadSuccessors( cleanIndex );
+			for ( int k = 0; k <= count; ++k, ++resultIndex )
+				result[ resultIndex ] = fullIndex + k;
+		}
+	}
+
+}
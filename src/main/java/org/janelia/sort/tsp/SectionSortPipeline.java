@@ -0,0 +1,557 @@
+/**
+ *
+ */
+package org.janelia.sort.tsp;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.similarity.BandedSimilarityMatrix;
+import org.janelia.similarity.FloatProcessorSimilarityMatrix;
+import org.janelia.similarity.ParamArguments;
+import org.janelia.similarity.SectionSourceInterface;
+import org.janelia.similarity.SectionSources;
+import org.janelia.similarity.SiftPairwiseSimilarity;
+import org.janelia.similarity.SimilarityMatrixInterface;
+import org.janelia.similarity.SimilarityShardRunner;
+import org.janelia.similarity.SparseSimilarityMatrix;
+import org.janelia.sort.tsp.conversion.DataToWriterEdgeList;
+import org.janelia.sort.tsp.conversion.DataToWriterUpperRowTSPLIB;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceInterface;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceLookup;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceSigmoid;
+import org.janelia.sort.tsp.solver.ConcordeRunner;
+import org.janelia.sort.tsp.solver.ConcordeTSPSolver;
+import org.janelia.sort.tsp.solver.LocalSearchTSPSolver;
+import org.janelia.sort.tsp.solver.PortfolioTSPSolver;
+import org.janelia.sort.tsp.solver.TSPSolverInterface;
+
+import ij.IJ;
+import ij.ImagePlus;
+import mpicbg.models.Model;
+
+/**
+ * Headless section sort pipeline: image stack &rarr; features &rarr; similarity matrix &rarr; clean matrix &rarr;
+ * TSP &rarr; section order, same as section_sort.bsh but without dialogs and without displaying any
+ * intermediate result. All results are written into {@link Options#outputDirectory}:
+ *
+ * <ul>
+ * <li>similarity-matrix.bsm: {@link BandedSimilarityMatrix} if calculated from stack without {@link Options#candidateSelection} and {@link Options#writeMatrix}</li>
+ * <li>forward-mapping: lines of original index, sorted index, 1 for good or 0 for bad section, ordered by original index</li>
+ * <li>backward-mapping: lines of sorted index, original index, 1 for good or 0 for bad section, ordered by sorted index</li>
+ * <li>removed-sections: original indices of bad sections</li>
+ * <li>tsp-problem-sparse: plain edge list (not tsplib) of the candidate edges of the TSP of good sections if {@link Options#writeSparseProblem}, see {@link DataToWriterEdgeList}</li>
+ * <li>rearranged-clean-sections: one TIFF file per good section, in sorted order, if input is a stack and {@link Options#writeStack}</li>
+ * </ul>
+ *
+ * Run from the command line with name=value arguments, see {@link #main(String[])}:
+ *
+ * <pre>
+ * java -cp &lt;classpath&gt; org.janelia.sort.tsp.SectionSortPipeline input=&lt;stack&gt; outputDirectory=&lt;dir&gt; [config=&lt;file&gt;] [name=value ...]
+ * </pre>
+ */
+public class SectionSortPipeline {
+
+	public static final String MATRIX_FILE = "similarity-matrix.bsm";
+
+	public static final String FORWARD_MAPPING_FILE = "forward-mapping";
+
+	public static final String BACKWARD_MAPPING_FILE = "backward-mapping";
+
+	public static final String REMOVED_SECTIONS_FILE = "removed-sections";
+
+	public static final String STACK_DIRECTORY = "rearranged-clean-sections";
+
+	public static final String PROBLEM_FILE = "tsp-problem";
+
+	public static final String SOLUTION_FILE = "tsp-solution";
+
+	public static final String SPARSE_PROBLEM_FILE = "tsp-problem-sparse";
+
+	public static final String SHARD_DIRECTORY = "shards";
+
+	private static final String CONFIG_ARGUMENT = "config=";
+
+	/**
+	 * Options for the pipeline. All members are public for straight forward modification.
+	 */
+	public static class Options {
+		/** Image stack or directory with one image file per section, or similarity matrix if {@link #inputIsMatrix}. */
+		public String input;
+		/** Input is a similarity matrix, either a {@link BandedSimilarityMatrix} file (.bsm) or a 32-bit image. If null, only .bsm files are considered matrices. */
+		public Boolean inputIsMatrix;
+		/** Directory for result files, will be created if it does not exist. Existing files will be overwritten. */
+		public String outputDirectory;
+		/** TSP solver, concorde, local (in process {@link LocalSearchTSPSolver}) or portfolio (several local searches with different seeds, see {@link PortfolioTSPSolver}). */
+		public String solver;
+		/** Path to concorde executable. */
+		public String concorde;
+		/** Kill concorde after this many seconds, no timeout if 0. */
+		public Integer concordeTimeout;
+		/** Number of seeds for solver portfolio, number of available processors if 0. */
+		public Integer portfolioSize;
+		/** Stop solver portfolio after this many seconds and use the best tour so far, no time budget if 0. */
+		public Integer solverTimeBudget;
+		/** Sort series with more sections than this in overlapping chunks, see {@link ChunkedSectionSorter}; never if 0. */
+		public Integer chunkSize;
+		/** Number of sections that neighboring chunks share, at least the similarity range; the larger of range and chunkSize / 4 if 0. */
+		public Integer chunkOverlap;
+		/** Match each section with its {@link SiftPairwiseSimilarity.Param#numberOfCandidates} most similar sections instead of its neighbors in the input, see {@link SiftPairwiseSimilarity#calculateCandidateSimilarityMatrix(SectionSourceInterface, Model)}. */
+		public Boolean candidateSelection;
+		/** Model for matching features: translation, rigid, similarity or affine. */
+		public String model;
+		/** Factor of {@link SimilarityToDistanceSigmoid}. */
+		public Double distanceFactor;
+		/** Summand of {@link SimilarityToDistanceSigmoid}. */
+		public Double distanceSummand;
+		/** Distance for pairs without similarity. */
+		public Double nanDistance;
+		/** Tabulate {@link SimilarityToDistanceSigmoid} at this many steps between similarity 0 and 1, see {@link SimilarityToDistanceLookup}; exact if 0. */
+		public Integer distanceLookupSize;
+		/** Write similarity matrix calculated from stack, banded matrices only. */
+		public Boolean writeMatrix;
+		/** Write good sections in sorted order into {@link SectionSortPipeline#STACK_DIRECTORY}, one file per section. */
+		public Boolean writeStack;
+		/** Write candidate edges of the TSP as plain edge list, see {@link DataToWriterEdgeList}. */
+		public Boolean writeSparseProblem;
+		/** Calculate similarity matrix in this many processes, see {@link SimilarityShardRunner}; in process if 1. */
+		public Integer numberOfShards;
+		/** Number of shard processes that run at the same time. */
+		public Integer numberOfProcesses;
+		/** Parameters for feature extraction and matching. */
+		public SiftPairwiseSimilarity.Param similarity;
+	}
+
+	/**
+	 * @return Options with default parameters, input and outputDirectory need to be set.
+	 */
+	public static Options generateDefaultOptions() {
+		final Options o = new Options();
+		o.input              = null;
+		o.inputIsMatrix      = null;
+		o.outputDirectory    = null;
+		o.solver             = "concorde";
+		o.concorde           = "concorde";
+		o.concordeTimeout    = 0;
+		o.portfolioSize      = 0;
+		o.solverTimeBudget   = 0;
+		o.chunkSize          = 0;
+		o.chunkOverlap       = 0;
+		o.candidateSelection = false;
+		o.model              = SimilarityShardRunner.DEFAULT_MODEL;
+		o.distanceFactor     = 10000.0;
+		o.distanceSummand    = 0.0;
+		o.nanDistance        = 1000000.0;
+		o.distanceLookupSize = 0;
+		o.writeMatrix        = true;
+		o.writeStack         = false;
+		o.writeSparseProblem = false;
+		o.numberOfShards     = 1;
+		o.numberOfProcesses  = 1;
+		o.similarity         = SiftPairwiseSimilarity.generateDefaultParameters();
+		o.similarity.showProgress = false;
+		return o;
+	}
+
+	private final Options o;
+
+	/**
+	 * @param o options
+	 */
+	public SectionSortPipeline( final Options o ) {
+		super();
+		if ( o.input == null || o.outputDirectory == null )
+			throw new IllegalArgumentException( "Need input and outputDirectory." );
+		SimilarityShardRunner.createModel( o.model ); // fail early for unknown models
+		if ( !o.solver.equals( "concorde" ) && !o.solver.equals( "local" ) && !o.solver.equals( "portfolio" ) )
+			throw new IllegalArgumentException( "Unknown solver " + o.solver );
+		if ( o.chunkSize > 0 && o.chunkOverlap > 0 && o.chunkOverlap < o.similarity.range )
+			throw new IllegalArgumentException( String.format(
+					"chunkOverlap=%d is less than the similarity range %d, chunks would not share enough sections.",
+					o.chunkOverlap, o.similarity.range ) );
+		if ( o.candidateSelection && o.numberOfShards > 1 )
+			throw new IllegalArgumentException( "candidateSelection is not supported for numberOfShards > 1." );
+		// chunks are consecutive in the input, candidates are not
+		if ( o.candidateSelection && o.chunkSize > 0 )
+			throw new IllegalArgumentException( "candidateSelection is not supported for chunkSize > 0." );
+		this.o = o;
+		// fail early for chunks that are too small for the overlap
+		if ( o.chunkSize > 0 )
+			new ChunkedSectionSorter( o.chunkSize, getChunkOverlap(), new LocalSearchTSPSolver(), 1 );
+	}
+
+	/**
+	 * Run all steps of the pipeline and write results into {@link Options#outputDirectory}.
+	 * @return section order including bad sections, i.e. original index of each section in the sorted series
+	 * @throws IOException if input cannot be read, results cannot be written, or concorde fails
+	 */
+	public int[] run() throws IOException {
+		final File outputDirectory = new File( o.outputDirectory );
+		outputDirectory.mkdirs();
+
+		SectionSourceInterface source = null;
+		try {
+			final SimilarityMatrixInterface matrix;
+			if ( isMatrixInput() )
+				matrix = readMatrix( new File( o.input ) );
+			else {
+				if ( o.numberOfShards > 1 ) {
+					final File shardDirectory = new File( outputDirectory, SHARD_DIRECTORY );
+					matrix = new SimilarityShardRunner( o.similarity, o.model ).runLocal(
+							new File( o.input ),
+							shardDirectory,
+							o.numberOfShards,
+							o.numberOfProcesses );
+					// shards are kept only for resuming an interrupted calculation
+					SimilarityShardRunner.delete( shardDirectory, o.numberOfShards );
+				} else {
+					source = SectionSources.open( new File( o.input ) );
+					final SiftPairwiseSimilarity sps = new SiftPairwiseSimilarity( o.similarity );
+					matrix = o.candidateSelection ? calculateCandidateMatrix( sps, source, o.model ) : calculateMatrix( sps, source, o.model );
+				}
+				// there is no file format for sparse candidate matrices
+				if ( o.writeMatrix && matrix instanceof BandedSimilarityMatrix )
+					( ( BandedSimilarityMatrix ) matrix ).write( new File( outputDirectory, MATRIX_FILE ) );
+			}
+
+			final SectionMapping mapping = TSP.createSectionMapping( matrix );
+			final SimilarityMatrixInterface cleanMatrix = TSP.cleanMatrix( matrix, mapping );
+			IJ.log( String.format( "Removed %d of %d sections.", mapping.getNumberOfSections() - mapping.getNumberOfCleanSections(), mapping.getNumberOfSections() ) );
+
+			if ( o.writeSparseProblem ) {
+				final SimilarityToDistanceInterface similarityToDistance = createSimilarityToDistance();
+				final Writer writer = new BufferedWriter( new FileWriter( new File( outputDirectory, SPARSE_PROBLEM_FILE ) ) );
+				try {
+					TSP.convertMatrixSparse(
+							cleanMatrix,
+							new DataToWriterEdgeList( writer, (int) similarityToDistance.convert( Double.NaN ) ),
+							similarityToDistance );
+				} finally {
+					writer.close();
+				}
+			}
+
+			final int[] cleanOrder = solve( cleanMatrix, outputDirectory );
+			final int[] order      = mapping.addInvalidSections( cleanOrder );
+			IJ.log( "Section order: " + Arrays.toString( order ) );
+			writeMappings( order, mapping, outputDirectory );
+
+			if ( o.writeStack && !isMatrixInput() ) {
+				if ( source == null )
+					source = SectionSources.open( new File( o.input ) );
+				final int[] cleanFullOrder = new int[ cleanOrder.length ];
+				for ( int i = 0; i < cleanOrder.length; ++i )
+					cleanFullOrder[ i ] = mapping.toFull( cleanOrder[ i ] );
+				writeSections( source, cleanFullOrder, new File( outputDirectory, STACK_DIRECTORY ) );
+			}
+
+			return order;
+		} finally {
+			SectionSources.close( source );
+		}
+	}
+
+	/**
+	 * @param cleanMatrix similarity matrix without bad sections
+	 * @param workingDirectory directory for problem and solution files of concorde
+	 * @return order of sections of cleanMatrix
+	 * @throws IOException if concorde fails
+	 */
+	public int[] solve( final SimilarityMatrixInterface cleanMatrix, final File workingDirectory ) throws IOException {
+		final int n = cleanMatrix.getNumberOfSections();
+		// nothing to sort
+		if ( n < 2 )
+			return n == 0 ? new int[ 0 ] : new int[] { 0 };
+		final SimilarityToDistanceInterface similarityToDistance = createSimilarityToDistance();
+		if ( o.chunkSize > 0 && n > o.chunkSize )
+			return solveChunked( cleanMatrix, similarityToDistance, workingDirectory );
+		if ( o.solver.equals( "local" ) )
+			return TSP.solve( cleanMatrix, similarityToDistance, new LocalSearchTSPSolver() );
+		if ( o.solver.equals( "portfolio" ) ) {
+			final int nThreads = Runtime.getRuntime().availableProcessors();
+			return TSP.solve( cleanMatrix, similarityToDistance, PortfolioTSPSolver.createLocalSearchPortfolio(
+					o.portfolioSize > 0 ? o.portfolioSize : nThreads,
+					nThreads,
+					TimeUnit.SECONDS.toMillis( o.solverTimeBudget ) ) );
+		}
+
+		final File problem  = new File( workingDirectory, PROBLEM_FILE );
+		final File solution = new File( workingDirectory, SOLUTION_FILE );
+		// stream problem into file row by row, upper triangle only
+		TSP.convertMatrix( cleanMatrix, new DataToWriterUpperRowTSPLIB( new BufferedWriter( new FileWriter( problem ) ) ), similarityToDistance );
+		// concorde writes temporary files into its working directory
+		final ConcordeRunner runner = new ConcordeRunner(
+				o.concorde,
+				workingDirectory,
+				TimeUnit.SECONDS.toMillis( o.concordeTimeout ),
+				System.out,
+				new ArrayList< String >() );
+		final CompletableFuture< int[] > tour = runner.solve( problem, solution );
+		try {
+			final int[] nodes = tour.get();
+			// dummy node is node n
+			if ( nodes.length != n + 1 )
+				throw new IOException( String.format( "Expected tour over %d nodes in %s but got %d.", n + 1, solution, nodes.length ) );
+			return TSP.tourToArrayRespectDummyNode( nodes, n );
+		} catch ( final InterruptedException e ) {
+			tour.cancel( true );
+			Thread.currentThread().interrupt();
+			throw new IOException( e );
+		} catch ( final ExecutionException e ) {
+			if ( e.getCause() instanceof IOException )
+				throw ( IOException ) e.getCause();
+			throw new IOException( e.getCause() );
+		}
+	}
+
+	/**
+	 * @return {@link Options#chunkOverlap}, or the larger of similarity range and chunkSize / 4 if 0
+	 */
+	public int getChunkOverlap() {
+		return o.chunkOverlap > 0 ? o.chunkOverlap : Math.max( o.similarity.range, o.chunkSize / 4 );
+	}
+
+	private SimilarityToDistanceInterface createSimilarityToDistance() {
+		final SimilarityToDistanceInterface sigmoid = new SimilarityToDistanceSigmoid( o.distanceFactor, o.distanceSummand, o.nanDistance );
+		return o.distanceLookupSize > 0 ? new SimilarityToDistanceLookup( sigmoid, o.distanceLookupSize ) : sigmoid;
+	}
+
+	private int[] solveChunked(
+			final SimilarityMatrixInterface cleanMatrix,
+			final SimilarityToDistanceInterface similarityToDistance,
+			final File workingDirectory ) {
+		// chunks run in parallel, so each chunk solver runs on a single thread
+		final int nThreads = Runtime.getRuntime().availableProcessors();
+		final TSPSolverInterface solver;
+		if ( o.solver.equals( "local" ) )
+			solver = new LocalSearchTSPSolver();
+		else if ( o.solver.equals( "portfolio" ) )
+			solver = PortfolioTSPSolver.createLocalSearchPortfolio(
+					o.portfolioSize > 0 ? o.portfolioSize : nThreads,
+					1,
+					TimeUnit.SECONDS.toMillis( o.solverTimeBudget ) );
+		else
+			solver = new ConcordeTSPSolver( o.concorde, workingDirectory, TimeUnit.SECONDS.toMillis( o.concordeTimeout ), ConcordeTSPSolver.DEFAULT_SEED );
+		final ChunkedSectionSorter sorter = new ChunkedSectionSorter( o.chunkSize, getChunkOverlap(), solver, nThreads );
+		IJ.log( String.format( "Sorting %d sections in %d chunks.", cleanMatrix.getNumberOfSections(), sorter.createChunkStarts( cleanMatrix.getNumberOfSections() ).length - 1 ) );
+		return sorter.sort( cleanMatrix, similarityToDistance );
+	}
+
+	/**
+	 * Write sections of source in order into directory, one TIFF file per section, named by position in the
+	 * result with zero-padded numbers, i.e. the directory can be opened as a {@link org.janelia.similarity.DirectorySectionSource}.
+	 * Only one section is held in memory at a time.
+	 * @param source sections
+	 * @param order original index of each section in the result
+	 * @param directory output directory, will be created if it does not exist
+	 * @throws IOException if a section cannot be read or written
+	 */
+	public static void writeSections( final SectionSourceInterface source, final int[] order, final File directory ) throws IOException {
+		directory.mkdirs();
+		final String format = "section-%0" + Math.max( 1, Integer.toString( order.length - 1 ).length() ) + "d.tif";
+		for ( int i = 0; i < order.length; ++i ) {
+			final File file = new File( directory, String.format( format, i ) );
+			if ( !IJ.saveAsTiff( new ImagePlus( file.getName(), source.getSection( order[ i ] ) ), file.getAbsolutePath() ) )
+				throw new IOException( "Cannot write " + file );
+		}
+	}
+
+	/**
+	 * Write forward-mapping, backward-mapping and removed-sections into directory.
+	 * @param order section order including bad sections
+	 * @param mapping mapping between all sections and good sections
+	 * @param directory output directory
+	 * @throws IOException
+	 */
+	public static void writeMappings( final int[] order, final SectionMapping mapping, final File directory ) throws IOException {
+		final String[] forwardMappings  = new String[ order.length ];
+		final String[] backwardMappings = new String[ order.length ];
+		for ( int i = 0; i < order.length; ++i ) {
+			final int currVal    = order[ i ];
+			final int currStatus = mapping.isValid( currVal ) ? 1 : 0;
+			forwardMappings[ currVal ] = currVal + "," + i + "," + currStatus;
+			backwardMappings[ i ]      = i + "," + currVal + "," + currStatus;
+		}
+		final int[] removed = mapping.getRemovedIndices();
+		final String[] removedSections = new String[ removed.length ];
+		for ( int i = 0; i < removed.length; ++i )
+			removedSections[ i ] = Integer.toString( removed[ i ] );
+		writeLines( forwardMappings, new File( directory, FORWARD_MAPPING_FILE ) );
+		writeLines( backwardMappings, new File( directory, BACKWARD_MAPPING_FILE ) );
+		writeLines( removedSections, new File( directory, REMOVED_SECTIONS_FILE ) );
+	}
+
+	/**
+	 * @param file {@link BandedSimilarityMatrix} file (.bsm) or n x n image
+	 * @return similarity matrix stored in file
+	 * @throws IOException if file cannot be read
+	 */
+	public static SimilarityMatrixInterface readMatrix( final File file ) throws IOException {
+		if ( file.getName().endsWith( ".bsm" ) )
+			return BandedSimilarityMatrix.read( file );
+		final ImagePlus imp = open( file.getAbsolutePath() );
+		if ( imp.getWidth() != imp.getHeight() )
+			throw new IOException( String.format( "Similarity matrix %s is not quadratic: %d x %d", file, imp.getWidth(), imp.getHeight() ) );
+		return new FloatProcessorSimilarityMatrix( imp.getProcessor().convertToFloatProcessor() );
+	}
+
+	private boolean isMatrixInput() {
+		return o.inputIsMatrix == null ? o.input.endsWith( ".bsm" ) : o.inputIsMatrix;
+	}
+
+	private static < M extends Model< M > > BandedSimilarityMatrix calculateMatrix(
+			final SiftPairwiseSimilarity sps,
+			final SectionSourceInterface source,
+			final String modelName ) {
+		final M model = SimilarityShardRunner.createTypedModel( modelName );
+		return sps.calculateBandedSimilarityMatrix( source, model );
+	}
+
+	private static < M extends Model< M > > SparseSimilarityMatrix calculateCandidateMatrix(
+			final SiftPairwiseSimilarity sps,
+			final SectionSourceInterface source,
+			final String modelName ) {
+		final M model = SimilarityShardRunner.createTypedModel( modelName );
+		return sps.calculateCandidateSimilarityMatrix( source, model );
+	}
+
+	private static ImagePlus open( final String path ) throws IOException {
+		final ImagePlus imp = new ImagePlus( path );
+		if ( imp.getWidth() == 0 || imp.getHeight() == 0 )
+			throw new IOException( "Cannot open " + path );
+		return imp;
+	}
+
+	private static void writeLines( final String[] lines, final File file ) throws IOException {
+		final PrintWriter writer = new PrintWriter( new BufferedWriter( new FileWriter( file ) ) );
+		try {
+			for ( int i = 0; i < lines.length; ++i ) {
+				if ( i > 0 )
+					writer.print( "\n" );
+				writer.print( lines[ i ] );
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * @param o options, will be modified
+	 * @param argument name=value argument, names that are not members of {@link Options} are passed on to
+	 *        {@link ParamArguments#set(SiftPairwiseSimilarity.Param, String)}
+	 * @throws IllegalArgumentException if argument is malformed or its name is unknown
+	 */
+	public static void set( final Options o, final String argument ) {
+		if ( !ParamArguments.isArgument( argument ) )
+			throw new IllegalArgumentException( "Expected name=value but got " + argument );
+		final int separator = argument.indexOf( '=' );
+		final String name   = argument.substring( 0, separator );
+		final String value  = argument.substring( separator + 1 );
+		try {
+			if ( name.equals( "input" ) )
+				o.input = value;
+			else if ( name.equals( "inputIsMatrix" ) )
+				o.inputIsMatrix = Boolean.valueOf( value );
+			else if ( name.equals( "outputDirectory" ) )
+				o.outputDirectory = value;
+			else if ( name.equals( "solver" ) )
+				o.solver = value;
+			else if ( name.equals( "concorde" ) )
+				o.concorde = value;
+			else if ( name.equals( "concordeTimeout" ) )
+				o.concordeTimeout = Integer.valueOf( value );
+			else if ( name.equals( "portfolioSize" ) )
+				o.portfolioSize = Integer.valueOf( value );
+			else if ( name.equals( "solverTimeBudget" ) )
+				o.solverTimeBudget = Integer.valueOf( value );
+			else if ( name.equals( "chunkSize" ) )
+				o.chunkSize = Integer.valueOf( value );
+			else if ( name.equals( "chunkOverlap" ) )
+				o.chunkOverlap = Integer.valueOf( value );
+			else if ( name.equals( "candidateSelection" ) )
+				o.candidateSelection = Boolean.valueOf( value );
+			else if ( name.equals( "model" ) )
+				o.model = value;
+			else if ( name.equals( "distanceFactor" ) )
+				o.distanceFactor = Double.valueOf( value );
+			else if ( name.equals( "distanceSummand" ) )
+				o.distanceSummand = Double.valueOf( value );
+			else if ( name.equals( "nanDistance" ) )
+				o.nanDistance = Double.valueOf( value );
+			else if ( name.equals( "distanceLookupSize" ) )
+				o.distanceLookupSize = Integer.valueOf( value );
+			else if ( name.equals( "writeMatrix" ) )
+				o.writeMatrix = Boolean.valueOf( value );
+			else if ( name.equals( "writeStack" ) )
+				o.writeStack = Boolean.valueOf( value );
+			else if ( name.equals( "writeSparseProblem" ) )
+				o.writeSparseProblem = Boolean.valueOf( value );
+			else if ( name.equals( "numberOfShards" ) )
+				o.numberOfShards = Integer.valueOf( value );
+			else if ( name.equals( "numberOfProcesses" ) )
+				o.numberOfProcesses = Integer.valueOf( value );
+			else
+				ParamArguments.set( o.similarity, argument );
+		} catch ( final NumberFormatException e ) {
+			throw new IllegalArgumentException( "Cannot parse value of " + argument, e );
+		}
+	}
+
+	/**
+	 * @param o options, will be modified
+	 * @param arguments name=value arguments. config=&lt;file&gt; reads name=value pairs from a properties file,
+	 *        all other arguments take precedence over the contents of config files.
+	 * @return o
+	 * @throws IOException if a config file cannot be read
+	 */
+	public static Options parse( final Options o, final List< String > arguments ) throws IOException {
+		final ArrayList< String > remaining = new ArrayList< String >();
+		for ( final String argument : arguments ) {
+			if ( argument.startsWith( CONFIG_ARGUMENT ) ) {
+				final Properties properties = new Properties();
+				final InputStream in = new FileInputStream( argument.substring( CONFIG_ARGUMENT.length() ) );
+				try {
+					properties.load( in );
+				} finally {
+					in.close();
+				}
+				for ( final String name : properties.stringPropertyNames() )
+					set( o, name + "=" + properties.getProperty( name ) );
+			} else
+				remaining.add( argument );
+		}
+		for ( final String argument : remaining )
+			set( o, argument );
+		return o;
+	}
+
+	/**
+	 * Run pipeline headless.
+	 * @param args name=value arguments, see {@link #parse(Options, List)}
+	 * @throws IOException
+	 */
+	public static void main( final String[] args ) throws IOException {
+		if ( System.getProperty( "java.awt.headless" ) == null )
+			System.setProperty( "java.awt.headless", "true" );
+		if ( args.length == 0 ) {
+			System.err.println( "Usage: input=<stack or matrix> outputDirectory=<directory> [config=<file>] [name=value ...]" );
+			System.exit( 1 );
+		}
+		final Options o = parse( generateDefaultOptions(), Arrays.asList( args ) );
+		new SectionSortPipeline( o ).run();
+	}
+
+}
@@ -3,16 +3,25 @@
  */
 package org.janelia.sort.tsp;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.TreeMap;
 
+import org.janelia.similarity.SimilarityMatrixInterface;
+
 import org.janelia.sort.tsp.conversion.DataToStringInterface;
+import org.janelia.sort.tsp.conversion.DataToWriterEdgeList;
+import org.janelia.sort.tsp.conversion.DataToWriterInterface;
 import org.janelia.sort.tsp.conversion.SimilarityToDistanceInterface;
+import org.janelia.sort.tsp.solver.ConcordeRunner;
+import org.janelia.sort.tsp.solver.DistanceMatrixInterface;
+import org.janelia.sort.tsp.solver.FullDistanceMatrix;
+import org.janelia.sort.tsp.solver.TSPSolverInterface;
+import org.janelia.sort.tsp.solver.TourReader;
 
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccess;
@@ -23,7 +32,7 @@ import net.imglib2.img.array.ArrayImgFactory;
 import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.IntType;
-import net.imglib2.view.IntervalView;
+import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 
 /**
@@ -49,27 +58,316 @@ public class TSP {
 		assert matrix.numDimensions() == 2: "Need two-dimensional matrix";
 		assert matrix.dimension( 0 ) == matrix.dimension( 1 ): "Matrix needs to be quadratic";
 		
-		final long n = matrix.dimension( 0 );
+		return convertRows( new RealDistanceRows< T >( matrix, similarityToDistance ), converter );
+	}
+	
+	
+	/**
+	 * Stream TSP into converter row by row, without holding the distances in memory.
+	 * @param matrix 2D {@link RandomAccessibleInterval} containing the similarity matrix
+	 * @param converter {@link DataToWriterInterface} determining the rule for writing data, will be closed
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @throws IOException
+	 */
+	public static < T extends RealType<T> & NativeType< T > > void convertMatrix( 
+			final RandomAccessibleInterval< T > matrix,
+			final DataToWriterInterface converter,
+			final SimilarityToDistanceInterface similarityToDistance ) throws IOException {
 		
-		// initialize converter with number of nodes
-		converter.initialize( (int) n );
+		assert matrix.numDimensions() == 2: "Need two-dimensional matrix";
+		assert matrix.dimension( 0 ) == matrix.dimension( 1 ): "Matrix needs to be quadratic";
 		
-		// for each row convert each column and 
-		for ( int i = 0; i < n; ++i ) {
-			final IntervalView<T> row = Views.hyperSlice( matrix, 0, i );
-			final Cursor<T> r         = Views.flatIterable( row ).cursor();
-			for ( int j = 0; r.hasNext(); ++j ) {
-				converter.addSimilarity( i, j, similarityToDistance.convert( r.next().getRealDouble() ) );
+		convertRows( new RealDistanceRows< T >( matrix, similarityToDistance ), converter );
+	}	
+	
+	
+	/**
+	 * @param matrix 2D {@link RandomAccessibleInterval} containing the similarity matrix
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @return {@link FullDistanceMatrix} with an additional zero distance dummy node at index n, same distances as
+	 *         written by {@link #convertMatrix(RandomAccessibleInterval, DataToStringInterface, SimilarityToDistanceInterface)}
+	 */
+	public static < T extends RealType<T> & NativeType< T > > FullDistanceMatrix createDistanceMatrix(
+			final RandomAccessibleInterval< T > matrix,
+			final SimilarityToDistanceInterface similarityToDistance ) {
+		
+		assert matrix.numDimensions() == 2: "Need two-dimensional matrix";
+		assert matrix.dimension( 0 ) == matrix.dimension( 1 ): "Matrix needs to be quadratic";
+		
+		final int n = (int) matrix.dimension( 0 );
+		
+		// dummy row and column are initialized with zero distance
+		final FullDistanceMatrix distances = new FullDistanceMatrix( n + 1 );
+		final RealDistanceRows< T > rows   = new RealDistanceRows< T >( matrix, similarityToDistance );
+		for ( int i = 0; i < n; ++i )
+			rows.convert( i, distances.getRow( i ) );
+		
+		return distances;
+	}
+	
+	
+	/**
+	 * @param matrix {@link SimilarityMatrixInterface} containing the similarity matrix
+	 * @param converter {@link DataToStringInterface} determining the rule for converting data to string
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @return {@link String} that contains all the information necessary for TSP solver
+	 */
+	public static String convertMatrix( 
+			final SimilarityMatrixInterface matrix,
+			final DataToStringInterface converter,
+			final SimilarityToDistanceInterface similarityToDistance ) {
+		return convertRows( new StoredDistanceRows( matrix, similarityToDistance ), converter );
+	}
+	
+	
+	/**
+	 * Stream TSP into converter row by row, without holding the distances in memory.
+	 * @param matrix {@link SimilarityMatrixInterface} containing the similarity matrix
+	 * @param converter {@link DataToWriterInterface} determining the rule for writing data, will be closed
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @throws IOException
+	 */
+	public static void convertMatrix( 
+			final SimilarityMatrixInterface matrix,
+			final DataToWriterInterface converter,
+			final SimilarityToDistanceInterface similarityToDistance ) throws IOException {
+		convertRows( new StoredDistanceRows( matrix, similarityToDistance ), converter );
+	}
+	
+	
+	/**
+	 * Stream only the stored entries of the upper triangle into converter, i.e. without visiting all n x n
+	 * entries. Entries whose distance equals the default edge weight of converter are not written.
+	 * @param matrix {@link SimilarityMatrixInterface} containing the similarity matrix
+	 * @param converter {@link DataToWriterEdgeList} for writing the candidate edges, will be closed
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @throws IOException
+	 */
+	public static void convertMatrixSparse( 
+			final SimilarityMatrixInterface matrix,
+			final DataToWriterEdgeList converter,
+			final SimilarityToDistanceInterface similarityToDistance ) throws IOException {
+		
+		final int n = matrix.getNumberOfSections();
+		final int[] columns = new int[ matrix.getMaxRowLength() ];
+		final float[] similarities = new float[ matrix.getMaxRowLength() ];
+		final int[] storedDistances = new int[ matrix.getMaxRowLength() ];
+		
+		try {
+			converter.initialize( n );
+			for ( int i = 0; i < n; ++i ) {
+				final int count = matrix.getRow( i, columns, similarities );
+				similarityToDistance.convert( similarities, storedDistances, count );
+				for ( int k = 0; k < count; ++k ) {
+					if ( columns[ k ] > i )
+						converter.addEdge( i, columns[ k ], storedDistances[ k ] );
+				}
+				// add zero distance dummy to transfer TSP into sorting problem
+				converter.addDummy( i, 0.0 );
 			}
-			// add zero distance dummy to transfer TSP into sorting problem
-			converter.addDummy( i, 0.0 );
+		} finally {
+			converter.close();
 		}
+	}
+	
+	
+	/**
+	 * @param matrix {@link SimilarityMatrixInterface} containing the similarity matrix
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @return {@link FullDistanceMatrix} with an additional zero distance dummy node at index n
+	 */
+	public static FullDistanceMatrix createDistanceMatrix(
+			final SimilarityMatrixInterface matrix,
+			final SimilarityToDistanceInterface similarityToDistance ) {
 		
-		// close out converter and obtain string
-		return converter.close();
+		final int n = matrix.getNumberOfSections();
+		final int nanDistance = (int) similarityToDistance.convert( Double.NaN );
+		final int[] columns = new int[ matrix.getMaxRowLength() ];
+		final float[] similarities = new float[ matrix.getMaxRowLength() ];
+		final int[] storedDistances = new int[ matrix.getMaxRowLength() ];
+		
+		// dummy row and column are initialized with zero distance
+		final FullDistanceMatrix distances = new FullDistanceMatrix( n + 1 );
+		for ( int i = 0; i < n; ++i ) {
+			final int[] distanceRow = distances.getRow( i );
+			Arrays.fill( distanceRow, 0, n, nanDistance );
+			// convert stored entries only
+			final int count = matrix.getRow( i, columns, similarities );
+			similarityToDistance.convert( similarities, storedDistances, count );
+			for ( int k = 0; k < count; ++k )
+				distanceRow[ columns[ k ] ] = storedDistances[ k ];
+		}
+		
+		return distances;
+	}
+	
+	
+	/**
+	 * Solve sorting problem in process, i.e. without writing a problem file or calling an external solver.
+	 * @param matrix {@link SimilarityMatrixInterface} containing the similarity matrix
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @param solver {@link TSPSolverInterface} that solves the TSP
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix,
+	 *         see {@link #tourToArrayRespectDummyNode(int[], int)}
+	 */
+	public static int[] solve(
+			final SimilarityMatrixInterface matrix,
+			final SimilarityToDistanceInterface similarityToDistance,
+			final TSPSolverInterface solver ) {
+		final DistanceMatrixInterface distances = createDistanceMatrix( matrix, similarityToDistance );
+		return tourToArrayRespectDummyNode( solver.solve( distances ), matrix.getNumberOfSections() );
+	}
+	
+	
+	/**
+	 * Solve sorting problem in process, i.e. without writing a problem file or calling an external solver.
+	 * @param matrix 2D {@link RandomAccessibleInterval} containing the similarity matrix
+	 * @param similarityToDistance {@link SimilarityToDistanceInterface} for converting similarities into distances
+	 * @param solver {@link TSPSolverInterface} that solves the TSP
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix,
+	 *         see {@link #tourToArrayRespectDummyNode(int[], int)}
+	 */
+	public static < T extends RealType<T> & NativeType< T > > int[] solve(
+			final RandomAccessibleInterval< T > matrix,
+			final SimilarityToDistanceInterface similarityToDistance,
+			final TSPSolverInterface solver ) {
+		final DistanceMatrixInterface distances = createDistanceMatrix( matrix, similarityToDistance );
+		return tourToArrayRespectDummyNode( solver.solve( distances ), (int) matrix.dimension( 0 ) );
 	}
 	
 	
+	/**
+	 * @param distances distances between all nodes
+	 * @param tour closed tour
+	 * @return sum of all edge weights along tour, including the edge from the last node back to the first
+	 */
+	public static long tourLength( final DistanceMatrixInterface distances, final int[] tour ) {
+		long length = distances.getDistance( tour[ tour.length - 1 ], tour[ 0 ] );
+		for ( int i = 1; i < tour.length; ++i )
+			length += distances.getDistance( tour[ i - 1 ], tour[ i ] );
+		return length;
+	}
+	
+	
+	/**
+	 * Find "empty" sections, i.e. rows that are entirely NaN or 0.0 
+	 * @param matrix input matrix
+	 * @return {@link SectionMapping} between all sections and good sections
+	 */
+	public static < T extends RealType< T > & NativeType< T > > SectionMapping createSectionMapping(
+			final RandomAccessibleInterval< T > matrix
+			)
+	{
+		assert matrix.numDimensions() == 2: "Need two-dimensional matrix";
+		assert matrix.dimension( 0 ) == matrix.dimension( 1 ): "Matrix needs to be quadratic";
+		
+		final int n = (int) matrix.dimension( 0 );
+		final boolean[] sectionStatus = new boolean[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			final Cursor<T> row = Views.flatIterable( Views.hyperSlice( matrix, 0, matrix.min( 0 ) + i ) ).cursor();
+			while ( row.hasNext() ) {
+				final double val = row.next().getRealDouble();
+				// as soon as a non-zero value is also not NaN, section is good
+				if ( !Double.isNaN( val ) && val != 0.0 ) {
+					sectionStatus[ i ] = true;
+					break;
+				}
+			}
+		}
+		return new SectionMapping( sectionStatus );
+	}
+	
+	
+	/**
+	 * Find "empty" sections, considering only stored entries of matrix 
+	 * @param matrix input matrix
+	 * @return {@link SectionMapping} between all sections and good sections
+	 */
+	public static SectionMapping createSectionMapping( final SimilarityMatrixInterface matrix ) {
+		final int n = matrix.getNumberOfSections();
+		final int[] columns = new int[ matrix.getMaxRowLength() ];
+		final float[] similarities = new float[ matrix.getMaxRowLength() ];
+		final boolean[] sectionStatus = new boolean[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			final int count = matrix.getRow( i, columns, similarities );
+			for ( int k = 0; k < count; ++k ) {
+				final float val = similarities[ k ];
+				if ( !Float.isNaN( val ) && val != 0.0f ) {
+					sectionStatus[ i ] = true;
+					break;
+				}
+			}
+		}
+		return new SectionMapping( sectionStatus );
+	}
+	
+	
+	/**
+	 * Remove bad sections from similarity matrix
+	 * @param matrix input matrix
+	 * @param mapping mapping as created by {@link #createSectionMapping(RandomAccessibleInterval)}
+	 * @return matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 */
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cleanMatrix(
+			final RandomAccessibleInterval< T > matrix,
+			final SectionMapping mapping
+			)
+	{
+		return cleanMatrix( matrix, mapping, new ArrayImgFactory<T>() );
+	}
+	
+	
+	/**
+	 * Remove bad sections from similarity matrix
+	 * @param matrix input matrix
+	 * @param mapping mapping as created by {@link #createSectionMapping(RandomAccessibleInterval)}
+	 * @param factory ImgFactory used for creating output matrix.
+	 * @return matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 */
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cleanMatrix(
+			final RandomAccessibleInterval< T > matrix,
+			final SectionMapping mapping,
+			final ImgFactory< T > factory
+			)
+	{
+		if ( mapping.isIdentity() )
+			return matrix;
+		else
+			return materialize( cleanMatrixView( matrix, mapping ), factory );
+	}
+	
+	
+	/**
+	 * Remove bad sections from similarity matrix without copying
+	 * @param matrix input matrix
+	 * @param mapping mapping as created by {@link #createSectionMapping(RandomAccessibleInterval)}
+	 * @return lazy {@link IndexMappedMatrixView} of matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 */
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cleanMatrixView(
+			final RandomAccessibleInterval< T > matrix,
+			final SectionMapping mapping
+			)
+	{
+		if ( mapping.isIdentity() )
+			return matrix;
+		else
+			return new IndexMappedMatrixView< T >( matrix, mapping.getKeptIndices() );
+	}
+	
+	
+	/**
+	 * Remove bad sections from similarity matrix
+	 * @param matrix input matrix
+	 * @param mapping mapping as created by {@link #createSectionMapping(SimilarityMatrixInterface)}
+	 * @return matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 */
+	public static SimilarityMatrixInterface cleanMatrix( final SimilarityMatrixInterface matrix, final SectionMapping mapping ) {
+		if ( mapping.isIdentity() )
+			return matrix;
+		else
+			return matrix.select( mapping.getKeptIndices() );
+	}
+	
 	
 	/**
 	 * Clean similarity matrix from "empty" sections 
@@ -78,7 +376,9 @@ public class TSP {
 	 * @param keptIndices output parameter for remaining row/column indices
 	 * @param sectionStatus output parameter that keeps boolean true for good sections, false otherwise
 	 * @return matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 * @deprecated use {@link #createSectionMapping(RandomAccessibleInterval)} and {@link #cleanMatrix(RandomAccessibleInterval, SectionMapping)}
 	 */
+	@Deprecated
 	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cleanMatrix(
 			final RandomAccessibleInterval< T > matrix,
 			final ArrayList< Long > removedIndices,
@@ -98,7 +398,9 @@ public class TSP {
 	 * @param sectionStatus output parameter that keeps boolean true for good sections, false otherwise
 	 * @param factory ImgFactory used for creating output matrix.
 	 * @return matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 * @deprecated use {@link #createSectionMapping(RandomAccessibleInterval)} and {@link #cleanMatrix(RandomAccessibleInterval, SectionMapping, ImgFactory)}
 	 */
+	@Deprecated
 	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cleanMatrix(
 			final RandomAccessibleInterval< T > matrix,
 			final ArrayList< Long > removedIndices,
@@ -108,83 +410,295 @@ public class TSP {
 			final ImgFactory< T > factory
 			)
 	{
-		assert matrix.numDimensions() == 2: "Need two-dimensional matrix";
-		assert matrix.dimension( 0 ) == matrix.dimension( 1 ): "Matrix needs to be quadratic";
-		
-		final long n = matrix.dimension( 0 );
-		
+		final SectionMapping mapping = createSectionMapping( matrix );
+		fillSectionLists( mapping, removedIndices, keptIndices, badSuccessors, sectionStatus );
+		return cleanMatrix( matrix, mapping, factory );
+	}
+	
+	
+	/**
+	 * Clean similarity matrix from "empty" sections without copying
+	 * @param matrix input matrix
+	 * @param removedIndices output parameter for removed row/column indices
+	 * @param keptIndices output parameter for remaining row/column indices
+	 * @param sectionStatus output parameter that keeps boolean true for good sections, false otherwise
+	 * @return lazy {@link IndexMappedMatrixView} of matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 * @deprecated use {@link #createSectionMapping(RandomAccessibleInterval)} and {@link #cleanMatrixView(RandomAccessibleInterval, SectionMapping)}
+	 */
+	@Deprecated
+	public static < T extends RealType< T > & NativeType< T > > RandomAccessibleInterval< T > cleanMatrixView(
+			final RandomAccessibleInterval< T > matrix,
+			final ArrayList< Long > removedIndices,
+			final ArrayList< Long > keptIndices,
+			final ArrayList< ArrayList< Long > > badSuccessors,
+			final boolean[] sectionStatus
+			)
+	{
+		final SectionMapping mapping = createSectionMapping( matrix );
+		fillSectionLists( mapping, removedIndices, keptIndices, badSuccessors, sectionStatus );
+		return cleanMatrixView( matrix, mapping );
+	}
+	
+	
+	/**
+	 * Clean similarity matrix from "empty" sections, considering only stored entries of matrix 
+	 * @param matrix input matrix
+	 * @param removedIndices output parameter for removed row/column indices
+	 * @param keptIndices output parameter for remaining row/column indices
+	 * @param sectionStatus output parameter that keeps boolean true for good sections, false otherwise
+	 * @return matrix without holes. If the original matrix does not have any holes, return original matrix.
+	 * @deprecated use {@link #createSectionMapping(SimilarityMatrixInterface)} and {@link #cleanMatrix(SimilarityMatrixInterface, SectionMapping)}
+	 */
+	@Deprecated
+	public static SimilarityMatrixInterface cleanMatrix(
+			final SimilarityMatrixInterface matrix,
+			final ArrayList< Long > removedIndices,
+			final ArrayList< Long > keptIndices,
+			final ArrayList< ArrayList< Long > > badSuccessors,
+			final boolean[] sectionStatus
+			)
+	{
+		final SectionMapping mapping = createSectionMapping( matrix );
+		fillSectionLists( mapping, removedIndices, keptIndices, badSuccessors, sectionStatus );
+		return cleanMatrix( matrix, mapping );
+	}
+	
+	
+	private static void fillSectionLists(
+			final SectionMapping mapping,
+			final ArrayList< Long > removedIndices,
+			final ArrayList< Long > keptIndices,
+			final ArrayList< ArrayList< Long > > badSuccessors,
+			final boolean[] sectionStatus ) {
 		removedIndices.clear(); // maybe do not call clear?
 		keptIndices.clear(); // maybe do not call clear?
-		// loop over all rows and
-		// if row is entirely NaN/0.0:
-		//    store index for removal
-		// else:
-		//    store index for result matrix
-		ArrayList<Long> bs = new ArrayList< Long >();
-		for ( long i = 0; i < n; ++i ) {
-			final Cursor<T> row = Views.flatIterable( Views.hyperSlice( matrix, 0, i ) ).cursor();
-			boolean isBad = true;
-			while ( row.hasNext() ) {
-				final double val = row.next().getRealDouble();
-				// as soon as a non-zero value is also not NaN, break and store index
-				if ( !Double.isNaN( val ) && val != 0.0 ) {
-					bs = new ArrayList< Long >();
-					badSuccessors.add( bs );
-					isBad = false;
-					keptIndices.add( i );
-					sectionStatus[ (int)i ] = true;
-					break;
-				}
-			}
-			// if only zero or NaN values, remove index
-			if ( isBad ) {
-				removedIndices.add( i );
-				sectionStatus[ (int)i ] = false;
-				bs.add( i );
+		for ( final int i : mapping.getRemovedIndices() )
+			removedIndices.add( (long) i );
+		for ( int cleanIndex = 0; cleanIndex < mapping.getNumberOfCleanSections(); ++cleanIndex ) {
+			final long fullIndex = mapping.toFull( cleanIndex );
+			final ArrayList< Long > bs = new ArrayList< Long >();
+			for ( int k = 1; k <= mapping.getNumberOfBadSuccessors( cleanIndex ); ++k )
+				bs.add( fullIndex + k );
+			keptIndices.add( fullIndex );
+			badSuccessors.add( bs );
+		}
+		for ( int i = 0; i < mapping.getNumberOfSections(); ++i )
+			sectionStatus[ i ] = mapping.isValid( i );
+	}
+	
+	
+	/**
+	 * Convert rows into converter and close converter and obtain string.
+	 */
+	private static String convertRows( final DistanceRows rows, final DataToStringInterface converter ) {
+		try {
+			writeRows( rows, new StringConverterAdapter( converter ) );
+		} catch ( final IOException e ) {
+			// StringConverterAdapter does not throw
+			throw new RuntimeException( e );
+		}
+		return converter.close();
+	}
+	
+	
+	/**
+	 * Convert rows into converter, converter and its output are closed even if conversion fails.
+	 */
+	private static void convertRows( final DistanceRows rows, final DataToWriterInterface converter ) throws IOException {
+		try {
+			writeRows( rows, converter );
+		} finally {
+			// close out converter and flush output
+			converter.close();
+		}
+	}
+	
+	
+	/**
+	 * Add all rows in row major order, each followed by the dummy node.
+	 */
+	private static void writeRows( final DistanceRows rows, final DataToWriterInterface converter ) throws IOException {
+		final int n             = rows.getNumberOfRows();
+		final int[] distanceRow = new int[ n ];
+		
+		// initialize converter with number of nodes
+		converter.initialize( n );
+		
+		// for each row convert all columns at once
+		for ( int i = 0; i < n; ++i ) {
+			rows.convert( i, distanceRow );
+			for ( int j = 0; j < n; ++j ) {
+				converter.addSimilarity( i, j, distanceRow[ j ] );
 			}
+			// add zero distance dummy to transfer TSP into sorting problem
+			converter.addDummy( i, 0.0 );
+		}
+	}
+	
+	
+	/**
+	 * Source of dense rows of distances for {@link #writeRows(DistanceRows, DataToWriterInterface)}.
+	 */
+	private static abstract class DistanceRows {
+		
+		protected final SimilarityToDistanceInterface similarityToDistance;
+		
+		public DistanceRows( final SimilarityToDistanceInterface similarityToDistance ) {
+			this.similarityToDistance = similarityToDistance;
 		}
 		
+		public abstract int getNumberOfRows();
 		
-		// if nothing needs to be removed, return original matrix, else create matrix w/o removed indices
-		if ( removedIndices.size() > 0 ) {
-			final long[] newDimension = new long[] { n - removedIndices.size(), n - removedIndices.size() };
-			final Img<T> result     = factory.create( newDimension, matrix.randomAccess().get() );
-			final Cursor<T> c       = Views.flatIterable( result ).cursor();
-			final RandomAccess<T> r = matrix.randomAccess();
-			while( c.hasNext() ) {
-				c.fwd();
-				// get coordinates of target images and look up the corresponding indices of the original matrix
-				// in the list of saved coordinates (keptIndices)
-				final Long xTrans = keptIndices.get( c.getIntPosition( 0 ) );
-				final Long yTrans = keptIndices.get( c.getIntPosition( 1 ) );
-				r.setPosition( xTrans, 0 );
-				r.setPosition( yTrans, 1 );
-				// write value of the corresponding position within the old matrix into the current position
-				// of the result matrix
-				c.get().set( r.get() );
+		/**
+		 * Write distances of row index into the first {@link #getNumberOfRows()} entries of distanceRow.
+		 */
+		public abstract void convert( int index, int[] distanceRow );
+		
+	}
+	
+	
+	/**
+	 * Rows of a 2D {@link RandomAccessibleInterval}. Rows of {@link FloatType} matrices are copied into a float
+	 * buffer and converted at once, rows of all other types are converted one similarity at a time at double
+	 * precision.
+	 */
+	private static class RealDistanceRows< T extends RealType< T > > extends DistanceRows {
+		
+		private final RandomAccessibleInterval< T > matrix;
+		private final float[] row;
+		
+		public RealDistanceRows( final RandomAccessibleInterval< T > matrix, final SimilarityToDistanceInterface similarityToDistance ) {
+			super( similarityToDistance );
+			this.matrix = matrix;
+			final int n = (int) matrix.dimension( 0 );
+			this.row = n > 0 && Views.iterable( matrix ).firstElement() instanceof FloatType ? new float[ n ] : null;
+		}
+		
+		@Override
+		public int getNumberOfRows() {
+			return (int) matrix.dimension( 0 );
+		}
+		
+		@Override
+		public void convert( final int index, final int[] distanceRow ) {
+			final Cursor<T> r = Views.flatIterable( Views.hyperSlice( matrix, 0, index ) ).cursor();
+			if ( row != null ) {
+				// float to float copy is exact
+				for ( int j = 0; r.hasNext(); ++j )
+					row[ j ] = r.next().getRealFloat();
+				similarityToDistance.convert( row, distanceRow, row.length );
+			} else {
+				// convert at full precision, e.g. for DoubleType matrices
+				for ( int j = 0; r.hasNext(); ++j )
+					distanceRow[ j ] = (int) similarityToDistance.convert( r.next().getRealDouble() );
 			}
-			return result;
 		}
-		else {
-			return matrix;
+		
+	}
+	
+	
+	/**
+	 * Rows of a {@link SimilarityMatrixInterface} with NaN for all entries that are not stored.
+	 */
+	private static class StoredDistanceRows extends DistanceRows {
+		
+		private final SimilarityMatrixInterface matrix;
+		private final float[] row;
+		private final int[] columns;
+		private final float[] similarities;
+		private int count = 0;
+		
+		public StoredDistanceRows( final SimilarityMatrixInterface matrix, final SimilarityToDistanceInterface similarityToDistance ) {
+			super( similarityToDistance );
+			this.matrix = matrix;
+			this.row = new float[ matrix.getNumberOfSections() ];
+			this.columns = new int[ matrix.getMaxRowLength() ];
+			this.similarities = new float[ matrix.getMaxRowLength() ];
+			Arrays.fill( row, Float.NaN );
+		}
+		
+		@Override
+		public int getNumberOfRows() {
+			return row.length;
+		}
+		
+		@Override
+		public void convert( final int index, final int[] distanceRow ) {
+			// only reset entries of previous row instead of entire row
+			for ( int k = 0; k < count; ++k )
+				row[ columns[ k ] ] = Float.NaN;
+			count = matrix.getRow( index, columns, similarities );
+			for ( int k = 0; k < count; ++k )
+				row[ columns[ k ] ] = similarities[ k ];
+			similarityToDistance.convert( row, distanceRow, row.length );
+		}
+		
+	}
+	
+	
+	/**
+	 * Present {@link DataToStringInterface} as {@link DataToWriterInterface}, {@link #close()} does not close
+	 * the wrapped converter.
+	 */
+	private static class StringConverterAdapter implements DataToWriterInterface {
+		
+		private final DataToStringInterface converter;
+		
+		public StringConverterAdapter( final DataToStringInterface converter ) {
+			this.converter = converter;
+		}
+		
+		@Override
+		public void initialize( final int n ) {
+			converter.initialize( n );
+		}
+		
+		@Override
+		public void addSimilarity( final int index1, final int index2, final double value ) {
+			converter.addSimilarity( index1, index2, value );
+		}
+		
+		@Override
+		public void addDummy( final int index, final double value ) {
+			converter.addDummy( index, value );
+		}
+		
+		@Override
+		public void close() {
 		}
 		
 	}
 	
 	
+	/**
+	 * @deprecated use {@link SectionMapping#toClean(int)} and {@link SectionMapping#toFull(int)}
+	 */
+	@Deprecated
 	public static void getMappings( final boolean[] sectionStatus, final TreeMap< Integer, Integer > fullToDeleted, final TreeMap< Integer, Integer > deletedToFull ) {
 		fullToDeleted.clear();
 		deletedToFull.clear();
-		for ( int fullIndex = 0, deletedIndex = 0; fullIndex < sectionStatus.length; ++fullIndex ) {
-			if ( !sectionStatus[ fullIndex ] )
-				continue;
-			fullToDeleted.put( fullIndex, deletedIndex );
-			deletedToFull.put( deletedIndex, fullIndex );
-			++deletedIndex;
+		final SectionMapping mapping = new SectionMapping( sectionStatus );
+		for ( int deletedIndex = 0; deletedIndex < mapping.getNumberOfCleanSections(); ++deletedIndex ) {
+			fullToDeleted.put( mapping.toFull( deletedIndex ), deletedIndex );
+			deletedToFull.put( deletedIndex, mapping.toFull( deletedIndex ) );
 		}
 	}
 	
 	
+	/**
+	 * @param solution order of good sections
+	 * @param mapping mapping between all sections and good sections
+	 * @return order of all sections, see {@link SectionMapping#addInvalidSections(int[])}
+	 */
+	public static int[] addInvalidSections( final int[] solution, final SectionMapping mapping ) {
+		return mapping.addInvalidSections( solution );
+	}
+	
+	
+	/**
+	 * @deprecated use {@link #addInvalidSections(int[], SectionMapping)}
+	 */
+	@Deprecated
 	public static int[] addInvalidSections( final int[] solution, final ArrayList< ArrayList< Long > > badSuccessors, final boolean[] sectionStatus, final int length ) {
 		final int[] result = new int[ length ];
 		addInvalidSections( solution, badSuccessors, sectionStatus, result );
@@ -192,25 +706,13 @@ public class TSP {
 	}
 	
 	
+	/**
+	 * Bad successors are derived from sectionStatus, badSuccessors is ignored.
+	 * @deprecated use {@link SectionMapping#addInvalidSections(int[], int[])}
+	 */
+	@Deprecated
 	public static void addInvalidSections( final int[] solution, final ArrayList< ArrayList< Long > > badSuccessors, final boolean[] sectionStatus, final int[] result ) {
-		
-		final TreeMap< Integer, Integer > fullToDeleted = new TreeMap< Integer, Integer >(); 
-		final TreeMap< Integer, Integer > deletedToFull = new TreeMap< Integer, Integer >();
-		getMappings( sectionStatus, fullToDeleted, deletedToFull);
-
-		int solutionIndex = 0;
-		int resultIndex   = 0;
-		for( ; solutionIndex < solution.length; ++solutionIndex, ++resultIndex ) {
-			final int currIndex = solution[ solutionIndex ];
-			final ArrayList<Long> bs = badSuccessors.get( currIndex );
-			final int fullIndex  = deletedToFull.get( currIndex );
-			result[ resultIndex ] = fullIndex;
-			for ( int k = 0; k < bs.size(); ++k ) {
-				++resultIndex;
-				result[ resultIndex ] = fullIndex + k + 1;
-			}
-		}
-		
+		new SectionMapping( sectionStatus ).addInvalidSections( solution, result );
 	}
 	
 	
@@ -261,21 +763,31 @@ public class TSP {
 	
 	
 	/**
-	 * Make external call to concorde solver
+	 * Make external call to concorde solver. Output of concorde is forwarded to the output of this JVM, so
+	 * concorde cannot block on a full pipe.
 	 * @param concordeExecutablePath path to concorde executable
 	 * @param inputFileName file containing tsp in full matrix tsplib format
 	 * @param outputFileName output file for concorde, will be overwritten if existing
-	 * @param additionalArgument additional arguments for concorde, i.e. seed
+	 * @param additionalArgument additional arguments for concorde separated by whitespace, i.e. seed
 	 * @throws IOException
+	 * @deprecated Use {@link ConcordeRunner}, which enforces a timeout and reads the tour.
 	 */
+	@Deprecated
 	public static Process runConcordeTSPSolver( 
 			final String concordeExecutablePath, 
 			final String inputFileName, 
 			final String outputFileName, 
 			final String additionalArgument
 			) throws IOException {
-		final String command = String.format( "%s %s -o %s %s", concordeExecutablePath, additionalArgument, outputFileName, inputFileName );
-		final Process proc = Runtime.getRuntime().exec( command );
+		final ArrayList< String > arguments = new ArrayList< String >();
+		for ( final String argument : additionalArgument.trim().split( "\\s+" ) )
+			if ( !argument.isEmpty() )
+				arguments.add( argument );
+		final ConcordeRunner runner = new ConcordeRunner( concordeExecutablePath, null, 0, null, arguments );
+		final Process proc = new ProcessBuilder( runner.createCommand( new File( inputFileName ), new File( outputFileName ) ) )
+				.redirectErrorStream( true )
+				.redirectOutput( ProcessBuilder.Redirect.INHERIT )
+				.start();
 		return proc;
 	}
 	
@@ -284,7 +796,8 @@ public class TSP {
 	 * Translate concorde result into array that associates the array index with sections in the original matrix
 	 * @param tspResultFileName path to the output of the concorde output
 	 * @param n number of sections
-	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix, return value is null in case of exception
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 * @throws UncheckedIOException if tspResultFileName cannot be read or does not hold a tour over n+1 nodes
 	 */
 	public static int[] tspResultToArray( final String tspResultFileName, final int n ) {
 		return tspResultToArray(tspResultFileName, n, Charset.defaultCharset() );
@@ -296,7 +809,8 @@ public class TSP {
 	 * @param tspResultFileName path to the output of the concorde output
 	 * @param n number of sections
 	 * @param cs charset for text file
-	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix, return value is null in case of exception
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 * @throws UncheckedIOException if tspResultFileName cannot be read or does not hold a tour over n+1 nodes
 	 */
 	public static int[] tspResultToArray( final String tspResultFileName, final int n, final Charset cs ) {
 		return tspResultToArray( tspResultFileName, n, cs, new IntType() );
@@ -308,43 +822,45 @@ public class TSP {
 	 * @param tspResultFileName path to the output of the concorde output
 	 * @param n number of sections
 	 * @param cs charset for text file
-	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix, return value is null in case of exception
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 * @throws UncheckedIOException if tspResultFileName cannot be read or does not hold a tour over n+1 nodes
 	 */
 	public static int[] tspResultToArray( final String tspResultFileName, final int n, final Charset cs, final IntType dummyIndex ) {
-		final int[] result = new int[ n ];
+		final int[] tour;
 		try {
-//			final List<String> lines = Files.readAllLines( Paths.get( tspResultFileName), cs);
-			final ArrayList<String> lines = new ArrayList< String >();
-			final File f = new File( tspResultFileName );
-			final FileReader fr = new FileReader( f );
-			final BufferedReader br = new BufferedReader( fr );
-			String line = null;
-			while ( ( line = br.readLine() ) != null )
-				lines.add( line );
-			// first line is number of variables, which must be n+1 because of dummy variable in TSP
-			final int nVariables = Integer.parseInt( lines.get( 0 ) );
-			if ( nVariables != n+1 )
-				return null; // TODO Something better than returning null?
-			int targetIndex = 0;
-			// loop through result and add numbers into result array in the order in which they appear
-			// ignore dummy variable with index n
-			for ( int listIndex = 1; listIndex < lines.size(); ++listIndex ) {
-				final String[] currSplit = lines.get( listIndex ).split( " " );
-				for ( final String s : currSplit ) {
-					final int val = Integer.parseInt( s );
-					// dummy variable has index n ~> ignore
-					if ( val == n ) {
-						dummyIndex.set( targetIndex );
-						continue;
-					}
-					result[targetIndex] = val;
-					++targetIndex;
-				}
-			}
-		} catch (final IOException e) {
-			return null; // TODO Something better than returning null?
+			tour = TourReader.read( new File( tspResultFileName ), cs );
+		} catch ( final IOException e ) {
+			throw new UncheckedIOException( e );
 		}
+		// number of variables must be n+1 because of dummy variable in TSP
+		if ( tour.length != n+1 )
+			throw new UncheckedIOException( new IOException( String.format( "Expected tour over %d nodes in %s but got %d.", n + 1, tspResultFileName, tour.length ) ) );
 
+		return tourToArray( tour, n, dummyIndex );
+	}
+	
+	
+	/**
+	 * Translate TSP tour into array that associates the array index with sections in the original matrix
+	 * @param tour closed tour over all n+1 nodes, including dummy node with index n
+	 * @param n number of sections
+	 * @param dummyIndex output parameter for position of dummy node within tour
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 */
+	public static int[] tourToArray( final int[] tour, final int n, final IntType dummyIndex ) {
+		final int[] result = new int[ n ];
+		int targetIndex = 0;
+		// add numbers into result array in the order in which they appear
+		// ignore dummy variable with index n
+		for ( final int val : tour ) {
+			// dummy variable has index n ~> ignore
+			if ( val == n ) {
+				dummyIndex.set( targetIndex );
+				continue;
+			}
+			result[targetIndex] = val;
+			++targetIndex;
+		}
 		return result;
 	}
 	
@@ -354,7 +870,8 @@ public class TSP {
 	 * The indices will be shifted such that the dummy element would be at position -1.
 	 * @param tspResultFileName path to the output of the concorde output
 	 * @param n number of sections
-	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix, return value is null in case of exception
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 * @throws UncheckedIOException if tspResultFileName cannot be read or does not hold a tour over n+1 nodes
 	 */
 	public static int[] tspResultToArrayRespectDummyNode( final String tspResultFileName, final int n ) {
 		return tspResultToArrayRespectDummyNode( tspResultFileName, n, Charset.defaultCharset() );
@@ -367,16 +884,39 @@ public class TSP {
 	 * @param tspResultFileName path to the output of the concorde output
 	 * @param n number of sections
 	 * @param cs charset for text file
-	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix, return value is null in case of exception
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 * @throws UncheckedIOException if tspResultFileName cannot be read or does not hold a tour over n+1 nodes
 	 */
 	public static int[] tspResultToArrayRespectDummyNode( final String tspResultFileName, final int n, final Charset cs ) {
 		
 		final IntType dummyIndexObject = new IntType();
-		final int[] result            = tspResultToArray( tspResultFileName, n, cs, dummyIndexObject ); // get ordering and position in array of dummy node
-		final int dummyIndex          = dummyIndexObject.get();
+		final int[] result             = tspResultToArray( tspResultFileName, n, cs, dummyIndexObject ); // get ordering and position in array of dummy node
+		shiftToDummyNode( result, dummyIndexObject.get() );
+		return result;
+	}
+	
+	
+	/**
+	 * Translate TSP tour into array that associates the array index with sections in the original matrix
+	 * The indices will be shifted such that the dummy element would be at position -1.
+	 * @param tour closed tour over all n+1 nodes, including dummy node with index n
+	 * @param n number of sections
+	 * @return int[] that associates with each index (of the target matrix) the reference section from the original matrix
+	 */
+	public static int[] tourToArrayRespectDummyNode( final int[] tour, final int n ) {
+		final IntType dummyIndexObject = new IntType();
+		final int[] result             = tourToArray( tour, n, dummyIndexObject );
+		shiftToDummyNode( result, dummyIndexObject.get() );
+		return result;
+	}
+	
+	
+	private static void shiftToDummyNode( final int[] result, final int dummyIndex ) {
+		
+		final int n = result.length;
 		
 		// if proper result has been returned, shift
-		if ( result != null && dummyIndex < n ) {
+		if ( dummyIndex < n ) {
 			final int[] tmp = result.clone();
 			for ( int i = 0; i < tmp.length; ++i ) {
 				final int index = ( i - dummyIndex + n ) % n;
@@ -394,8 +934,6 @@ public class TSP {
 				result[fromEnd ] = tmp;
 			}
 		}
-		
-		return result; 
 	}
 	
 	
@@ -437,18 +975,66 @@ public class TSP {
 			final RandomAccessibleInterval< T > input,
 			final RandomAccessibleInterval< T > output,
 			final int[] associations )
+	{
+		copy( rearrangeMatrixView( input, associations ), output );
+	}
+	
+	
+	/**
+	 * Rearrange matrix according to order predicted by TSP solution without copying
+	 * @param input original matrix
+	 * @param associations array of index associations from TSP solution: index of array is index of
+	 *        target matrix, value of array at index is index of input matrix
+	 * @return lazy {@link IndexMappedMatrixView} of input. Views of {@link IndexMappedMatrixView}s are
+	 *         re-indexed directly, e.g. a rearranged view of a cleaned view accesses the original matrix.
+	 */
+	public static < T extends RealType< T > & NativeType< T > >  IndexMappedMatrixView< T > rearrangeMatrixView(
+			final RandomAccessibleInterval< T > input,
+			final int[] associations )
+	{
+		if ( input instanceof IndexMappedMatrixView )
+			return ( ( IndexMappedMatrixView< T > ) input ).remap( associations );
+		else
+			return new IndexMappedMatrixView< T >( input, associations );
+	}
+	
+	
+	/**
+	 * Copy (lazy) matrix into new {@link Img}
+	 * @param matrix matrix, e.g. {@link IndexMappedMatrixView}
+	 * @return {@link ArrayImgFactory} copy of matrix
+	 */
+	public static < T extends RealType< T > & NativeType< T > > Img< T > materialize(
+			final RandomAccessibleInterval< T > matrix ) {
+		return materialize( matrix, new ArrayImgFactory< T >() );
+	}
+	
+	
+	/**
+	 * Copy (lazy) matrix into new {@link Img}
+	 * @param matrix matrix, e.g. {@link IndexMappedMatrixView}
+	 * @param factory {@link ImgFactory} for creating output image
+	 * @return copy of matrix
+	 */
+	public static < T extends RealType< T > & NativeType< T > > Img< T > materialize(
+			final RandomAccessibleInterval< T > matrix,
+			final ImgFactory< T > factory ) {
+		final Img< T > output = factory.create( matrix, matrix.randomAccess().get() );
+		copy( matrix, output );
+		return output;
+	}
+	
+	
+	private static < T extends RealType< T > & NativeType< T > > void copy(
+			final RandomAccessibleInterval< T > input,
+			final RandomAccessibleInterval< T > output )
 	{
 		final Cursor<T> c       = Views.flatIterable( output ).cursor();
 		final RandomAccess<T> r = input.randomAccess();
 		
 		while( c.hasNext() ) {
 			c.fwd();
-			// index of array is also index of target matrix;
-			// value of array at index is index of source matrix
-			final int xTrans = associations[ c.getIntPosition( 0 ) ];
-			final int yTrans = associations[ c.getIntPosition( 1 ) ];
-			r.setPosition( xTrans, 0 );
-			r.setPosition( yTrans, 1 );
+			r.setPosition( c );
 			c.get().set( r.get() );
 		}
 	}
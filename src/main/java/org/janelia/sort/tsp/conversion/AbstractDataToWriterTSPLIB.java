@@ -0,0 +1,92 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.conversion;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Common functionality for streaming a data matrix into <a href=
+ * "http://comopt.ifi.uni-heidelberg.de/software/TSPLIB95/">tsplib format</a>. Subclasses decide which
+ * entries of each row are written.
+ */
+public abstract class AbstractDataToWriterTSPLIB implements DataToWriterInterface {
+	
+	protected final static int DUMMY_VALUE = 0;
+	
+	protected final Writer writer;
+	
+	private final String baseString;
+	
+	protected int dummyIndex;
+	
+	private int currentRow;
+	
+	private int currentColumn;
+	
+	/**
+	 * @param writer output, will be closed in {@link #close()}
+	 * @param baseString File Header with useful meta information
+	 */
+	public AbstractDataToWriterTSPLIB( final Writer writer, final String baseString ) {
+		super();
+		this.writer = writer;
+		this.baseString = baseString;
+	}
+	
+	/**
+	 * @param index1 node1
+	 * @param index2 node2, index2 &gt; index1 if dummy node
+	 * @return true if entry is written to output
+	 */
+	protected abstract boolean isWritten( int index1, int index2 );
+	
+	/**
+	 * @param n number of nodes, including dummy node
+	 * @throws IOException
+	 */
+	protected abstract void writeDummyRow( int n ) throws IOException;
+	
+	@Override
+	public void initialize( final int n ) throws IOException {
+		this.dummyIndex = n;
+		this.currentRow = 0;
+		this.currentColumn = 0;
+		writer.write( String.format( this.baseString, n + 1 ) );
+	}
+
+	@Override
+	public void addSimilarity( final int index1, final int index2, final double value ) throws IOException {
+		if ( index1 != currentRow || index2 != currentColumn )
+			throw new IllegalStateException( String.format( 
+					"Expected entry ( %d, %d ) but got ( %d, %d ): entries need to be added in row major order.", 
+					currentRow, currentColumn, index1, index2 ) );
+		++currentColumn;
+		if ( isWritten( index1, index2 ) ) {
+			writer.write( Integer.toString( (int)value ) );
+			writer.write( ' ' );
+		}
+	}
+
+	@Override
+	public void addDummy( final int index, final double value ) throws IOException {
+		if ( index != currentRow || currentColumn != dummyIndex )
+			throw new IllegalStateException( String.format( "Row %d not complete before adding dummy.", currentRow ) );
+		++currentRow;
+		currentColumn = 0;
+		writer.write( Integer.toString( DUMMY_VALUE ) );
+		writer.write( '\n' );
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writeDummyRow( dummyIndex + 1 );
+			writer.write( "EOF" );
+		} finally {
+			writer.close();
+		}
+	}
+	
+}
@@ -44,13 +44,22 @@ public class DataToStringFullMatrixTSPLIB implements DataToStringInterface {
 	 * @return {@link String} header for {@link DataToStringFullMatrixTSPLIB}
 	 */
 	public static String createBaseStringWithComment( final String comment ) {
+		return createBaseStringWithComment( comment, "FULL_MATRIX" );
+	}
+	
+	
+	/** Create default header
+	 * @param comment {@link String} that gets inserted into comment meta information
+	 * @param edgeWeightFormat tsplib EDGE_WEIGHT_FORMAT, e.g. FULL_MATRIX or UPPER_ROW
+	 * @return {@link String} header for tsplib file with explicit edge weights
+	 */
+	public static String createBaseStringWithComment( final String comment, final String edgeWeightFormat ) {
 		return "NAME: SORT" + System.getProperty("line.separator")
 		+ "TYPE: TSP" + System.getProperty("line.separator")
 		+ "COMMENT: " + comment + System.getProperty("line.separator")
 		+ "DIMENSION: %d" + System.getProperty("line.separator")
 		+ "EDGE_WEIGHT_TYPE: EXPLICIT" + System.getProperty("line.separator")
-		+ "EDGE_DATA_FORMAT: EDGE_LIST" + System.getProperty("line.separator")
-		+ "EDGE_WEIGHT_FORMAT: FULL_MATRIX" + System.getProperty("line.separator")
+		+ "EDGE_WEIGHT_FORMAT: " + edgeWeightFormat + System.getProperty("line.separator")
 		+ "NODE_COORD_TYPE: NO_COORDS" + System.getProperty("line.separator")
 		+ "DISPLAY_DATA_TYPE: NO_DISPLAY" + System.getProperty("line.separator")
 		+ "EDGE_WEIGHT_SECTION" + System.getProperty("line.separator");
@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.conversion;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Stream symmetric distance matrix as plain sparse list of candidate edges. This is not a tsplib format and
+ * no solver in this repository reads it, it is meant for external tools that accept sparse input after a
+ * trivial conversion. The first line holds the number of nodes (including the dummy node) and the default
+ * edge weight, i.e. the weight of every edge that is not listed:
+ *
+ * <pre>
+ * &lt;number of nodes&gt; &lt;default weight&gt;
+ * </pre>
+ *
+ * Each following line holds one edge as two zero-based end nodes, the smaller first, and its weight:
+ *
+ * <pre>
+ * &lt;i&gt; &lt;j&gt; &lt;weight&gt;
+ * </pre>
+ *
+ * Edges whose weight equals the default weight, e.g. the distance of pairs without similarity, and entries on
+ * or below the diagonal are not written, i.e. the size of the output grows with the number of calculated
+ * similarities rather than with the square of the number of sections. All edges to the dummy node, which has
+ * the largest index, are written.
+ *
+ * Use {@link #addEdge(int, int, double)} to write edges directly, without iterating over the full matrix.
+ */
+public class DataToWriterEdgeList implements DataToWriterInterface {
+	
+	protected final static int DUMMY_VALUE = 0;
+	
+	// header and edges end their lines alike
+	private final static String LINE_SEPARATOR = System.getProperty( "line.separator" );
+	
+	private final Writer writer;
+	
+	private final int defaultValue;
+	
+	private int dummyIndex;
+	
+	/**
+	 * @param writer output, will be closed in {@link #close()}
+	 * @param defaultValue weight of all edges that are not listed, edges with this weight are not written
+	 */
+	public DataToWriterEdgeList( final Writer writer, final int defaultValue ) {
+		super();
+		this.writer       = writer;
+		this.defaultValue = defaultValue;
+	}
+	
+	@Override
+	public void initialize( final int n ) throws IOException {
+		this.dummyIndex = n;
+		writer.write( Integer.toString( n + 1 ) );
+		writer.write( ' ' );
+		writer.write( Integer.toString( defaultValue ) );
+		writer.write( LINE_SEPARATOR );
+	}
+	
+	@Override
+	public void addSimilarity( final int index1, final int index2, final double value ) throws IOException {
+		if ( index2 > index1 )
+			addEdge( index1, index2, value );
+	}
+	
+	@Override
+	public void addDummy( final int index, final double value ) throws IOException {
+		writeEdge( index, dummyIndex, DUMMY_VALUE );
+	}
+	
+	/**
+	 * Add edge in any order, without the need to add all other entries of the matrix.
+	 * @param index1 node1
+	 * @param index2 node2, not the dummy node
+	 * @param value edge weight (distance), not written if equal to default edge weight
+	 * @throws IOException
+	 */
+	public void addEdge( final int index1, final int index2, final double value ) throws IOException {
+		if ( (int)value != defaultValue )
+			writeEdge( Math.min( index1, index2 ), Math.max( index1, index2 ), (int)value );
+	}
+	
+	private void writeEdge( final int index1, final int index2, final int value ) throws IOException {
+		writer.write( Integer.toString( index1 ) );
+		writer.write( ' ' );
+		writer.write( Integer.toString( index2 ) );
+		writer.write( ' ' );
+		writer.write( Integer.toString( value ) );
+		writer.write( LINE_SEPARATOR );
+	}
+	
+	@Override
+	public void close() throws IOException {
+		writer.close();
+	}
+	
+}
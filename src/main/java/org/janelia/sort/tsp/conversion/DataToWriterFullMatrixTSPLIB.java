@@ -0,0 +1,49 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.conversion;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Stream data matrix into <a href=
+ * "http://comopt.ifi.uni-heidelberg.de/software/TSPLIB95/">tsplib
+ * format</a>, specifying the full matrix. The output is identical to that of
+ * {@link DataToStringFullMatrixTSPLIB}.
+ */
+public class DataToWriterFullMatrixTSPLIB extends AbstractDataToWriterTSPLIB {
+	
+	/**
+	 * @param writer output, will be closed in {@link #close()}
+	 * @param baseString File Header with useful meta information
+	 */
+	public DataToWriterFullMatrixTSPLIB( final Writer writer, final String baseString ) {
+		super( writer, baseString );
+	}
+	
+	/**
+	 * Create {@link DataToWriterFullMatrixTSPLIB} object with default header with empty comment.
+	 * @param writer output, will be closed in {@link #close()}
+	 */
+	public DataToWriterFullMatrixTSPLIB( final Writer writer ) {
+		this( writer, DataToStringFullMatrixTSPLIB.createBaseStringWithComment( "" ) );
+	}
+
+	@Override
+	protected boolean isWritten( final int index1, final int index2 ) {
+		return true;
+	}
+
+	@Override
+	protected void writeDummyRow( final int n ) throws IOException {
+		// row filled with DUMMY_VALUE for dummy element
+		for ( int j = 1; j < n; ++j ) {
+			writer.write( Integer.toString( DUMMY_VALUE ) );
+			writer.write( ' ' );
+		}
+		writer.write( Integer.toString( DUMMY_VALUE ) );
+		writer.write( '\n' );
+	}
+
+}
@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.conversion;
+
+import java.io.IOException;
+
+/**
+ * Give rules on how to write numeric data in a format that can be understood by TSP solver. In contrast
+ * to {@link DataToStringInterface}, data is streamed as it is added and never held in memory as a whole.
+ * Data needs to be added in row major order, i.e. for each row all columns in ascending order followed by
+ * the dummy node.
+ */
+public interface DataToWriterInterface {
+	
+	/** 
+	 * initialize with number of nodes
+	 * @param n number of nodes, excluding dummy node
+	 * @throws IOException
+	 */
+	public void initialize( int n ) throws IOException;
+	
+	/**
+	 * add edge weight (distance) between two nodes given by index1, index2 with weight value 
+	 * @param index1 node1
+	 * @param index2 node2
+	 * @param value  edge weight (distance)
+	 * @throws IOException
+	 */
+	public void addSimilarity( int index1, int index2, double value ) throws IOException;
+	
+	/**
+	 * add edge weight (distance) between node given by index and dummy node with weight value, ends row index
+	 * @param index node
+	 * @param value edge weight (distance)
+	 * @throws IOException
+	 */
+	public void addDummy( int index, double value ) throws IOException;
+	
+	/**
+	 * close out, flush and close underlying output
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+	
+}
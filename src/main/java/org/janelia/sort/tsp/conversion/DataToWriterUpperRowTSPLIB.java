@@ -0,0 +1,44 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.conversion;
+
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Stream symmetric data matrix into <a href=
+ * "http://comopt.ifi.uni-heidelberg.de/software/TSPLIB95/">tsplib
+ * format</a>, specifying only the upper triangle without diagonal (UPPER_ROW). This halves the
+ * size of the output compared to {@link DataToWriterFullMatrixTSPLIB}. Entries below the diagonal
+ * are ignored, i.e. the data matrix is assumed to be symmetric.
+ */
+public class DataToWriterUpperRowTSPLIB extends AbstractDataToWriterTSPLIB {
+	
+	/**
+	 * @param writer output, will be closed in {@link #close()}
+	 * @param baseString File Header with useful meta information
+	 */
+	public DataToWriterUpperRowTSPLIB( final Writer writer, final String baseString ) {
+		super( writer, baseString );
+	}
+	
+	/**
+	 * Create {@link DataToWriterUpperRowTSPLIB} object with default header with empty comment.
+	 * @param writer output, will be closed in {@link #close()}
+	 */
+	public DataToWriterUpperRowTSPLIB( final Writer writer ) {
+		this( writer, DataToStringFullMatrixTSPLIB.createBaseStringWithComment( "", "UPPER_ROW" ) );
+	}
+
+	@Override
+	protected boolean isWritten( final int index1, final int index2 ) {
+		return index2 > index1;
+	}
+
+	@Override
+	protected void writeDummyRow( final int n ) throws IOException {
+		// dummy element is last node and has no entries in upper triangle
+	}
+
+}
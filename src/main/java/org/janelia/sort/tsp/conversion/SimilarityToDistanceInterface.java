@@ -16,4 +16,17 @@ public interface SimilarityToDistanceInterface {
 	 */
 	double convert( double similarity );
 	
+	/**
+	 * Convert a row of similarities at once, e.g. for streaming a matrix row by row. Distances are truncated
+	 * to int, as they are written into TSP problems. Override if a row can be converted faster than one
+	 * similarity at a time.
+	 * @param similarities pairwise similarity measures, NaN if not available
+	 * @param distances output parameter for distances, at least length long
+	 * @param length number of similarities to convert
+	 */
+	default void convert( final float[] similarities, final int[] distances, final int length ) {
+		for ( int j = 0; j < length; ++j )
+			distances[ j ] = (int) convert( similarities[ j ] );
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.conversion;
+
+/**
+ * {@link SimilarityToDistanceInterface} that tabulates another {@link SimilarityToDistanceInterface}, e.g.
+ * {@link SimilarityToDistanceSigmoid}, at equidistant similarities within [min, max] and converts each
+ * similarity in that interval into the distance of the nearest tabulated similarity, i.e. without evaluating
+ * the original function. Similarities outside of [min, max] and NaN are passed to the original function.
+ *
+ * The result is quantized: distances may differ from the original function by up to the change of the
+ * function across half a step of (max - min) / size.
+ */
+public class SimilarityToDistanceLookup implements SimilarityToDistanceInterface {
+	
+	private final SimilarityToDistanceInterface function;
+	private final double min;
+	private final double max;
+	private final double scale;
+	private final double[] table;
+	private final int[] intTable;
+	private final int nanDistance;
+	
+	/**
+	 * @param function similarity to distance function that is tabulated
+	 * @param min smallest tabulated similarity
+	 * @param max largest tabulated similarity
+	 * @param size number of steps between min and max, the table holds size + 1 distances
+	 */
+	public SimilarityToDistanceLookup( final SimilarityToDistanceInterface function, final double min, final double max, final int size ) {
+		super();
+		if ( size < 1 || !( max > min ) )
+			throw new IllegalArgumentException( String.format( "Need size > 0 and max > min but got size=%d, min=%f, max=%f.", size, min, max ) );
+		this.function    = function;
+		this.min         = min;
+		this.max         = max;
+		this.scale       = size / ( max - min );
+		this.table       = new double[ size + 1 ];
+		this.intTable    = new int[ size + 1 ];
+		this.nanDistance = (int) function.convert( Double.NaN );
+		for ( int k = 0; k <= size; ++k ) {
+			table[ k ]    = function.convert( min + k / scale );
+			intTable[ k ] = (int) table[ k ];
+		}
+	}
+	
+	/**
+	 * Tabulate similarities in [0, 1], e.g. inlier ratios.
+	 * @param function similarity to distance function that is tabulated
+	 * @param size number of steps between 0 and 1
+	 */
+	public SimilarityToDistanceLookup( final SimilarityToDistanceInterface function, final int size ) {
+		this( function, 0.0, 1.0, size );
+	}
+
+	@Override
+	public double convert( final double similarity ) {
+		if ( similarity >= min && similarity <= max )
+			return table[ (int) ( ( similarity - min ) * scale + 0.5 ) ];
+		return function.convert( similarity );
+	}
+
+	@Override
+	public void convert( final float[] similarities, final int[] distances, final int length ) {
+		for ( int j = 0; j < length; ++j ) {
+			final double similarity = similarities[ j ];
+			if ( similarity >= min && similarity <= max )
+				distances[ j ] = intTable[ (int) ( ( similarity - min ) * scale + 0.5 ) ];
+			else if ( Double.isNaN( similarity ) )
+				distances[ j ] = nanDistance;
+			else
+				distances[ j ] = (int) function.convert( similarity );
+		}
+	}
+
+}
@@ -0,0 +1,194 @@
+/**
+ *
+ */
+package org.janelia.sort.tsp.solver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Run the external concorde solver asynchronously. The command is passed to {@link ProcessBuilder} as a list,
+ * i.e. paths may contain spaces. Output of concorde (stdout and stderr) is drained in the background, so
+ * concorde cannot block on a full pipe; the last lines are kept for error messages. The process is killed
+ * if it does not finish within the timeout or if the returned future is cancelled.
+ */
+public class ConcordeRunner {
+
+	// number of output lines kept for error messages
+	private static final int OUTPUT_TAIL_LINES = 20;
+
+	private final String executable;
+
+	private final File workingDirectory;
+
+	private final long timeoutMillis;
+
+	private final PrintStream output;
+
+	private final List< String > additionalArguments;
+
+	/**
+	 * @param executable path to concorde executable
+	 * @param workingDirectory working directory of concorde, which writes temporary files there; working
+	 *        directory of this JVM if null
+	 * @param timeoutMillis kill concorde after this many milliseconds, no timeout if 0
+	 * @param output stream to which the output of concorde is forwarded, discarded if null
+	 * @param additionalArguments additional arguments for concorde, e.g. -s &lt;seed&gt;
+	 */
+	public ConcordeRunner(
+			final String executable,
+			final File workingDirectory,
+			final long timeoutMillis,
+			final PrintStream output,
+			final List< String > additionalArguments ) {
+		super();
+		this.executable          = executable;
+		this.workingDirectory    = workingDirectory;
+		this.timeoutMillis       = timeoutMillis;
+		this.output              = output;
+		this.additionalArguments = additionalArguments;
+	}
+
+	/**
+	 * Create {@link ConcordeRunner} without timeout that discards the output of concorde.
+	 * @param executable path to concorde executable
+	 * @param workingDirectory working directory of concorde, working directory of this JVM if null
+	 */
+	public ConcordeRunner( final String executable, final File workingDirectory ) {
+		this( executable, workingDirectory, 0, null, new ArrayList< String >() );
+	}
+
+	/**
+	 * @param problem problem file in TSPLIB format
+	 * @param solution file for the solution, will be overwritten
+	 * @return command that solves problem
+	 */
+	public List< String > createCommand( final File problem, final File solution ) {
+		final ArrayList< String > command = new ArrayList< String >();
+		command.add( executable );
+		command.addAll( additionalArguments );
+		command.add( "-o" );
+		command.add( solution.getAbsolutePath() );
+		command.add( problem.getAbsolutePath() );
+		return command;
+	}
+
+	/**
+	 * Start concorde and return immediately.
+	 * @param problem problem file in TSPLIB format
+	 * @param solution file for the solution, will be overwritten
+	 * @return future of the tour over all nodes of problem as read by {@link TourReader}. Completes
+	 *         exceptionally with {@link TimeoutException} if concorde does not finish in time and with
+	 *         {@link IOException} if concorde fails or the solution cannot be read. Cancelling the future
+	 *         kills concorde.
+	 * @throws IOException if concorde cannot be started
+	 */
+	public CompletableFuture< int[] > solve( final File problem, final File solution ) throws IOException {
+		solution.delete();
+		final ProcessBuilder builder = new ProcessBuilder( createCommand( problem, solution ) ).redirectErrorStream( true );
+		if ( workingDirectory != null )
+			builder.directory( workingDirectory );
+		final Process process = builder.start();
+		final CompletableFuture< int[] > result = new CompletableFuture< int[] >();
+		final ArrayDeque< String > tail = new ArrayDeque< String >();
+
+		final Thread drain = new Thread( new Runnable() {
+			@Override
+			public void run() {
+				drain( process, tail );
+			}
+		}, "concorde-output" );
+		drain.setDaemon( true );
+		drain.start();
+
+		final Thread waiter = new Thread( new Runnable() {
+			@Override
+			public void run() {
+				try {
+					if ( !waitFor( process ) ) {
+						process.destroyForcibly();
+						result.completeExceptionally( new TimeoutException( String.format(
+								"%s did not finish within %d ms.", executable, timeoutMillis ) ) );
+						return;
+					}
+					// all output is available for error messages once the drain thread is done
+					drain.join();
+					final int exitValue = process.exitValue();
+					if ( exitValue != 0 )
+						result.completeExceptionally( new IOException( String.format(
+								"%s failed with exit value %d:%n%s", executable, exitValue, join( tail ) ) ) );
+					else
+						result.complete( TourReader.read( solution, Charset.defaultCharset() ) );
+				} catch ( final InterruptedException e ) {
+					process.destroyForcibly();
+					result.completeExceptionally( e );
+				} catch ( final Throwable e ) {
+					result.completeExceptionally( e );
+				}
+			}
+		}, "concorde-waiter" );
+		waiter.setDaemon( true );
+		waiter.start();
+
+		result.whenComplete( new BiConsumer< int[], Throwable >() {
+			@Override
+			public void accept( final int[] tour, final Throwable t ) {
+				// cancel() does not interrupt, kill concorde explicitly
+				if ( result.isCancelled() ) {
+					process.destroyForcibly();
+					waiter.interrupt();
+				}
+			}
+		} );
+		return result;
+	}
+
+	private boolean waitFor( final Process process ) throws InterruptedException {
+		if ( timeoutMillis > 0 )
+			return process.waitFor( timeoutMillis, TimeUnit.MILLISECONDS );
+		process.waitFor();
+		return true;
+	}
+
+	private void drain( final Process process, final ArrayDeque< String > tail ) {
+		try {
+			final BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+			try {
+				for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+					if ( output != null )
+						output.println( line );
+					synchronized ( tail ) {
+						if ( tail.size() == OUTPUT_TAIL_LINES )
+							tail.removeFirst();
+						tail.addLast( line );
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch ( final IOException e ) {
+			// stream is closed when the process is killed
+		}
+	}
+
+	private static String join( final ArrayDeque< String > lines ) {
+		final StringBuilder sb = new StringBuilder();
+		synchronized ( lines ) {
+			for ( final String line : lines )
+				sb.append( line ).append( System.lineSeparator() );
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,125 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.solver;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.janelia.sort.tsp.conversion.DataToWriterFullMatrixTSPLIB;
+import org.janelia.sort.tsp.conversion.DataToWriterInterface;
+
+/**
+ * {@link TSPSolverInterface} that writes the {@link DistanceMatrixInterface} as tsplib full matrix and
+ * solves it with concorde through {@link ConcordeRunner}. Each call of {@link #solve(DistanceMatrixInterface)}
+ * runs in its own temporary directory, such that several instances can run concurrently, e.g. with
+ * different seeds in a {@link PortfolioTSPSolver}. Interrupting the calling thread kills concorde.
+ */
+public class ConcordeTSPSolver implements ExactTSPSolverInterface {
+
+	public static final long DEFAULT_SEED = 0;
+
+	private final String executable;
+	private final File workingDirectory;
+	private final long timeoutMillis;
+	private final long seed;
+
+	/**
+	 * @param executable path to concorde executable
+	 * @param workingDirectory parent of the temporary directories for problem, solution and concorde files;
+	 *        system temporary directory if null
+	 * @param timeoutMillis kill concorde after this many milliseconds, no timeout if 0
+	 * @param seed random seed of concorde (-s)
+	 */
+	public ConcordeTSPSolver( final String executable, final File workingDirectory, final long timeoutMillis, final long seed ) {
+		super();
+		this.executable       = executable;
+		this.workingDirectory = workingDirectory;
+		this.timeoutMillis    = timeoutMillis;
+		this.seed             = seed;
+	}
+
+	@Override
+	public int[] solve( final DistanceMatrixInterface distances ) {
+		File directory = null;
+		try {
+			directory = workingDirectory == null ?
+					Files.createTempDirectory( "concorde" ).toFile() :
+					Files.createTempDirectory( workingDirectory.toPath(), "concorde" ).toFile();
+			final File problem  = new File( directory, "problem.tsp" );
+			final File solution = new File( directory, "solution.sol" );
+			write( distances, problem );
+			final ConcordeRunner runner = new ConcordeRunner(
+					executable,
+					directory,
+					timeoutMillis,
+					null,
+					Arrays.asList( "-s", Long.toString( seed ) ) );
+			final CompletableFuture< int[] > tour = runner.solve( problem, solution );
+			try {
+				return startAtZero( tour.get() );
+			} catch ( final InterruptedException e ) {
+				tour.cancel( true );
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( "Interrupted while waiting for " + executable, e );
+			} catch ( final ExecutionException e ) {
+				throw new RuntimeException( e.getCause() );
+			}
+		} catch ( final IOException e ) {
+			throw new RuntimeException( e );
+		} finally {
+			if ( directory != null )
+				delete( directory );
+		}
+	}
+
+	/**
+	 * Write distances through {@link DataToWriterFullMatrixTSPLIB}, i.e. in the same format as problems that
+	 * are converted directly from a similarity matrix.
+	 * @param distances distances between all nodes, the last node is the zero distance dummy node
+	 * @param file tsplib file with explicit full matrix edge weights
+	 * @throws IOException
+	 */
+	public static void write( final DistanceMatrixInterface distances, final File file ) throws IOException {
+		// last node is the dummy node
+		final int n = distances.getNumberOfNodes() - 1;
+		final DataToWriterInterface converter = new DataToWriterFullMatrixTSPLIB( new BufferedWriter( new FileWriter( file ) ) );
+		try {
+			converter.initialize( n );
+			for ( int i = 0; i < n; ++i ) {
+				for ( int j = 0; j < n; ++j )
+					converter.addSimilarity( i, j, distances.getDistance( i, j ) );
+				if ( distances.getDistance( i, n ) != 0 )
+					throw new IllegalArgumentException( String.format( "Expected zero distance between node %d and dummy node %d.", i, n ) );
+				converter.addDummy( i, 0.0 );
+			}
+		} finally {
+			converter.close();
+		}
+	}
+
+	private static int[] startAtZero( final int[] tour ) {
+		int offset = 0;
+		while ( offset < tour.length && tour[ offset ] != 0 )
+			++offset;
+		final int[] result = new int[ tour.length ];
+		for ( int i = 0; i < tour.length; ++i )
+			result[ i ] = tour[ ( i + offset ) % tour.length ];
+		return result;
+	}
+
+	private static void delete( final File directory ) {
+		final File[] files = directory.listFiles();
+		if ( files != null )
+			for ( final File file : files )
+				file.delete();
+		directory.delete();
+	}
+
+}
@@ -0,0 +1,24 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.solver;
+
+/**
+ * Symmetric distances between the nodes of a traveling salesman problem (TSP), including the
+ * dummy node that turns the TSP into a sorting problem.
+ */
+public interface DistanceMatrixInterface {
+	
+	/**
+	 * @return number of nodes, including dummy node
+	 */
+	public int getNumberOfNodes();
+	
+	/**
+	 * @param index1 node1
+	 * @param index2 node2
+	 * @return edge weight (distance) between node1 and node2
+	 */
+	public int getDistance( int index1, int index2 );
+	
+}
@@ -0,0 +1,13 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.solver;
+
+/**
+ * {@link TSPSolverInterface} whose tours are optimal whenever {@link #solve(DistanceMatrixInterface)}
+ * returns normally, i.e. no other solver can find a shorter tour. {@link PortfolioTSPSolver} stops all
+ * other runs once such a solver is done.
+ */
+public interface ExactTSPSolverInterface extends TSPSolverInterface {
+
+}
@@ -0,0 +1,48 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.solver;
+
+/**
+ * {@link DistanceMatrixInterface} that stores all (n+1)x(n+1) distances in memory, one int[] per row.
+ */
+public class FullDistanceMatrix implements DistanceMatrixInterface {
+	
+	private final int[][] distances;
+	
+	/**
+	 * @param numberOfNodes number of nodes, including dummy node
+	 */
+	public FullDistanceMatrix( final int numberOfNodes ) {
+		super();
+		this.distances = new int[ numberOfNodes ][ numberOfNodes ];
+	}
+	
+	/**
+	 * @param index1 node1
+	 * @param index2 node2
+	 * @param distance edge weight (distance) between node1 and node2
+	 */
+	public void setDistance( final int index1, final int index2, final int distance ) {
+		distances[ index1 ][ index2 ] = distance;
+	}
+	
+	/**
+	 * @param index node
+	 * @return row of distances for node; modifications will be reflected in this matrix
+	 */
+	public int[] getRow( final int index ) {
+		return distances[ index ];
+	}
+
+	@Override
+	public int getNumberOfNodes() {
+		return distances.length;
+	}
+
+	@Override
+	public int getDistance( final int index1, final int index2 ) {
+		return distances[ index1 ][ index2 ];
+	}
+
+}
@@ -0,0 +1,452 @@
+/**
+ *
+ */
+package org.janelia.sort.tsp.solver;
+
+import java.util.Random;
+
+import org.janelia.sort.tsp.TSP;
+
+/**
+ * In-process {@link TSPSolverInterface} that works directly on the {@link DistanceMatrixInterface}, i.e.
+ * without writing the problem to a file or calling an external solver.
+ *
+ * A nearest neighbor tour is improved by 2-opt and Or-opt moves that are restricted to the k nearest
+ * neighbors of each node. Afterwards, a number of iterated local search rounds perturb the tour with a
+ * random double bridge move within a small window and optimize again. A perturbed tour is kept only if it
+ * is not longer than the best tour so far. The result is not guaranteed to be optimal.
+ *
+ * If the calling thread is interrupted, no further kicks are done and the best tour so far is returned.
+ * The interrupt status is left set.
+ */
+public class LocalSearchTSPSolver implements TSPSolverInterface {
+
+	public static final int DEFAULT_NUMBER_OF_NEIGHBORS = 10;
+
+	public static final int DEFAULT_NUMBER_OF_KICKS = 1000;
+
+	public static final long DEFAULT_SEED = 100;
+
+	// problems up to this size are solved exhaustively
+	private static final int MAX_EXHAUSTIVE_SIZE = 8;
+
+	// maximum number of nodes that are moved at once by an Or-opt move
+	private static final int MAX_SEGMENT_LENGTH = 3;
+
+	// maximum length of each of the two segments that are swapped by a double bridge kick
+	private static final int KICK_WINDOW = 50;
+
+	private final int numberOfNeighbors;
+	private final int numberOfKicks;
+	private final long seed;
+
+	/**
+	 * @param numberOfNeighbors number of nearest neighbors per node considered for improving moves
+	 * @param numberOfKicks number of iterated local search rounds
+	 * @param seed seed for random perturbations
+	 */
+	public LocalSearchTSPSolver( final int numberOfNeighbors, final int numberOfKicks, final long seed ) {
+		super();
+		this.numberOfNeighbors = numberOfNeighbors;
+		this.numberOfKicks = numberOfKicks;
+		this.seed = seed;
+	}
+
+	/**
+	 * @param seed seed for random perturbations
+	 */
+	public LocalSearchTSPSolver( final long seed ) {
+		this( DEFAULT_NUMBER_OF_NEIGHBORS, DEFAULT_NUMBER_OF_KICKS, seed );
+	}
+
+	/**
+	 * Create {@link LocalSearchTSPSolver} with default parameters.
+	 */
+	public LocalSearchTSPSolver() {
+		this( DEFAULT_SEED );
+	}
+
+	@Override
+	public int[] solve( final DistanceMatrixInterface distances ) {
+		final int n = distances.getNumberOfNodes();
+		if ( n <= MAX_EXHAUSTIVE_SIZE )
+			return solveExhaustively( distances );
+
+		final int[][] neighbors = nearestNeighbors( distances, Math.min( numberOfNeighbors, n - 1 ) );
+		final Tour tour         = new Tour( distances, neighbors, nearestNeighborTour( distances, neighbors ) );
+		for ( int i = 0; i < n; ++i )
+			tour.push( i );
+		tour.optimize();
+
+		final Random rng = new Random( seed );
+		final int[] best = tour.tour.clone();
+		long bestLength  = tour.length();
+		for ( int kick = 0; kick < numberOfKicks && !Thread.currentThread().isInterrupted(); ++kick ) {
+			tour.doubleBridge( rng );
+			tour.optimize();
+			final long length = tour.length();
+			if ( length <= bestLength ) {
+				bestLength = length;
+				System.arraycopy( tour.tour, 0, best, 0, n );
+			}
+			else
+				tour.reset( best );
+		}
+
+		return startAtZero( best );
+	}
+
+
+	/**
+	 * @param distances distances between all nodes
+	 * @param k number of neighbors
+	 * @return for each node, the k nearest other nodes in ascending order of distance
+	 */
+	public static int[][] nearestNeighbors( final DistanceMatrixInterface distances, final int k ) {
+		final int n = distances.getNumberOfNodes();
+		final int[][] neighbors = new int[ n ][ k ];
+		final int[] neighborDistances = new int[ k ];
+		for ( int i = 0; i < n; ++i ) {
+			final int[] ni = neighbors[ i ];
+			int size = 0;
+			for ( int j = 0; j < n; ++j ) {
+				if ( i == j )
+					continue;
+				final int d = distances.getDistance( i, j );
+				if ( size == k && d >= neighborDistances[ k - 1 ] )
+					continue;
+				// insertion into sorted list of current neighbors
+				int index = size < k ? size++ : k - 1;
+				for ( ; index > 0 && neighborDistances[ index - 1 ] > d; --index ) {
+					neighborDistances[ index ] = neighborDistances[ index - 1 ];
+					ni[ index ] = ni[ index - 1 ];
+				}
+				neighborDistances[ index ] = d;
+				ni[ index ] = j;
+			}
+		}
+		return neighbors;
+	}
+
+
+	private static int[] nearestNeighborTour( final DistanceMatrixInterface distances, final int[][] neighbors ) {
+		final int n = distances.getNumberOfNodes();
+		final int[] tour = new int[ n ];
+		final boolean[] visited = new boolean[ n ];
+		visited[ 0 ] = true;
+		for ( int i = 1; i < n; ++i ) {
+			final int current = tour[ i - 1 ];
+			int next = -1;
+			for ( final int candidate : neighbors[ current ] ) {
+				if ( !visited[ candidate ] ) {
+					next = candidate;
+					break;
+				}
+			}
+			// all nearest neighbors visited already: fall back to scanning all nodes
+			if ( next < 0 ) {
+				int minDistance = Integer.MAX_VALUE;
+				for ( int j = 0; j < n; ++j ) {
+					if ( visited[ j ] )
+						continue;
+					final int d = distances.getDistance( current, j );
+					if ( next < 0 || d < minDistance ) {
+						minDistance = d;
+						next = j;
+					}
+				}
+			}
+			tour[ i ] = next;
+			visited[ next ] = true;
+		}
+		return tour;
+	}
+
+
+	private static int[] solveExhaustively( final DistanceMatrixInterface distances ) {
+		final int n = distances.getNumberOfNodes();
+		final int[] current = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			current[ i ] = i;
+		final int[] best = current.clone();
+		permute( distances, current, 1, best, new long[] { TSP.tourLength( distances, current ) } );
+		return best;
+	}
+
+
+	private static void permute( final DistanceMatrixInterface distances, final int[] current, final int index, final int[] best, final long[] bestLength ) {
+		if ( index == current.length ) {
+			final long length = TSP.tourLength( distances, current );
+			if ( length < bestLength[ 0 ] ) {
+				bestLength[ 0 ] = length;
+				System.arraycopy( current, 0, best, 0, current.length );
+			}
+			return;
+		}
+		for ( int i = index; i < current.length; ++i ) {
+			swap( current, index, i );
+			permute( distances, current, index + 1, best, bestLength );
+			swap( current, index, i );
+		}
+	}
+
+
+	private static void swap( final int[] array, final int i, final int j ) {
+		final int tmp = array[ i ];
+		array[ i ] = array[ j ];
+		array[ j ] = tmp;
+	}
+
+
+	private static int[] startAtZero( final int[] tour ) {
+		final int[] result = new int[ tour.length ];
+		int offset = 0;
+		while ( tour[ offset ] != 0 )
+			++offset;
+		for ( int i = 0; i < tour.length; ++i )
+			result[ i ] = tour[ ( i + offset ) % tour.length ];
+		return result;
+	}
+
+
+	/**
+	 * Array representation of a tour with position lookup and a queue of nodes that need to be checked
+	 * for improving moves (don't look bits).
+	 */
+	private static class Tour {
+
+		private final DistanceMatrixInterface distances;
+		private final int[][] neighbors;
+		private final int n;
+		private final int[] tour;
+		private final int[] position;
+
+		private final int[] queue;
+		private final boolean[] isQueued;
+		private int queueHead = 0;
+		private int queueSize = 0;
+
+		public Tour( final DistanceMatrixInterface distances, final int[][] neighbors, final int[] tour ) {
+			super();
+			this.distances = distances;
+			this.neighbors = neighbors;
+			this.n         = tour.length;
+			this.tour      = tour;
+			this.position  = new int[ n ];
+			this.queue     = new int[ n ];
+			this.isQueued  = new boolean[ n ];
+			for ( int i = 0; i < n; ++i )
+				position[ tour[ i ] ] = i;
+		}
+
+		public void reset( final int[] other ) {
+			System.arraycopy( other, 0, tour, 0, n );
+			for ( int i = 0; i < n; ++i )
+				position[ tour[ i ] ] = i;
+		}
+
+		public long length() {
+			return TSP.tourLength( distances, tour );
+		}
+
+		private int next( final int node ) {
+			final int p = position[ node ] + 1;
+			return tour[ p == n ? 0 : p ];
+		}
+
+		private int prev( final int node ) {
+			final int p = position[ node ];
+			return tour[ p == 0 ? n - 1 : p - 1 ];
+		}
+
+		private int d( final int node1, final int node2 ) {
+			return distances.getDistance( node1, node2 );
+		}
+
+		public void push( final int node ) {
+			if ( isQueued[ node ] )
+				return;
+			isQueued[ node ] = true;
+			final int index = queueHead + queueSize;
+			queue[ index < n ? index : index - n ] = node;
+			++queueSize;
+		}
+
+		private int pop() {
+			final int node = queue[ queueHead ];
+			queueHead = queueHead + 1 == n ? 0 : queueHead + 1;
+			--queueSize;
+			isQueued[ node ] = false;
+			return node;
+		}
+
+		public void optimize() {
+			while ( queueSize > 0 ) {
+				final int node = pop();
+				while ( improveTwoOpt( node ) || improveOrOpt( node ) ) {
+					// keep improving around node
+				}
+			}
+		}
+
+		/**
+		 * Reverse the tour between positions i and j (inclusive, going forward). If the complement is
+		 * shorter, reverse the complement instead, which results in the same closed tour.
+		 */
+		private void reverse( int i, int j ) {
+			int length = j - i;
+			if ( length < 0 )
+				length += n;
+			length += 1;
+			if ( 2 * length > n ) {
+				final int tmp = i;
+				i = j + 1 == n ? 0 : j + 1;
+				j = tmp == 0 ? n - 1 : tmp - 1;
+				length = n - length;
+			}
+			for ( int k = length / 2; k > 0; --k ) {
+				final int nodeI = tour[ i ];
+				final int nodeJ = tour[ j ];
+				tour[ i ] = nodeJ;
+				position[ nodeJ ] = i;
+				tour[ j ] = nodeI;
+				position[ nodeI ] = j;
+				i = i + 1 == n ? 0 : i + 1;
+				j = j == 0 ? n - 1 : j - 1;
+			}
+		}
+
+		/**
+		 * Replace edges (a,b) and (c,d) by (a,c) and (b,d), where the tour visits a, b, ..., c, d in
+		 * this order in either direction.
+		 */
+		private void move( final int a, final int b, final int c, final int d ) {
+			if ( next( a ) == b )
+				reverse( position[ b ], position[ c ] );
+			else
+				reverse( position[ c ], position[ b ] );
+			push( a );
+			push( b );
+			push( c );
+			push( d );
+		}
+
+		private boolean improveTwoOpt( final int a ) {
+			for ( int direction = 0; direction < 2; ++direction ) {
+				final boolean forward = direction == 0;
+				final int b           = forward ? next( a ) : prev( a );
+				final int dab         = d( a, b );
+				for ( final int c : neighbors[ a ] ) {
+					final int dac = d( a, c );
+					if ( dac >= dab )
+						break;
+					final int e = forward ? next( c ) : prev( c );
+					if ( c == b || e == a )
+						continue;
+					final long delta = (long)dac + d( b, e ) - dab - d( c, e );
+					if ( delta < 0 ) {
+						if ( forward )
+							move( a, b, c, e );
+						else
+							move( b, a, e, c );
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		private boolean improveOrOpt( final int node ) {
+			for ( int length = 1; length <= MAX_SEGMENT_LENGTH; ++length ) {
+				// segments that start at node and segments that end at node
+				for ( int direction = 0; direction < ( length == 1 ? 1 : 2 ); ++direction ) {
+					int first = node;
+					int last  = node;
+					for ( int i = 1; i < length; ++i ) {
+						if ( direction == 0 )
+							last = next( last );
+						else
+							first = prev( first );
+					}
+					if ( improveOrOpt( first, last ) )
+						return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean isInSegment( final int node, final int first, final int last ) {
+			for ( int s = first; ; s = next( s ) ) {
+				if ( s == node )
+					return true;
+				if ( s == last )
+					return false;
+			}
+		}
+
+		/**
+		 * Try to move segment first ... last between two adjacent nodes x, y, possibly reversed.
+		 */
+		private boolean improveOrOpt( final int first, final int last ) {
+			final int p = prev( first );
+			final int q = next( last );
+			final long removeGain = (long)d( p, first ) + d( last, q ) - d( p, q );
+			if ( removeGain <= 0 )
+				return false;
+			for ( int endpoint = 0; endpoint < 2; ++endpoint ) {
+				final int s = endpoint == 0 ? first : last;
+				for ( final int c : neighbors[ s ] ) {
+					if ( d( s, c ) >= removeGain )
+						break;
+					for ( int side = 0; side < 2; ++side ) {
+						final int x = side == 0 ? c : prev( c );
+						final int y = next( x );
+						if ( x == p || y == p || isInSegment( x, first, last ) || isInSegment( y, first, last ) )
+							continue;
+						final int dxy       = d( x, y );
+						final long keep     = (long)d( x, first ) + d( last, y ) - dxy;
+						final long reversed = (long)d( x, last ) + d( first, y ) - dxy;
+						if ( Math.min( keep, reversed ) < removeGain ) {
+							move( p, first, x, y );
+							move( p, x, q, last );
+							if ( keep < reversed )
+								move( x, last, first, y );
+							push( p );
+							push( q );
+							push( x );
+							push( y );
+							return true;
+						}
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Swap two adjacent random segments of length at most {@link LocalSearchTSPSolver#KICK_WINDOW}.
+		 */
+		public void doubleBridge( final Random rng ) {
+			final int maxLength = Math.min( KICK_WINDOW, ( n - 2 ) / 2 );
+			final int length1   = 1 + rng.nextInt( maxLength );
+			final int length2   = 1 + rng.nextInt( maxLength );
+			final int start     = rng.nextInt( n );
+			final int[] tmp     = new int[ length1 + length2 ];
+			for ( int i = 0; i < tmp.length; ++i )
+				tmp[ i ] = tour[ ( start + ( i + length1 ) % tmp.length ) % n ];
+			for ( int i = 0; i < tmp.length; ++i ) {
+				final int p = ( start + i ) % n;
+				tour[ p ] = tmp[ i ];
+				position[ tmp[ i ] ] = p;
+			}
+			push( tour[ ( start + n - 1 ) % n ] );
+			push( tour[ start ] );
+			push( tour[ ( start + length2 - 1 ) % n ] );
+			push( tour[ ( start + length2 ) % n ] );
+			push( tour[ ( start + tmp.length - 1 ) % n ] );
+			push( tour[ ( start + tmp.length ) % n ] );
+		}
+
+	}
+
+}
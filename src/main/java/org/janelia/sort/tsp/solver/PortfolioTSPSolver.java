@@ -0,0 +1,195 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.solver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.sort.tsp.TSP;
+
+/**
+ * {@link TSPSolverInterface} that runs a portfolio of solvers, e.g. {@link LocalSearchTSPSolver} or
+ * {@link ConcordeTSPSolver} with different seeds, concurrently on the same {@link DistanceMatrixInterface}
+ * and returns the shortest of their tours. Ties are broken by the position of the solver in the portfolio,
+ * i.e. the result does not depend on the order in which the solvers finish.
+ *
+ * All runs stop early once an {@link ExactTSPSolverInterface} returns. If a time budget is set, all runs
+ * that are still busy when it expires are interrupted and runs that did not start yet are skipped.
+ * Interrupted {@link LocalSearchTSPSolver}s return their best tour so far, solvers that ignore interrupts
+ * are waited for.
+ */
+public class PortfolioTSPSolver implements TSPSolverInterface {
+
+	private final List< TSPSolverInterface > solvers;
+	private final int nThreads;
+	private final long timeBudgetMillis;
+
+	/**
+	 * @param solvers portfolio, each solver is run exactly once per call of {@link #solve(DistanceMatrixInterface)}
+	 *        and must not share state with the other solvers
+	 * @param nThreads maximum number of solvers that run at the same time
+	 * @param timeBudgetMillis interrupt all runs after this many milliseconds, no time budget if 0
+	 */
+	public PortfolioTSPSolver( final List< ? extends TSPSolverInterface > solvers, final int nThreads, final long timeBudgetMillis ) {
+		super();
+		if ( solvers.isEmpty() )
+			throw new IllegalArgumentException( "Need at least one solver." );
+		this.solvers          = new ArrayList< TSPSolverInterface >( solvers );
+		this.nThreads         = Math.max( 1, Math.min( nThreads, solvers.size() ) );
+		this.timeBudgetMillis = timeBudgetMillis;
+	}
+
+	/**
+	 * @param numberOfSeeds number of {@link LocalSearchTSPSolver}s, with seeds {@link LocalSearchTSPSolver#DEFAULT_SEED},
+	 *        {@link LocalSearchTSPSolver#DEFAULT_SEED} + 1, ...
+	 * @param nThreads maximum number of solvers that run at the same time
+	 * @param timeBudgetMillis interrupt all runs after this many milliseconds, no time budget if 0
+	 * @return portfolio of {@link LocalSearchTSPSolver}s that differ only in their seed
+	 */
+	public static PortfolioTSPSolver createLocalSearchPortfolio( final int numberOfSeeds, final int nThreads, final long timeBudgetMillis ) {
+		final ArrayList< TSPSolverInterface > solvers = new ArrayList< TSPSolverInterface >();
+		for ( int i = 0; i < numberOfSeeds; ++i )
+			solvers.add( new LocalSearchTSPSolver( LocalSearchTSPSolver.DEFAULT_SEED + i ) );
+		return new PortfolioTSPSolver( solvers, nThreads, timeBudgetMillis );
+	}
+
+	@Override
+	public int[] solve( final DistanceMatrixInterface distances ) {
+		final ExecutorService es = Executors.newFixedThreadPool( nThreads, new ThreadFactory() {
+			@Override
+			public Thread newThread( final Runnable r ) {
+				final Thread thread = new Thread( r, "tsp-portfolio" );
+				thread.setDaemon( true );
+				return thread;
+			}
+		} );
+		final CompletionService< int[] > completionService = new ExecutorCompletionService< int[] >( es );
+		final Thread[] running = new Thread[ solvers.size() ];
+		// written by this thread only, read by runs while holding the lock on running
+		final boolean[] expired = new boolean[] { false };
+		final HashMap< Future< int[] >, Integer > indices = new HashMap< Future< int[] >, Integer >();
+		for ( int i = 0; i < solvers.size(); ++i )
+			indices.put( completionService.submit( createRun( solvers.get( i ), distances, i, running, expired ) ), i );
+
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( timeBudgetMillis );
+		int[] best          = null;
+		long bestLength     = Long.MAX_VALUE;
+		int bestIndex       = -1;
+		Throwable failure   = null;
+		try {
+			for ( int remaining = solvers.size(); remaining > 0; ) {
+				final Future< int[] > future;
+				if ( timeBudgetMillis > 0 && !expired[ 0 ] ) {
+					future = completionService.poll( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+					if ( future == null ) {
+						expire( running, expired );
+						continue;
+					}
+				} else
+					future = completionService.take();
+				--remaining;
+				final int index = indices.get( future );
+				final int[] tour;
+				try {
+					tour = future.get();
+				} catch ( final ExecutionException e ) {
+					if ( failure == null )
+						failure = e.getCause();
+					continue;
+				}
+				// skipped after time budget expired
+				if ( tour == null )
+					continue;
+				if ( !isTour( tour, distances.getNumberOfNodes() ) ) {
+					if ( failure == null )
+						failure = new IllegalStateException( "Solver " + index + " returned invalid tour." );
+					continue;
+				}
+				final long length = TSP.tourLength( distances, tour );
+				if ( length < bestLength || length == bestLength && index < bestIndex ) {
+					best       = tour;
+					bestLength = length;
+					bestIndex  = index;
+				}
+				if ( solvers.get( index ) instanceof ExactTSPSolverInterface ) {
+					best = tour;
+					break;
+				}
+			}
+		} catch ( final InterruptedException e ) {
+			// return best tour so far, if any
+			Thread.currentThread().interrupt();
+		} finally {
+			es.shutdownNow();
+		}
+
+		if ( best == null )
+			throw new RuntimeException( "No solver in portfolio returned a tour.", failure );
+		return best;
+	}
+
+	/**
+	 * @param tour tour
+	 * @param n number of nodes
+	 * @return true if tour visits each of the n nodes exactly once
+	 */
+	public static boolean isTour( final int[] tour, final int n ) {
+		if ( tour.length != n )
+			return false;
+		final boolean[] visited = new boolean[ n ];
+		for ( final int node : tour ) {
+			if ( node < 0 || node >= n || visited[ node ] )
+				return false;
+			visited[ node ] = true;
+		}
+		return true;
+	}
+
+	private static Callable< int[] > createRun(
+			final TSPSolverInterface solver,
+			final DistanceMatrixInterface distances,
+			final int index,
+			final Thread[] running,
+			final boolean[] expired ) {
+		return new Callable< int[] >() {
+			@Override
+			public int[] call() {
+				synchronized ( running ) {
+					if ( expired[ 0 ] )
+						return null;
+					running[ index ] = Thread.currentThread();
+				}
+				try {
+					return solver.solve( distances );
+				} finally {
+					// do not interrupt this thread once it works on a different run
+					synchronized ( running ) {
+						running[ index ] = null;
+						Thread.interrupted();
+					}
+				}
+			}
+		};
+	}
+
+	private static void expire( final Thread[] running, final boolean[] expired ) {
+		synchronized ( running ) {
+			expired[ 0 ] = true;
+			for ( final Thread thread : running )
+				if ( thread != null )
+					thread.interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,18 @@
+/**
+ * 
+ */
+package org.janelia.sort.tsp.solver;
+
+/**
+ * Solve a traveling salesman problem (TSP) given by a {@link DistanceMatrixInterface}.
+ */
+public interface TSPSolverInterface {
+	
+	/**
+	 * @param distances distances between all nodes, including dummy node
+	 * @return tour that visits each node exactly once, starting at node 0; the edge from the last
+	 *         node back to node 0 is implied
+	 */
+	public int[] solve( DistanceMatrixInterface distances );
+	
+}
@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package org.janelia.sort.tsp.solver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * Streaming parser for tours in the output format of concorde: the number of nodes followed by the nodes
+ * in tour order, separated by arbitrary whitespace (concorde writes ten nodes per line). Numbers are parsed
+ * character by character, no lines or tokens are materialized.
+ */
+public class TourReader {
+
+	/**
+	 * @param file tour file
+	 * @param cs charset of file
+	 * @return tour read from file
+	 * @throws IOException if file cannot be read or is not a valid tour
+	 */
+	public static int[] read( final File file, final Charset cs ) throws IOException {
+		final Reader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), cs ) );
+		try {
+			return read( reader );
+		} catch ( final IOException e ) {
+			throw new IOException( file + ": " + e.getMessage(), e );
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * @param reader reader positioned at the start of a tour, should be buffered
+	 * @return tour, i.e. every node 0 &lt;= node &lt; number of nodes exactly once in tour order
+	 * @throws IOException if reader fails or does not hold a valid tour
+	 */
+	public static int[] read( final Reader reader ) throws IOException {
+		final int n = nextInt( reader );
+		if ( n < 0 )
+			throw new IOException( "Expected number of nodes but reached end of tour." );
+		final int[] tour = new int[ n ];
+		final boolean[] visited = new boolean[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			final int node = nextInt( reader );
+			if ( node < 0 )
+				throw new IOException( String.format( "Expected %d nodes but found %d.", n, i ) );
+			if ( node >= n || visited[ node ] )
+				throw new IOException( String.format( "Node %d at position %d is invalid or visited twice.", node, i ) );
+			visited[ node ] = true;
+			tour[ i ] = node;
+		}
+		if ( nextInt( reader ) >= 0 )
+			throw new IOException( String.format( "Found more than %d nodes.", n ) );
+		return tour;
+	}
+
+	/**
+	 * @return next non-negative integer, -1 at the end of reader
+	 */
+	private static int nextInt( final Reader reader ) throws IOException {
+		int c = reader.read();
+		while ( c >= 0 && Character.isWhitespace( c ) )
+			c = reader.read();
+		if ( c < 0 )
+			return -1;
+		long value = 0;
+		for ( ; c >= 0 && !Character.isWhitespace( c ); c = reader.read() ) {
+			if ( c < '0' || c > '9' )
+				throw new IOException( "Unexpected character '" + ( char ) c + "' in tour." );
+			value = 10 * value + ( c - '0' );
+			if ( value > Integer.MAX_VALUE )
+				throw new IOException( "Node index out of range." );
+		}
+		return ( int ) value;
+	}
+
+}
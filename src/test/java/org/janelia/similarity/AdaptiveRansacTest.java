@@ -0,0 +1,109 @@
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mpicbg.models.NotEnoughDataPointsException;
+import mpicbg.models.Point;
+import mpicbg.models.PointMatch;
+import mpicbg.models.TranslationModel2D;
+
+public class AdaptiveRansacTest {
+
+	final double maxEpsilon     = 2.0;
+	final double minInlierRatio = 0.05;
+	final int minNumInliers     = 10;
+	final int maxIterations     = 1000;
+
+	// numberOfInliers matches translated by ( 10, -5 ) up to noise in [-0.5, 0.5], followed by matches with random targets
+	private ArrayList< PointMatch > createMatches( final int numberOfInliers, final int numberOfOutliers, final Random rng ) {
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >();
+		for ( int i = 0; i < numberOfInliers + numberOfOutliers; ++i ) {
+			final double x = 1000 * rng.nextDouble();
+			final double y = 1000 * rng.nextDouble();
+			final double[] target = i < numberOfInliers ?
+					new double[] { x + 10 + rng.nextDouble() - 0.5, y - 5 + rng.nextDouble() - 0.5 } :
+					new double[] { 1000 * rng.nextDouble(), 1000 * rng.nextDouble() };
+			matches.add( new PointMatch( new Point( new double[] { x, y } ), new Point( target ) ) );
+		}
+		return matches;
+	}
+
+	@Test
+	public void testRequiredIterations() {
+		// log( 0.01 ) / log( 1 - 0.5^3 ) = 34.5
+		Assert.assertEquals( 35, AdaptiveRansac.requiredIterations( 0.5, 3, 0.99, 1000 ) );
+		Assert.assertEquals( 1, AdaptiveRansac.requiredIterations( 1.0, 3, 0.99, 1000 ) );
+		Assert.assertEquals( 1000, AdaptiveRansac.requiredIterations( 0.0, 3, 0.99, 1000 ) );
+		// bounded by maximum number of iterations
+		Assert.assertEquals( 1000, AdaptiveRansac.requiredIterations( 0.05, 3, 0.99, 1000 ) );
+		Assert.assertEquals( 20, AdaptiveRansac.requiredIterations( 0.5, 3, 0.99, 20 ) );
+		// higher inlier ratio and smaller samples require less iterations
+		Assert.assertTrue( AdaptiveRansac.requiredIterations( 0.8, 3, 0.99, 1000 ) < AdaptiveRansac.requiredIterations( 0.5, 3, 0.99, 1000 ) );
+		Assert.assertTrue( AdaptiveRansac.requiredIterations( 0.5, 1, 0.99, 1000 ) < AdaptiveRansac.requiredIterations( 0.5, 3, 0.99, 1000 ) );
+	}
+
+	@Test
+	public void testRansac() throws NotEnoughDataPointsException {
+		final ArrayList< PointMatch > candidates = createMatches( 60, 40, new Random( 100 ) );
+
+		final ArrayList< PointMatch > reference = new ArrayList< PointMatch >();
+		Assert.assertTrue( new TranslationModel2D().ransac( candidates, reference, maxIterations, maxEpsilon, minInlierRatio, minNumInliers ) );
+
+		final TranslationModel2D model = new TranslationModel2D();
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+		final int[] iterations = new int[ 1 ];
+		Assert.assertTrue( AdaptiveRansac.ransac(
+				model, candidates, inliers, maxIterations, 0.99, maxEpsilon, minInlierRatio, minNumInliers, new Random( AdaptiveRansac.DEFAULT_SEED ), iterations ) );
+
+		// same inliers as mpicbg, which are exactly the translated matches
+		Assert.assertEquals( new HashSet< PointMatch >( reference ), new HashSet< PointMatch >( inliers ) );
+		Assert.assertEquals( new HashSet< PointMatch >( candidates.subList( 0, 60 ) ), new HashSet< PointMatch >( inliers ) );
+		final double[] translated = model.apply( new double[] { 0.0, 0.0 } );
+		Assert.assertEquals( 10.0, translated[ 0 ], 0.2 );
+		Assert.assertEquals( -5.0, translated[ 1 ], 0.2 );
+
+		// terminated early: mpicbg runs all maxIterations, adaptive RANSAC stops once a sample of inliers was
+		// drawn with 99% confidence at the observed inlier ratio of 0.6
+		Assert.assertTrue( iterations[ 0 ] > 0 );
+		Assert.assertTrue( iterations[ 0 ] <= Math.max(
+				AdaptiveRansac.requiredIterations( 0.6, 1, 0.99, maxIterations ),
+				AdaptiveRansac.requiredIterations( (double)minNumInliers / candidates.size(), 1, 0.99, maxIterations ) ) );
+		Assert.assertTrue( iterations[ 0 ] < maxIterations );
+	}
+
+	@Test
+	public void testFilterRansac() throws NotEnoughDataPointsException {
+		final ArrayList< PointMatch > candidates = createMatches( 60, 40, new Random( 100 ) );
+
+		final ArrayList< PointMatch > reference = new ArrayList< PointMatch >();
+		Assert.assertTrue( new TranslationModel2D().filterRansac( candidates, reference, maxIterations, maxEpsilon, minInlierRatio, minNumInliers, 3 ) );
+
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+		Assert.assertTrue( AdaptiveRansac.filterRansac(
+				new TranslationModel2D(), candidates, inliers, maxIterations, 0.99, maxEpsilon, minInlierRatio, minNumInliers, 3, new Random( AdaptiveRansac.DEFAULT_SEED ) ) );
+		Assert.assertEquals( new HashSet< PointMatch >( reference ), new HashSet< PointMatch >( inliers ) );
+	}
+
+	@Test
+	public void testNoMatch() throws NotEnoughDataPointsException {
+		// random matches only, no model has minNumInliers inliers
+		final ArrayList< PointMatch > candidates = createMatches( 0, 100, new Random( 100 ) );
+
+		final ArrayList< PointMatch > reference = new ArrayList< PointMatch >();
+		Assert.assertFalse( new TranslationModel2D().ransac( candidates, reference, maxIterations, maxEpsilon, minInlierRatio, minNumInliers ) );
+
+		final ArrayList< PointMatch > inliers = new ArrayList< PointMatch >();
+		final int[] iterations = new int[ 1 ];
+		Assert.assertFalse( AdaptiveRansac.ransac(
+				new TranslationModel2D(), candidates, inliers, maxIterations, 0.99, maxEpsilon, minInlierRatio, minNumInliers, new Random( AdaptiveRansac.DEFAULT_SEED ), iterations ) );
+		Assert.assertTrue( inliers.isEmpty() );
+		// bounded by the minimal acceptable inlier ratio of 10 / 100 instead of maxIterations
+		Assert.assertEquals( AdaptiveRansac.requiredIterations( 0.1, 1, 0.99, maxIterations ), iterations[ 0 ] );
+	}
+
+}
@@ -0,0 +1,190 @@
+package org.janelia.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.RigidModel2D;
+
+public class BandedSimilarityMatrixTest {
+
+	final int n     = 10;
+	final int range = 3;
+
+	private BandedSimilarityMatrix createMatrix() {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, range );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = i; j < n && j < i + range; ++j )
+				matrix.set( i, j, i * n + j );
+		return matrix;
+	}
+
+	@Test
+	public void testGetAndSet() {
+		final BandedSimilarityMatrix matrix = createMatrix();
+		for ( int i = 0; i < n; ++i ) {
+			for ( int j = 0; j < n; ++j ) {
+				if ( Math.abs( i - j ) < range )
+					Assert.assertEquals( Math.min( i, j ) * n + Math.max( i, j ), matrix.get( i, j ), 0.0f );
+				else
+					Assert.assertTrue( Float.isNaN( matrix.get( i, j ) ) );
+			}
+		}
+	}
+
+	@Test( expected = IndexOutOfBoundsException.class )
+	public void testSetOutsideBand() {
+		createMatrix().set( 0, range, 1.0f );
+	}
+
+	@Test
+	public void testGetRow() {
+		final BandedSimilarityMatrix matrix = createMatrix();
+		final int[] columns                 = new int[ matrix.getMaxRowLength() ];
+		final float[] similarities          = new float[ matrix.getMaxRowLength() ];
+
+		Assert.assertEquals( range, matrix.getRow( 0, columns, similarities ) );
+		Assert.assertEquals( 2 * range - 1, matrix.getRow( 5, columns, similarities ) );
+		for ( int k = 0; k < 2 * range - 1; ++k ) {
+			Assert.assertEquals( 5 - range + 1 + k, columns[ k ] );
+			Assert.assertEquals( matrix.get( 5, columns[ k ] ), similarities[ k ], 0.0f );
+		}
+		Assert.assertEquals( range, matrix.getRow( n - 1, columns, similarities ) );
+	}
+
+	@Test
+	public void testSelect() {
+		final BandedSimilarityMatrix matrix = createMatrix();
+		final int[] indices                 = new int[] { 0, 1, 4, 5, 9 };
+		final BandedSimilarityMatrix result = matrix.select( indices );
+		Assert.assertEquals( indices.length, result.getNumberOfSections() );
+		Assert.assertEquals( range, result.getRange() );
+		for ( int i = 0; i < indices.length; ++i ) {
+			for ( int j = 0; j < indices.length; ++j ) {
+				final float reference = matrix.get( indices[ i ], indices[ j ] );
+				if ( Float.isNaN( reference ) )
+					Assert.assertTrue( Float.isNaN( result.get( i, j ) ) );
+				else
+					Assert.assertEquals( reference, result.get( i, j ), 0.0f );
+			}
+		}
+	}
+
+	@Test
+	public void testResize() {
+		final BandedSimilarityMatrix matrix = createMatrix();
+		final BandedSimilarityMatrix larger = matrix.resize( n + 5 );
+		final BandedSimilarityMatrix smaller = matrix.resize( n - 5 );
+		Assert.assertEquals( n + 5, larger.getNumberOfSections() );
+		Assert.assertEquals( n - 5, smaller.getNumberOfSections() );
+		for ( int i = 0; i < n + 5; ++i ) {
+			for ( int j = 0; j < n + 5; ++j ) {
+				if ( i < n && j < n )
+					Assert.assertEquals( matrix.get( i, j ), larger.get( i, j ), 0.0f );
+				else
+					Assert.assertTrue( Float.isNaN( larger.get( i, j ) ) );
+				if ( i < n - 5 && j < n - 5 )
+					Assert.assertEquals( matrix.get( i, j ), smaller.get( i, j ), 0.0f );
+			}
+		}
+		for ( int j = n - 5; j < n - 5 + range; ++j )
+			Assert.assertTrue( Float.isNaN( smaller.get( n - 6, j ) ) );
+	}
+
+	@Test
+	public void testWriteAndRead() throws IOException {
+		final BandedSimilarityMatrix matrix = createMatrix();
+		final File file = File.createTempFile( "banded-similarity-matrix", ".bin" );
+		file.deleteOnExit();
+		matrix.write( file );
+		final BandedSimilarityMatrix result = BandedSimilarityMatrix.read( file );
+		Assert.assertEquals( n, result.getNumberOfSections() );
+		Assert.assertEquals( range, result.getRange() );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = 0; j < n; ++j )
+				Assert.assertEquals( matrix.get( i, j ), result.get( i, j ), 0.0f );
+	}
+
+	@Test
+	public void testCheckpoint() throws IOException {
+		final File file = File.createTempFile( "similarity-matrix-checkpoint", ".bin" );
+		file.delete();
+		file.deleteOnExit();
+		final SimilarityMatrixCheckpoint checkpoint = new SimilarityMatrixCheckpoint( file, Long.MAX_VALUE );
+		Assert.assertNull( checkpoint.restore( n, range, 1 ) );
+		final BandedSimilarityMatrix matrix = createMatrix();
+		checkpoint.setRowsDone( 2, 5, matrix );
+		// interval not passed yet
+		Assert.assertFalse( file.exists() );
+		checkpoint.save( matrix );
+
+		final SimilarityMatrixCheckpoint resumed = new SimilarityMatrixCheckpoint( file, Long.MAX_VALUE );
+		final BandedSimilarityMatrix result = resumed.restore( n, range, 1 );
+		Assert.assertEquals( 3, resumed.getNumberOfRowsDone() );
+		for ( int i = 0; i < n; ++i ) {
+			Assert.assertEquals( i >= 2 && i < 5, resumed.isRowDone( i ) );
+			for ( int j = 0; j < n; ++j )
+				Assert.assertEquals( matrix.get( i, j ), result.get( i, j ), 0.0f );
+		}
+	}
+
+	@Test
+	public void testCheckpointKey() throws IOException {
+		final File file = File.createTempFile( "similarity-matrix-checkpoint", ".bin" );
+		file.delete();
+		file.deleteOnExit();
+		final SimilarityMatrixCheckpoint checkpoint = new SimilarityMatrixCheckpoint( file, 0 );
+		checkpoint.restore( n, range, 1 );
+		checkpoint.save( createMatrix() );
+		Assert.assertFalse( new File( file.getAbsolutePath() + ".tmp" ).exists() );
+
+		// checkpoint of a different calculation is discarded
+		final SimilarityMatrixCheckpoint other = new SimilarityMatrixCheckpoint( file, 0 );
+		Assert.assertNull( other.restore( n, range, 2 ) );
+		Assert.assertEquals( 0, other.getNumberOfRowsDone() );
+		Assert.assertFalse( file.exists() );
+	}
+
+	@Test
+	public void testCreateCheckpointKey() {
+		final ArrayList< List< Feature > > featuresList = new ArrayList< List< Feature > >();
+		for ( int i = 0; i < 3; ++i ) {
+			final ArrayList< Feature > features = new ArrayList< Feature >();
+			features.add( new Feature( 1.0, 0.0, new double[] { i, 0.0 }, new float[] { i, 1.0f } ) );
+			featuresList.add( features );
+		}
+		final SiftPairwiseSimilarity.Param p = new SiftPairwiseSimilarity.Param();
+		p.range = range;
+		p.rod   = 0.92f;
+		final long key = SimilarityMatrixCheckpoint.createKey( p, new AffineModel2D(), 0, featuresList );
+
+		// parameters that do not change the result
+		p.nThreads = 4;
+		Assert.assertEquals( key, SimilarityMatrixCheckpoint.createKey( p, new AffineModel2D(), 0, featuresList ) );
+
+		p.rod = 0.9f;
+		Assert.assertTrue( key != SimilarityMatrixCheckpoint.createKey( p, new AffineModel2D(), 0, featuresList ) );
+		p.rod = 0.92f;
+		Assert.assertTrue( key != SimilarityMatrixCheckpoint.createKey( p, new RigidModel2D(), 0, featuresList ) );
+		featuresList.get( 1 ).get( 0 ).descriptor[ 0 ] = 2.0f;
+		Assert.assertTrue( key != SimilarityMatrixCheckpoint.createKey( p, new AffineModel2D(), 0, featuresList ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testCheckpointMismatch() throws IOException {
+		final File file = File.createTempFile( "similarity-matrix-checkpoint", ".bin" );
+		file.delete();
+		file.deleteOnExit();
+		final SimilarityMatrixCheckpoint checkpoint = new SimilarityMatrixCheckpoint( file, 0 );
+		checkpoint.restore( n, range, 1 );
+		checkpoint.save( createMatrix() );
+		new SimilarityMatrixCheckpoint( file, 0 ).restore( n + 1, range, 1 );
+	}
+
+}
@@ -0,0 +1,77 @@
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ij.process.FloatProcessor;
+
+public class CandidateSelectionTest {
+
+	@Test
+	public void testThumbnailSignature() {
+		final FloatProcessor ip = new FloatProcessor( 100, 80 );
+		for ( int y = 0; y < 80; ++y )
+			for ( int x = 0; x < 100; ++x )
+				ip.setf( x, y, x + 2 * y );
+		final float[] signature = CandidateSelection.thumbnailSignature( ip, 8 );
+		Assert.assertEquals( 64, signature.length );
+		Assert.assertEquals( 1.0f, CandidateSelection.correlation( signature, signature ), 1e-5f );
+		float sum = 0.0f;
+		for ( final float s : signature )
+			sum += s;
+		Assert.assertEquals( 0.0f, sum, 1e-5f );
+
+		final float[] constant = CandidateSelection.thumbnailSignature( new FloatProcessor( 100, 80 ), 8 );
+		Assert.assertEquals( 0.0f, CandidateSelection.correlation( signature, constant ), 0.0f );
+	}
+
+	@Test
+	public void testSelectCandidates() {
+		// sections of a smoothly changing series in shuffled order
+		final int n = 30;
+		final int size = 64;
+		final Random rng = new Random( 100 );
+		final int[] order = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			order[ i ] = i;
+		for ( int i = n - 1; i > 0; --i ) {
+			final int j = rng.nextInt( i + 1 );
+			final int tmp = order[ i ];
+			order[ i ] = order[ j ];
+			order[ j ] = tmp;
+		}
+		final ArrayList< float[] > signatures = new ArrayList< float[] >();
+		for ( int i = 0; i < n; ++i ) {
+			final FloatProcessor ip = new FloatProcessor( size, size );
+			final double phase = 0.1 * order[ i ];
+			for ( int y = 0; y < size; ++y )
+				for ( int x = 0; x < size; ++x )
+					ip.setf( x, y, (float)Math.sin( 0.2 * x + phase ) * (float)Math.cos( 0.1 * y - phase ) );
+			signatures.add( CandidateSelection.thumbnailSignature( ip, 16 ) );
+		}
+
+		for ( int i = 0; i < n; ++i ) {
+			final int[] candidates = CandidateSelection.selectCandidates( signatures, i, 2 );
+			Assert.assertEquals( 2, candidates.length );
+			// true neighbors in the series are most similar
+			for ( final int c : candidates )
+				Assert.assertTrue( Math.abs( order[ c ] - order[ i ] ) <= 2 );
+			if ( order[ i ] > 0 && order[ i ] < n - 1 ) {
+				Assert.assertEquals( 1, Math.abs( order[ candidates[ 0 ] ] - order[ i ] ) );
+				Assert.assertEquals( 1, Math.abs( order[ candidates[ 1 ] ] - order[ i ] ) );
+			}
+		}
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testNoCandidates() {
+		final ArrayList< float[] > signatures = new ArrayList< float[] >();
+		signatures.add( new float[] { 1.0f, -1.0f } );
+		signatures.add( new float[] { -1.0f, 1.0f } );
+		CandidateSelection.selectCandidates( signatures, 0, 0 );
+	}
+
+}
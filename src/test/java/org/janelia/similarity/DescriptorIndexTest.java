@@ -0,0 +1,146 @@
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.PointMatch;
+
+public class DescriptorIndexTest {
+
+	final int dimension = 32;
+
+	final double rod = 0.92;
+
+	private ArrayList< Feature > createFeatures( final int n, final Random rng ) {
+		final ArrayList< Feature > features = new ArrayList< Feature >();
+		for ( int i = 0; i < n; ++i ) {
+			final float[] descriptor = new float[ dimension ];
+			for ( int d = 0; d < dimension; ++d )
+				descriptor[ d ] = rng.nextFloat();
+			// some features share their location
+			features.add( new Feature( 1.0, 0.0, new double[] { i % 10 == 1 ? i - 1 : i, 0.0 }, descriptor ) );
+		}
+		return features;
+	}
+
+	private ArrayList< Feature > perturb( final List< Feature > features, final Random rng ) {
+		final ArrayList< Feature > result = new ArrayList< Feature >();
+		for ( final Feature f : features ) {
+			final float[] descriptor = f.descriptor.clone();
+			for ( int d = 0; d < dimension; ++d )
+				descriptor[ d ] += 0.05f * (float)rng.nextGaussian();
+			result.add( new Feature( 1.0, 0.0, new double[] { f.location[ 0 ] + 10, f.location[ 1 ] }, descriptor ) );
+		}
+		return result;
+	}
+
+	// reference: brute force ratio test and removal of ambiguous matches
+	private ArrayList< double[] > referenceMatches( final List< Feature > features1, final List< Feature > features2 ) {
+		final ArrayList< double[] > matches = new ArrayList< double[] >();
+		for ( final Feature f1 : features1 ) {
+			Feature best = null;
+			double bestDistance = Double.MAX_VALUE;
+			double secondDistance = Double.MAX_VALUE;
+			for ( final Feature f2 : features2 ) {
+				final double d = f1.descriptorDistance( f2 );
+				if ( d < bestDistance ) {
+					secondDistance = bestDistance;
+					bestDistance = d;
+					best = f2;
+				} else if ( d < secondDistance )
+					secondDistance = d;
+			}
+			if ( best != null && secondDistance < Double.MAX_VALUE && bestDistance / secondDistance < rod )
+				matches.add( new double[] { f1.location[ 0 ], best.location[ 0 ] } );
+		}
+		final ArrayList< double[] > result = new ArrayList< double[] >();
+		for ( final double[] m : matches ) {
+			int count = 0;
+			for ( final double[] other : matches )
+				if ( other[ 1 ] == m[ 1 ] )
+					++count;
+			if ( count == 1 )
+				result.add( m );
+		}
+		return result;
+	}
+
+	@Test
+	public void testExactMatching() {
+		final Random rng = new Random( 100 );
+		final ArrayList< Feature > features1 = createFeatures( 300, rng );
+		final ArrayList< Feature > features2 = perturb( features1, rng );
+		features2.addAll( createFeatures( 100, rng ) );
+
+		final ArrayList< PointMatch > matches = new ArrayList< PointMatch >();
+		DescriptorIndex.matchFeatures( new DescriptorIndex( features1 ), new DescriptorIndex( features2 ), matches, rod, 0 );
+		final ArrayList< double[] > reference = referenceMatches( features1, features2 );
+		Assert.assertEquals( reference.size(), matches.size() );
+		Assert.assertTrue( matches.size() > 0 );
+		for ( int i = 0; i < matches.size(); ++i ) {
+			Assert.assertEquals( reference.get( i )[ 0 ], matches.get( i ).getP1().getL()[ 0 ], 0.0 );
+			Assert.assertEquals( reference.get( i )[ 1 ], matches.get( i ).getP2().getL()[ 0 ], 0.0 );
+		}
+	}
+
+	@Test
+	public void testApproximateMatching() {
+		final Random rng = new Random( 100 );
+		final ArrayList< Feature > features1 = createFeatures( 1000, rng );
+		final ArrayList< Feature > features2 = perturb( features1, rng );
+
+		final ArrayList< PointMatch > exact = new ArrayList< PointMatch >();
+		DescriptorIndex.matchFeatures( new DescriptorIndex( features1 ), new DescriptorIndex( features2 ), exact, rod, 0 );
+
+		final ArrayList< PointMatch > approximate = new ArrayList< PointMatch >();
+		DescriptorIndex.matchFeatures( new DescriptorIndex( features1 ), new DescriptorIndex( features2, 4, 100 ), approximate, rod, 256 );
+
+		// all approximate matches are correct, and most of the exact matches are found
+		for ( final PointMatch m : approximate )
+			Assert.assertEquals( m.getP1().getL()[ 0 ] + 10, m.getP2().getL()[ 0 ], 0.0 );
+		Assert.assertTrue( exact.size() > 0 );
+		Assert.assertTrue( approximate.size() >= 0.9 * exact.size() );
+
+		// visiting all descriptors is exact
+		final ArrayList< PointMatch > all = new ArrayList< PointMatch >();
+		DescriptorIndex.matchFeatures( new DescriptorIndex( features1 ), new DescriptorIndex( features2, 4, 100 ), all, rod, Integer.MAX_VALUE );
+		Assert.assertEquals( exact.size(), all.size() );
+	}
+
+	@Test
+	public void testSquaredDistance() {
+		final Random rng = new Random( 100 );
+		// lengths that are not a multiple of the unrolled block
+		for ( final int length : new int[] { 1, 7, 13, 128 } ) {
+			final float[] a = new float[ length + 3 ];
+			final float[] b = new float[ length + 5 ];
+			for ( int d = 0; d < a.length; ++d )
+				a[ d ] = rng.nextFloat();
+			for ( int d = 0; d < b.length; ++d )
+				b[ d ] = rng.nextFloat();
+			double reference = 0.0;
+			for ( int d = 0; d < length; ++d )
+				reference += ( a[ 3 + d ] - b[ 5 + d ] ) * ( a[ 3 + d ] - b[ 5 + d ] );
+			Assert.assertEquals( reference, DescriptorIndex.squaredDistance( a, 3, b, 5, length ), 1e-5 );
+		}
+	}
+
+	@Test
+	public void testLocations() {
+		final ArrayList< Feature > features = createFeatures( 20, new Random( 100 ) );
+		final DescriptorIndex index = new DescriptorIndex( features );
+		for ( int i = 0; i < features.size(); ++i ) {
+			final double[] location = index.getLocation( i );
+			Assert.assertTrue( location != features.get( i ).location );
+			Assert.assertEquals( features.get( i ).location.length, location.length );
+			for ( int d = 0; d < location.length; ++d )
+				Assert.assertEquals( features.get( i ).location[ d ], location[ d ], 0.0 );
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+package org.janelia.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import mpicbg.imagefeatures.Feature;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FeatureCacheTest {
+
+	@Test
+	public void testWriteRead() throws IOException {
+		final Random rng                    = new Random( 100 );
+		final ArrayList< Feature > features = new ArrayList< Feature >();
+		for ( int i = 0; i < 50; ++i ) {
+			final float[] descriptor = new float[ 128 ];
+			for ( int d = 0; d < descriptor.length; ++d )
+				descriptor[ d ] = rng.nextFloat();
+			features.add( new Feature( rng.nextDouble(), rng.nextDouble(), new double[] { rng.nextDouble(), rng.nextDouble() }, descriptor ) );
+		}
+
+		final File file = File.createTempFile( "features", ".features" );
+		file.deleteOnExit();
+		FeatureCache.write( features, file );
+		final ArrayList< Feature > result = FeatureCache.read( file );
+
+		Assert.assertEquals( features.size(), result.size() );
+		for ( int i = 0; i < features.size(); ++i ) {
+			final Feature f = features.get( i );
+			final Feature r = result.get( i );
+			Assert.assertEquals( f.scale, r.scale, 0.0 );
+			Assert.assertEquals( f.orientation, r.orientation, 0.0 );
+			Assert.assertEquals( f.location[ 0 ], r.location[ 0 ], 0.0 );
+			Assert.assertEquals( f.location[ 1 ], r.location[ 1 ], 0.0 );
+			Assert.assertArrayEquals( f.descriptor, r.descriptor, 0.0f );
+		}
+	}
+
+	@Test
+	public void testWriteReadEmpty() throws IOException {
+		final File file = File.createTempFile( "features", ".features" );
+		file.deleteOnExit();
+		FeatureCache.write( new ArrayList< Feature >(), file );
+		Assert.assertEquals( 0, FeatureCache.read( file ).size() );
+	}
+
+}
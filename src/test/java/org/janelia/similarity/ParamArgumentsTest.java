@@ -0,0 +1,59 @@
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParamArgumentsTest {
+
+	@Test
+	public void testRoundTrip() {
+		final SiftPairwiseSimilarity.Param p = SiftPairwiseSimilarity.generateDefaultParameters();
+		p.range = 17;
+		p.rod = 0.5f;
+		p.featureCacheDirectory = "/tmp/features";
+		p.adaptiveRansac = false;
+		p.p.maxOctaveSize = 512;
+		final ArrayList< String > arguments = ParamArguments.toArguments( p );
+		Assert.assertTrue( arguments.contains( "range=17" ) );
+		Assert.assertTrue( arguments.contains( "sift.maxOctaveSize=512" ) );
+
+		final SiftPairwiseSimilarity.Param parsed = ParamArguments.parse( new SiftPairwiseSimilarity.Param(), arguments );
+		Assert.assertEquals( ParamArguments.toArguments( p ), ParamArguments.toArguments( parsed ) );
+		Assert.assertEquals( 17, parsed.range.intValue() );
+		Assert.assertEquals( 0.5f, parsed.rod.floatValue(), 0.0f );
+		Assert.assertEquals( "/tmp/features", parsed.featureCacheDirectory );
+		Assert.assertFalse( parsed.adaptiveRansac );
+		Assert.assertEquals( 512, parsed.p.maxOctaveSize );
+	}
+
+	@Test
+	public void testCopy() {
+		final SiftPairwiseSimilarity.Param p = SiftPairwiseSimilarity.generateDefaultParameters();
+		p.range = 17;
+		p.coarseScale = 0.25f;
+		p.featureCacheDirectory = "/tmp/features";
+		p.p.maxOctaveSize = 512;
+		final SiftPairwiseSimilarity.Param copy = p.copy();
+		Assert.assertEquals( ParamArguments.toArguments( p ), ParamArguments.toArguments( copy ) );
+		Assert.assertFalse( p.p == copy.p );
+
+		copy.range = 3;
+		copy.p.maxOctaveSize = 64;
+		Assert.assertEquals( 17, p.range.intValue() );
+		Assert.assertEquals( 512, p.p.maxOctaveSize );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnknownParameter() {
+		ParamArguments.parse( SiftPairwiseSimilarity.generateDefaultParameters(), Arrays.asList( "ranges=3" ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testMalformedValue() {
+		ParamArguments.parse( SiftPairwiseSimilarity.generateDefaultParameters(), Arrays.asList( "range=many" ) );
+	}
+
+}
@@ -0,0 +1,193 @@
+package org.janelia.similarity;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PrefetchingSectionSourceTest {
+
+	private static class CountingSource implements SectionSourceInterface {
+
+		private final int n;
+
+		private final AtomicInteger reads = new AtomicInteger();
+
+		private final AtomicInteger maxSection = new AtomicInteger( -1 );
+
+		private final AtomicIntegerArray sectionReads;
+
+		// number of concurrent reads, the source is not thread-safe
+		private final AtomicInteger activeReads = new AtomicInteger();
+
+		private final AtomicInteger maxActiveReads = new AtomicInteger();
+
+		private final int broken;
+
+		public CountingSource( final int n ) {
+			this( n, 13 );
+		}
+
+		public CountingSource( final int n, final int broken ) {
+			this.n = n;
+			this.broken = broken;
+			this.sectionReads = new AtomicIntegerArray( n );
+		}
+
+		@Override
+		public int getNumberOfSections() {
+			return n;
+		}
+
+		@Override
+		public ImageProcessor getSection( final int k ) throws IOException {
+			if ( k == broken )
+				throw new IOException( "Section " + k + " is broken." );
+			final int active = activeReads.incrementAndGet();
+			synchronized ( maxActiveReads ) {
+				maxActiveReads.set( Math.max( maxActiveReads.get(), active ) );
+			}
+			reads.incrementAndGet();
+			sectionReads.incrementAndGet( k );
+			synchronized ( maxSection ) {
+				maxSection.set( Math.max( maxSection.get(), k ) );
+			}
+			final FloatProcessor ip = new FloatProcessor( 1, 1 );
+			ip.setf( 0, k );
+			activeReads.decrementAndGet();
+			return ip;
+		}
+
+	}
+
+	@Test
+	public void testInOrder() throws IOException {
+		final CountingSource source = new CountingSource( 10 );
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( source, 3 );
+		try {
+			for ( int k = 2; k < 10; ++k ) {
+				Assert.assertEquals( k, prefetching.getSection( k ).getf( 0 ), 0.0f );
+				// never more than depth sections ahead
+				Assert.assertTrue( source.maxSection.get() <= k + 3 );
+			}
+		} finally {
+			prefetching.close();
+		}
+		// sections before the first request are not read, every other section is read once
+		Assert.assertEquals( 8, source.reads.get() );
+	}
+
+	@Test
+	public void testOutOfOrder() throws IOException {
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( new CountingSource( 10 ), 2 );
+		try {
+			for ( final int k : new int[] { 5, 1, 6, 0, 9, 7 } )
+				Assert.assertEquals( k, prefetching.getSection( k ).getf( 0 ), 0.0f );
+		} finally {
+			prefetching.close();
+		}
+	}
+
+	@Test
+	public void testSelection() throws IOException {
+		final CountingSource source = new CountingSource( 30 );
+		final boolean[] isRequested = new boolean[ 30 ];
+		for ( final int k : new int[] { 1, 2, 7, 11, 12, 20, 28 } )
+			isRequested[ k ] = true;
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( source, 3, isRequested );
+		try {
+			for ( int k = 0; k < 30; ++k )
+				if ( isRequested[ k ] )
+					Assert.assertEquals( k, prefetching.getSection( k ).getf( 0 ), 0.0f );
+		} finally {
+			prefetching.close();
+		}
+		// sections that are not requested are never read, all others once
+		for ( int k = 0; k < 30; ++k )
+			Assert.assertEquals( isRequested[ k ] ? 1 : 0, source.sectionReads.get( k ) );
+	}
+
+	@Test
+	public void testRange() throws IOException {
+		final CountingSource source = new CountingSource( 10 );
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( source, 3, PrefetchingSectionSource.createRange( 10, 2, 6 ) );
+		try {
+			for ( int k = 2; k < 6; ++k )
+				Assert.assertEquals( k, prefetching.getSection( k ).getf( 0 ), 0.0f );
+		} finally {
+			prefetching.close();
+		}
+		// nothing after the range is read ahead
+		Assert.assertEquals( 5, source.maxSection.get() );
+		Assert.assertEquals( 4, source.reads.get() );
+	}
+
+	@Test
+	public void testSkipped() throws IOException {
+		final CountingSource source = new CountingSource( 10 );
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( source, 3 );
+		try {
+			// 1, 2, 3 are queued and stay queued when 5 is requested
+			for ( final int k : new int[] { 0, 5, 2, 6 } )
+				Assert.assertEquals( k, prefetching.getSection( k ).getf( 0 ), 0.0f );
+		} finally {
+			prefetching.close();
+		}
+		Assert.assertEquals( 1, source.sectionReads.get( 2 ) );
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final int n = 200;
+		final CountingSource source = new CountingSource( n, -1 );
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( source, 4 );
+		// workers take the next section like tasks of a thread pool, requests arrive slightly out of order
+		final AtomicInteger next = new AtomicInteger();
+		final ArrayList< Callable< Void > > tasks = new ArrayList< Callable< Void > >();
+		for ( int t = 0; t < 4; ++t ) {
+			tasks.add( new Callable< Void >() {
+				@Override
+				public Void call() throws IOException {
+					for ( int k = next.getAndIncrement(); k < n; k = next.getAndIncrement() )
+						Assert.assertEquals( k, prefetching.getSection( k ).getf( 0 ), 0.0f );
+					return null;
+				}
+			} );
+		}
+		final ExecutorService es = Executors.newFixedThreadPool( 4 );
+		try {
+			for ( final Future< Void > future : es.invokeAll( tasks ) )
+				future.get();
+		} finally {
+			es.shutdown();
+			prefetching.close();
+		}
+		// prefetched sections are never dropped and read again
+		for ( int k = 0; k < n; ++k )
+			Assert.assertEquals( 1, source.sectionReads.get( k ) );
+		// all reads go through the reader thread, even those of sections that were not read ahead
+		Assert.assertEquals( 1, source.maxActiveReads.get() );
+	}
+
+	@Test( expected = IOException.class )
+	public void testFailure() throws IOException {
+		final PrefetchingSectionSource prefetching = new PrefetchingSectionSource( new CountingSource( 20 ), 4 );
+		try {
+			for ( int k = 10; k < 20; ++k )
+				prefetching.getSection( k );
+		} finally {
+			prefetching.close();
+		}
+	}
+
+}
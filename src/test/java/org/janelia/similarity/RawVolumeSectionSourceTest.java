@@ -0,0 +1,122 @@
+package org.janelia.similarity;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RawVolumeSectionSourceTest {
+
+	private static final int WIDTH = 5;
+
+	private static final int HEIGHT = 3;
+
+	private static final int N = 4;
+
+	private static final int HEADER_SIZE = 7;
+
+	private static float value( final int k, final int i ) {
+		return 100 * k + i;
+	}
+
+	private static File write( final int bytesPerPixel, final ByteOrder byteOrder ) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate( HEADER_SIZE + N * WIDTH * HEIGHT * bytesPerPixel ).order( byteOrder );
+		buffer.position( HEADER_SIZE );
+		for ( int k = 0; k < N; ++k ) {
+			for ( int i = 0; i < WIDTH * HEIGHT; ++i ) {
+				if ( bytesPerPixel == 1 )
+					buffer.put( ( byte ) ( value( k, i ) % 256 ) );
+				else if ( bytesPerPixel == 2 )
+					buffer.putShort( ( short ) value( k, i ) );
+				else
+					buffer.putFloat( value( k, i ) );
+			}
+		}
+		final File file = File.createTempFile( "volume", ".raw" );
+		file.deleteOnExit();
+		Files.write( file.toPath(), buffer.array() );
+		return file;
+	}
+
+	private static File writeMetaImage( final File data, final int depth, final String elementType, final boolean littleEndian ) throws IOException {
+		final File header = new File( data.getParentFile(), data.getName() + ".mhd" );
+		header.deleteOnExit();
+		final FileWriter writer = new FileWriter( header );
+		try {
+			writer.write( "ObjectType = Image\n" );
+			writer.write( "NDims = 3\n" );
+			writer.write( String.format( "DimSize = %d %d %d\n", WIDTH, HEIGHT, depth ) );
+			writer.write( "ElementType = " + elementType + "\n" );
+			writer.write( "BinaryDataByteOrderMSB = " + ( littleEndian ? "False" : "True" ) + "\n" );
+			writer.write( "HeaderSize = " + HEADER_SIZE + "\n" );
+			writer.write( "ElementDataFile = " + data.getName() + "\n" );
+		} finally {
+			writer.close();
+		}
+		return header;
+	}
+
+	private static void test( final int bytesPerPixel, final boolean littleEndian ) throws IOException {
+		final File file = write( bytesPerPixel, littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+		test( new RawVolumeSectionSource( file, WIDTH, HEIGHT, bytesPerPixel, littleEndian, HEADER_SIZE ), bytesPerPixel );
+	}
+
+	private static void test( final RawVolumeSectionSource source, final int bytesPerPixel ) throws IOException {
+		try {
+			Assert.assertEquals( N, source.getNumberOfSections() );
+			// read out of order
+			for ( final int k : new int[] { 2, 0, 3, 1 } ) {
+				final float[] pixels = ( float[] ) source.getSection( k ).getPixels();
+				Assert.assertEquals( WIDTH * HEIGHT, pixels.length );
+				for ( int i = 0; i < pixels.length; ++i )
+					Assert.assertEquals( bytesPerPixel == 1 ? value( k, i ) % 256 : value( k, i ), pixels[ i ], 0.0f );
+			}
+		} finally {
+			source.close();
+		}
+	}
+
+	@Test
+	public void testUnsignedByte() throws IOException {
+		test( 1, false );
+	}
+
+	@Test
+	public void testUnsignedShort() throws IOException {
+		test( 2, true );
+		test( 2, false );
+	}
+
+	@Test
+	public void testFloat() throws IOException {
+		test( 4, true );
+		test( 4, false );
+	}
+
+	@Test
+	public void testMetaImage() throws IOException {
+		final String[] elementTypes = new String[] { "MET_UCHAR", "MET_USHORT", "MET_FLOAT" };
+		final int[] bytesPerPixel   = new int[] { 1, 2, 4 };
+		for ( int t = 0; t < elementTypes.length; ++t ) {
+			for ( final boolean littleEndian : new boolean[] { true, false } ) {
+				final File data = write( bytesPerPixel[ t ], littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN );
+				final SectionSourceInterface source = SectionSources.open( writeMetaImage( data, N, elementTypes[ t ], littleEndian ) );
+				Assert.assertTrue( source instanceof RawVolumeSectionSource );
+				test( ( RawVolumeSectionSource ) source, bytesPerPixel[ t ] );
+			}
+		}
+	}
+
+	@Test( expected = EOFException.class )
+	public void testMetaImageTruncated() throws IOException {
+		final File data = write( 2, ByteOrder.LITTLE_ENDIAN );
+		RawVolumeSectionSource.openMetaImage( writeMetaImage( data, N + 1, "MET_USHORT", true ) );
+	}
+
+}
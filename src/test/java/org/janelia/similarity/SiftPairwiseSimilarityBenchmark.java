@@ -0,0 +1,141 @@
+package org.janelia.similarity;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import mpicbg.imagefeatures.Feature;
+import mpicbg.models.AffineModel2D;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for feature extraction and matching in {@link SiftPairwiseSimilarity} on synthetic
+ * sections: random Gaussian blobs that drift slowly from section to section. Run e.g.
+ *
+ * mvn -P benchmark verify -Dbenchmark.args="SiftPairwiseSimilarityBenchmark"
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 2 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class SiftPairwiseSimilarityBenchmark {
+
+	@Param( { "256", "512" } )
+	public int size;
+
+	@Param( { "1", "4" } )
+	public int nThreads;
+
+	@Param( { "0", "4" } )
+	public int numberOfTrees;
+
+	final int numberOfSections = 8;
+
+	final int numberOfBlobs = 200;
+
+	private ImagePlus imp;
+
+	private SiftPairwiseSimilarity sps;
+
+	private SiftPairwiseSimilarity spsWithBarrier;
+
+	private ArrayList< List< Feature > > featuresList;
+
+	private DescriptorIndex index1;
+
+	private DescriptorIndex index2;
+
+	@Setup
+	public void setup() {
+		final Random rng = new Random( 100 );
+		final double[] x     = new double[ numberOfBlobs ];
+		final double[] y     = new double[ numberOfBlobs ];
+		final double[] sigma = new double[ numberOfBlobs ];
+		for ( int b = 0; b < numberOfBlobs; ++b ) {
+			x[ b ]     = rng.nextDouble() * size;
+			y[ b ]     = rng.nextDouble() * size;
+			sigma[ b ] = 2.0 + 6.0 * rng.nextDouble();
+		}
+		final ImageStack stack = new ImageStack( size, size );
+		for ( int z = 0; z < numberOfSections; ++z ) {
+			final FloatProcessor ip = new FloatProcessor( size, size );
+			for ( int b = 0; b < numberOfBlobs; ++b ) {
+				x[ b ] += rng.nextGaussian();
+				y[ b ] += rng.nextGaussian();
+				final int radius = (int)( 3 * sigma[ b ] );
+				for ( int yy = Math.max( 0, (int)y[ b ] - radius ); yy < Math.min( size, (int)y[ b ] + radius ); ++yy ) {
+					for ( int xx = Math.max( 0, (int)x[ b ] - radius ); xx < Math.min( size, (int)x[ b ] + radius ); ++xx ) {
+						final double dx = xx - x[ b ];
+						final double dy = yy - y[ b ];
+						ip.setf( xx, yy, ip.getf( xx, yy ) + (float)Math.exp( -( dx * dx + dy * dy ) / ( 2 * sigma[ b ] * sigma[ b ] ) ) );
+					}
+				}
+			}
+			stack.addSlice( ip );
+		}
+		imp = new ImagePlus( "synthetic sections", stack );
+
+		final SiftPairwiseSimilarity.Param p = SiftPairwiseSimilarity.generateDefaultParameters();
+		p.p.maxOctaveSize = size;
+		p.p.minOctaveSize = size / 4;
+		p.nThreads        = nThreads;
+		p.showProgress    = false;
+		p.range           = numberOfSections;
+		p.numberOfTrees   = numberOfTrees;
+		sps = new SiftPairwiseSimilarity( p );
+		final SiftPairwiseSimilarity.Param pWithBarrier = ParamArguments.parse( SiftPairwiseSimilarity.generateDefaultParameters(), ParamArguments.toArguments( p ) );
+		pWithBarrier.pipelined = false;
+		spsWithBarrier = new SiftPairwiseSimilarity( pWithBarrier );
+		featuresList = sps.extractFeatures( imp );
+		index1 = sps.createDescriptorIndex( featuresList.get( 0 ) );
+		index2 = sps.createDescriptorIndex( featuresList.get( 1 ) );
+	}
+
+	@Benchmark
+	public ArrayList< List< Feature > > extractFeatures() {
+		return sps.extractFeatures( imp );
+	}
+
+	@Benchmark
+	public double match() {
+		return sps.match( new AffineModel2D(), featuresList.get( 0 ), featuresList.get( 1 ) );
+	}
+
+	@Benchmark
+	public double matchIndexed() {
+		return sps.match( new AffineModel2D(), index1, index2 );
+	}
+
+	@Benchmark
+	public BandedSimilarityMatrix matchFeaturesAndCalculateBandedSimilarities() {
+		return sps.matchFeaturesAndCalculateBandedSimilarities( featuresList, new AffineModel2D() );
+	}
+
+	@Benchmark
+	public BandedSimilarityMatrix calculateBandedSimilarityMatrix() {
+		return sps.calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+	}
+
+	@Benchmark
+	public BandedSimilarityMatrix calculateBandedSimilarityMatrixWithBarrier() {
+		return spsWithBarrier.calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+	}
+
+}
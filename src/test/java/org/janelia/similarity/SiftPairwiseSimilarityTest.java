@@ -0,0 +1,320 @@
+package org.janelia.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import mpicbg.models.AffineModel2D;
+
+public class SiftPairwiseSimilarityTest {
+
+	final int size = 128;
+
+	final int numberOfSections = 10;
+
+	final int numberOfBlobs = 60;
+
+	// random Gaussian blobs that drift slowly from section to section
+	private ImagePlus createStack() {
+		return createStack( numberOfSections );
+	}
+
+	private ImagePlus createStack( final int numberOfSections ) {
+		final Random rng = new Random( 100 );
+		final double[] x     = new double[ numberOfBlobs ];
+		final double[] y     = new double[ numberOfBlobs ];
+		final double[] sigma = new double[ numberOfBlobs ];
+		for ( int b = 0; b < numberOfBlobs; ++b ) {
+			x[ b ]     = rng.nextDouble() * size;
+			y[ b ]     = rng.nextDouble() * size;
+			sigma[ b ] = 2.0 + 4.0 * rng.nextDouble();
+		}
+		final ImageStack stack = new ImageStack( size, size );
+		for ( int z = 0; z < numberOfSections; ++z ) {
+			final FloatProcessor ip = new FloatProcessor( size, size );
+			for ( int b = 0; b < numberOfBlobs; ++b ) {
+				x[ b ] += rng.nextGaussian();
+				y[ b ] += rng.nextGaussian();
+				final int radius = (int)( 3 * sigma[ b ] );
+				for ( int yy = Math.max( 0, (int)y[ b ] - radius ); yy < Math.min( size, (int)y[ b ] + radius ); ++yy ) {
+					for ( int xx = Math.max( 0, (int)x[ b ] - radius ); xx < Math.min( size, (int)x[ b ] + radius ); ++xx ) {
+						final double dx = xx - x[ b ];
+						final double dy = yy - y[ b ];
+						ip.setf( xx, yy, ip.getf( xx, yy ) + (float)Math.exp( -( dx * dx + dy * dy ) / ( 2 * sigma[ b ] * sigma[ b ] ) ) );
+					}
+				}
+			}
+			stack.addSlice( ip );
+		}
+		return new ImagePlus( "synthetic sections", stack );
+	}
+
+	private SiftPairwiseSimilarity.Param createParameters( final boolean pipelined ) {
+		final SiftPairwiseSimilarity.Param p = SiftPairwiseSimilarity.generateDefaultParameters();
+		p.p.maxOctaveSize = size;
+		p.p.minOctaveSize = size / 4;
+		p.nThreads        = 3;
+		p.showProgress    = false;
+		p.range           = 4;
+		p.pipelined       = pipelined;
+		return p;
+	}
+
+	private static void assertEquals( final SimilarityMatrixInterface expected, final SimilarityMatrixInterface actual ) {
+		final int n = expected.getNumberOfSections();
+		Assert.assertEquals( n, actual.getNumberOfSections() );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = 0; j < n; ++j )
+				Assert.assertEquals( expected.get( i, j ), actual.get( i, j ), 0.0f );
+	}
+
+	@Test
+	public void testPipelined() {
+		final ImagePlus imp = createStack();
+		final BandedSimilarityMatrix reference = new SiftPairwiseSimilarity( createParameters( false ) ).calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+		final SiftPairwiseSimilarity sps = new SiftPairwiseSimilarity( createParameters( true ) );
+		assertEquals( reference, sps.calculateBandedSimilarityMatrix( imp, new AffineModel2D() ) );
+
+		final ArrayList< SimilarityShard > shards = SimilarityShard.createShards( numberOfSections, 4, 3 );
+		final ArrayList< BandedSimilarityMatrix > matrices = new ArrayList< BandedSimilarityMatrix >();
+		for ( final SimilarityShard shard : shards )
+			matrices.add( sps.calculateBandedSimilarityShard( imp, new AffineModel2D(), shard ) );
+		assertEquals( reference, SimilarityShard.merge( shards, matrices ) );
+	}
+
+	@Test
+	public void testFailingListener() {
+		final int[] calls = new int[ 2 ];
+		final ProgressListenerInterface failing = new ProgressListenerInterface() {
+			@Override
+			public void progressChanged( final SimilarityProgress progress ) {
+				++calls[ 0 ];
+				throw new IllegalStateException( "listener failed" );
+			}
+		};
+		final ProgressListenerInterface counting = new ProgressListenerInterface() {
+			@Override
+			public void progressChanged( final SimilarityProgress progress ) {
+				++calls[ 1 ];
+			}
+		};
+		final ProgressTracker tracker = new ProgressTracker( 1, 1, Arrays.asList( failing, counting ), 1 );
+		try {
+			Thread.sleep( 20 );
+		} catch ( final InterruptedException e ) {
+			Thread.currentThread().interrupt();
+		}
+		// close reports from the calling thread, failures must not propagate
+		tracker.close();
+		Assert.assertTrue( calls[ 0 ] > 1 );
+		Assert.assertEquals( calls[ 0 ], calls[ 1 ] );
+	}
+
+	@Test
+	public void testProgress() {
+		final ImagePlus imp = createStack();
+		final ArrayList< SimilarityProgress > reports = new ArrayList< SimilarityProgress >();
+		final ProgressListenerInterface listener = new ProgressListenerInterface() {
+			@Override
+			public void progressChanged( final SimilarityProgress progress ) {
+				synchronized ( reports ) {
+					reports.add( progress );
+				}
+			}
+		};
+		final SiftPairwiseSimilarity.Param p = createParameters( true );
+		p.progressInterval = 1;
+		new SiftPairwiseSimilarity( p, null, listener ).calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+		// exactly one final report, after all periodic reports
+		final SimilarityProgress last = reports.get( reports.size() - 1 );
+		Assert.assertTrue( last.isDone() );
+		for ( int r = 0; r < reports.size() - 1; ++r )
+			Assert.assertFalse( reports.get( r ).isDone() );
+		Assert.assertEquals( numberOfSections, last.getNumberOfSections() );
+		Assert.assertEquals( numberOfSections, last.getSectionsExtracted() );
+		// range 4: 3 pairs per row except for the last 3 rows
+		Assert.assertEquals( 3 * numberOfSections - 6, last.getNumberOfPairs() );
+		Assert.assertEquals( last.getNumberOfPairs(), last.getPairsMatched() );
+		Assert.assertEquals( 1.0, last.getFractionDone(), 0.0 );
+	}
+
+	@Test
+	public void testSlidingWindow() {
+		// range 9 gives tiles of 32 / 8 = 4 rows, i.e. 8 tiles and a minimum window of 4 + 8 = 12 sections
+		final int n = 30;
+		final ImagePlus imp = createStack( n );
+		final SiftPairwiseSimilarity.Param referenceParameters = createParameters( false );
+		referenceParameters.range = 9;
+		final BandedSimilarityMatrix reference = new SiftPairwiseSimilarity( referenceParameters ).calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+		// 1 is below the minimum window and will be raised to 12, 0 is the default window of 12 + 2 * nThreads
+		final int[] maxSectionsInMemory = new int[] { 1, 16, 0 };
+		final int[] expectedWindow      = new int[] { 12, 16, 18 };
+		for ( int w = 0; w < maxSectionsInMemory.length; ++w ) {
+			final int[] peak = new int[ 1 ];
+			final ProgressListenerInterface listener = new ProgressListenerInterface() {
+				@Override
+				public void progressChanged( final SimilarityProgress progress ) {
+					peak[ 0 ] = Math.max( peak[ 0 ], progress.getPeakSectionsInMemory() );
+				}
+			};
+			final SiftPairwiseSimilarity.Param p = createParameters( true );
+			p.range               = 9;
+			p.maxSectionsInMemory = maxSectionsInMemory[ w ];
+			assertEquals( reference, new SiftPairwiseSimilarity( p, null, listener ).calculateBandedSimilarityMatrix( imp, new AffineModel2D() ) );
+			Assert.assertTrue( peak[ 0 ] > 0 );
+			Assert.assertTrue( peak[ 0 ] <= expectedWindow[ w ] );
+			Assert.assertTrue( peak[ 0 ] < n );
+		}
+	}
+
+	@Test
+	public void testSelectPairsForRefinement() {
+		final SiftPairwiseSimilarity.Param p = createParameters( true );
+		p.refineThreshold = 0.5f;
+		p.refineNeighbors = 1;
+		final BandedSimilarityMatrix coarse = new BandedSimilarityMatrix( 6, p.range );
+		coarse.set( 0, 1, 0.1f );
+		coarse.set( 0, 2, 0.7f );
+		coarse.set( 0, 3, 0.6f );
+		// ambiguous row: nothing passes the threshold, best pair is kept
+		coarse.set( 1, 2, 0.2f );
+		coarse.set( 1, 3, 0.3f );
+		coarse.set( 1, 4, 0.1f );
+		// row 2 has NaN only
+		final int[][] selection = new SiftPairwiseSimilarity( p ).selectPairsForRefinement( coarse, 0, 5 );
+		Assert.assertArrayEquals( new int[] { 2, 3 }, selection[ 0 ] );
+		Assert.assertArrayEquals( new int[] { 3 }, selection[ 1 ] );
+		Assert.assertArrayEquals( new int[ 0 ], selection[ 2 ] );
+		// outside of rows
+		Assert.assertArrayEquals( new int[ 0 ], selection[ 5 ] );
+	}
+
+	@Test
+	public void testCoarseToFine() {
+		final ImagePlus imp = createStack();
+		final BandedSimilarityMatrix reference = new SiftPairwiseSimilarity( createParameters( true ) ).calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+		final SiftPairwiseSimilarity.Param p = createParameters( true );
+		p.coarseScale = 0.5f;
+		// every pair is refined, result is the same as a single pass at full resolution
+		p.refineThreshold = 0.0f;
+		assertEquals( reference, new SiftPairwiseSimilarity( p ).calculateBandedSimilarityMatrix( imp, new AffineModel2D() ) );
+
+		// selected pairs have full resolution similarities, all other pairs are NaN
+		p.refineThreshold = 2.0f;
+		p.refineNeighbors = 1;
+		final SiftPairwiseSimilarity sps = new SiftPairwiseSimilarity( p );
+		final BandedSimilarityMatrix matrix = sps.calculateBandedSimilarityMatrix( imp, new AffineModel2D() );
+		for ( int i = 0; i < numberOfSections - 1; ++i ) {
+			int refined = 0;
+			for ( int k = i + 1; k < Math.min( numberOfSections, i + p.range ); ++k ) {
+				final float v = matrix.get( i, k );
+				if ( v == reference.get( i, k ) )
+					++refined;
+				else
+					Assert.assertTrue( Float.isNaN( v ) );
+			}
+			Assert.assertEquals( 1, refined );
+		}
+
+		final ArrayList< SimilarityShard > shards = SimilarityShard.createShards( numberOfSections, 4, 3 );
+		final ArrayList< BandedSimilarityMatrix > matrices = new ArrayList< BandedSimilarityMatrix >();
+		for ( final SimilarityShard shard : shards )
+			matrices.add( sps.calculateBandedSimilarityShard( imp, new AffineModel2D(), shard ) );
+		assertEquals( matrix, SimilarityShard.merge( shards, matrices ) );
+	}
+
+	@Test
+	public void testCoarseToFineReadsSelectedSections() {
+		final ImagePlus imp = createStack();
+		final AtomicIntegerArray reads = new AtomicIntegerArray( numberOfSections );
+		final SectionSourceInterface source = new SectionSourceInterface() {
+			@Override
+			public int getNumberOfSections() {
+				return numberOfSections;
+			}
+			@Override
+			public ImageProcessor getSection( final int k ) {
+				reads.incrementAndGet( k );
+				return imp.getStack().getProcessor( k + 1 );
+			}
+		};
+		final SiftPairwiseSimilarity.Param p = createParameters( true );
+		// one worker requests sections in order, i.e. the prefetcher never reads a section twice
+		p.nThreads        = 1;
+		p.prefetch        = 4;
+		p.coarseScale     = 0.5f;
+		p.refineThreshold = 2.0f;
+		p.refineNeighbors = 1;
+		final SimilarityShard shard = new SimilarityShard( 0, 3 );
+		final BandedSimilarityMatrix matrix = new SiftPairwiseSimilarity( p ).calculateBandedSimilarityShard( source, new AffineModel2D(), shard );
+		// refined pairs are never NaN
+		final boolean[] isSelected = new boolean[ numberOfSections ];
+		for ( int i = shard.getFirstRow(); i < shard.getStopRow(); ++i )
+			for ( int k = i + 1; k < Math.min( numberOfSections, i + p.range ); ++k )
+				if ( !Float.isNaN( matrix.get( i, k ) ) ) {
+					isSelected[ i ] = true;
+					isSelected[ k ] = true;
+				}
+		// coarse pass reads the sections of the shard once, refinement reads selected sections only
+		final int stopSection = shard.getStopSection( numberOfSections, p.range );
+		for ( int k = 0; k < numberOfSections; ++k )
+			Assert.assertEquals( k < stopSection ? ( isSelected[ k ] ? 2 : 1 ) : 0, reads.get( k ) );
+	}
+
+	@Test
+	public void testCandidateSimilarityMatrixFromSource() {
+		final ImagePlus imp = createStack();
+		final AtomicIntegerArray reads = new AtomicIntegerArray( numberOfSections );
+		final SectionSourceInterface source = new SectionSourceInterface() {
+			@Override
+			public int getNumberOfSections() {
+				return numberOfSections;
+			}
+			@Override
+			public ImageProcessor getSection( final int k ) {
+				reads.incrementAndGet( k );
+				return imp.getStack().getProcessor( k + 1 );
+			}
+		};
+		final SiftPairwiseSimilarity.Param p = createParameters( false );
+		p.nThreads           = 1;
+		p.prefetch           = 4;
+		p.numberOfCandidates = 3;
+		final SiftPairwiseSimilarity sps = new SiftPairwiseSimilarity( p );
+		final SparseSimilarityMatrix reference = sps.matchFeaturesAndCalculateCandidateSimilarities(
+				sps.extractFeatures( imp ),
+				new AffineModel2D(),
+				sps.selectCandidates( sps.calculateSignatures( imp ) ) );
+		final SparseSimilarityMatrix matrix = sps.calculateCandidateSimilarityMatrix( source, new AffineModel2D() );
+		assertEquals( reference, matrix );
+		for ( int i = 0; i < numberOfSections; ++i )
+			Assert.assertArrayEquals( reference.getUpperNeighbors( i ), matrix.getUpperNeighbors( i ) );
+		// signatures and features are calculated from the same read
+		for ( int k = 0; k < numberOfSections; ++k )
+			Assert.assertEquals( 1, reads.get( k ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testCoarseToFineCheckpoint() throws IOException {
+		final SiftPairwiseSimilarity.Param p = createParameters( true );
+		p.coarseScale = 0.5f;
+		final File file = File.createTempFile( "similarity-matrix-checkpoint", ".bin" );
+		file.delete();
+		file.deleteOnExit();
+		new SiftPairwiseSimilarity( p ).calculateBandedSimilarityMatrix(
+				createStack(),
+				new AffineModel2D(),
+				new SimilarityMatrixCheckpoint( file, Long.MAX_VALUE ) );
+	}
+
+}
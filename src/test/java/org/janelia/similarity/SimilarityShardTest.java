@@ -0,0 +1,134 @@
+package org.janelia.similarity;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import mpicbg.models.AffineModel2D;
+import mpicbg.models.TranslationModel2D;
+
+public class SimilarityShardTest {
+
+	final int n = 103;
+
+	final int range = 10;
+
+	private BandedSimilarityMatrix createMatrix() {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, range );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = i; j < n && j < i + range; ++j )
+				matrix.set( i, j, i * 1000 + j );
+		return matrix;
+	}
+
+	// matrix that holds the rows of shard only, like SiftPairwiseSimilarity.calculateBandedSimilarityShard
+	private BandedSimilarityMatrix createShardMatrix( final BandedSimilarityMatrix full, final SimilarityShard shard ) {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, range );
+		for ( int i = shard.getFirstRow(); i < shard.getStopRow(); ++i )
+			for ( int j = i; j < n && j < i + range; ++j )
+				matrix.set( i, j, full.get( i, j ) );
+		return matrix;
+	}
+
+	@Test
+	public void testCreateShards() {
+		final ArrayList< SimilarityShard > shards = SimilarityShard.createShards( n, range, 4 );
+		Assert.assertEquals( 4, shards.size() );
+		Assert.assertEquals( 0, shards.get( 0 ).getFirstRow() );
+		Assert.assertEquals( n, shards.get( 3 ).getStopRow() );
+		for ( int s = 1; s < shards.size(); ++s )
+			Assert.assertEquals( shards.get( s - 1 ).getStopRow(), shards.get( s ).getFirstRow() );
+		// last shard has fewer pairs per row, so it holds more rows
+		final SimilarityShard last = shards.get( 3 );
+		Assert.assertTrue( last.getStopRow() - last.getFirstRow() > shards.get( 0 ).getStopRow() );
+		Assert.assertEquals( Math.min( n, shards.get( 0 ).getStopRow() + range - 1 ), shards.get( 0 ).getStopSection( n, range ) );
+		Assert.assertEquals( n, last.getStopSection( n, range ) );
+
+		final ArrayList< SimilarityShard > single = SimilarityShard.createShards( 3, range, 5 );
+		Assert.assertEquals( 3, single.size() );
+		for ( int s = 0; s < single.size(); ++s ) {
+			Assert.assertEquals( s, single.get( s ).getFirstRow() );
+			Assert.assertEquals( s + 1, single.get( s ).getStopRow() );
+		}
+	}
+
+	@Test
+	public void testMerge() throws IOException {
+		final BandedSimilarityMatrix full = createMatrix();
+		final int numberOfShards = 5;
+		final ArrayList< SimilarityShard > shards = SimilarityShard.createShards( n, range, numberOfShards );
+		final ArrayList< BandedSimilarityMatrix > matrices = new ArrayList< BandedSimilarityMatrix >();
+		final File directory = Files.createTempDirectory( "similarity-shards" ).toFile();
+		directory.deleteOnExit();
+		final long key = 42;
+		for ( int s = 0; s < shards.size(); ++s ) {
+			final BandedSimilarityMatrix matrix = createShardMatrix( full, shards.get( s ) );
+			matrices.add( matrix );
+			final File file = SimilarityShardRunner.getShardFile( directory, s, numberOfShards );
+			file.deleteOnExit();
+			SimilarityShardRunner.writeShard( matrix, key, file );
+			Assert.assertEquals( key, SimilarityShardRunner.readKey( file ) );
+		}
+
+		final BandedSimilarityMatrix merged      = SimilarityShard.merge( shards, matrices );
+		final BandedSimilarityMatrix mergedFiles = SimilarityShardRunner.merge( directory, numberOfShards, key );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = 0; j < n; ++j ) {
+				Assert.assertEquals( full.get( i, j ), merged.get( i, j ), 0.0f );
+				Assert.assertEquals( full.get( i, j ), mergedFiles.get( i, j ), 0.0f );
+			}
+
+		// shard written by a different calculation
+		SimilarityShardRunner.writeShard( matrices.get( 2 ), key + 1, SimilarityShardRunner.getShardFile( directory, 2, numberOfShards ) );
+		try {
+			SimilarityShardRunner.merge( directory, numberOfShards, key );
+			Assert.fail( "Expected IOException" );
+		} catch ( final IOException e ) {
+			// expected
+		}
+
+		SimilarityShardRunner.delete( directory, numberOfShards );
+		Assert.assertFalse( directory.exists() );
+	}
+
+	@Test
+	public void testCreateKey() throws IOException {
+		final File stack = File.createTempFile( "stack", ".tif" );
+		stack.deleteOnExit();
+		Files.write( stack.toPath(), new byte[] { 1, 2, 3 } );
+		final SiftPairwiseSimilarity.Param p = SiftPairwiseSimilarity.generateDefaultParameters();
+		final long key = new SimilarityShardRunner( p, "affine" ).createKey( stack );
+		Assert.assertEquals( key, new SimilarityShardRunner( p.copy(), "affine" ).createKey( stack ) );
+
+		// parameters that do not change similarities
+		final SiftPairwiseSimilarity.Param threads = p.copy();
+		threads.nThreads = p.nThreads + 1;
+		Assert.assertEquals( key, new SimilarityShardRunner( threads, "affine" ).createKey( stack ) );
+
+		final SiftPairwiseSimilarity.Param range = p.copy();
+		range.range = p.range + 1;
+		Assert.assertNotEquals( key, new SimilarityShardRunner( range, "affine" ).createKey( stack ) );
+		Assert.assertNotEquals( key, new SimilarityShardRunner( p, "rigid" ).createKey( stack ) );
+
+		// modified input
+		Files.write( stack.toPath(), new byte[] { 1, 2, 3, 4 } );
+		Assert.assertNotEquals( key, new SimilarityShardRunner( p, "affine" ).createKey( stack ) );
+	}
+
+	@Test
+	public void testCreateTypedModel() {
+		final AffineModel2D affine = SimilarityShardRunner.createTypedModel( "affine" );
+		Assert.assertNotNull( affine );
+		final TranslationModel2D translation = SimilarityShardRunner.createTypedModel( "translation" );
+		Assert.assertNotNull( translation );
+		try {
+			SimilarityShardRunner.createTypedModel( "perspective" );
+			Assert.fail();
+		} catch ( final IllegalArgumentException e ) {}
+	}
+
+}
@@ -0,0 +1,60 @@
+package org.janelia.similarity;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SparseSimilarityMatrixTest {
+
+	// 0-3, 0-5, 1-2, 2-4 and a duplicate 3-0
+	final int[][] neighbors = new int[][] { { 3, 5 }, { 2 }, { 4 }, { 0 }, {}, {} };
+
+	private SparseSimilarityMatrix createMatrix() {
+		final SparseSimilarityMatrix matrix = new SparseSimilarityMatrix( neighbors );
+		for ( int i = 0; i < neighbors.length; ++i ) {
+			matrix.set( i, i, 1.0f );
+			for ( final int j : neighbors[ i ] )
+				matrix.set( i, j, Math.min( i, j ) * 10 + Math.max( i, j ) );
+		}
+		return matrix;
+	}
+
+	@Test
+	public void testGetAndSet() {
+		final SparseSimilarityMatrix matrix = createMatrix();
+		Assert.assertEquals( 3, matrix.getMaxRowLength() );
+		Assert.assertEquals( 3.0f, matrix.get( 3, 0 ), 0.0f );
+		Assert.assertEquals( 5.0f, matrix.get( 5, 0 ), 0.0f );
+		Assert.assertEquals( 24.0f, matrix.get( 2, 4 ), 0.0f );
+		Assert.assertEquals( 1.0f, matrix.get( 4, 4 ), 0.0f );
+		Assert.assertTrue( Float.isNaN( matrix.get( 1, 3 ) ) );
+		Assert.assertArrayEquals( new int[] { 3, 5 }, matrix.getUpperNeighbors( 0 ) );
+		Assert.assertArrayEquals( new int[] {}, matrix.getUpperNeighbors( 3 ) );
+	}
+
+	@Test( expected = IndexOutOfBoundsException.class )
+	public void testSetNotStored() {
+		createMatrix().set( 1, 3, 1.0f );
+	}
+
+	@Test
+	public void testGetRow() {
+		final SparseSimilarityMatrix matrix = createMatrix();
+		final int[] columns                 = new int[ matrix.getMaxRowLength() ];
+		final float[] similarities          = new float[ matrix.getMaxRowLength() ];
+		Assert.assertEquals( 3, matrix.getRow( 2, columns, similarities ) );
+		Assert.assertArrayEquals( new int[] { 1, 2, 4 }, columns );
+		Assert.assertArrayEquals( new float[] { 12.0f, 1.0f, 24.0f }, similarities, 0.0f );
+	}
+
+	@Test
+	public void testSelect() {
+		final SparseSimilarityMatrix matrix = createMatrix();
+		final int[] indices                 = new int[] { 0, 2, 4, 5 };
+		final SparseSimilarityMatrix result = matrix.select( indices );
+		Assert.assertEquals( indices.length, result.getNumberOfSections() );
+		for ( int i = 0; i < indices.length; ++i )
+			for ( int j = 0; j < indices.length; ++j )
+				Assert.assertEquals( matrix.get( indices[ i ], indices[ j ] ), result.get( i, j ), 0.0f );
+	}
+
+}
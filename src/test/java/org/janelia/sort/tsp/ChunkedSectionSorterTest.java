@@ -0,0 +1,92 @@
+package org.janelia.sort.tsp;
+
+import java.util.Random;
+
+import org.janelia.similarity.BandedSimilarityMatrix;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceSigmoid;
+import org.janelia.sort.tsp.solver.LocalSearchTSPSolver;
+import org.janelia.sort.tsp.solver.PortfolioTSPSolver;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChunkedSectionSorterTest {
+
+	/**
+	 * @return true position of each section, sections are displaced by at most maxDisplacement
+	 */
+	private static int[] createLocallyShuffledPositions( final int n, final int maxDisplacement, final long seed ) {
+		final Random rng = new Random( seed );
+		final int[] positions = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			positions[ i ] = i;
+		for ( int i = 0; i + maxDisplacement < n; i += maxDisplacement ) {
+			// shuffle within disjoint blocks such that no section moves further than maxDisplacement
+			for ( int j = maxDisplacement - 1; j > 0; --j ) {
+				final int k   = rng.nextInt( j + 1 );
+				final int tmp = positions[ i + j ];
+				positions[ i + j ] = positions[ i + k ];
+				positions[ i + k ] = tmp;
+			}
+		}
+		return positions;
+	}
+
+	private static BandedSimilarityMatrix createMatrix( final int[] positions, final int range ) {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( positions.length, range );
+		for ( int i = 0; i < positions.length; ++i )
+			for ( int j = i + 1; j < Math.min( positions.length, i + range ); ++j ) {
+				final int d = Math.abs( positions[ i ] - positions[ j ] );
+				matrix.set( i, j, d > 10 ? Float.NaN : (float)Math.exp( -0.5 * d ) );
+			}
+		return matrix;
+	}
+
+	@Test
+	public void testChunkStarts() {
+		final ChunkedSectionSorter sorter = new ChunkedSectionSorter( 100, 20, new LocalSearchTSPSolver(), 1 );
+		Assert.assertArrayEquals( new int[] { 0, 50 }, sorter.createChunkStarts( 50 ) );
+		final int n = 1234;
+		final int[] starts = sorter.createChunkStarts( n );
+		Assert.assertEquals( 0, starts[ 0 ] );
+		Assert.assertEquals( n, starts[ starts.length - 1 ] );
+		Assert.assertTrue( starts[ starts.length - 2 ] + 100 >= n );
+		Assert.assertTrue( starts[ starts.length - 2 ] + 20 < n );
+		for ( int k = 1; k < starts.length - 1; ++k )
+			Assert.assertEquals( 20, starts[ k - 1 ] + 100 - starts[ k ] );
+		// only neighbors overlap
+		for ( int k = 2; k < starts.length - 1; ++k )
+			Assert.assertTrue( starts[ k - 2 ] + 100 <= starts[ k ] );
+		// evenly spread chunks of 100 sections would start at 0, 45, 90, where the first and the last overlap
+		Assert.assertArrayEquals( new int[] { 0, 80, 160, 190 }, sorter.createChunkStarts( 190 ) );
+	}
+
+	@Test
+	public void testSortThreeChunks() {
+		final int n = 190;
+		final int[] positions = createLocallyShuffledPositions( n, 8, 2 );
+		final BandedSimilarityMatrix matrix = createMatrix( positions, 20 );
+		final SimilarityToDistanceSigmoid similarityToDistance = new SimilarityToDistanceSigmoid( 10000.0, 0.0, 1000000.0 );
+		final int[] order = new ChunkedSectionSorter( 100, 20, new LocalSearchTSPSolver(), 1 ).sort( matrix, similarityToDistance );
+
+		Assert.assertTrue( PortfolioTSPSolver.isTour( order, n ) );
+		final boolean forward = positions[ order[ 0 ] ] < positions[ order[ n - 1 ] ];
+		for ( int i = 0; i < n; ++i )
+			Assert.assertEquals( forward ? i : n - 1 - i, positions[ order[ i ] ] );
+	}
+
+	@Test
+	public void testSort() {
+		final int n = 1000;
+		final int[] positions = createLocallyShuffledPositions( n, 8, 1 );
+		final BandedSimilarityMatrix matrix = createMatrix( positions, 30 );
+		final SimilarityToDistanceSigmoid similarityToDistance = new SimilarityToDistanceSigmoid( 10000.0, 0.0, 1000000.0 );
+		final int[] order = new ChunkedSectionSorter( 150, 40, PortfolioTSPSolver.createLocalSearchPortfolio( 2, 1, 0 ), 4 ).sort( matrix, similarityToDistance );
+
+		Assert.assertTrue( PortfolioTSPSolver.isTour( order, n ) );
+		// sections are in their true order, forward or backward
+		final boolean forward = positions[ order[ 0 ] ] < positions[ order[ n - 1 ] ];
+		for ( int i = 0; i < n; ++i )
+			Assert.assertEquals( forward ? i : n - 1 - i, positions[ order[ i ] ] );
+	}
+
+}
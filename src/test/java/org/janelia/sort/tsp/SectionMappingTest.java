@@ -0,0 +1,46 @@
+package org.janelia.sort.tsp;
+
+import java.util.ArrayList;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SectionMappingTest {
+
+	// sections 0, 3, 4, 7 are bad, 0 is a leading bad section
+	final boolean[] sectionStatus = new boolean[] { false, true, true, false, false, true, true, false };
+
+	@Test
+	public void testMapping() {
+		final SectionMapping mapping = new SectionMapping( sectionStatus );
+		Assert.assertEquals( 8, mapping.getNumberOfSections() );
+		Assert.assertEquals( 4, mapping.getNumberOfCleanSections() );
+		Assert.assertFalse( mapping.isIdentity() );
+		Assert.assertArrayEquals( new int[] { 1, 2, 5, 6 }, mapping.getKeptIndices() );
+		Assert.assertArrayEquals( new int[] { 0, 3, 4, 7 }, mapping.getRemovedIndices() );
+		Assert.assertArrayEquals( sectionStatus, mapping.getSectionStatus() );
+		for ( int i = 0; i < sectionStatus.length; ++i ) {
+			Assert.assertEquals( sectionStatus[ i ], mapping.isValid( i ) );
+			if ( sectionStatus[ i ] )
+				Assert.assertEquals( i, mapping.toFull( mapping.toClean( i ) ) );
+			else
+				Assert.assertEquals( -1, mapping.toClean( i ) );
+		}
+		Assert.assertEquals( 1, mapping.getNumberOfLeadingBadSections() );
+		Assert.assertEquals( 0, mapping.getNumberOfBadSuccessors( 0 ) );
+		Assert.assertEquals( 2, mapping.getNumberOfBadSuccessors( 1 ) );
+		Assert.assertEquals( 0, mapping.getNumberOfBadSuccessors( 2 ) );
+		Assert.assertEquals( 1, mapping.getNumberOfBadSuccessors( 3 ) );
+		Assert.assertTrue( new SectionMapping( new boolean[] { true, true } ).isIdentity() );
+	}
+
+	@Test
+	public void testAddInvalidSections() {
+		final SectionMapping mapping = new SectionMapping( sectionStatus );
+		final int[] solution = new int[] { 3, 1, 0, 2 };
+		final int[] reference = new int[] { 0, 6, 7, 2, 3, 4, 1, 5 };
+		Assert.assertArrayEquals( reference, mapping.addInvalidSections( solution ) );
+		Assert.assertArrayEquals( reference, TSP.addInvalidSections( solution, new ArrayList< ArrayList< Long > >(), sectionStatus, sectionStatus.length ) );
+	}
+
+}
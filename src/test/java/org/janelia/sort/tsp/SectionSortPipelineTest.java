@@ -0,0 +1,197 @@
+package org.janelia.sort.tsp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.janelia.similarity.BandedSimilarityMatrix;
+import org.janelia.similarity.DirectorySectionSource;
+import org.janelia.similarity.StackSectionSource;
+import org.junit.Assert;
+import org.junit.Test;
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+public class SectionSortPipelineTest {
+
+	// original index of each section in the true order, section 3 is empty
+	final int[] truth = new int[] { 4, 0, 6, 2, 5, 1 };
+
+	final int n = 7;
+
+	final int range = 7;
+
+	private BandedSimilarityMatrix createMatrix() {
+		final int[] position = new int[ n ];
+		for ( int i = 0; i < truth.length; ++i )
+			position[ truth[ i ] ] = i;
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, range );
+		for ( int i = 0; i < n; ++i ) {
+			for ( int j = i; j < n && j < i + range; ++j ) {
+				if ( i == 3 || j == 3 )
+					matrix.set( i, j, i == j ? 0.0f : Float.NaN );
+				else
+					matrix.set( i, j, 1.0f / ( 1 + Math.abs( position[ i ] - position[ j ] ) ) );
+			}
+		}
+		return matrix;
+	}
+
+	private static ArrayList< String > readLines( final File file ) throws IOException {
+		final ArrayList< String > lines = new ArrayList< String >();
+		final BufferedReader reader = new BufferedReader( new FileReader( file ) );
+		try {
+			for ( String line = reader.readLine(); line != null; line = reader.readLine() )
+				lines.add( line );
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	@Test
+	public void testParse() throws IOException {
+		final File config = File.createTempFile( "section-sort", ".properties" );
+		config.deleteOnExit();
+		final FileWriter writer = new FileWriter( config );
+		writer.write( "input=stack.tif\nsolver=local\nrange=20\nsift.maxOctaveSize=512\n" );
+		writer.close();
+		final SectionSortPipeline.Options o = SectionSortPipeline.parse(
+				SectionSortPipeline.generateDefaultOptions(),
+				Arrays.asList( "range=30", "config=" + config.getAbsolutePath(), "outputDirectory=out" ) );
+		Assert.assertEquals( "stack.tif", o.input );
+		Assert.assertEquals( "out", o.outputDirectory );
+		Assert.assertEquals( "local", o.solver );
+		// command line takes precedence over config file
+		Assert.assertEquals( 30, o.similarity.range.intValue() );
+		Assert.assertEquals( 512, o.similarity.p.maxOctaveSize );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testUnknownSolver() {
+		final SectionSortPipeline.Options o = SectionSortPipeline.generateDefaultOptions();
+		o.input = "matrix.bsm";
+		o.outputDirectory = "out";
+		o.solver = "exhaustive";
+		new SectionSortPipeline( o );
+	}
+
+	@Test
+	public void testCandidateSelection() throws IOException {
+		final SectionSortPipeline.Options o = SectionSortPipeline.parse(
+				SectionSortPipeline.generateDefaultOptions(),
+				Arrays.asList( "input=stack.tif", "outputDirectory=out", "candidateSelection=true", "numberOfCandidates=5" ) );
+		Assert.assertTrue( o.candidateSelection );
+		Assert.assertEquals( 5, o.similarity.numberOfCandidates.intValue() );
+		new SectionSortPipeline( o );
+		// shards and chunks rely on neighbors in the input
+		o.numberOfShards = 4;
+		try {
+			new SectionSortPipeline( o );
+			Assert.fail();
+		} catch ( final IllegalArgumentException e ) {}
+		o.numberOfShards = 1;
+		o.chunkSize      = 1000;
+		try {
+			new SectionSortPipeline( o );
+			Assert.fail();
+		} catch ( final IllegalArgumentException e ) {}
+	}
+
+	@Test
+	public void testRunWithMatrix() throws IOException {
+		final File directory = Files.createTempDirectory( "section-sort" ).toFile();
+		directory.deleteOnExit();
+		final File matrixFile = new File( directory, "matrix.bsm" );
+		matrixFile.deleteOnExit();
+		createMatrix().write( matrixFile );
+
+		final SectionSortPipeline.Options o = SectionSortPipeline.generateDefaultOptions();
+		o.input           = matrixFile.getAbsolutePath();
+		o.outputDirectory = directory.getAbsolutePath();
+		o.solver          = "local";
+		final int[] order = new SectionSortPipeline( o ).run();
+
+		Assert.assertEquals( n, order.length );
+		// empty section is appended to its predecessor in the original order
+		final int[] withoutEmpty = new int[ n - 1 ];
+		for ( int i = 0, k = 0; i < n; ++i ) {
+			if ( order[ i ] == 3 ) {
+				Assert.assertEquals( 2, order[ i - 1 ] );
+				continue;
+			}
+			withoutEmpty[ k++ ] = order[ i ];
+		}
+		final int[] reversed = new int[ truth.length ];
+		for ( int i = 0; i < truth.length; ++i )
+			reversed[ i ] = truth[ truth.length - 1 - i ];
+		Assert.assertTrue( Arrays.toString( order ), Arrays.equals( truth, withoutEmpty ) || Arrays.equals( reversed, withoutEmpty ) );
+
+		final String[] names = new String[] {
+				SectionSortPipeline.FORWARD_MAPPING_FILE,
+				SectionSortPipeline.BACKWARD_MAPPING_FILE,
+				SectionSortPipeline.REMOVED_SECTIONS_FILE };
+		for ( final String name : names )
+			new File( directory, name ).deleteOnExit();
+		Assert.assertEquals( Arrays.asList( "3" ), readLines( new File( directory, SectionSortPipeline.REMOVED_SECTIONS_FILE ) ) );
+		final ArrayList< String > forward = readLines( new File( directory, SectionSortPipeline.FORWARD_MAPPING_FILE ) );
+		Assert.assertEquals( n, forward.size() );
+		Assert.assertTrue( forward.get( 3 ).startsWith( "3," ) && forward.get( 3 ).endsWith( ",0" ) );
+		final ArrayList< String > backward = readLines( new File( directory, SectionSortPipeline.BACKWARD_MAPPING_FILE ) );
+		Assert.assertEquals( "0," + order[ 0 ] + ",1", backward.get( 0 ) );
+	}
+
+	@Test
+	public void testChunkOverlap() {
+		final SectionSortPipeline.Options o = SectionSortPipeline.generateDefaultOptions();
+		o.input = "matrix.bsm";
+		o.outputDirectory = "out";
+		o.similarity.range = 50;
+		o.chunkSize = 1000;
+		Assert.assertEquals( 250, new SectionSortPipeline( o ).getChunkOverlap() );
+		o.chunkSize = 150;
+		Assert.assertEquals( 50, new SectionSortPipeline( o ).getChunkOverlap() );
+		o.chunkOverlap = 60;
+		Assert.assertEquals( 60, new SectionSortPipeline( o ).getChunkOverlap() );
+		// overlap less than range
+		o.chunkOverlap = 40;
+		try {
+			new SectionSortPipeline( o );
+			Assert.fail();
+		} catch ( final IllegalArgumentException e ) {}
+		// chunks too small for the overlap
+		o.chunkOverlap = 0;
+		o.chunkSize = 80;
+		try {
+			new SectionSortPipeline( o );
+			Assert.fail();
+		} catch ( final IllegalArgumentException e ) {}
+	}
+
+	@Test
+	public void testWriteSections() throws IOException {
+		final ImageStack stack = new ImageStack( 4, 3 );
+		for ( int k = 0; k < 12; ++k ) {
+			final FloatProcessor fp = new FloatProcessor( 4, 3 );
+			fp.setf( 0, 0, k );
+			stack.addSlice( fp );
+		}
+		final int[] order = new int[] { 11, 3, 0, 7, 10, 1, 2, 4, 5, 6, 8, 9 };
+		final File directory = Files.createTempDirectory( "sections" ).toFile();
+		SectionSortPipeline.writeSections( new StackSectionSource( stack ), order, directory );
+		final DirectorySectionSource sections = new DirectorySectionSource( directory );
+		Assert.assertEquals( order.length, sections.getNumberOfSections() );
+		for ( int i = 0; i < order.length; ++i ) {
+			Assert.assertEquals( order[ i ], sections.getSection( i ).getf( 0, 0 ), 0.0f );
+			sections.getFile( i ).delete();
+		}
+		directory.delete();
+	}
+
+}
@@ -0,0 +1,131 @@
+package org.janelia.sort.tsp;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgFactory;
+import net.imglib2.type.numeric.real.FloatType;
+
+import org.janelia.sort.tsp.conversion.DataToStringFullMatrixTSPLIB;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceSigmoid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks for the matrix handling in {@link TSP} on synthetic banded similarity matrices of
+ * shuffled sections, every 50th section is empty. All benchmarked methods are single threaded, run with
+ * JMH option -t to measure concurrent use, e.g.
+ *
+ * mvn -P benchmark verify -Dbenchmark.args="TSPBenchmark -t 4"
+ *
+ * The matrix is shared by all threads and only read, the TSPLIB converter holds state and is created per
+ * invocation.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class TSPBenchmark {
+
+	@Param( { "100", "1000", "3000" } )
+	public int n;
+
+	@Param( { "50" } )
+	public int range;
+
+	private Img< FloatType > matrix;
+
+	private int[] permutation;
+
+	private File tourFile;
+
+	final SimilarityToDistanceSigmoid similarityToDistance = new SimilarityToDistanceSigmoid( 1000.0, 0.0, 1000000.0 );
+
+	@Setup
+	public void setup() throws IOException {
+		final Random rng = new Random( 100 );
+		// position of section i in the original series
+		permutation = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			permutation[ i ] = i;
+		for ( int i = n - 1; i > 0; --i ) {
+			final int j = rng.nextInt( i + 1 );
+			final int tmp = permutation[ i ];
+			permutation[ i ] = permutation[ j ];
+			permutation[ j ] = tmp;
+		}
+
+		matrix = new ArrayImgFactory< FloatType >().create( new long[] { n, n }, new FloatType() );
+		final Cursor< FloatType > c = matrix.cursor();
+		while ( c.hasNext() ) {
+			c.fwd();
+			final int i = permutation[ c.getIntPosition( 0 ) ];
+			final int j = permutation[ c.getIntPosition( 1 ) ];
+			final int d = Math.abs( i - j );
+			if ( i % 50 == 25 || j % 50 == 25 )
+				c.get().set( i == j ? 0.0f : Float.NaN );
+			else
+				c.get().set( d < range ? 1.0f - (float)d / range : Float.NaN );
+		}
+
+		// tour in concorde output format: number of nodes, then nodes, dummy node has index n
+		tourFile = File.createTempFile( "tsp-benchmark", ".txt" );
+		final PrintWriter writer = new PrintWriter( new FileWriter( tourFile ) );
+		writer.println( n + 1 );
+		final int[] inverse = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			inverse[ permutation[ i ] ] = i;
+		writer.print( n );
+		for ( int i = 0; i < n; ++i ) {
+			writer.print( i % 10 == 9 ? "\n" : " " );
+			writer.print( inverse[ i ] );
+		}
+		writer.println();
+		writer.close();
+	}
+
+	@TearDown
+	public void tearDown() {
+		tourFile.delete();
+	}
+
+	@Benchmark
+	public String convertMatrix() {
+		return TSP.convertMatrix( matrix, new DataToStringFullMatrixTSPLIB(), similarityToDistance );
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval< FloatType > cleanMatrix() {
+		return TSP.cleanMatrix( matrix, TSP.createSectionMapping( matrix ) );
+	}
+
+	@Benchmark
+	public RandomAccessibleInterval< FloatType > rearrangeMatrix() {
+		return TSP.rearrangeMatrix( matrix, permutation );
+	}
+
+	@Benchmark
+	public int[] tspResultToArrayRespectDummyNode() throws IOException {
+		return TSP.tspResultToArrayRespectDummyNode( tourFile.getAbsolutePath(), n );
+	}
+
+}
@@ -1,26 +1,45 @@
 package org.janelia.sort.tsp;
 
 import ij.ImagePlus;
+import ij.process.FloatProcessor;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
 import net.imglib2.Cursor;
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.ImagePlusAdapter;
 import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.display.imagej.ImageJFunctions;
 import net.imglib2.img.imageplus.FloatImagePlus;
+import net.imglib2.type.numeric.real.DoubleType;
 import net.imglib2.type.numeric.real.FloatType;
 import net.imglib2.view.Views;
 
+import org.janelia.similarity.BandedSimilarityMatrix;
+import org.janelia.similarity.FloatProcessorSimilarityMatrix;
+import org.janelia.similarity.SimilarityMatrixInterface;
 import org.janelia.sort.tsp.conversion.DataToStringFullMatrixTSPLIB;
+import org.janelia.sort.tsp.conversion.DataToWriterFullMatrixTSPLIB;
+import org.janelia.sort.tsp.conversion.DataToWriterUpperRowTSPLIB;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceInterface;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceLookup;
 import org.janelia.sort.tsp.conversion.SimilarityToDistanceSigmoid;
+import org.janelia.sort.tsp.solver.ConcordeRunner;
+import org.janelia.sort.tsp.solver.FullDistanceMatrix;
+import org.janelia.sort.tsp.solver.LocalSearchTSPSolver;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -98,6 +117,124 @@ public class TSPTest {
 
 	}
 
+	@Test
+	public void testConvertMatrixToWriter() throws IOException {
+		final Img<FloatType> img = ImageJFunctions.wrapFloat( new ImagePlus( path ) );
+		final String reference   = TSP.convertMatrix( img, new DataToStringFullMatrixTSPLIB(), similarityToDistance );
+
+		final StringWriter fullMatrix = new StringWriter();
+		TSP.convertMatrix( img, new DataToWriterFullMatrixTSPLIB( fullMatrix ), similarityToDistance );
+		Assert.assertEquals( reference, fullMatrix.toString() );
+
+		// upper row holds the entries above the diagonal of each row, including the dummy column
+		final StringWriter upperRow = new StringWriter();
+		TSP.convertMatrix( img, new DataToWriterUpperRowTSPLIB( upperRow ), similarityToDistance );
+		final int n                   = (int) img.dimension( 0 );
+		final String[] referenceLines = reference.split( "\n" );
+		final String[] upperRowLines  = upperRow.toString().split( "\n" );
+		final int headerLines         = referenceLines.length - ( n + 2 );
+		Assert.assertEquals( headerLines + n + 1, upperRowLines.length );
+		Assert.assertTrue( upperRowLines[ headerLines - 4 ].endsWith( "UPPER_ROW" ) );
+		for ( int i = 0; i < n; ++i ) {
+			final String[] full  = referenceLines[ headerLines + i ].split( " " );
+			final String[] upper = upperRowLines[ headerLines + i ].split( " " );
+			Assert.assertEquals( n - i, upper.length );
+			for ( int j = i + 1; j <= n; ++j )
+				Assert.assertEquals( full[ j ], upper[ j - i - 1 ] );
+		}
+		Assert.assertEquals( "EOF", upperRowLines[ upperRowLines.length - 1 ] );
+	}
+
+	@Test
+	public void testConvertSimilarityMatrix() {
+		final ImagePlus imp      = new ImagePlus( path );
+		final Img<FloatType> img = ImageJFunctions.wrapFloat( imp );
+		final String reference   = TSP.convertMatrix( img, new DataToStringFullMatrixTSPLIB(), similarityToDistance );
+
+		final FloatProcessorSimilarityMatrix dense = new FloatProcessorSimilarityMatrix( (FloatProcessor) imp.getProcessor() );
+		Assert.assertEquals( reference, TSP.convertMatrix( dense, new DataToStringFullMatrixTSPLIB(), similarityToDistance ) );
+
+		// band that covers the entire matrix
+		final int n                         = dense.getNumberOfSections();
+		final BandedSimilarityMatrix banded = new BandedSimilarityMatrix( n, n );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = i; j < n; ++j )
+				banded.set( i, j, dense.get( i, j ) );
+		Assert.assertEquals( reference, TSP.convertMatrix( banded, new DataToStringFullMatrixTSPLIB(), similarityToDistance ) );
+	}
+
+	@Test
+	public void testConvertFloatMatrixInBulk() {
+		final ImagePlus imp      = new ImagePlus( path );
+		final Img<FloatType> img = ImageJFunctions.wrapFloat( imp );
+		final int[] bulkRows     = new int[ 1 ];
+		final SimilarityToDistanceInterface lookup = new SimilarityToDistanceLookup( similarityToDistance, 1 << 10 ) {
+			@Override
+			public void convert( final float[] similarities, final int[] distances, final int length ) {
+				++bulkRows[ 0 ];
+				super.convert( similarities, distances, length );
+			}
+		};
+		final String result = TSP.convertMatrix( img, new DataToStringFullMatrixTSPLIB(), lookup );
+		Assert.assertEquals( img.dimension( 0 ), bulkRows[ 0 ] );
+
+		// same rows as from the stored matrix, float rows are copied exactly
+		final FloatProcessorSimilarityMatrix dense = new FloatProcessorSimilarityMatrix( (FloatProcessor) imp.getProcessor() );
+		Assert.assertEquals( result, TSP.convertMatrix( dense, new DataToStringFullMatrixTSPLIB(), lookup ) );
+	}
+
+	@Test
+	public void testConvertMatrixClosesWriterOnFailure() {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( 20, 3 );
+		for ( int i = 0; i < 20; ++i )
+			matrix.set( i, i, 1.0f );
+		final boolean[] closed = new boolean[ 1 ];
+		final Writer failing = new Writer() {
+			private int written = 0;
+			@Override
+			public void write( final char[] buffer, final int offset, final int length ) throws IOException {
+				written += length;
+				if ( written > 100 )
+					throw new IOException( "disk full" );
+			}
+			@Override
+			public void flush() {
+			}
+			@Override
+			public void close() {
+				closed[ 0 ] = true;
+			}
+		};
+		try {
+			TSP.convertMatrix( matrix, new DataToWriterFullMatrixTSPLIB( failing ), similarityToDistance );
+			Assert.fail( "Expected IOException" );
+		} catch ( final IOException e ) {
+			Assert.assertTrue( closed[ 0 ] );
+		}
+	}
+
+	@Test
+	public void testCleanSimilarityMatrix() {
+		final FloatImagePlus<FloatType> matrixWithoutHolesReference = ImagePlusAdapter.wrapFloat( new ImagePlus( matrixWithoutHolesPath ) );
+		final FloatProcessorSimilarityMatrix matrixWithHoles        = new FloatProcessorSimilarityMatrix( (FloatProcessor) new ImagePlus( matrixWithHolesPath ).getProcessor() );
+
+		final ArrayList<Long> keptIndices              = new ArrayList< Long >();
+		final ArrayList<Long> removedIndices           = new ArrayList< Long >();
+		final ArrayList<ArrayList<Long>> badSuccessors = new ArrayList< ArrayList< Long > >();
+		final boolean[] sectionStatus                  = new boolean[ matrixWithHoles.getNumberOfSections() ];
+
+		final SimilarityMatrixInterface matrixWithoutHoles = TSP.cleanMatrix( matrixWithHoles, removedIndices, keptIndices, badSuccessors, sectionStatus );
+
+		Assert.assertEquals( matrixWithoutHolesReference.dimension( 0 ), matrixWithoutHoles.getNumberOfSections() );
+		Assert.assertEquals( matrixWithHoles.getNumberOfSections(), keptIndices.size() + removedIndices.size() );
+
+		final Cursor<FloatType> ref = Views.flatIterable( matrixWithoutHolesReference ).localizingCursor();
+		while( ref.hasNext() ) {
+			ref.fwd();
+			Assert.assertEquals( ref.get().get(), matrixWithoutHoles.get( ref.getIntPosition( 0 ), ref.getIntPosition( 1 ) ), 0.0f );
+		}
+	}
+
 	@Test
 	public void testCleanMatrix() {
 		final FloatImagePlus<FloatType> matrixWithHoles             = ImagePlusAdapter.wrapFloat( new ImagePlus( matrixWithHolesPath ) );
@@ -127,10 +264,10 @@ public class TSPTest {
 	}
 
 	@Test
-	public void testTSPSolver() {
+	public void testTSPSolver() throws InterruptedException {
 
 		try {
-			TSP.runConcordeTSPSolver( concordeExecutablePath, inputFileName, outputFileName, String.format("-s %d", concordeSeed ) );
+			TSP.runConcordeTSPSolver( concordeExecutablePath, inputFileName, outputFileName, String.format("-s %d", concordeSeed ) ).waitFor();
 		} catch (final IOException e) {
 			Assert.fail();
 		}
@@ -139,6 +276,67 @@ public class TSPTest {
 	}
 
 
+	@Test
+	public void testConcordeRunner() throws Exception {
+
+		final ConcordeRunner runner = new ConcordeRunner(
+				concordeExecutablePath,
+				null,
+				TimeUnit.MINUTES.toMillis( 1 ),
+				null,
+				Arrays.asList( "-s", Integer.toString( concordeSeed ) ) );
+		runner.solve( new File( inputFileName ), new File( outputFileName ) ).get();
+		final int[] result = TSP.tspResultToArray( outputFileName, 22 );
+		Assert.assertArrayEquals( orderReference, result );
+	}
+
+
+	@Test( expected = UncheckedIOException.class )
+	public void testTspResultToArrayWrongNumberOfNodes() throws IOException {
+		final File tour = File.createTempFile( "tour", ".sol" );
+		tour.deleteOnExit();
+		final FileWriter writer = new FileWriter( tour );
+		try {
+			writer.write( "3\n0 2 1\n" );
+		} finally {
+			writer.close();
+		}
+		// 3 sections need a tour over 4 nodes including the dummy node
+		TSP.tspResultToArray( tour.getAbsolutePath(), 3 );
+	}
+
+
+	@Test
+	public void testCreateDistanceMatrixDoublePrecision() {
+		// distances that resolve similarities beyond float precision, only convert( double ) is implemented
+		final SimilarityToDistanceInterface scaled = new SimilarityToDistanceInterface() {
+			@Override
+			public double convert( final double similarity ) {
+				return 1e9 * similarity;
+			}
+		};
+		final Img< DoubleType > matrix = ArrayImgs.doubles( new double[] { 0.0, 0.1, 0.1, 0.0 }, 2, 2 );
+		final FullDistanceMatrix distances = TSP.createDistanceMatrix( matrix, scaled );
+		// ( int )( 1e9 * 0.1f ) is 100000001
+		Assert.assertEquals( 100000000, distances.getDistance( 0, 1 ) );
+		Assert.assertEquals( 100000000, distances.getDistance( 1, 0 ) );
+
+		// bulk conversion of float rows loops over convert( double )
+		final int[] row = new int[ 2 ];
+		scaled.convert( new float[] { 0.5f, 0.25f }, row, 2 );
+		Assert.assertEquals( 500000000, row[ 0 ] );
+		Assert.assertEquals( 250000000, row[ 1 ] );
+	}
+
+
+	@Test
+	public void testLocalSearchTSPSolver() {
+		final Img<FloatType> img = ImageJFunctions.wrapFloat( new ImagePlus( path ) );
+		final int[] result       = TSP.solve( img, similarityToDistance, new LocalSearchTSPSolver() );
+		Assert.assertArrayEquals( orderReference, result );
+	}
+
+
 	@Test
 	public void testRearrangement() {
 
@@ -155,4 +353,62 @@ public class TSPTest {
 
 	}
 
+
+	@Test
+	public void testCleanMatrixView() {
+		final FloatImagePlus<FloatType> matrixWithHoles             = ImagePlusAdapter.wrapFloat( new ImagePlus( matrixWithHolesPath ) );
+		final FloatImagePlus<FloatType> matrixWithoutHolesReference = ImagePlusAdapter.wrapFloat( new ImagePlus( matrixWithoutHolesPath ) );
+
+		final ArrayList<Long> keptIndices              = new ArrayList< Long >();
+		final ArrayList<Long> removedIndices           = new ArrayList< Long >();
+		final ArrayList<ArrayList<Long>> badSuccessors = new ArrayList< ArrayList< Long > >();
+		final boolean[] sectionStatus                  = new boolean[ (int) matrixWithHoles.dimension( 0 ) ];
+
+		final RandomAccessibleInterval<FloatType> view = TSP.cleanMatrixView( matrixWithHoles, removedIndices, keptIndices, badSuccessors, sectionStatus );
+		Assert.assertTrue( view instanceof IndexMappedMatrixView );
+		Assert.assertEquals( matrixWithoutHolesReference.dimension( 0 ), keptIndices.size() );
+
+		final Img<FloatType> materialized = TSP.materialize( view );
+		for ( int d = 0; d < view.numDimensions(); ++d )
+			Assert.assertEquals( matrixWithoutHolesReference.dimension( d ), materialized.dimension( d ) );
+
+		final Cursor<FloatType> ref = Views.flatIterable( matrixWithoutHolesReference ).cursor();
+		final Cursor<FloatType> res = Views.flatIterable( view ).cursor();
+		final Cursor<FloatType> mat = Views.flatIterable( materialized ).cursor();
+		while( ref.hasNext() ) {
+			final FloatType r = ref.next();
+			Assert.assertEquals( r, res.next() );
+			Assert.assertEquals( r, mat.next() );
+		}
+	}
+
+
+	@Test
+	public void testRearrangementView() {
+
+		final FloatImagePlus<FloatType> input            = ImagePlusAdapter.wrapFloat( new ImagePlus( path ) );
+		final FloatImagePlus<FloatType> reference        = ImagePlusAdapter.wrapFloat( new ImagePlus( referenceMatrixPath) );
+
+		// reverse order first, then undo reversal within composed view
+		final int n        = orderReference.length;
+		final int[] reverse = new int[ n ];
+		final int[] order   = new int[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			reverse[ i ] = n - 1 - i;
+			order[ i ]   = n - 1 - orderReference[ i ];
+		}
+		final IndexMappedMatrixView<FloatType> reversed = TSP.rearrangeMatrixView( input, reverse );
+		final IndexMappedMatrixView<FloatType> output   = TSP.rearrangeMatrixView( reversed, order );
+		Assert.assertSame( input, output.getSource() );
+		Assert.assertArrayEquals( orderReference, output.getIndices() );
+
+		final Cursor<FloatType> o = Views.flatIterable( output ).cursor();
+		final Cursor<FloatType> r = Views.flatIterable( reference ).cursor();
+
+		while( o.hasNext() ) {
+			Assert.assertEquals( r.next(), o.next() );
+		}
+
+	}
+
 }
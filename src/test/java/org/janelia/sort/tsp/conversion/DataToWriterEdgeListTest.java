@@ -0,0 +1,93 @@
+package org.janelia.sort.tsp.conversion;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+
+import org.janelia.similarity.BandedSimilarityMatrix;
+import org.janelia.sort.tsp.TSP;
+import org.janelia.sort.tsp.solver.FullDistanceMatrix;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DataToWriterEdgeListTest {
+
+	@Test
+	public void testEdgeList() throws IOException {
+		final int n = 50;
+		final int range = 5;
+		final Random rng = new Random( 1 );
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, range );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = i; j < Math.min( n, i + range ); ++j )
+				// leave some holes in the band
+				matrix.set( i, j, j > i && rng.nextInt( 4 ) == 0 ? Float.NaN : rng.nextFloat() );
+		final SimilarityToDistanceSigmoid similarityToDistance = new SimilarityToDistanceSigmoid( 10000.0, 0.0, 1000000.0 );
+
+		final StringWriter sparse = new StringWriter();
+		TSP.convertMatrixSparse( matrix, new DataToWriterEdgeList( sparse, 1000000 ), similarityToDistance );
+		// same output when streaming the full matrix
+		final StringWriter full = new StringWriter();
+		TSP.convertMatrix( matrix, new DataToWriterEdgeList( full, 1000000 ), similarityToDistance );
+		Assert.assertEquals( full.toString(), sparse.toString() );
+
+		final String[] lines = sparse.toString().split( System.getProperty( "line.separator" ) );
+		Assert.assertEquals( ( n + 1 ) + " 1000000", lines[ 0 ] );
+
+		// rebuild distances from edge list, all edges that are not listed have the default weight
+		final String[] header = lines[ 0 ].split( " " );
+		final int defaultWeight = Integer.parseInt( header[ 1 ] );
+		final FullDistanceMatrix reference = TSP.createDistanceMatrix( matrix, similarityToDistance );
+		final FullDistanceMatrix distances = new FullDistanceMatrix( Integer.parseInt( header[ 0 ] ) );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = 0; j < n; ++j )
+				distances.setDistance( i, j, i == j ? reference.getDistance( i, j ) : defaultWeight );
+		int numberOfEdges = 0;
+		for ( int l = 1; l < lines.length; ++l ) {
+			final String[] edge = lines[ l ].split( " " );
+			Assert.assertEquals( 3, edge.length );
+			final int index1 = Integer.parseInt( edge[ 0 ] );
+			final int index2 = Integer.parseInt( edge[ 1 ] );
+			Assert.assertTrue( index1 < index2 );
+			distances.setDistance( index1, index2, Integer.parseInt( edge[ 2 ] ) );
+			distances.setDistance( index2, index1, Integer.parseInt( edge[ 2 ] ) );
+			++numberOfEdges;
+		}
+		Assert.assertTrue( numberOfEdges < n * range );
+		for ( int i = 0; i <= n; ++i )
+			Assert.assertArrayEquals( reference.getRow( i ), distances.getRow( i ) );
+	}
+
+	@Test
+	public void testClosesWriterOnFailure() {
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( 20, 3 );
+		for ( int i = 0; i < 20; ++i )
+			for ( int j = i; j < Math.min( 20, i + 3 ); ++j )
+				matrix.set( i, j, 0.5f );
+		final boolean[] closed = new boolean[ 1 ];
+		final Writer failing = new Writer() {
+			private int written = 0;
+			@Override
+			public void write( final char[] buffer, final int offset, final int length ) throws IOException {
+				written += length;
+				if ( written > 300 )
+					throw new IOException( "disk full" );
+			}
+			@Override
+			public void flush() {
+			}
+			@Override
+			public void close() {
+				closed[ 0 ] = true;
+			}
+		};
+		try {
+			TSP.convertMatrixSparse( matrix, new DataToWriterEdgeList( failing, 1000000 ), new SimilarityToDistanceSigmoid( 10000.0 ) );
+			Assert.fail( "Expected IOException" );
+		} catch ( final IOException e ) {
+			Assert.assertTrue( closed[ 0 ] );
+		}
+	}
+
+}
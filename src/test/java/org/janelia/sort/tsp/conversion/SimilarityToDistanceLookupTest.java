@@ -0,0 +1,58 @@
+package org.janelia.sort.tsp.conversion;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimilarityToDistanceLookupTest {
+
+	private static float[] createSimilarities( final int n ) {
+		final Random rng = new Random( 1 );
+		final float[] similarities = new float[ n ];
+		for ( int i = 0; i < n; ++i )
+			similarities[ i ] = rng.nextFloat();
+		similarities[ 0 ] = Float.NaN;
+		similarities[ 1 ] = 0.0f;
+		similarities[ 2 ] = 1.0f;
+		// outside of tabulated interval
+		similarities[ 3 ] = 1.5f;
+		similarities[ 4 ] = -0.25f;
+		return similarities;
+	}
+
+	@Test
+	public void testBulkSigmoid() {
+		final SimilarityToDistanceSigmoid sigmoid = new SimilarityToDistanceSigmoid( 10000.0, 0.0, 1000000.0 );
+		final float[] similarities = createSimilarities( 1000 );
+		final int[] distances = new int[ similarities.length ];
+		sigmoid.convert( similarities, distances, similarities.length );
+		for ( int i = 0; i < similarities.length; ++i )
+			Assert.assertEquals( (int) sigmoid.convert( similarities[ i ] ), distances[ i ] );
+	}
+
+	@Test
+	public void testLookup() {
+		final SimilarityToDistanceSigmoid sigmoid = new SimilarityToDistanceSigmoid( 10000.0, 0.0, 1000000.0 );
+		final SimilarityToDistanceLookup lookup = new SimilarityToDistanceLookup( sigmoid, 1 << 16 );
+		final float[] similarities = createSimilarities( 1000 );
+		final int[] distances = new int[ similarities.length ];
+		lookup.convert( similarities, distances, similarities.length );
+		for ( int i = 0; i < similarities.length; ++i ) {
+			Assert.assertEquals( (int) lookup.convert( similarities[ i ] ), distances[ i ] );
+			// slope of sigmoid is at most 10000 * e, i.e. half a step changes the distance by less than 1
+			Assert.assertEquals( (int) sigmoid.convert( similarities[ i ] ), distances[ i ], 1 );
+		}
+		Assert.assertEquals( 1000000, distances[ 0 ] );
+		Assert.assertEquals( (int) sigmoid.convert( 0.0 ), distances[ 1 ] );
+		Assert.assertEquals( (int) sigmoid.convert( 1.0 ), distances[ 2 ] );
+		Assert.assertEquals( (int) sigmoid.convert( 1.5f ), distances[ 3 ] );
+		Assert.assertEquals( (int) sigmoid.convert( -0.25f ), distances[ 4 ] );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testEmptyInterval() {
+		new SimilarityToDistanceLookup( new SimilarityToDistanceSigmoid( 10000.0 ), 1.0, 1.0, 10 );
+	}
+
+}
@@ -0,0 +1,128 @@
+package org.janelia.sort.tsp.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs shell scripts in place of concorde, skipped on systems without /bin/sh.
+ */
+public class ConcordeRunnerTest {
+
+	private File directory;
+
+	private File problem;
+
+	private File solution;
+
+	@Before
+	public void setUp() throws IOException {
+		Assume.assumeTrue( new File( "/bin/sh" ).canExecute() );
+		directory = File.createTempFile( "concorde", "" );
+		directory.delete();
+		// spaces in paths must survive
+		directory = new File( directory.getAbsolutePath() + " with spaces" );
+		directory.mkdirs();
+		directory.deleteOnExit();
+		problem  = new File( directory, "tsp problem" );
+		solution = new File( directory, "tsp solution" );
+		problem.createNewFile();
+		problem.deleteOnExit();
+		solution.deleteOnExit();
+	}
+
+	private String createScript( final String... lines ) throws IOException {
+		final File script = new File( directory, "fake concorde" );
+		final PrintWriter writer = new PrintWriter( script );
+		try {
+			writer.println( "#!/bin/sh" );
+			for ( final String line : lines )
+				writer.println( line );
+		} finally {
+			writer.close();
+		}
+		script.setExecutable( true );
+		script.deleteOnExit();
+		return script.getAbsolutePath();
+	}
+
+	@Test
+	public void testSolve() throws Exception {
+		// arguments are -o <solution> <problem>, lots of output must not block the process
+		final String concorde = createScript(
+				"i=0; while [ $i -lt 20000 ]; do echo \"line $i\"; echo \"error $i\" >&2; i=$((i+1)); done",
+				"printf '4\\n0 3\\n1 2\\n' > \"$2\"" );
+		final int[] tour = new ConcordeRunner( concorde, directory, TimeUnit.MINUTES.toMillis( 1 ), null, new ArrayList< String >() )
+				.solve( problem, solution )
+				.get();
+		Assert.assertArrayEquals( new int[] { 0, 3, 1, 2 }, tour );
+	}
+
+	@Test
+	public void testTimeout() throws Exception {
+		final String concorde = createScript( "exec sleep 60" );
+		final long start = System.nanoTime();
+		final CompletableFuture< int[] > tour = new ConcordeRunner( concorde, directory, 200, null, new ArrayList< String >() ).solve( problem, solution );
+		try {
+			tour.get();
+			Assert.fail();
+		} catch ( final ExecutionException e ) {
+			Assert.assertTrue( e.getCause() instanceof TimeoutException );
+		}
+		Assert.assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 30 ) );
+	}
+
+	@Test
+	public void testFailure() throws Exception {
+		final String concorde = createScript( "echo 'cannot read problem'", "exit 3" );
+		try {
+			new ConcordeRunner( concorde, directory ).solve( problem, solution ).get();
+			Assert.fail();
+		} catch ( final ExecutionException e ) {
+			Assert.assertTrue( e.getCause() instanceof IOException );
+			Assert.assertTrue( e.getCause().getMessage().contains( "cannot read problem" ) );
+		}
+	}
+
+	private static boolean isAlive( final String pid ) throws IOException, InterruptedException {
+		// kill -0 only checks whether the process exists
+		return new ProcessBuilder( "/bin/sh", "-c", "kill -0 " + pid + " 2> /dev/null" ).start().waitFor() == 0;
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		final File pidFile = new File( directory, "concorde pid" );
+		pidFile.deleteOnExit();
+		// exec keeps the pid of the shell
+		final String concorde = createScript( "echo $$ > \"" + pidFile.getAbsolutePath() + "\"", "exec sleep 60" );
+		final CompletableFuture< int[] > tour = new ConcordeRunner( concorde, directory ).solve( problem, solution );
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos( 30 );
+		String pid = "";
+		while ( pid.isEmpty() && System.nanoTime() < deadline ) {
+			Thread.sleep( 10 );
+			if ( pidFile.exists() )
+				pid = new String( Files.readAllBytes( pidFile.toPath() ) ).trim();
+		}
+		Assert.assertFalse( pid.isEmpty() );
+		Assert.assertTrue( isAlive( pid ) );
+
+		Assert.assertTrue( tour.cancel( true ) );
+		Assert.assertTrue( tour.isCancelled() );
+		// killed processes are reaped in the background
+		while ( isAlive( pid ) && System.nanoTime() < deadline )
+			Thread.sleep( 10 );
+		Assert.assertFalse( isAlive( pid ) );
+	}
+
+}
@@ -0,0 +1,47 @@
+package org.janelia.sort.tsp.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+
+import org.janelia.similarity.BandedSimilarityMatrix;
+import org.janelia.sort.tsp.TSP;
+import org.janelia.sort.tsp.conversion.DataToWriterFullMatrixTSPLIB;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceInterface;
+import org.janelia.sort.tsp.conversion.SimilarityToDistanceSigmoid;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcordeTSPSolverTest {
+
+	@Test
+	public void testWrite() throws IOException {
+		final int n = 7;
+		final BandedSimilarityMatrix matrix = new BandedSimilarityMatrix( n, 3 );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = i; j < n && j < i + 3; ++j )
+				matrix.set( i, j, 1.0f / ( 1 + j - i ) );
+		final SimilarityToDistanceInterface similarityToDistance = new SimilarityToDistanceSigmoid( 10000.0, 0.0, 1000000 );
+
+		final File file = File.createTempFile( "problem", ".tsp" );
+		file.deleteOnExit();
+		ConcordeTSPSolver.write( TSP.createDistanceMatrix( matrix, similarityToDistance ), file );
+
+		// same problem as converted directly from the similarity matrix
+		final StringWriter reference = new StringWriter();
+		TSP.convertMatrix( matrix, new DataToWriterFullMatrixTSPLIB( reference ), similarityToDistance );
+		Assert.assertEquals( reference.toString(), new String( Files.readAllBytes( file.toPath() ) ) );
+	}
+
+	@Test( expected = IllegalArgumentException.class )
+	public void testWriteNonZeroDummy() throws IOException {
+		final FullDistanceMatrix distances = new FullDistanceMatrix( 3 );
+		distances.setDistance( 0, 2, 5 );
+		distances.setDistance( 2, 0, 5 );
+		final File file = File.createTempFile( "problem", ".tsp" );
+		file.deleteOnExit();
+		ConcordeTSPSolver.write( distances, file );
+	}
+
+}
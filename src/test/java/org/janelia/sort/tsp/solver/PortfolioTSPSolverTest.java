@@ -0,0 +1,124 @@
+package org.janelia.sort.tsp.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.janelia.sort.tsp.TSP;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PortfolioTSPSolverTest {
+
+	private static FullDistanceMatrix createRandomPoints( final int n, final long seed ) {
+		final Random rng = new Random( seed );
+		final double[] x = new double[ n ];
+		final double[] y = new double[ n ];
+		for ( int i = 0; i < n; ++i ) {
+			x[ i ] = 1000 * rng.nextDouble();
+			y[ i ] = 1000 * rng.nextDouble();
+		}
+		final FullDistanceMatrix distances = new FullDistanceMatrix( n );
+		for ( int i = 0; i < n; ++i )
+			for ( int j = 0; j < n; ++j )
+				distances.setDistance( i, j, (int)Math.round( Math.hypot( x[ i ] - x[ j ], y[ i ] - y[ j ] ) ) );
+		return distances;
+	}
+
+	private static int[] identity( final int n ) {
+		final int[] tour = new int[ n ];
+		for ( int i = 0; i < n; ++i )
+			tour[ i ] = i;
+		return tour;
+	}
+
+	/**
+	 * Returns the identity tour once interrupted.
+	 */
+	private static class WaitForInterruptSolver implements TSPSolverInterface {
+		@Override
+		public int[] solve( final DistanceMatrixInterface distances ) {
+			try {
+				Thread.sleep( 60000 );
+			} catch ( final InterruptedException e ) {
+				Thread.currentThread().interrupt();
+			}
+			return identity( distances.getNumberOfNodes() );
+		}
+	}
+
+	@Test
+	public void testBestOfSeeds() {
+		final FullDistanceMatrix distances = createRandomPoints( 200, 1 );
+		final int numberOfSeeds = 4;
+		final int[] tour = PortfolioTSPSolver.createLocalSearchPortfolio( numberOfSeeds, 2, 0 ).solve( distances );
+		Assert.assertTrue( PortfolioTSPSolver.isTour( tour, 200 ) );
+		Assert.assertEquals( 0, tour[ 0 ] );
+		final long length = TSP.tourLength( distances, tour );
+		long minLength = Long.MAX_VALUE;
+		for ( int i = 0; i < numberOfSeeds; ++i ) {
+			final long seedLength = TSP.tourLength( distances, new LocalSearchTSPSolver( LocalSearchTSPSolver.DEFAULT_SEED + i ).solve( distances ) );
+			Assert.assertTrue( length <= seedLength );
+			minLength = Math.min( minLength, seedLength );
+		}
+		Assert.assertEquals( minLength, length );
+	}
+
+	@Test
+	public void testTimeBudget() {
+		final FullDistanceMatrix distances = createRandomPoints( 20, 2 );
+		final ArrayList< TSPSolverInterface > solvers = new ArrayList< TSPSolverInterface >();
+		solvers.add( new WaitForInterruptSolver() );
+		solvers.add( new WaitForInterruptSolver() );
+		// never starts, there are two threads only
+		solvers.add( new WaitForInterruptSolver() );
+		final long start = System.currentTimeMillis();
+		final int[] tour = new PortfolioTSPSolver( solvers, 2, 200 ).solve( distances );
+		Assert.assertTrue( System.currentTimeMillis() - start < 10000 );
+		Assert.assertArrayEquals( identity( 20 ), tour );
+	}
+
+	@Test
+	public void testStopAfterExactSolver() {
+		final FullDistanceMatrix distances = createRandomPoints( 20, 3 );
+		final int[] optimal = new LocalSearchTSPSolver().solve( distances );
+		final ArrayList< TSPSolverInterface > solvers = new ArrayList< TSPSolverInterface >();
+		solvers.add( new WaitForInterruptSolver() );
+		solvers.add( new ExactTSPSolverInterface() {
+			@Override
+			public int[] solve( final DistanceMatrixInterface d ) {
+				return optimal.clone();
+			}
+		} );
+		final long start = System.currentTimeMillis();
+		final int[] tour = new PortfolioTSPSolver( solvers, 2, 0 ).solve( distances );
+		Assert.assertTrue( System.currentTimeMillis() - start < 10000 );
+		Assert.assertArrayEquals( optimal, tour );
+	}
+
+	@Test
+	public void testFailingSolver() {
+		final FullDistanceMatrix distances = createRandomPoints( 20, 4 );
+		final TSPSolverInterface failing = new TSPSolverInterface() {
+			@Override
+			public int[] solve( final DistanceMatrixInterface d ) {
+				throw new IllegalStateException();
+			}
+		};
+		final TSPSolverInterface invalid = new TSPSolverInterface() {
+			@Override
+			public int[] solve( final DistanceMatrixInterface d ) {
+				return new int[ d.getNumberOfNodes() ];
+			}
+		};
+		final int[] tour = new PortfolioTSPSolver( Arrays.asList( failing, invalid, new LocalSearchTSPSolver() ), 3, 0 ).solve( distances );
+		Assert.assertArrayEquals( new LocalSearchTSPSolver().solve( distances ), tour );
+		try {
+			new PortfolioTSPSolver( Arrays.asList( failing, invalid ), 2, 0 ).solve( distances );
+			Assert.fail( "Expected RuntimeException" );
+		} catch ( final RuntimeException e ) {
+			// no solver returned a valid tour
+		}
+	}
+
+}
@@ -0,0 +1,46 @@
+package org.janelia.sort.tsp.solver;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TourReaderTest {
+
+	@Test
+	public void testRead() throws IOException {
+		// concorde writes ten nodes per line, line breaks and spacing must not matter
+		final String solution = "12\n0 5 3 11 2 7 1 9 4 8\n  6\t10 \r\n";
+		Assert.assertArrayEquals(
+				new int[] { 0, 5, 3, 11, 2, 7, 1, 9, 4, 8, 6, 10 },
+				TourReader.read( new StringReader( solution ) ) );
+		Assert.assertArrayEquals( new int[ 0 ], TourReader.read( new StringReader( "0\n" ) ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testTruncated() throws IOException {
+		TourReader.read( new StringReader( "4\n0 2 1" ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testTooLong() throws IOException {
+		TourReader.read( new StringReader( "3\n0 2 1 3" ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testDuplicate() throws IOException {
+		TourReader.read( new StringReader( "3\n0 2 2" ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testMalformed() throws IOException {
+		TourReader.read( new StringReader( "3\n0 x 1" ) );
+	}
+
+	@Test( expected = IOException.class )
+	public void testEmpty() throws IOException {
+		TourReader.read( new StringReader( "" ) );
+	}
+
+}